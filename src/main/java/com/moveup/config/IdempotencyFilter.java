@@ -0,0 +1,208 @@
+package com.moveup.config;
+
+import com.moveup.service.IdempotencyService;
+import com.moveup.service.IdempotencyService.Claim;
+import com.moveup.service.IdempotencyService.StoredResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+import org.springframework.web.util.UrlPathHelper;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Supporto all'header Idempotency-Key per gli endpoint soggetti a retry dal mobile:
+ * creazione prenotazione, pagamento prenotazione e check-in QR.
+ *
+ * Gira dopo JwtRequestFilter, così la chiave è isolata per utente. Le richieste senza header
+ * passano invariate.
+ */
+@Component
+public class IdempotencyFilter extends OncePerRequestFilter {
+    
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+    
+    private static final int MAX_KEY_LENGTH = 255;
+    
+    private static final List<String> IDEMPOTENT_PATHS = List.of(
+        "/api/bookings",
+        "/api/bookings/*/payment",
+        "/api/bookings/*/validate",
+        "/api/v1/qr/validate/checkin"
+    );
+    
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+    
+    @Autowired
+    private IdempotencyService idempotencyService;
+    
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!"POST".equalsIgnoreCase(request.getMethod()) || request.getHeader(IDEMPOTENCY_KEY_HEADER) == null) {
+            return true;
+        }
+        String path = urlPathHelper.getPathWithinApplication(request);
+        return IDEMPOTENT_PATHS.stream().noneMatch(pattern -> pathMatcher.match(pattern, path));
+    }
+    
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+            FilterChain chain) throws ServletException, IOException {
+        
+        String key = request.getHeader(IDEMPOTENCY_KEY_HEADER).trim();
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            writeError(response, HttpStatus.BAD_REQUEST, "Idempotency-Key non valida");
+            return;
+        }
+        
+        CachedBodyRequest cachedRequest = new CachedBodyRequest(request);
+        String path = urlPathHelper.getPathWithinApplication(request);
+        String fingerprint = fingerprint(request.getMethod(), path, cachedRequest.body);
+        
+        Object userId = request.getAttribute("userId");
+        String scope = userId != null ? userId.toString() : "anonymous";
+        
+        Claim claim = idempotencyService.begin(scope, key, fingerprint);
+        switch (claim.getOutcome()) {
+            case REPLAY:
+                replay(response, claim.getResponse());
+                return;
+            case MISMATCH:
+                writeError(response, HttpStatus.UNPROCESSABLE_ENTITY,
+                    "Idempotency-Key già utilizzata per una richiesta diversa");
+                return;
+            case IN_PROGRESS:
+                writeError(response, HttpStatus.CONFLICT,
+                    "Una richiesta con la stessa Idempotency-Key è ancora in elaborazione");
+                return;
+            case UNKNOWN:
+                writeError(response, HttpStatus.CONFLICT,
+                    "La richiesta con questa Idempotency-Key è già stata eseguita ma l'esito non è disponibile");
+                return;
+            default:
+                break;
+        }
+        
+        ContentCachingResponseWrapper cachedResponse = new ContentCachingResponseWrapper(response);
+        try {
+            chain.doFilter(cachedRequest, cachedResponse);
+        } catch (ServletException | IOException | RuntimeException e) {
+            idempotencyService.abandon(claim.getId());
+            throw e;
+        }
+        
+        int status = cachedResponse.getStatus();
+        if (status >= 500) {
+            // Errori server non vengono memorizzati: il retry deve poter rieseguire
+            idempotencyService.abandon(claim.getId());
+        } else {
+            String body = new String(cachedResponse.getContentAsByteArray(), StandardCharsets.UTF_8);
+            idempotencyService.complete(claim.getId(), fingerprint, status, cachedResponse.getContentType(), body);
+        }
+        cachedResponse.copyBodyToResponse();
+    }
+    
+    // Helper methods
+    
+    private void replay(HttpServletResponse response, StoredResponse stored) throws IOException {
+        response.setStatus(stored.getStatus());
+        if (stored.getContentType() != null) {
+            response.setContentType(stored.getContentType());
+        }
+        response.setHeader(REPLAYED_HEADER, "true");
+        if (stored.getBody() != null) {
+            byte[] body = stored.getBody().getBytes(StandardCharsets.UTF_8);
+            response.setContentLength(body.length);
+            response.getOutputStream().write(body);
+        }
+    }
+    
+    private void writeError(HttpServletResponse response, HttpStatus status, String message) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write("{\"error\":\"" + message + "\"}");
+    }
+    
+    private String fingerprint(String method, String path, byte[] body) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((method + " " + path + "\n").getBytes(StandardCharsets.UTF_8));
+            digest.update(body);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    /**
+     * Request con body letto una volta e rileggibile (serve per l'impronta e per il controller)
+     */
+    private static class CachedBodyRequest extends HttpServletRequestWrapper {
+        private final byte[] body;
+        
+        CachedBodyRequest(HttpServletRequest request) throws IOException {
+            super(request);
+            this.body = StreamUtils.copyToByteArray(request.getInputStream());
+        }
+        
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream input = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public boolean isFinished() { return input.available() == 0; }
+                
+                @Override
+                public boolean isReady() { return true; }
+                
+                @Override
+                public void setReadListener(ReadListener listener) {
+                    // Body già in memoria: tutto è leggibile subito
+                    try {
+                        if (!isFinished()) {
+                            listener.onDataAvailable();
+                        }
+                        listener.onAllDataRead();
+                    } catch (IOException e) {
+                        listener.onError(e);
+                    }
+                }
+                
+                @Override
+                public int read() { return input.read(); }
+                
+                @Override
+                public int read(byte[] b, int off, int len) { return input.read(b, off, len); }
+            };
+        }
+        
+        @Override
+        public BufferedReader getReader() {
+            String encoding = getCharacterEncoding() != null ? getCharacterEncoding() : StandardCharsets.UTF_8.name();
+            return new BufferedReader(new InputStreamReader(getInputStream(), java.nio.charset.Charset.forName(encoding)));
+        }
+    }
+}
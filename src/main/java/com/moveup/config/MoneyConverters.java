@@ -0,0 +1,47 @@
+package com.moveup.config;
+
+import com.moveup.model.Money;
+import org.bson.Document;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.data.convert.WritingConverter;
+
+import java.util.List;
+
+/**
+ * Conversione Mongo di Money: { cents: long, currency: "EUR" }.
+ * I documenti non ancora migrati hanno gli importi come double in euro e vengono letti comunque.
+ */
+public final class MoneyConverters {
+    
+    private MoneyConverters() {}
+    
+    public static List<Converter<?, ?>> all() {
+        return List.of(new MoneyWriter(), new MoneyReader(), new LegacyDoubleReader());
+    }
+    
+    @WritingConverter
+    static class MoneyWriter implements Converter<Money, Document> {
+        @Override
+        public Document convert(Money source) {
+            return new Document("cents", source.getCents()).append("currency", source.getCurrency());
+        }
+    }
+    
+    @ReadingConverter
+    static class MoneyReader implements Converter<Document, Money> {
+        @Override
+        public Money convert(Document source) {
+            Number cents = source.get("cents", Number.class);
+            return Money.ofCents(cents != null ? cents.longValue() : 0L, source.getString("currency"));
+        }
+    }
+    
+    @ReadingConverter
+    static class LegacyDoubleReader implements Converter<Double, Money> {
+        @Override
+        public Money convert(Double source) {
+            return Money.ofDecimal(source);
+        }
+    }
+}
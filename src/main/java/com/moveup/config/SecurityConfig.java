@@ -50,6 +50,7 @@ public class SecurityConfig {
                         .requestMatchers(HttpMethod.POST, "/api/auth/register", "/api/auth/login").permitAll()
                         .requestMatchers(HttpMethod.GET, "/api/sports/**", "/api/lessons/search", "/api/reviews/instructor/**").permitAll()
                         .requestMatchers("/api/payments/webhook").permitAll()
+                        .requestMatchers(HttpMethod.GET, "/api/calendar/feeds/*").permitAll() // token segreto nell'URL
                         .requestMatchers("/v3/api-docs/**", "/swagger-ui/**", "/swagger-ui.html").permitAll()
                         
                         // User endpoints
@@ -65,6 +66,7 @@ public class SecurityConfig {
                         .requestMatchers("/api/bookings/**").hasAnyRole("USER", "INSTRUCTOR")
                         
                         // Payment endpoints
+                        .requestMatchers("/api/payments/reconciliation/**").hasRole("ADMIN")
                         .requestMatchers("/api/payments/**").hasAnyRole("USER", "INSTRUCTOR")
                         
                         // Reviews (users can create, instructors can respond)
@@ -72,6 +74,9 @@ public class SecurityConfig {
                         .requestMatchers(HttpMethod.POST, "/api/reviews/*/response").hasRole("INSTRUCTOR")
                         
                         // Notifications and badges
+                        .requestMatchers(HttpMethod.DELETE, "/api/badges/user/**").hasRole("ADMIN")
+                        .requestMatchers(HttpMethod.GET, "/api/badges/*/statistics").hasRole("ADMIN")
+                        .requestMatchers("/api/notifications/broadcast/**").hasRole("ADMIN")
                         .requestMatchers("/api/notifications/**", "/api/badges/user/**", "/api/badges/check/**").hasAnyRole("USER", "INSTRUCTOR")
                         
                         // Admin endpoints (if needed)
@@ -60,6 +60,30 @@ public class BadgeController {
         }
     }
     
+    @DeleteMapping("/user/{userId}/award/{badgeId}")
+    public ResponseEntity<Map<String, String>> revokeBadge(@PathVariable String userId, @PathVariable String badgeId) {
+        try {
+            badgeService.revokeBadgeFromUser(userId, badgeId);
+            return ResponseEntity.ok(Map.of("message", "Badge revocato con successo"));
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+    
+    @GetMapping("/rarity")
+    public ResponseEntity<Map<String, Double>> getBadgeRarity() {
+        return ResponseEntity.ok(badgeService.getBadgeRarity());
+    }
+    
+    @GetMapping("/{badgeId}/statistics")
+    public ResponseEntity<?> getBadgeStatistics(@PathVariable String badgeId) {
+        try {
+            return ResponseEntity.ok(badgeService.getBadgeStatistics(badgeId));
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+    
     @GetMapping("/check/{userId}")
     public ResponseEntity<List<Badge>> checkAndAwardBadges(@PathVariable String userId) {
         List<Badge> newBadges = badgeService.checkAndAwardBadges(userId);
@@ -0,0 +1,144 @@
+package com.moveup.controller;
+
+import com.moveup.model.Instructor;
+import com.moveup.repository.InstructorRepository;
+import com.moveup.service.CalendarFeedService;
+import com.moveup.service.CalendarFeedService.FeedOwner;
+import com.moveup.service.CalendarFeedService.FeedVersion;
+import com.moveup.service.CalendarFeedService.OwnerType;
+import com.moveup.util.SecurityUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Feed ICS sottoscrivibili da Calendario iOS / Google Calendar.
+ *
+ * I client calendario non inviano JWT: si sottoscrivono a /api/calendar/feeds/{token}.ics, dove il
+ * token segreto viene rilasciato al proprietario autenticato da feed-url. Il controllo
+ * If-None-Match / If-Modified-Since avviene prima di leggere le prenotazioni.
+ */
+@RestController
+@RequestMapping("/api/calendar")
+@CrossOrigin(origins = "*")
+public class CalendarController {
+    
+    private static final MediaType TEXT_CALENDAR = new MediaType("text", "calendar", StandardCharsets.UTF_8);
+    
+    @Autowired
+    private CalendarFeedService calendarFeedService;
+    
+    @Autowired
+    private InstructorRepository instructorRepository;
+    
+    // Subscription feed (public, authenticated by the secret token)
+    @GetMapping("/feeds/{token}.ics")
+    public ResponseEntity<String> getFeedByToken(@PathVariable String token, WebRequest request) {
+        Optional<FeedOwner> owner = calendarFeedService.findByToken(token);
+        if (owner.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        return feed(owner.get().getType(), owner.get().getOwnerId(), owner.get().getVersion(), request);
+    }
+    
+    // User bookings feed (in-app, JWT)
+    @GetMapping("/user/{userId}/bookings.ics")
+    public ResponseEntity<String> getUserFeed(@PathVariable String userId, WebRequest request) {
+        if (!isOwner(OwnerType.USER, userId)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return feed(OwnerType.USER, userId, calendarFeedService.getVersion(OwnerType.USER, userId), request);
+    }
+    
+    // Instructor lessons feed (in-app, JWT)
+    @GetMapping("/instructor/{instructorId}/bookings.ics")
+    public ResponseEntity<String> getInstructorFeed(@PathVariable String instructorId, WebRequest request) {
+        if (!isOwner(OwnerType.INSTRUCTOR, instructorId)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return feed(OwnerType.INSTRUCTOR, instructorId, calendarFeedService.getVersion(OwnerType.INSTRUCTOR, instructorId), request);
+    }
+    
+    // Subscription URLs
+    @GetMapping("/user/{userId}/feed-url")
+    public ResponseEntity<Map<String, String>> getUserFeedUrl(@PathVariable String userId) {
+        return feedUrl(OwnerType.USER, userId, false);
+    }
+    
+    @PostMapping("/user/{userId}/feed-url/rotate")
+    public ResponseEntity<Map<String, String>> rotateUserFeedUrl(@PathVariable String userId) {
+        return feedUrl(OwnerType.USER, userId, true);
+    }
+    
+    @GetMapping("/instructor/{instructorId}/feed-url")
+    public ResponseEntity<Map<String, String>> getInstructorFeedUrl(@PathVariable String instructorId) {
+        return feedUrl(OwnerType.INSTRUCTOR, instructorId, false);
+    }
+    
+    @PostMapping("/instructor/{instructorId}/feed-url/rotate")
+    public ResponseEntity<Map<String, String>> rotateInstructorFeedUrl(@PathVariable String instructorId) {
+        return feedUrl(OwnerType.INSTRUCTOR, instructorId, true);
+    }
+    
+    // Helper methods
+    
+    private ResponseEntity<Map<String, String>> feedUrl(OwnerType type, String ownerId, boolean rotate) {
+        if (!isOwner(type, ownerId)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        String token = rotate
+                ? calendarFeedService.rotateFeedToken(type, ownerId)
+                : calendarFeedService.getFeedToken(type, ownerId);
+        String url = ServletUriComponentsBuilder.fromCurrentContextPath()
+                .path("/api/calendar/feeds/{token}.ics")
+                .buildAndExpand(token)
+                .toUriString();
+        return ResponseEntity.ok(Map.of(
+                "url", url,
+                "webcalUrl", url.replaceFirst("^https?://", "webcal://")
+        ));
+    }
+    
+    private ResponseEntity<String> feed(OwnerType type, String ownerId, FeedVersion version, WebRequest request) {
+        String etag = calendarFeedService.getETag(version);
+        
+        // Imposta già ETag/Last-Modified e lo status 304 quando il client è aggiornato
+        if (request.checkNotModified(etag, version.getLastModified())) {
+            return null;
+        }
+        
+        return ResponseEntity.ok()
+                .contentType(TEXT_CALENDAR)
+                .eTag(etag)
+                .lastModified(version.getLastModified())
+                .cacheControl(CacheControl.noCache())
+                .body(calendarFeedService.renderFeed(type, ownerId, version));
+    }
+    
+    // Il feed è del chiamante (per gli istruttori: id istruttore o utente collegato), o il chiamante è admin
+    private boolean isOwner(OwnerType type, String ownerId) {
+        if (SecurityUtil.hasRole("ADMIN")) {
+            return true;
+        }
+        String currentUserId = SecurityUtil.getCurrentUserId();
+        if (currentUserId == null) {
+            return false;
+        }
+        if (currentUserId.equals(ownerId)) {
+            return true;
+        }
+        return type == OwnerType.INSTRUCTOR && instructorRepository.findById(ownerId)
+                .map(Instructor::getUserId)
+                .filter(currentUserId::equals)
+                .isPresent();
+    }
+}
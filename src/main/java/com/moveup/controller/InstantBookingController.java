@@ -1,5 +1,7 @@
 package com.moveup.controller;
 
+import com.moveup.model.AvailabilityBitmap;
+import com.moveup.service.AvailabilityCalendarService;
 import com.moveup.service.InstructorAvailabilityService;
 import com.moveup.service.InstructorAvailabilityService.InstantBookingResult;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -7,7 +9,9 @@ import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -19,6 +23,9 @@ public class InstantBookingController {
     @Autowired
     private InstructorAvailabilityService availabilityService;
     
+    @Autowired
+    private AvailabilityCalendarService availabilityCalendarService;
+    
     /**
      * INSTANT BOOKING: Trova trainer disponibili ORA nelle prossime 2 ore
      * Stile "Uber for Sports"
@@ -97,6 +104,39 @@ public class InstantBookingController {
         }
     }
     
+    /**
+     * Fasce libere in comune tra più trainer (lezioni di gruppo / co-training)
+     * 
+     * GET /api/instant-booking/common-slots?instructorIds=a,b,c&date=2025-10-14
+     */
+    @GetMapping("/common-slots")
+    public ResponseEntity<Map<String, Object>> findCommonSlots(
+            @RequestParam List<String> instructorIds,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date
+    ) {
+        try {
+            AvailabilityBitmap common = availabilityCalendarService.getCommonFreeSlots(instructorIds, date);
+            
+            List<String> freeSlots = new ArrayList<>();
+            for (int cell = 0; cell < AvailabilityBitmap.SLOTS_PER_DAY; cell++) {
+                if (common.isFree(cell)) {
+                    freeSlots.add(AvailabilityBitmap.timeOf(cell).toString());
+                }
+            }
+            
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "date", date,
+                "slotMinutes", AvailabilityBitmap.SLOT_MINUTES,
+                "freeSlots", freeSlots
+            ));
+            
+        } catch (Exception e) {
+            return ResponseEntity.badRequest()
+                .body(Map.of("error", e.getMessage()));
+        }
+    }
+    
     /**
      * Quick stats per la home "X trainer disponibili ora vicino a te"
      */
@@ -1,6 +1,7 @@
 package com.moveup.controller;
 
 import com.moveup.model.Notification;
+import com.moveup.model.NotificationPriority;
 import com.moveup.service.NotificationService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -51,6 +52,29 @@ public class NotificationController {
         return ResponseEntity.ok(Map.of("count", count));
     }
     
+    // Broadcast to all active users of a city (admin)
+    @PostMapping("/broadcast/city/{city}")
+    public ResponseEntity<Map<String, Object>> broadcastToCity(@PathVariable String city,
+                                                               @RequestBody Map<String, String> request) {
+        try {
+            String title = request.get("title");
+            if (title == null || title.isBlank()) {
+                throw new RuntimeException("Titolo obbligatorio");
+            }
+            String priority = request.get("priority");
+            long sent = notificationService.broadcastToCity(
+                city,
+                title,
+                request.get("message"),
+                request.getOrDefault("type", "SYSTEM_UPDATE"),
+                priority != null ? NotificationPriority.valueOf(priority) : null
+            );
+            return ResponseEntity.ok(Map.of("message", "Notifica inviata", "recipients", sent));
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+    
     @DeleteMapping("/{notificationId}")
     public ResponseEntity<Map<String, String>> deleteNotification(@PathVariable String notificationId) {
         try {
@@ -1,6 +1,8 @@
 package com.moveup.controller;
 
 import com.moveup.model.Payment;
+import com.moveup.model.ReconciliationReport;
+import com.moveup.service.PaymentReconciliationService;
 import com.moveup.service.PaymentService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -8,6 +10,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import jakarta.validation.Valid;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 
@@ -19,6 +22,9 @@ public class PaymentController {
     @Autowired
     private PaymentService paymentService;
     
+    @Autowired
+    private PaymentReconciliationService reconciliationService;
+    
     @PostMapping
     public ResponseEntity<Map<String, Object>> createPayment(@Valid @RequestBody Payment payment) {
         try {
@@ -60,6 +66,31 @@ public class PaymentController {
         }
     }
     
+    /**
+     * Avvia la riconciliazione di un export Stripe presente nella directory di import.
+     * Body: { "fileName": "...", "from": "2024-01-01T00:00:00", "to": "2024-02-01T00:00:00" }
+     */
+    @PostMapping("/reconciliation")
+    public ResponseEntity<Map<String, Object>> startReconciliation(@RequestBody Map<String, String> request) {
+        try {
+            LocalDateTime from = request.get("from") != null ? LocalDateTime.parse(request.get("from")) : null;
+            LocalDateTime to = request.get("to") != null ? LocalDateTime.parse(request.get("to")) : null;
+            ReconciliationReport report = reconciliationService.startReconciliation(request.get("fileName"), from, to);
+            reconciliationService.runReconciliation(report.getId());
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .body(Map.of("message", "Riconciliazione avviata", "report", report));
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+    
+    @GetMapping("/reconciliation/{reportId}")
+    public ResponseEntity<ReconciliationReport> getReconciliation(@PathVariable String reportId) {
+        return reconciliationService.getReport(reportId)
+                .map(report -> ResponseEntity.ok(report))
+                .orElse(ResponseEntity.notFound().build());
+    }
+    
     @PostMapping("/webhook")
     public ResponseEntity<String> handleWebhook(@RequestBody String payload, @RequestHeader("Stripe-Signature") String sigHeader) {
         try {
@@ -171,4 +171,25 @@ public class PointsController {
                 .body(Map.of("error", e.getMessage()));
         }
     }
+    
+    /**
+     * Ultimi movimenti punti dell'utente
+     * GET /api/points/history?userId=123&limit=50
+     */
+    @GetMapping("/history")
+    public ResponseEntity<Map<String, Object>> getPointsHistory(
+            @RequestParam String userId,
+            @RequestParam(defaultValue = "50") int limit
+    ) {
+        try {
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "events", pointsService.getPointsHistory(userId, limit)
+            ));
+            
+        } catch (Exception e) {
+            return ResponseEntity.badRequest()
+                .body(Map.of("error", e.getMessage()));
+        }
+    }
 }
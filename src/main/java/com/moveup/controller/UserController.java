@@ -125,6 +125,27 @@ public class UserController {
         return ResponseEntity.ok(users);
     }
     
+    // Register device push token
+    @PutMapping("/{userId}/push-tokens")
+    public ResponseEntity<Map<String, String>> registerPushToken(@PathVariable String userId,
+                                                                 @RequestBody Map<String, String> request) {
+        try {
+            userService.registerPushToken(userId, request.get("token"));
+            return ResponseEntity.ok(Map.of("message", "Dispositivo registrato per le notifiche"));
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
+    
+    // Remove device push token
+    @DeleteMapping("/{userId}/push-tokens")
+    public ResponseEntity<Map<String, String>> removePushToken(@PathVariable String userId,
+                                                               @RequestParam String token) {
+        userService.removePushToken(userId, token);
+        return ResponseEntity.ok(Map.of("message", "Dispositivo rimosso"));
+    }
+    
     // Deactivate user account
     @PostMapping("/{userId}/deactivate")
     public ResponseEntity<Map<String, String>> deactivateUser(@PathVariable String userId) {
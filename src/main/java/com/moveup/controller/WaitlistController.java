@@ -0,0 +1,140 @@
+package com.moveup.controller;
+
+import com.moveup.model.Booking;
+import com.moveup.model.WaitlistEntry;
+import com.moveup.service.BookingService;
+import com.moveup.service.WaitlistService;
+import com.moveup.util.SecurityUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/waitlist")
+@CrossOrigin(origins = "*")
+public class WaitlistController {
+    
+    private static final String FORBIDDEN_MESSAGE = "Operazione non consentita per questo utente";
+    
+    @Autowired
+    private WaitlistService waitlistService;
+    
+    @Autowired
+    private BookingService bookingService;
+    
+    // Join waitlist for a booked slot
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> joinWaitlist(@RequestBody Map<String, String> request) {
+        String userId = resolveUserId(request.get("userId"));
+        if (userId == null) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", FORBIDDEN_MESSAGE));
+        }
+        try {
+            WaitlistEntry entry = waitlistService.joinWaitlist(
+                userId,
+                request.get("lessonId"),
+                request.get("instructorId"),
+                LocalDateTime.parse(request.get("scheduledDate")),
+                LocalTime.parse(request.get("scheduledTime"))
+            );
+            return ResponseEntity.status(HttpStatus.CREATED)
+                    .body(Map.of(
+                        "message", "Aggiunto alla lista d'attesa",
+                        "entry", entry
+                    ));
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
+    
+    // Get waitlist entries for user
+    @GetMapping("/user/{userId}")
+    public ResponseEntity<List<WaitlistEntry>> getEntriesForUser(@PathVariable String userId) {
+        if (resolveUserId(userId) == null) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok(waitlistService.getEntriesForUser(userId));
+    }
+    
+    // Count users waiting for a slot
+    @GetMapping("/count")
+    public ResponseEntity<Map<String, Object>> countWaiting(
+            @RequestParam String instructorId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime scheduledDate,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.TIME) LocalTime scheduledTime) {
+        long waiting = waitlistService.countWaiting(instructorId, scheduledDate, scheduledTime);
+        return ResponseEntity.ok(Map.of("waiting", waiting));
+    }
+    
+    // Accept offer: creates the booking
+    @PostMapping("/{entryId}/accept")
+    public ResponseEntity<Map<String, Object>> acceptOffer(@PathVariable String entryId,
+                                                           @RequestParam(required = false) String userId) {
+        String actingUserId = resolveUserId(userId);
+        if (actingUserId == null) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", FORBIDDEN_MESSAGE));
+        }
+        try {
+            Booking booking = bookingService.createBookingFromWaitlist(entryId, actingUserId);
+            return ResponseEntity.status(HttpStatus.CREATED)
+                    .body(Map.of(
+                        "message", "Prenotazione creata dalla lista d'attesa",
+                        "booking", booking
+                    ));
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
+    
+    // Decline offer: slot goes to next user
+    @PostMapping("/{entryId}/decline")
+    public ResponseEntity<Map<String, String>> declineOffer(@PathVariable String entryId,
+                                                            @RequestParam(required = false) String userId) {
+        String actingUserId = resolveUserId(userId);
+        if (actingUserId == null) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", FORBIDDEN_MESSAGE));
+        }
+        try {
+            waitlistService.declineOffer(entryId, actingUserId);
+            return ResponseEntity.ok(Map.of("message", "Offerta rifiutata"));
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
+    
+    // Leave waitlist
+    @DeleteMapping("/{entryId}")
+    public ResponseEntity<Map<String, String>> leaveWaitlist(@PathVariable String entryId,
+                                                             @RequestParam(required = false) String userId) {
+        String actingUserId = resolveUserId(userId);
+        if (actingUserId == null) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", FORBIDDEN_MESSAGE));
+        }
+        try {
+            waitlistService.leaveWaitlist(entryId, actingUserId);
+            return ResponseEntity.ok(Map.of("message", "Rimosso dalla lista d'attesa"));
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
+    
+    // Utente su cui si opera: il chiamante; un id diverso solo per gli admin. null se non consentito
+    private String resolveUserId(String requestedUserId) {
+        String currentUserId = SecurityUtil.getCurrentUserId();
+        if (requestedUserId == null || requestedUserId.equals(currentUserId)) {
+            return currentUserId;
+        }
+        return SecurityUtil.hasRole("ADMIN") ? requestedUserId : null;
+    }
+}
@@ -1,13 +1,30 @@
 package com.moveup.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moveup.model.Money;
 import com.moveup.model.Transaction;
 import com.moveup.model.Wallet;
+import com.moveup.service.TransactionExportService;
+import com.moveup.service.TransactionExportService.ExportFormat;
 import com.moveup.service.WalletService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -17,9 +34,20 @@ import java.util.Map;
 @CrossOrigin(origins = "*")
 public class WalletController {
     
+    private static final Logger logger = LoggerFactory.getLogger(WalletController.class);
+    
     @Autowired
     private WalletService walletService;
     
+    @Autowired
+    private TransactionExportService transactionExportService;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    @Value("${app.wallet.export.timeout-ms:600000}")
+    private long exportTimeoutMs;
+    
     /**
      * GET /api/wallet
      * Get wallet info for authenticated user
@@ -61,13 +89,13 @@ public class WalletController {
     @GetMapping("/balance")
     public ResponseEntity<Map<String, Object>> getBalance(@RequestParam String userId) {
         try {
-            Double balance = walletService.getBalance(userId);
+            Money balance = walletService.getBalance(userId);
             Wallet wallet = walletService.getWalletByUserId(userId);
             
             return ResponseEntity.ok(Map.of(
                 "balance", balance,
                 "currency", wallet.getCurrency(),
-                "formatted", String.format("€%.2f", balance)
+                "formatted", "€" + balance.toPlainString()
             ));
         } catch (RuntimeException e) {
             return ResponseEntity.badRequest()
@@ -102,6 +130,56 @@ public class WalletController {
         }
     }
     
+    /**
+     * GET /api/wallet/transactions/export
+     * Export movimenti in CSV o NDJSON (es. riepilogo guadagni di fine anno), in streaming.
+     * from e to sono date incluse; gzip=true comprime la risposta
+     */
+    @GetMapping("/transactions/export")
+    public ResponseEntity<StreamingResponseBody> exportTransactions(
+            @RequestParam String userId,
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(defaultValue = "false") boolean gzip,
+            HttpServletRequest request,
+            HttpServletResponse servletResponse
+    ) {
+        try {
+            // Errori di validazione prima di iniziare lo stream, quando si può ancora rispondere 400
+            ExportFormat exportFormat = ExportFormat.from(format);
+            Wallet wallet = walletService.getWalletByUserId(userId);
+            LocalDateTime start = from != null ? from.atStartOfDay() : null;
+            LocalDateTime end = to != null ? to.plusDays(1).atStartOfDay() : null;
+            
+            // Timeout async solo per l'export: gli altri endpoint restano col default del container
+            AsyncWebRequest asyncRequest = WebAsyncUtils.createAsyncWebRequest(request, servletResponse);
+            asyncRequest.setTimeout(exportTimeoutMs);
+            WebAsyncUtils.getAsyncManager(request).setAsyncWebRequest(asyncRequest);
+            
+            StreamingResponseBody body = out -> {
+                long count = transactionExportService.export(wallet.getId(), exportFormat, start, end, gzip, out);
+                logger.info("Exported {} transactions for wallet {} as {}", count, wallet.getId(), exportFormat);
+            };
+            
+            String fileName = "transactions-" + (from != null ? from : "start") + "-" + (to != null ? to : "today")
+                + "." + exportFormat.getExtension();
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(exportFormat.getContentType() + ";charset=UTF-8"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"");
+            if (gzip) {
+                response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+            }
+            return response.body(body);
+        } catch (RuntimeException e) {
+            // Il tipo di ritorno deve restare StreamingResponseBody anche per l'errore
+            String message = e.getMessage();
+            return ResponseEntity.badRequest()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(out -> objectMapper.writeValue(out, Map.of("error", message)));
+        }
+    }
+    
     /**
      * GET /api/wallet/stats
      * Get wallet statistics
@@ -110,7 +188,7 @@ public class WalletController {
     public ResponseEntity<Map<String, Object>> getStats(@RequestParam String userId) {
         try {
             Wallet wallet = walletService.getWalletByUserId(userId);
-            Double totalEarnings = walletService.calculateTotalEarnings(userId);
+            Money totalEarnings = walletService.calculateTotalEarnings(userId);
             
             Map<String, Object> stats = new HashMap<>();
             stats.put("balance", wallet.getBalance());
@@ -133,20 +211,20 @@ public class WalletController {
      */
     @PostMapping("/calculate-fee")
     public ResponseEntity<Map<String, Object>> calculateFee(@RequestBody Map<String, Double> request) {
-        Double grossAmount = request.get("grossAmount");
+        Money grossAmount = Money.ofDecimal(request.get("grossAmount"));
         
-        Double platformFee = walletService.calculatePlatformFee(grossAmount);
-        Double netAmount = walletService.calculateNetAmount(grossAmount);
-        Double feePercentage = grossAmount > 0 ? (platformFee / grossAmount) * 100 : 0;
+        Money platformFee = walletService.calculatePlatformFee(grossAmount);
+        Money netAmount = walletService.calculateNetAmount(grossAmount);
+        double feePercentage = grossAmount.isPositive() ? (platformFee.getCents() * 100.0) / grossAmount.getCents() : 0;
         
         Map<String, Object> breakdown = new HashMap<>();
         breakdown.put("grossAmount", grossAmount);
         breakdown.put("platformFee", platformFee);
         breakdown.put("netAmount", netAmount);
         breakdown.put("feePercentage", feePercentage);
-        breakdown.put("formattedGross", String.format("€%.2f", grossAmount));
-        breakdown.put("formattedFee", String.format("€%.2f", platformFee));
-        breakdown.put("formattedNet", String.format("€%.2f", netAmount));
+        breakdown.put("formattedGross", "€" + grossAmount.toPlainString());
+        breakdown.put("formattedFee", "€" + platformFee.toPlainString());
+        breakdown.put("formattedNet", "€" + netAmount.toPlainString());
         
         return ResponseEntity.ok(breakdown);
     }
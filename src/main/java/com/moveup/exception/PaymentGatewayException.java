@@ -0,0 +1,28 @@
+package com.moveup.exception;
+
+/**
+ * Stripe non raggiungibile o protetto dal gateway (circuito aperto, coda piena, timeout)
+ */
+public class PaymentGatewayException extends RuntimeException {
+    
+    public static final String CIRCUIT_OPEN = "CIRCUIT_OPEN";
+    public static final String BULKHEAD_FULL = "BULKHEAD_FULL";
+    public static final String TIMEOUT = "TIMEOUT";
+    public static final String INTERRUPTED = "INTERRUPTED";
+    
+    private final String errorCode;
+    
+    public PaymentGatewayException(String errorCode, String message) {
+        super(message);
+        this.errorCode = errorCode;
+    }
+    
+    public PaymentGatewayException(String errorCode, String message, Throwable cause) {
+        super(message, cause);
+        this.errorCode = errorCode;
+    }
+    
+    public String getErrorCode() {
+        return errorCode;
+    }
+}
@@ -0,0 +1,35 @@
+package com.moveup.model;
+
+import java.time.LocalTime;
+
+/**
+ * Fascia settimanale di disponibilità dell'istruttore (Instructor.availability)
+ */
+class Availability {
+    private WeekDay dayOfWeek;
+    private LocalTime startTime;
+    private LocalTime endTime;
+    private boolean isAvailable = true;
+    
+    // Constructors
+    public Availability() {}
+    
+    public Availability(WeekDay dayOfWeek, LocalTime startTime, LocalTime endTime) {
+        this.dayOfWeek = dayOfWeek;
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+    
+    // Getters and Setters
+    public WeekDay getDayOfWeek() { return dayOfWeek; }
+    public void setDayOfWeek(WeekDay dayOfWeek) { this.dayOfWeek = dayOfWeek; }
+    
+    public LocalTime getStartTime() { return startTime; }
+    public void setStartTime(LocalTime startTime) { this.startTime = startTime; }
+    
+    public LocalTime getEndTime() { return endTime; }
+    public void setEndTime(LocalTime endTime) { this.endTime = endTime; }
+    
+    public boolean isAvailable() { return isAvailable; }
+    public void setAvailable(boolean available) { isAvailable = available; }
+}
@@ -0,0 +1,229 @@
+package com.moveup.model;
+
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.util.List;
+
+/**
+ * Bitmap compatta della disponibilità giornaliera di un istruttore.
+ *
+ * La giornata è divisa in 96 celle da 15 minuti (00:00 - 24:00) memorizzate
+ * in due long: bit a 1 = cella libera. Le istanze sono immutabili, quindi
+ * possono essere condivise tra thread e combinate (AND) senza copie difensive.
+ */
+public final class AvailabilityBitmap {
+    
+    public static final int SLOT_MINUTES = 15;
+    public static final int SLOTS_PER_DAY = 96;
+    
+    private static final long HIGH_WORD_MASK = (1L << (SLOTS_PER_DAY - 64)) - 1;
+    
+    private static final AvailabilityBitmap EMPTY = new AvailabilityBitmap(0L, 0L);
+    private static final AvailabilityBitmap FULL = new AvailabilityBitmap(-1L, HIGH_WORD_MASK);
+    
+    private final long low;   // celle 0-63
+    private final long high;  // celle 64-95
+    
+    private AvailabilityBitmap(long low, long high) {
+        this.low = low;
+        this.high = high & HIGH_WORD_MASK;
+    }
+    
+    public static AvailabilityBitmap empty() {
+        return EMPTY;
+    }
+    
+    public static AvailabilityBitmap full() {
+        return FULL;
+    }
+    
+    /**
+     * Materializza le fasce settimanali dell'istruttore per il giorno indicato.
+     * Un istruttore senza alcuna fascia configurata è considerato sempre disponibile.
+     */
+    public static AvailabilityBitmap fromWeeklyAvailability(Instructor instructor, DayOfWeek day) {
+        List<Availability> windows = instructor.getAvailability();
+        if (windows == null || windows.isEmpty()) {
+            return FULL;
+        }
+        
+        AvailabilityBitmap bitmap = EMPTY;
+        for (Availability window : windows) {
+            if (window.isAvailable() && window.getDayOfWeek() != null
+                    && window.getDayOfWeek().name().equals(day.name())) {
+                bitmap = bitmap.withFree(window.getStartTime(), window.getEndTime());
+            }
+        }
+        return bitmap;
+    }
+    
+    /**
+     * Materializza gli slot giornalieri di InstructorAvailability (gli slot già prenotati sono esclusi)
+     */
+    public static AvailabilityBitmap fromTimeSlots(List<InstructorAvailability.TimeSlot> slots) {
+        AvailabilityBitmap bitmap = EMPTY;
+        if (slots == null) {
+            return bitmap;
+        }
+        for (InstructorAvailability.TimeSlot slot : slots) {
+            if (!slot.isBooked()) {
+                bitmap = bitmap.withFree(slot.getStartTime(), slot.getEndTime());
+            }
+        }
+        return bitmap;
+    }
+    
+    // Cell helpers
+    
+    /**
+     * Cella che contiene l'orario indicato (arrotondamento per difetto)
+     */
+    public static int cellFloor(LocalTime time) {
+        return time.toSecondOfDay() / (SLOT_MINUTES * 60);
+    }
+    
+    /**
+     * Prima cella che inizia all'orario indicato o dopo (arrotondamento per eccesso)
+     */
+    public static int cellCeil(LocalTime time) {
+        int seconds = time.toSecondOfDay();
+        int cellSeconds = SLOT_MINUTES * 60;
+        return (seconds + cellSeconds - 1) / cellSeconds;
+    }
+    
+    /**
+     * Numero di celle necessarie a coprire la durata indicata
+     */
+    public static int cellsFor(int minutes) {
+        return Math.max(1, (minutes + SLOT_MINUTES - 1) / SLOT_MINUTES);
+    }
+    
+    public static LocalTime timeOf(int cell) {
+        return LocalTime.MIN.plusMinutes((long) cell * SLOT_MINUTES);
+    }
+    
+    // Queries (O(1))
+    
+    public boolean isFree(int cell) {
+        if (cell < 0 || cell >= SLOTS_PER_DAY) {
+            return false;
+        }
+        return cell < 64
+                ? (low & (1L << cell)) != 0
+                : (high & (1L << (cell - 64))) != 0;
+    }
+    
+    /**
+     * Verifica che tutte le celle in [fromCell, toCell) siano libere
+     */
+    public boolean isRangeFree(int fromCell, int toCell) {
+        if (fromCell < 0 || toCell > SLOTS_PER_DAY || fromCell >= toCell) {
+            return false;
+        }
+        long lowMask = lowMask(fromCell, toCell);
+        long highMask = highMask(fromCell, toCell);
+        return (low & lowMask) == lowMask && (high & highMask) == highMask;
+    }
+    
+    public boolean isRangeFree(LocalTime start, int durationMinutes) {
+        int from = cellFloor(start);
+        return isRangeFree(from, from + cellsFor(durationMinutes));
+    }
+    
+    /**
+     * Prima cella in [fromCell, toCell) da cui partono almeno runLength celle libere consecutive, -1 se assente
+     */
+    public int firstFreeRun(int fromCell, int toCell, int runLength) {
+        int last = Math.min(toCell, SLOTS_PER_DAY) - runLength;
+        for (int cell = Math.max(fromCell, 0); cell <= last; cell++) {
+            if (isRangeFree(cell, cell + runLength)) {
+                return cell;
+            }
+        }
+        return -1;
+    }
+    
+    public boolean isEmpty() {
+        return low == 0L && high == 0L;
+    }
+    
+    public int freeCells() {
+        return Long.bitCount(low) + Long.bitCount(high);
+    }
+    
+    // Combinators
+    
+    public AvailabilityBitmap and(AvailabilityBitmap other) {
+        return new AvailabilityBitmap(low & other.low, high & other.high);
+    }
+    
+    public AvailabilityBitmap or(AvailabilityBitmap other) {
+        return new AvailabilityBitmap(low | other.low, high | other.high);
+    }
+    
+    public AvailabilityBitmap andNot(AvailabilityBitmap other) {
+        return new AvailabilityBitmap(low & ~other.low, high & ~other.high);
+    }
+    
+    public AvailabilityBitmap withFree(int fromCell, int toCell) {
+        int from = Math.max(fromCell, 0);
+        int to = Math.min(toCell, SLOTS_PER_DAY);
+        if (from >= to) {
+            return this;
+        }
+        return new AvailabilityBitmap(low | lowMask(from, to), high | highMask(from, to));
+    }
+    
+    public AvailabilityBitmap withBusy(int fromCell, int toCell) {
+        int from = Math.max(fromCell, 0);
+        int to = Math.min(toCell, SLOTS_PER_DAY);
+        if (from >= to) {
+            return this;
+        }
+        return new AvailabilityBitmap(low & ~lowMask(from, to), high & ~highMask(from, to));
+    }
+    
+    /**
+     * Segna come libere solo le celle interamente contenute nella fascia [start, end).
+     * Una fascia che termina alle 00:00 (o prima dell'inizio) si estende fino a fine giornata.
+     */
+    private AvailabilityBitmap withFree(LocalTime start, LocalTime end) {
+        if (start == null || end == null) {
+            return this;
+        }
+        int from = cellCeil(start);
+        int to = end.isAfter(start) ? cellFloor(end) : SLOTS_PER_DAY;
+        return withFree(from, to);
+    }
+    
+    private static long lowMask(int fromCell, int toCell) {
+        return wordMask(Math.min(fromCell, 64), Math.min(toCell, 64));
+    }
+    
+    private static long highMask(int fromCell, int toCell) {
+        return wordMask(Math.max(fromCell, 64) - 64, Math.max(toCell, 64) - 64);
+    }
+    
+    // Maschera dei bit [from, to) in una singola word, con 0 <= from <= to <= 64
+    private static long wordMask(int from, int to) {
+        if (from >= to) {
+            return 0L;
+        }
+        long upper = to == 64 ? -1L : (1L << to) - 1;
+        long lower = (1L << from) - 1;
+        return upper & ~lower;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AvailabilityBitmap)) return false;
+        AvailabilityBitmap that = (AvailabilityBitmap) o;
+        return low == that.low && high == that.high;
+    }
+    
+    @Override
+    public int hashCode() {
+        return Long.hashCode(low) * 31 + Long.hashCode(high);
+    }
+}
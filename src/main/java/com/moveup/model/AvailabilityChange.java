@@ -0,0 +1,34 @@
+package com.moveup.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * Ultima modifica di disponibilità o prenotazioni di un istruttore.
+ * Ogni nodo legge periodicamente le modifiche recenti e scarta le bitmap in cache
+ * (vedi AvailabilityCalendarService).
+ */
+@Document(collection = "availability_changes")
+public class AvailabilityChange {
+    
+    @Id
+    private String id; // instructorId
+    
+    private long version;
+    private LocalDateTime changedAt;
+    
+    // Constructors
+    public AvailabilityChange() {}
+    
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    
+    public long getVersion() { return version; }
+    public void setVersion(long version) { this.version = version; }
+    
+    public LocalDateTime getChangedAt() { return changedAt; }
+    public void setChangedAt(LocalDateTime changedAt) { this.changedAt = changedAt; }
+}
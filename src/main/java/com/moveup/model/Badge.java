@@ -99,72 +99,3 @@ public class Badge {
         return requirements.checkEligibility(userStats);
     }
 }
-
-// Embedded classes
-class BadgeRequirements {
-    private int minLessons;
-    private int minReviews;
-    private double minRating;
-    private int minConsecutiveDays;
-    private String sportCategory;
-    private Map<String, Object> customCriteria;
-    
-    // Constructors
-    public BadgeRequirements() {}
-    
-    // Getters and Setters
-    public int getMinLessons() { return minLessons; }
-    public void setMinLessons(int minLessons) { this.minLessons = minLessons; }
-    
-    public int getMinReviews() { return minReviews; }
-    public void setMinReviews(int minReviews) { this.minReviews = minReviews; }
-    
-    public double getMinRating() { return minRating; }
-    public void setMinRating(double minRating) { this.minRating = minRating; }
-    
-    public int getMinConsecutiveDays() { return minConsecutiveDays; }
-    public void setMinConsecutiveDays(int minConsecutiveDays) { this.minConsecutiveDays = minConsecutiveDays; }
-    
-    public String getSportCategory() { return sportCategory; }
-    public void setSportCategory(String sportCategory) { this.sportCategory = sportCategory; }
-    
-    public Map<String, Object> getCustomCriteria() { return customCriteria; }
-    public void setCustomCriteria(Map<String, Object> customCriteria) { this.customCriteria = customCriteria; }
-    
-    // Business method
-    public boolean checkEligibility(Map<String, Object> userStats) {
-        // Check lessons requirement
-        if (minLessons > 0) {
-            Integer userLessons = (Integer) userStats.get("totalLessons");
-            if (userLessons == null || userLessons < minLessons) {
-                return false;
-            }
-        }
-        
-        // Check reviews requirement
-        if (minReviews > 0) {
-            Integer userReviews = (Integer) userStats.get("totalReviews");
-            if (userReviews == null || userReviews < minReviews) {
-                return false;
-            }
-        }
-        
-        // Check rating requirement
-        if (minRating > 0) {
-            Double userRating = (Double) userStats.get("averageRating");
-            if (userRating == null || userRating < minRating) {
-                return false;
-            }
-        }
-        
-        // Check sport category requirement
-        if (sportCategory != null && !sportCategory.isEmpty()) {
-            String userSportCategory = (String) userStats.get("primarySportCategory");
-            if (!sportCategory.equals(userSportCategory)) {
-                return false;
-            }
-        }
-        
-        return true;
-    }
-}
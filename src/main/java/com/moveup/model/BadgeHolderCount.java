@@ -0,0 +1,38 @@
+package com.moveup.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * Numero di utenti che possiedono un badge. holders è modificato solo con $inc
+ * all'assegnazione e alla revoca, e riallineato periodicamente (vedi BadgeHolderCountService).
+ */
+@Document(collection = "badge_holder_counts")
+public class BadgeHolderCount {
+    
+    @Id
+    private String id; // badgeId
+    
+    private long holders;
+    
+    private LocalDateTime updatedAt;
+    private LocalDateTime reconciledAt;
+    
+    // Constructors
+    public BadgeHolderCount() {}
+    
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    
+    public long getHolders() { return holders; }
+    public void setHolders(long holders) { this.holders = holders; }
+    
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+    
+    public LocalDateTime getReconciledAt() { return reconciledAt; }
+    public void setReconciledAt(LocalDateTime reconciledAt) { this.reconciledAt = reconciledAt; }
+}
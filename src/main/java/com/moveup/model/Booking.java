@@ -187,7 +187,7 @@ public class Booking {
         this.paymentStatus = PaymentStatus.CAPTURED;
         this.validatedAt = LocalDateTime.now();
     }
-
+    
     // Inner classes and enums
     public static enum BookingStatus {
     PENDING("In attesa"),
@@ -309,9 +309,15 @@ public static class LiveActivityInfo {
     private String activityId;
     private String pushToken;
     private LocalDateTime startedAt;
-    private String status; // active, updated, ended
+    private String status; // ultimo stato ricevuto (upcoming, starting, inProgress, ...) o ended
     private LocalDateTime lastUpdate;
     
+    // Accorpamento degli aggiornamenti, condiviso tra i nodi (vedi LiveActivityCoalescer)
+    private GeoLocation instructorLocation; // ultima posizione nota dell'istruttore
+    private Double instructorDistance; // metri dal luogo della lezione
+    private LocalDateTime lastPushAt; // ultimo push inviato, immediato o accorpato
+    private LocalDateTime flushAt; // push accorpato in attesa (null = nessuno)
+    
     public LiveActivityInfo() {}
     
     public String getActivityId() { return activityId; }
@@ -328,6 +334,18 @@ public static class LiveActivityInfo {
     
     public LocalDateTime getLastUpdate() { return lastUpdate; }
     public void setLastUpdate(LocalDateTime lastUpdate) { this.lastUpdate = lastUpdate; }
+    
+    public GeoLocation getInstructorLocation() { return instructorLocation; }
+    public void setInstructorLocation(GeoLocation instructorLocation) { this.instructorLocation = instructorLocation; }
+    
+    public Double getInstructorDistance() { return instructorDistance; }
+    public void setInstructorDistance(Double instructorDistance) { this.instructorDistance = instructorDistance; }
+    
+    public LocalDateTime getLastPushAt() { return lastPushAt; }
+    public void setLastPushAt(LocalDateTime lastPushAt) { this.lastPushAt = lastPushAt; }
+    
+    public LocalDateTime getFlushAt() { return flushAt; }
+    public void setFlushAt(LocalDateTime flushAt) { this.flushAt = flushAt; }
 }
 
 // QR Code Check-in Info
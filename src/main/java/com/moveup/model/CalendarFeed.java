@@ -0,0 +1,48 @@
+package com.moveup.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Stato condiviso di un feed ICS: versione (incrementata a ogni modifica di una Booking del
+ * proprietario) e token segreto dell'URL di sottoscrizione, usato dai client calendario
+ * che non possono inviare un JWT.
+ */
+@Document(collection = "calendar_feeds")
+public class CalendarFeed {
+    
+    @Id
+    private String id; // ownerType:ownerId
+    
+    private String ownerType;
+    private String ownerId;
+    
+    @Indexed(unique = true, sparse = true)
+    private String token;
+    
+    private long version;
+    private long lastModified; // epoch millis
+    
+    // Constructors
+    public CalendarFeed() {}
+    
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    
+    public String getOwnerType() { return ownerType; }
+    public void setOwnerType(String ownerType) { this.ownerType = ownerType; }
+    
+    public String getOwnerId() { return ownerId; }
+    public void setOwnerId(String ownerId) { this.ownerId = ownerId; }
+    
+    public String getToken() { return token; }
+    public void setToken(String token) { this.token = token; }
+    
+    public long getVersion() { return version; }
+    public void setVersion(long version) { this.version = version; }
+    
+    public long getLastModified() { return lastModified; }
+    public void setLastModified(long lastModified) { this.lastModified = lastModified; }
+}
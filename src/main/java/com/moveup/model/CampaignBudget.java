@@ -0,0 +1,49 @@
+package com.moveup.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * Budget globale di una campagna promozionale (es. prima lezione gratis).
+ * leased è la parte del cap assegnata ai nodi a blocchi, sempre <= cap; consumed le unità
+ * effettivamente usate, aggiornato a intervalli (vedi CampaignBudgetService).
+ */
+@Document(collection = "campaign_budgets")
+public class CampaignBudget {
+    
+    @Id
+    private String id; // campaignId
+    
+    private int cap;
+    private int leased;
+    private int consumed;
+    
+    private LocalDateTime updatedAt;
+    
+    // Constructors
+    public CampaignBudget() {}
+    
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    
+    public int getCap() { return cap; }
+    public void setCap(int cap) { this.cap = cap; }
+    
+    public int getLeased() { return leased; }
+    public void setLeased(int leased) { this.leased = leased; }
+    
+    public int getConsumed() { return consumed; }
+    public void setConsumed(int consumed) { this.consumed = consumed; }
+    
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+    
+    // Business methods
+    // Unità non ancora assegnate ad alcun nodo (consumed è scritto a intervalli e resta indietro)
+    public int getRemaining() {
+        return Math.max(0, cap - leased);
+    }
+}
@@ -1,5 +1,6 @@
 package com.moveup.model;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -12,6 +13,16 @@ public class GameStatus {
     private double averageRating = 0.0;
     private int experiencePoints = 0;
     private List<String> redeemedRewards = new ArrayList<>();
+    private List<String> notifiedRewards = new ArrayList<>(); // ricompense già segnalate come raggiungibili
+    
+    // Streak lezioni: aggiornato con un solo update a ogni lezione completata (vedi PointsService)
+    private int currentStreak = 0;
+    private int longestStreak = 0;
+    private LocalDateTime lastLessonAt;
+    private String lastStreakBookingId;
+    
+    private String lastGamificationEventId; // ultimo evento applicato da GamificationService
+    private List<String> appliedGamificationEvents = new ArrayList<>(); // ultimi eventi applicati (finestra limitata)
     
     // Constructors
     public GameStatus() {}
@@ -41,6 +52,27 @@ public class GameStatus {
     public List<String> getRedeemedRewards() { return redeemedRewards; }
     public void setRedeemedRewards(List<String> redeemedRewards) { this.redeemedRewards = redeemedRewards; }
     
+    public List<String> getNotifiedRewards() { return notifiedRewards; }
+    public void setNotifiedRewards(List<String> notifiedRewards) { this.notifiedRewards = notifiedRewards; }
+    
+    public int getCurrentStreak() { return currentStreak; }
+    public void setCurrentStreak(int currentStreak) { this.currentStreak = currentStreak; }
+    
+    public int getLongestStreak() { return longestStreak; }
+    public void setLongestStreak(int longestStreak) { this.longestStreak = longestStreak; }
+    
+    public LocalDateTime getLastLessonAt() { return lastLessonAt; }
+    public void setLastLessonAt(LocalDateTime lastLessonAt) { this.lastLessonAt = lastLessonAt; }
+    
+    public String getLastStreakBookingId() { return lastStreakBookingId; }
+    public void setLastStreakBookingId(String lastStreakBookingId) { this.lastStreakBookingId = lastStreakBookingId; }
+    
+    public String getLastGamificationEventId() { return lastGamificationEventId; }
+    public void setLastGamificationEventId(String lastGamificationEventId) { this.lastGamificationEventId = lastGamificationEventId; }
+    
+    public List<String> getAppliedGamificationEvents() { return appliedGamificationEvents; }
+    public void setAppliedGamificationEvents(List<String> appliedGamificationEvents) { this.appliedGamificationEvents = appliedGamificationEvents; }
+    
     // Business methods for rewards
     public void addRedeemedReward(String rewardId) {
         if (redeemedRewards == null) {
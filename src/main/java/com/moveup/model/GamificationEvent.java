@@ -0,0 +1,129 @@
+package com.moveup.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Evento di gamification (lezione completata) in attesa di elaborazione asincrona.
+ * L'id deriva dalla prenotazione: un completamento ripetuto non crea un secondo evento.
+ * Dopo l'elaborazione restano gli esiti (punti, livello, badge) e l'evento scade tramite indice TTL.
+ */
+@Document(collection = "gamification_events")
+public class GamificationEvent {
+    
+    public static final String TYPE_LESSON_COMPLETED = "LESSON_COMPLETED";
+    
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_PROCESSING = "PROCESSING";
+    public static final String STATUS_PROCESSED = "PROCESSED";
+    public static final String STATUS_DEAD = "DEAD"; // tentativi esauriti, richiede intervento manuale
+    
+    @Id
+    private String id; // lesson:<bookingId>
+    
+    private String type;
+    private String userId;
+    private String bookingId;
+    private String instructorId;
+    private String sport;
+    private int basePoints;
+    private LocalDateTime occurredAt;
+    
+    private String status;
+    private int attempts;
+    private String lockToken;
+    private LocalDateTime lockedAt;
+    private String lastError;
+    private LocalDateTime processedAt;
+    
+    // Esiti
+    private int pointsAwarded;
+    private List<String> badgesAwarded = new ArrayList<>();
+    private int levelAfter;
+    private int streakAfter;
+    private String storyBadge;
+    
+    private LocalDateTime expiresAt; // indice TTL creato da GamificationService
+    
+    // Constructors
+    public GamificationEvent() {}
+    
+    public static GamificationEvent lessonCompleted(Booking booking, int basePoints) {
+        GamificationEvent event = new GamificationEvent();
+        event.id = "lesson:" + booking.getId();
+        event.type = TYPE_LESSON_COMPLETED;
+        event.userId = booking.getUserId();
+        event.bookingId = booking.getId();
+        event.instructorId = booking.getInstructorId();
+        event.sport = booking.getSport();
+        event.basePoints = basePoints;
+        event.occurredAt = LocalDateTime.now();
+        event.status = STATUS_PENDING;
+        return event;
+    }
+    
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+    
+    public String getUserId() { return userId; }
+    public void setUserId(String userId) { this.userId = userId; }
+    
+    public String getBookingId() { return bookingId; }
+    public void setBookingId(String bookingId) { this.bookingId = bookingId; }
+    
+    public String getInstructorId() { return instructorId; }
+    public void setInstructorId(String instructorId) { this.instructorId = instructorId; }
+    
+    public String getSport() { return sport; }
+    public void setSport(String sport) { this.sport = sport; }
+    
+    public int getBasePoints() { return basePoints; }
+    public void setBasePoints(int basePoints) { this.basePoints = basePoints; }
+    
+    public LocalDateTime getOccurredAt() { return occurredAt; }
+    public void setOccurredAt(LocalDateTime occurredAt) { this.occurredAt = occurredAt; }
+    
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    
+    public int getAttempts() { return attempts; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+    
+    public String getLockToken() { return lockToken; }
+    public void setLockToken(String lockToken) { this.lockToken = lockToken; }
+    
+    public LocalDateTime getLockedAt() { return lockedAt; }
+    public void setLockedAt(LocalDateTime lockedAt) { this.lockedAt = lockedAt; }
+    
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
+    
+    public LocalDateTime getProcessedAt() { return processedAt; }
+    public void setProcessedAt(LocalDateTime processedAt) { this.processedAt = processedAt; }
+    
+    public int getPointsAwarded() { return pointsAwarded; }
+    public void setPointsAwarded(int pointsAwarded) { this.pointsAwarded = pointsAwarded; }
+    
+    public List<String> getBadgesAwarded() { return badgesAwarded; }
+    public void setBadgesAwarded(List<String> badgesAwarded) { this.badgesAwarded = badgesAwarded; }
+    
+    public int getLevelAfter() { return levelAfter; }
+    public void setLevelAfter(int levelAfter) { this.levelAfter = levelAfter; }
+    
+    public int getStreakAfter() { return streakAfter; }
+    public void setStreakAfter(int streakAfter) { this.streakAfter = streakAfter; }
+    
+    public String getStoryBadge() { return storyBadge; }
+    public void setStoryBadge(String storyBadge) { this.storyBadge = storyBadge; }
+    
+    public LocalDateTime getExpiresAt() { return expiresAt; }
+    public void setExpiresAt(LocalDateTime expiresAt) { this.expiresAt = expiresAt; }
+}
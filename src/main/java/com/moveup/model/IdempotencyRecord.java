@@ -0,0 +1,95 @@
+package com.moveup.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * Richiesta eseguita con header Idempotency-Key.
+ * L'id è composto da utente + chiave; i documenti scadono tramite indice TTL su expiresAt.
+ */
+@Document(collection = "idempotency_keys")
+public class IdempotencyRecord {
+    
+    public static final String STATUS_IN_PROGRESS = "IN_PROGRESS";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    // Eseguita, ma la risposta non è stata salvata: il lock non può essere ripreso
+    public static final String STATUS_COMPLETED_UNKNOWN = "COMPLETED_UNKNOWN";
+    
+    @Id
+    private String id;
+    
+    private String fingerprint; // SHA-256 di metodo + path + body
+    private String status;
+    private LocalDateTime lockedAt;
+    
+    // Risposta salvata (solo per status COMPLETED)
+    private int responseStatus;
+    private String responseContentType;
+    private String responseBody;
+    
+    private LocalDateTime createdAt;
+    
+    private LocalDateTime expiresAt; // indice TTL creato da IdempotencyService
+    
+    // Constructors
+    public IdempotencyRecord() {}
+    
+    public IdempotencyRecord(String id, String fingerprint, LocalDateTime expiresAt) {
+        this.id = id;
+        this.fingerprint = fingerprint;
+        this.status = STATUS_IN_PROGRESS;
+        this.lockedAt = LocalDateTime.now();
+        this.createdAt = this.lockedAt;
+        this.expiresAt = expiresAt;
+    }
+    
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    
+    public String getFingerprint() { return fingerprint; }
+    public void setFingerprint(String fingerprint) { this.fingerprint = fingerprint; }
+    
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    
+    public LocalDateTime getLockedAt() { return lockedAt; }
+    public void setLockedAt(LocalDateTime lockedAt) { this.lockedAt = lockedAt; }
+    
+    public int getResponseStatus() { return responseStatus; }
+    public void setResponseStatus(int responseStatus) { this.responseStatus = responseStatus; }
+    
+    public String getResponseContentType() { return responseContentType; }
+    public void setResponseContentType(String responseContentType) { this.responseContentType = responseContentType; }
+    
+    public String getResponseBody() { return responseBody; }
+    public void setResponseBody(String responseBody) { this.responseBody = responseBody; }
+    
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+    
+    public LocalDateTime getExpiresAt() { return expiresAt; }
+    public void setExpiresAt(LocalDateTime expiresAt) { this.expiresAt = expiresAt; }
+    
+    // Business methods
+    public boolean isCompleted() {
+        return STATUS_COMPLETED.equals(status);
+    }
+    
+    public boolean isCompletedUnknown() {
+        return STATUS_COMPLETED_UNKNOWN.equals(status);
+    }
+    
+    public boolean isExpired() {
+        return expiresAt != null && expiresAt.isBefore(LocalDateTime.now());
+    }
+    
+    public void complete(int responseStatus, String responseContentType, String responseBody) {
+        this.status = STATUS_COMPLETED;
+        this.responseStatus = responseStatus;
+        this.responseContentType = responseContentType;
+        this.responseBody = responseBody;
+    }
+}
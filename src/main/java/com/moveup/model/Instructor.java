@@ -10,7 +10,6 @@ import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Min;
 import java.time.LocalDateTime;
-import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -239,35 +238,6 @@ class Certification {
     public void setVerified(boolean verified) { isVerified = verified; }
 }
 
-class Availability {
-    private WeekDay dayOfWeek;
-    private LocalTime startTime;
-    private LocalTime endTime;
-    private boolean isAvailable = true;
-    
-    // Constructors
-    public Availability() {}
-    
-    public Availability(WeekDay dayOfWeek, LocalTime startTime, LocalTime endTime) {
-        this.dayOfWeek = dayOfWeek;
-        this.startTime = startTime;
-        this.endTime = endTime;
-    }
-    
-    // Getters and Setters
-    public WeekDay getDayOfWeek() { return dayOfWeek; }
-    public void setDayOfWeek(WeekDay dayOfWeek) { this.dayOfWeek = dayOfWeek; }
-    
-    public LocalTime getStartTime() { return startTime; }
-    public void setStartTime(LocalTime startTime) { this.startTime = startTime; }
-    
-    public LocalTime getEndTime() { return endTime; }
-    public void setEndTime(LocalTime endTime) { this.endTime = endTime; }
-    
-    public boolean isAvailable() { return isAvailable; }
-    public void setAvailable(boolean available) { isAvailable = available; }
-}
-
 class InstructorAnalytics {
     private double completionRate = 0.0;
     private long responseTime = 0; // in milliseconds
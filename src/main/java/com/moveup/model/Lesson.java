@@ -187,6 +187,10 @@ public class Lesson {
         }
     }
     
+    public boolean isGroupLesson() {
+        return maxParticipants > 1;
+    }
+    
     // Business methods for statistics
     public void incrementBookingCount() {
         this.bookingCount++;
@@ -0,0 +1,61 @@
+package com.moveup.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * Contatore posti di una singola occorrenza di lezione di gruppo (lezione + data + ora).
+ * seatsLeft è modificato solo con $inc condizionali (vedi LessonSeatService).
+ */
+@Document(collection = "lesson_seats")
+public class LessonSeats {
+    
+    @Id
+    private String id; // lessonId:data:ora
+    
+    private String lessonId;
+    private LocalDateTime scheduledDate;
+    private LocalTime scheduledTime;
+    
+    private int capacity;
+    private int seatsLeft;
+    
+    private LocalDateTime updatedAt;
+    
+    // Constructors
+    public LessonSeats() {}
+    
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    
+    public String getLessonId() { return lessonId; }
+    public void setLessonId(String lessonId) { this.lessonId = lessonId; }
+    
+    public LocalDateTime getScheduledDate() { return scheduledDate; }
+    public void setScheduledDate(LocalDateTime scheduledDate) { this.scheduledDate = scheduledDate; }
+    
+    public LocalTime getScheduledTime() { return scheduledTime; }
+    public void setScheduledTime(LocalTime scheduledTime) { this.scheduledTime = scheduledTime; }
+    
+    public int getCapacity() { return capacity; }
+    public void setCapacity(int capacity) { this.capacity = capacity; }
+    
+    public int getSeatsLeft() { return seatsLeft; }
+    public void setSeatsLeft(int seatsLeft) { this.seatsLeft = seatsLeft; }
+    
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+    
+    // Business methods
+    public boolean isEmpty() {
+        return seatsLeft >= capacity;
+    }
+    
+    public boolean isFull() {
+        return seatsLeft <= 0;
+    }
+}
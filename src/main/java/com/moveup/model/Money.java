@@ -0,0 +1,192 @@
+package com.moveup.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Locale;
+
+/**
+ * Importo esatto in centesimi (long) con codice valuta ISO 4217.
+ *
+ * Immutabile: somme, differenze e percentuali lavorano su interi, quindi non ci sono
+ * arrotondamenti che si accumulano nei wallet né BigDecimal temporanei nei calcoli.
+ * Su Mongo è salvato come { cents, currency } (MoneyConverters), in JSON come numero decimale.
+ */
+public final class Money implements Comparable<Money> {
+    
+    public static final String EUR = "EUR";
+    
+    private static final Money ZERO_EUR = new Money(0, EUR);
+    
+    private final long cents;
+    private final String currency;
+    
+    private Money(long cents, String currency) {
+        this.cents = cents;
+        this.currency = currency;
+    }
+    
+    // Factory methods
+    
+    public static Money zero() {
+        return ZERO_EUR;
+    }
+    
+    public static Money ofCents(long cents) {
+        return ofCents(cents, EUR);
+    }
+    
+    public static Money ofCents(long cents, String currency) {
+        String code = normalize(currency);
+        if (cents == 0 && code == EUR) {
+            return ZERO_EUR;
+        }
+        return new Money(cents, code);
+    }
+    
+    /**
+     * Da importo decimale in unità (es. 12.34 euro), arrotondato al centesimo
+     */
+    public static Money ofDecimal(double amount) {
+        return ofDecimal(amount, EUR);
+    }
+    
+    public static Money ofDecimal(double amount, String currency) {
+        if (Double.isNaN(amount) || Double.isInfinite(amount)) {
+            throw new IllegalArgumentException("Importo non valido: " + amount);
+        }
+        return ofCents(Math.round(amount * 100), currency);
+    }
+    
+    /**
+     * Da stringa decimale (es. "12.34"), usato per input testuali e JSON
+     */
+    public static Money parse(String amount, String currency) {
+        long value = new BigDecimal(amount.trim()).movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+        return ofCents(value, currency);
+    }
+    
+    // Arithmetic
+    
+    public Money plus(Money other) {
+        checkCurrency(other);
+        return other.cents == 0 ? this : ofCents(Math.addExact(cents, other.cents), currency);
+    }
+    
+    public Money minus(Money other) {
+        checkCurrency(other);
+        return other.cents == 0 ? this : ofCents(Math.subtractExact(cents, other.cents), currency);
+    }
+    
+    public Money negate() {
+        return ofCents(Math.negateExact(cents), currency);
+    }
+    
+    public Money abs() {
+        return cents < 0 ? negate() : this;
+    }
+    
+    public Money times(long quantity) {
+        return ofCents(Math.multiplyExact(cents, quantity), currency);
+    }
+    
+    /**
+     * Percentuale in basis point (1000 = 10%), arrotondata al centesimo (half-up, lontano da zero)
+     */
+    public Money percentage(long basisPoints) {
+        long product = Math.multiplyExact(cents, basisPoints);
+        long result = product / 10000;
+        long remainder = product % 10000;
+        if (Math.abs(remainder) * 2 >= 10000) {
+            result += Long.signum(product);
+        }
+        return ofCents(result, currency);
+    }
+    
+    // Comparison
+    
+    public boolean isZero() {
+        return cents == 0;
+    }
+    
+    public boolean isPositive() {
+        return cents > 0;
+    }
+    
+    public boolean isNegative() {
+        return cents < 0;
+    }
+    
+    public boolean isLessThan(Money other) {
+        return compareTo(other) < 0;
+    }
+    
+    public boolean isGreaterThanOrEqual(Money other) {
+        return compareTo(other) >= 0;
+    }
+    
+    @Override
+    public int compareTo(Money other) {
+        checkCurrency(other);
+        return Long.compare(cents, other.cents);
+    }
+    
+    // Accessors
+    
+    public long getCents() {
+        return cents;
+    }
+    
+    public String getCurrency() {
+        return currency;
+    }
+    
+    /**
+     * Valore in unità come double: solo per visualizzazione e API esistenti, non per calcoli
+     */
+    public double toDecimal() {
+        return cents / 100.0;
+    }
+    
+    /**
+     * Rappresentazione decimale senza valuta, es. "12.34" o "-0.05"
+     */
+    public String toPlainString() {
+        long absolute = Math.abs(cents);
+        long units = absolute / 100;
+        long fraction = absolute % 100;
+        return (cents < 0 ? "-" : "") + units + (fraction < 10 ? ".0" : ".") + fraction;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Money)) return false;
+        Money other = (Money) o;
+        return cents == other.cents && currency.equals(other.currency);
+    }
+    
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(cents) + currency.hashCode();
+    }
+    
+    @Override
+    public String toString() {
+        return toPlainString() + " " + currency;
+    }
+    
+    // Helper methods
+    
+    private void checkCurrency(Money other) {
+        if (!currency.equals(other.currency)) {
+            throw new IllegalArgumentException("Valute diverse: " + currency + " / " + other.currency);
+        }
+    }
+    
+    private static String normalize(String currency) {
+        if (currency == null || EUR.equalsIgnoreCase(currency)) {
+            return EUR;
+        }
+        return currency.toUpperCase(Locale.ROOT);
+    }
+}
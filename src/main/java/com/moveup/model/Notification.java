@@ -9,6 +9,7 @@ import org.springframework.data.mongodb.core.index.Indexed;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Size;
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Map;
 
 @Document(collection = "notifications")
@@ -132,6 +133,28 @@ public class Notification {
         delivery.setFailureReason(error);
         delivery.setFailedAt(LocalDateTime.now());
     }
+    
+    public void markAsDispatched(LocalDateTime dispatchedAt) {
+        delivery.setDispatchedAt(dispatchedAt);
+    }
+    
+    public List<NotificationChannel> getPendingChannels() {
+        return delivery.getPendingChannels();
+    }
+    
+    /**
+     * Registra i canali che devono ancora consegnare la notifica; senza canali è già consegnata
+     */
+    public void markAsRouted(List<NotificationChannel> channels) {
+        delivery.setPendingChannels(channels);
+        if (channels.isEmpty() && !delivery.isFailed()) {
+            markAsSent();
+        }
+    }
+    
+    public boolean isDelivered() {
+        return delivery.isSent();
+    }
 }
 
 // Embedded classes
@@ -171,6 +194,13 @@ class NotificationDelivery {
     private LocalDateTime failedAt;
     private int retryCount = 0;
     
+    // Presa in carico da NotificationDispatcher (evita doppi invii dal recupero periodico)
+    private LocalDateTime dispatchedAt;
+    private String dispatchToken;
+    
+    // Canali che hanno accettato la notifica e non l'hanno ancora consegnata (null = non ancora instradata)
+    private List<NotificationChannel> pendingChannels;
+    
     // Constructors
     public NotificationDelivery() {}
     
@@ -205,6 +235,15 @@ class NotificationDelivery {
     public int getRetryCount() { return retryCount; }
     public void setRetryCount(int retryCount) { this.retryCount = retryCount; }
     
+    public LocalDateTime getDispatchedAt() { return dispatchedAt; }
+    public void setDispatchedAt(LocalDateTime dispatchedAt) { this.dispatchedAt = dispatchedAt; }
+    
+    public String getDispatchToken() { return dispatchToken; }
+    public void setDispatchToken(String dispatchToken) { this.dispatchToken = dispatchToken; }
+    
+    public List<NotificationChannel> getPendingChannels() { return pendingChannels; }
+    public void setPendingChannels(List<NotificationChannel> pendingChannels) { this.pendingChannels = pendingChannels; }
+    
     // Business methods
     public void incrementRetryCount() {
         this.retryCount++;
@@ -0,0 +1,20 @@
+package com.moveup.model;
+
+/**
+ * Canali di consegna delle notifiche, con il flag di Notification.delivery aggiornato a consegna avvenuta
+ */
+public enum NotificationChannel {
+    IN_APP("delivery.inAppSent"),
+    PUSH("delivery.pushSent"),
+    EMAIL("delivery.emailSent");
+    
+    private final String deliveryFlag;
+    
+    NotificationChannel(String deliveryFlag) {
+        this.deliveryFlag = deliveryFlag;
+    }
+    
+    public String getDeliveryFlag() {
+        return deliveryFlag;
+    }
+}
@@ -4,6 +4,7 @@ public enum NotificationType {
     BOOKING_CONFIRMATION("Conferma Prenotazione"),
     BOOKING_REMINDER("Promemoria Prenotazione"),
     BOOKING_CANCELLED("Prenotazione Cancellata"),
+    WAITLIST_OFFER("Posto Disponibile"),
     LESSON_COMPLETED("Lezione Completata"),
     NEW_REVIEW("Nuova Recensione"),
     PAYMENT_SUCCESS("Pagamento Riuscito"),
@@ -0,0 +1,88 @@
+package com.moveup.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Avanzamento del job di payout per una partizione di wallet in un periodo.
+ * lastWalletId è il cursore da cui riprendere; lockedAt è il lease del nodo che la elabora.
+ */
+@Document(collection = "payout_batches")
+public class PayoutBatch {
+    
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    
+    @Id
+    private String id;
+    private LocalDate period;
+    private int partition;
+    
+    private String status;
+    private String lastWalletId;
+    private String lockedBy;
+    private LocalDateTime lockedAt;
+    
+    // Riepilogo per la riconciliazione
+    private int paidCount;
+    private long paidCents;
+    private int mismatchCount;
+    private int failedCount;
+    
+    private LocalDateTime startedAt;
+    private LocalDateTime completedAt;
+    
+    // Constructors
+    public PayoutBatch() {}
+    
+    public PayoutBatch(LocalDate period, int partition) {
+        this.id = period + ":" + partition;
+        this.period = period;
+        this.partition = partition;
+        this.status = STATUS_RUNNING;
+        this.startedAt = LocalDateTime.now();
+    }
+    
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    
+    public LocalDate getPeriod() { return period; }
+    public void setPeriod(LocalDate period) { this.period = period; }
+    
+    public int getPartition() { return partition; }
+    public void setPartition(int partition) { this.partition = partition; }
+    
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    
+    public String getLastWalletId() { return lastWalletId; }
+    public void setLastWalletId(String lastWalletId) { this.lastWalletId = lastWalletId; }
+    
+    public String getLockedBy() { return lockedBy; }
+    public void setLockedBy(String lockedBy) { this.lockedBy = lockedBy; }
+    
+    public LocalDateTime getLockedAt() { return lockedAt; }
+    public void setLockedAt(LocalDateTime lockedAt) { this.lockedAt = lockedAt; }
+    
+    public int getPaidCount() { return paidCount; }
+    public void setPaidCount(int paidCount) { this.paidCount = paidCount; }
+    
+    public long getPaidCents() { return paidCents; }
+    public void setPaidCents(long paidCents) { this.paidCents = paidCents; }
+    
+    public int getMismatchCount() { return mismatchCount; }
+    public void setMismatchCount(int mismatchCount) { this.mismatchCount = mismatchCount; }
+    
+    public int getFailedCount() { return failedCount; }
+    public void setFailedCount(int failedCount) { this.failedCount = failedCount; }
+    
+    public LocalDateTime getStartedAt() { return startedAt; }
+    public void setStartedAt(LocalDateTime startedAt) { this.startedAt = startedAt; }
+    
+    public LocalDateTime getCompletedAt() { return completedAt; }
+    public void setCompletedAt(LocalDateTime completedAt) { this.completedAt = completedAt; }
+}
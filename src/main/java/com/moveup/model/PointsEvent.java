@@ -0,0 +1,78 @@
+package com.moveup.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * Movimento punti di un utente (accredito o addebito). User.points è aggiornato solo con $inc
+ * e ogni variazione lascia qui una riga con il saldo risultante (vedi PointsLedgerService).
+ */
+@Document(collection = "points_events")
+public class PointsEvent {
+    
+    public enum Source {
+        LESSON,
+        REVIEW,
+        REFERRAL,
+        REDEMPTION,
+        BADGE,
+        ADMIN
+    }
+    
+    @Id
+    private String id;
+    
+    private String userId;
+    private int delta;          // positivo per gli accrediti, negativo per gli addebiti
+    private int balanceAfter;   // User.points subito dopo questo movimento
+    private Source source;
+    private String referenceId; // bookingId, rewardId, ...
+    private String reason;
+    
+    private LocalDateTime createdAt;
+    
+    // Constructors
+    public PointsEvent() {}
+    
+    public PointsEvent(String userId, int delta, int balanceAfter, Source source, String referenceId, String reason) {
+        this.userId = userId;
+        this.delta = delta;
+        this.balanceAfter = balanceAfter;
+        this.source = source;
+        this.referenceId = referenceId;
+        this.reason = reason;
+        this.createdAt = LocalDateTime.now();
+    }
+    
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    
+    public String getUserId() { return userId; }
+    public void setUserId(String userId) { this.userId = userId; }
+    
+    public int getDelta() { return delta; }
+    public void setDelta(int delta) { this.delta = delta; }
+    
+    public int getBalanceAfter() { return balanceAfter; }
+    public void setBalanceAfter(int balanceAfter) { this.balanceAfter = balanceAfter; }
+    
+    public Source getSource() { return source; }
+    public void setSource(Source source) { this.source = source; }
+    
+    public String getReferenceId() { return referenceId; }
+    public void setReferenceId(String referenceId) { this.referenceId = referenceId; }
+    
+    public String getReason() { return reason; }
+    public void setReason(String reason) { this.reason = reason; }
+    
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+    
+    // Business methods
+    public int getBalanceBefore() {
+        return balanceAfter - delta;
+    }
+}
@@ -0,0 +1,164 @@
+package com.moveup.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Esito di una riconciliazione tra un export Stripe (balance transactions) e
+ * payments, bookings e transactions. Qui ci sono solo i totali e un campione delle
+ * discrepanze: l'elenco completo è nel file CSV indicato da reportFile.
+ */
+@Document(collection = "reconciliation_reports")
+public class ReconciliationReport {
+    
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    public static final String STATUS_FAILED = "FAILED";
+    
+    public enum DiscrepancyType {
+        MISSING_IN_MOVEUP,    // addebito Stripe senza pagamento né prenotazione
+        MISSING_IN_STRIPE,    // pagamento o prenotazione incassati senza riga nell'export
+        AMOUNT_MISMATCH,      // importo incassato diverso da quello registrato
+        STATUS_MISMATCH,      // es. rimborso su Stripe ma pagamento non REFUNDED
+        MISSING_LEDGER_ENTRY, // lezione incassata senza accredito nel wallet del trainer
+        DUPLICATE_RECORD      // più pagamenti o prenotazioni sullo stesso PaymentIntent
+    }
+    
+    @Id
+    private String id;
+    
+    private String sourceFile;
+    private LocalDateTime from;
+    private LocalDateTime to;
+    
+    private String status;
+    private String reportFile;
+    private String error;
+    
+    // Totali
+    private long stripeRows;
+    private long stripeRowsSkipped; // righe senza PaymentIntent (payout, transfer, fee)
+    private long keysCompared;
+    private long matched;
+    private long discrepancyCount;
+    private Map<String, Long> discrepanciesByType = new LinkedHashMap<>();
+    private List<Discrepancy> sample = new ArrayList<>();
+    
+    private LocalDateTime startedAt;
+    private LocalDateTime completedAt;
+    
+    // Constructors
+    public ReconciliationReport() {}
+    
+    public ReconciliationReport(String sourceFile, LocalDateTime from, LocalDateTime to) {
+        this.sourceFile = sourceFile;
+        this.from = from;
+        this.to = to;
+        this.status = STATUS_RUNNING;
+        this.startedAt = LocalDateTime.now();
+    }
+    
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    
+    public String getSourceFile() { return sourceFile; }
+    public void setSourceFile(String sourceFile) { this.sourceFile = sourceFile; }
+    
+    public LocalDateTime getFrom() { return from; }
+    public void setFrom(LocalDateTime from) { this.from = from; }
+    
+    public LocalDateTime getTo() { return to; }
+    public void setTo(LocalDateTime to) { this.to = to; }
+    
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    
+    public String getReportFile() { return reportFile; }
+    public void setReportFile(String reportFile) { this.reportFile = reportFile; }
+    
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+    
+    public long getStripeRows() { return stripeRows; }
+    public void setStripeRows(long stripeRows) { this.stripeRows = stripeRows; }
+    
+    public long getStripeRowsSkipped() { return stripeRowsSkipped; }
+    public void setStripeRowsSkipped(long stripeRowsSkipped) { this.stripeRowsSkipped = stripeRowsSkipped; }
+    
+    public long getKeysCompared() { return keysCompared; }
+    public void setKeysCompared(long keysCompared) { this.keysCompared = keysCompared; }
+    
+    public long getMatched() { return matched; }
+    public void setMatched(long matched) { this.matched = matched; }
+    
+    public long getDiscrepancyCount() { return discrepancyCount; }
+    public void setDiscrepancyCount(long discrepancyCount) { this.discrepancyCount = discrepancyCount; }
+    
+    public Map<String, Long> getDiscrepanciesByType() { return discrepanciesByType; }
+    public void setDiscrepanciesByType(Map<String, Long> discrepanciesByType) { this.discrepanciesByType = discrepanciesByType; }
+    
+    public List<Discrepancy> getSample() { return sample; }
+    public void setSample(List<Discrepancy> sample) { this.sample = sample; }
+    
+    public LocalDateTime getStartedAt() { return startedAt; }
+    public void setStartedAt(LocalDateTime startedAt) { this.startedAt = startedAt; }
+    
+    public LocalDateTime getCompletedAt() { return completedAt; }
+    public void setCompletedAt(LocalDateTime completedAt) { this.completedAt = completedAt; }
+    
+    // Business methods
+    public void record(Discrepancy discrepancy, int sampleSize) {
+        discrepancyCount++;
+        discrepanciesByType.merge(discrepancy.getType().name(), 1L, Long::sum);
+        if (sample.size() < sampleSize) {
+            sample.add(discrepancy);
+        }
+    }
+    
+    // Inner classes
+    public static class Discrepancy {
+        private DiscrepancyType type;
+        private String paymentIntentId;
+        private String paymentId;
+        private String bookingId;
+        private Money stripeAmount;
+        private Money moveupAmount;
+        private String detail;
+        
+        public Discrepancy() {}
+        
+        public Discrepancy(DiscrepancyType type, String paymentIntentId, String detail) {
+            this.type = type;
+            this.paymentIntentId = paymentIntentId;
+            this.detail = detail;
+        }
+        
+        public DiscrepancyType getType() { return type; }
+        public void setType(DiscrepancyType type) { this.type = type; }
+        
+        public String getPaymentIntentId() { return paymentIntentId; }
+        public void setPaymentIntentId(String paymentIntentId) { this.paymentIntentId = paymentIntentId; }
+        
+        public String getPaymentId() { return paymentId; }
+        public void setPaymentId(String paymentId) { this.paymentId = paymentId; }
+        
+        public String getBookingId() { return bookingId; }
+        public void setBookingId(String bookingId) { this.bookingId = bookingId; }
+        
+        public Money getStripeAmount() { return stripeAmount; }
+        public void setStripeAmount(Money stripeAmount) { this.stripeAmount = stripeAmount; }
+        
+        public Money getMoveupAmount() { return moveupAmount; }
+        public void setMoveupAmount(Money moveupAmount) { this.moveupAmount = moveupAmount; }
+        
+        public String getDetail() { return detail; }
+        public void setDetail(String detail) { this.detail = detail; }
+    }
+}
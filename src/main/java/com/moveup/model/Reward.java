@@ -37,6 +37,10 @@ public class Reward {
     @Min(0)
     private int remainingQuantity = -1; // -1 = unlimited
     
+    // >1: giacenza suddivisa in più contatori (reward_stock) per le ricompense molto richieste
+    @Min(0)
+    private int stockBuckets = 0;
+    
     private String imageBase64; // Immagine reward salvata come Base64
     private RewardValue value = new RewardValue();
     private RewardTerms terms = new RewardTerms();
@@ -85,6 +89,9 @@ public class Reward {
     public int getRemainingQuantity() { return remainingQuantity; }
     public void setRemainingQuantity(int remainingQuantity) { this.remainingQuantity = remainingQuantity; }
     
+    public int getStockBuckets() { return stockBuckets; }
+    public void setStockBuckets(int stockBuckets) { this.stockBuckets = stockBuckets; }
+    
     public String getImageBase64() { return imageBase64; }
     public void setImageBase64(String imageBase64) { this.imageBase64 = imageBase64; }
     
@@ -111,6 +118,14 @@ public class Reward {
         return isActive && (remainingQuantity > 0 || remainingQuantity == -1);
     }
     
+    public boolean isLimited() {
+        return remainingQuantity != -1;
+    }
+    
+    public boolean isStriped() {
+        return isLimited() && stockBuckets > 1;
+    }
+    
     public boolean canBeRedeemed(int userPoints) {
         return isAvailable() && userPoints >= pointsCost;
     }
@@ -0,0 +1,50 @@
+package com.moveup.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * Una parte della giacenza di una ricompensa con Reward.stockBuckets > 1.
+ * remaining è modificato solo con $inc condizionali (vedi RewardInventoryService).
+ */
+@Document(collection = "reward_stock")
+public class RewardStockBucket {
+    
+    @Id
+    private String id; // rewardId:bucket
+    
+    private String rewardId;
+    private int bucket;
+    private int remaining;
+    
+    private LocalDateTime updatedAt;
+    
+    // Constructors
+    public RewardStockBucket() {}
+    
+    public RewardStockBucket(String rewardId, int bucket, int remaining) {
+        this.id = rewardId + ":" + bucket;
+        this.rewardId = rewardId;
+        this.bucket = bucket;
+        this.remaining = remaining;
+        this.updatedAt = LocalDateTime.now();
+    }
+    
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    
+    public String getRewardId() { return rewardId; }
+    public void setRewardId(String rewardId) { this.rewardId = rewardId; }
+    
+    public int getBucket() { return bucket; }
+    public void setBucket(int bucket) { this.bucket = bucket; }
+    
+    public int getRemaining() { return remaining; }
+    public void setRemaining(int remaining) { this.remaining = remaining; }
+    
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+}
@@ -0,0 +1,102 @@
+package com.moveup.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * Evento webhook Stripe ricevuto e verificato, in attesa di elaborazione asincrona.
+ * L'id è l'id dell'evento Stripe: una consegna duplicata non crea un secondo documento.
+ * Gli eventi elaborati scadono tramite indice TTL su expiresAt.
+ */
+@Document(collection = "stripe_webhook_events")
+public class StripeWebhookEvent {
+    
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_PROCESSING = "PROCESSING";
+    public static final String STATUS_PROCESSED = "PROCESSED";
+    public static final String STATUS_DEAD = "DEAD"; // tentativi esauriti, richiede intervento manuale
+    
+    @Id
+    private String id;
+    
+    private String type;
+    private String orderingKey; // PaymentIntent dell'evento (o l'id evento se non ne ha uno)
+    private String payload; // JSON originale firmato da Stripe
+    
+    private long stripeCreatedAt; // epoch seconds assegnato da Stripe
+    private LocalDateTime receivedAt;
+    
+    private String status;
+    private int attempts;
+    private LocalDateTime nextAttemptAt;
+    private LocalDateTime lockedAt;
+    private String lastError;
+    private LocalDateTime processedAt;
+    
+    private LocalDateTime expiresAt; // indice TTL creato da StripeWebhookService
+    
+    // Constructors
+    public StripeWebhookEvent() {}
+    
+    public StripeWebhookEvent(String id, String type, String orderingKey, String payload, long stripeCreatedAt) {
+        this.id = id;
+        this.type = type;
+        this.orderingKey = orderingKey;
+        this.payload = payload;
+        this.stripeCreatedAt = stripeCreatedAt;
+        this.receivedAt = LocalDateTime.now();
+        this.nextAttemptAt = this.receivedAt;
+        this.status = STATUS_PENDING;
+    }
+    
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+    
+    public String getOrderingKey() { return orderingKey; }
+    public void setOrderingKey(String orderingKey) { this.orderingKey = orderingKey; }
+    
+    public String getPayload() { return payload; }
+    public void setPayload(String payload) { this.payload = payload; }
+    
+    public long getStripeCreatedAt() { return stripeCreatedAt; }
+    public void setStripeCreatedAt(long stripeCreatedAt) { this.stripeCreatedAt = stripeCreatedAt; }
+    
+    public LocalDateTime getReceivedAt() { return receivedAt; }
+    public void setReceivedAt(LocalDateTime receivedAt) { this.receivedAt = receivedAt; }
+    
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    
+    public int getAttempts() { return attempts; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+    
+    public LocalDateTime getNextAttemptAt() { return nextAttemptAt; }
+    public void setNextAttemptAt(LocalDateTime nextAttemptAt) { this.nextAttemptAt = nextAttemptAt; }
+    
+    public LocalDateTime getLockedAt() { return lockedAt; }
+    public void setLockedAt(LocalDateTime lockedAt) { this.lockedAt = lockedAt; }
+    
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
+    
+    public LocalDateTime getProcessedAt() { return processedAt; }
+    public void setProcessedAt(LocalDateTime processedAt) { this.processedAt = processedAt; }
+    
+    public LocalDateTime getExpiresAt() { return expiresAt; }
+    public void setExpiresAt(LocalDateTime expiresAt) { this.expiresAt = expiresAt; }
+    
+    // Business methods
+    public boolean isPending() {
+        return STATUS_PENDING.equals(status);
+    }
+    
+    public boolean isDue(LocalDateTime now) {
+        return nextAttemptAt == null || !nextAttemptAt.isAfter(now);
+    }
+}
@@ -0,0 +1,122 @@
+package com.moveup.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Payout di un trainer per un periodo: un solo transfer Stripe per il saldo maturato.
+ * L'id è walletId:periodo, quindi ogni periodo produce al massimo un payout per wallet;
+ * lo stato permette di riprendere dal passo interrotto (transfer o registrazione nel ledger).
+ */
+@Document(collection = "trainer_payouts")
+public class TrainerPayout {
+    
+    public enum PayoutStatus {
+        PLANNED,                 // importo riconciliato, transfer da eseguire
+        TRANSFERRED,             // transfer eseguito, addebito nel ledger da registrare
+        POSTED,                  // completato
+        RECONCILIATION_MISMATCH, // saldo del wallet diverso dal ledger: nessun transfer
+        FAILED                   // tentativi esauriti, verifica manuale
+    }
+    
+    @Id
+    private String id;
+    private String walletId;
+    private String userId;
+    private String stripeAccountId;
+    
+    private LocalDate period;
+    private int partition;
+    
+    private Money amount;
+    private long cutoffSequence; // Ultima voce del ledger inclusa nell'importo
+    private Money ledgerBalance; // Saldo ricalcolato dal ledger al cutoff
+    
+    private PayoutStatus status;
+    private String stripeTransferId;
+    private String transactionId;  // Voce PAYOUT nel ledger
+    private int attempts;
+    private String lastError;
+    private LocalDateTime postingAt; // Lock della registrazione dell'addebito (TRANSFERRED -> POSTED)
+    
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+    
+    // Constructors
+    public TrainerPayout() {}
+    
+    public TrainerPayout(Wallet wallet, LocalDate period, int partition) {
+        this.id = wallet.getId() + ":" + period;
+        this.walletId = wallet.getId();
+        this.userId = wallet.getUserId();
+        this.stripeAccountId = wallet.getStripeConnectedAccountId();
+        this.period = period;
+        this.partition = partition;
+        this.createdAt = LocalDateTime.now();
+        this.updatedAt = this.createdAt;
+    }
+    
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    
+    public String getWalletId() { return walletId; }
+    public void setWalletId(String walletId) { this.walletId = walletId; }
+    
+    public String getUserId() { return userId; }
+    public void setUserId(String userId) { this.userId = userId; }
+    
+    public String getStripeAccountId() { return stripeAccountId; }
+    public void setStripeAccountId(String stripeAccountId) { this.stripeAccountId = stripeAccountId; }
+    
+    public LocalDate getPeriod() { return period; }
+    public void setPeriod(LocalDate period) { this.period = period; }
+    
+    public int getPartition() { return partition; }
+    public void setPartition(int partition) { this.partition = partition; }
+    
+    public Money getAmount() { return amount; }
+    public void setAmount(Money amount) { this.amount = amount; }
+    
+    public long getCutoffSequence() { return cutoffSequence; }
+    public void setCutoffSequence(long cutoffSequence) { this.cutoffSequence = cutoffSequence; }
+    
+    public Money getLedgerBalance() { return ledgerBalance; }
+    public void setLedgerBalance(Money ledgerBalance) { this.ledgerBalance = ledgerBalance; }
+    
+    public PayoutStatus getStatus() { return status; }
+    public void setStatus(PayoutStatus status) { this.status = status; }
+    
+    public String getStripeTransferId() { return stripeTransferId; }
+    public void setStripeTransferId(String stripeTransferId) { this.stripeTransferId = stripeTransferId; }
+    
+    public String getTransactionId() { return transactionId; }
+    public void setTransactionId(String transactionId) { this.transactionId = transactionId; }
+    
+    public int getAttempts() { return attempts; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+    
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
+    
+    public LocalDateTime getPostingAt() { return postingAt; }
+    public void setPostingAt(LocalDateTime postingAt) { this.postingAt = postingAt; }
+    
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+    
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+    
+    // Business methods
+    public boolean isOpen() {
+        return status == PayoutStatus.PLANNED || status == PayoutStatus.TRANSFERRED;
+    }
+    
+    public String getTransferGroup() {
+        return "payout_" + id;
+    }
+}
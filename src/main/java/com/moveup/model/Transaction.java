@@ -5,13 +5,30 @@ import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
 
+/**
+ * Voce del ledger del wallet: append-only, non viene mai modificata dopo l'inserimento
+ * (le correzioni sono nuove voci ADJUSTMENT/REFUND). Ogni voce è in partita doppia
+ * (debitAccount -> creditAccount) e ha una sequence crescente per wallet.
+ */
 @Document(collection = "transactions")
 public class Transaction {
     
+    // Conti del ledger in partita doppia
+    public static final String ACCOUNT_WALLET_PREFIX = "wallet:";
+    public static final String ACCOUNT_PLATFORM_CLEARING = "platform:clearing";
+    public static final String ACCOUNT_BANK_PAYOUT = "bank:payout";
+    
     @Id
     private String id;
     private String walletId;
     
+    // Ledger
+    private long sequence;          // Posizione nel ledger del wallet (0 = voce precedente al ledger)
+    private String debitAccount;
+    private String creditAccount;
+    private Money balanceDelta;     // Effetto sul saldo del wallet (+ accredito, - addebito)
+    private String ledgerKey;       // walletId:sequence (indice unico, vedi WalletLedgerService)
+    
     public enum TransactionType {
         LESSON_PAYMENT,
         PAYOUT,
@@ -21,7 +38,7 @@ public class Transaction {
     }
     
     private TransactionType type;
-    private Double amount;
+    private Money amount;
     private String currency = "EUR";
     
     // Description
@@ -34,9 +51,9 @@ public class Transaction {
     private String customerName;
     
     // Fee breakdown
-    private Double grossAmount;    // Total lesson price (e.g., €50)
-    private Double platformFee;    // Platform fee (e.g., €5)
-    private Double netAmount;      // Amount to trainer (e.g., €45)
+    private Money grossAmount;     // Total lesson price (e.g., €50)
+    private Money platformFee;     // Platform fee (e.g., €5)
+    private Money netAmount;       // Amount to trainer (e.g., €45)
     
     // Stripe references
     private String stripeTransferId;
@@ -64,7 +81,7 @@ public class Transaction {
         this.createdAt = LocalDateTime.now();
     }
     
-    public Transaction(String walletId, TransactionType type, Double netAmount, String description) {
+    public Transaction(String walletId, TransactionType type, Money netAmount, String description) {
         this();
         this.walletId = walletId;
         this.type = type;
@@ -82,6 +99,46 @@ public class Transaction {
         this.id = id;
     }
     
+    public long getSequence() {
+        return sequence;
+    }
+    
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+    
+    public String getLedgerKey() {
+        return ledgerKey;
+    }
+    
+    public void setLedgerKey(String ledgerKey) {
+        this.ledgerKey = ledgerKey;
+    }
+    
+    public String getDebitAccount() {
+        return debitAccount;
+    }
+    
+    public void setDebitAccount(String debitAccount) {
+        this.debitAccount = debitAccount;
+    }
+    
+    public String getCreditAccount() {
+        return creditAccount;
+    }
+    
+    public void setCreditAccount(String creditAccount) {
+        this.creditAccount = creditAccount;
+    }
+    
+    public Money getBalanceDelta() {
+        return balanceDelta;
+    }
+    
+    public void setBalanceDelta(Money balanceDelta) {
+        this.balanceDelta = balanceDelta;
+    }
+    
     public String getWalletId() {
         return walletId;
     }
@@ -98,11 +155,11 @@ public class Transaction {
         this.type = type;
     }
     
-    public Double getAmount() {
+    public Money getAmount() {
         return amount;
     }
     
-    public void setAmount(Double amount) {
+    public void setAmount(Money amount) {
         this.amount = amount;
     }
     
@@ -154,27 +211,27 @@ public class Transaction {
         this.customerName = customerName;
     }
     
-    public Double getGrossAmount() {
+    public Money getGrossAmount() {
         return grossAmount;
     }
     
-    public void setGrossAmount(Double grossAmount) {
+    public void setGrossAmount(Money grossAmount) {
         this.grossAmount = grossAmount;
     }
     
-    public Double getPlatformFee() {
+    public Money getPlatformFee() {
         return platformFee;
     }
     
-    public void setPlatformFee(Double platformFee) {
+    public void setPlatformFee(Money platformFee) {
         this.platformFee = platformFee;
     }
     
-    public Double getNetAmount() {
+    public Money getNetAmount() {
         return netAmount;
     }
     
-    public void setNetAmount(Double netAmount) {
+    public void setNetAmount(Money netAmount) {
         this.netAmount = netAmount;
     }
     
@@ -241,12 +298,36 @@ public class Transaction {
     
     // Helper methods
     public Double getFeePercentage() {
-        if (grossAmount != null && grossAmount > 0 && platformFee != null) {
-            return (platformFee / grossAmount) * 100;
+        if (grossAmount != null && grossAmount.isPositive() && platformFee != null) {
+            return platformFee.getCents() * 100.0 / grossAmount.getCents();
         }
         return 0.0;
     }
     
+    /**
+     * Registra la voce in partita doppia: l'importo passa da un conto all'altro,
+     * il segno dell'effetto sul saldo dipende dal lato in cui si trova il wallet.
+     */
+    public void post(long sequence, String debitAccount, String creditAccount, Money amount) {
+        this.sequence = sequence;
+        this.ledgerKey = walletId + ":" + sequence;
+        this.debitAccount = debitAccount;
+        this.creditAccount = creditAccount;
+        String walletAccount = ACCOUNT_WALLET_PREFIX + walletId;
+        this.balanceDelta = walletAccount.equals(creditAccount) ? amount : amount.negate();
+    }
+    
+    /**
+     * Effetto sul saldo, ricavato dal tipo per le voci registrate prima del ledger
+     */
+    public Money getEffectiveBalanceDelta() {
+        if (balanceDelta != null) {
+            return balanceDelta;
+        }
+        Money value = netAmount != null ? netAmount : (amount != null ? amount : Money.zero());
+        return type == TransactionType.PAYOUT ? value.negate() : value;
+    }
+    
     public void complete() {
         this.status = TransactionStatus.COMPLETED;
         this.completedAt = LocalDateTime.now();
@@ -62,6 +62,7 @@ public class User {
     private Double maxDistance = 10.0; // km - default 10km radius
     private Boolean notificationsEnabled = true;
     private Boolean marketingEnabled = false;
+    private List<String> pushTokens = new ArrayList<>(); // Token FCM dei dispositivi registrati
     
     // Sports with skill levels (per-sport expertise)
     private Map<String, SkillLevel> sportSkillLevels = new HashMap<>();
@@ -172,6 +173,9 @@ public class User {
     public Boolean getNotificationsEnabled() { return notificationsEnabled; }
     public void setNotificationsEnabled(Boolean notificationsEnabled) { this.notificationsEnabled = notificationsEnabled; }
     
+    public List<String> getPushTokens() { return pushTokens; }
+    public void setPushTokens(List<String> pushTokens) { this.pushTokens = pushTokens; }
+    
     public Boolean getMarketingEnabled() { return marketingEnabled; }
     public void setMarketingEnabled(Boolean marketingEnabled) { this.marketingEnabled = marketingEnabled; }
     
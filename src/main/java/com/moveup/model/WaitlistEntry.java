@@ -0,0 +1,120 @@
+package com.moveup.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+
+import jakarta.validation.constraints.NotNull;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * Posizione in lista d'attesa per uno slot (istruttore + data + ora) già prenotato.
+ * La coda è FIFO per createdAt; quando lo slot si libera l'entry in testa riceve un'offerta a tempo.
+ */
+@Document(collection = "waitlist_entries")
+@CompoundIndex(name = "slot_status_created", def = "{'instructorId': 1, 'scheduledDate': 1, 'scheduledTime': 1, 'status': 1, 'createdAt': 1}")
+public class WaitlistEntry {
+    
+    @Id
+    private String id;
+    
+    @NotNull
+    private String lessonId;
+    
+    @NotNull
+    private String instructorId;
+    
+    @NotNull
+    @Indexed
+    private String userId;
+    
+    @NotNull
+    private LocalDateTime scheduledDate;
+    
+    @NotNull
+    private LocalTime scheduledTime;
+    
+    private WaitlistStatus status = WaitlistStatus.WAITING;
+    
+    private LocalDateTime offeredAt;
+    private LocalDateTime offerExpiresAt;
+    private String bookingId; // Booking creata all'accettazione
+    
+    @CreatedDate
+    private LocalDateTime createdAt;
+    
+    // Constructors
+    public WaitlistEntry() {}
+    
+    public WaitlistEntry(String lessonId, String instructorId, String userId,
+                         LocalDateTime scheduledDate, LocalTime scheduledTime) {
+        this.lessonId = lessonId;
+        this.instructorId = instructorId;
+        this.userId = userId;
+        this.scheduledDate = scheduledDate;
+        this.scheduledTime = scheduledTime;
+    }
+    
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    
+    public String getLessonId() { return lessonId; }
+    public void setLessonId(String lessonId) { this.lessonId = lessonId; }
+    
+    public String getInstructorId() { return instructorId; }
+    public void setInstructorId(String instructorId) { this.instructorId = instructorId; }
+    
+    public String getUserId() { return userId; }
+    public void setUserId(String userId) { this.userId = userId; }
+    
+    public LocalDateTime getScheduledDate() { return scheduledDate; }
+    public void setScheduledDate(LocalDateTime scheduledDate) { this.scheduledDate = scheduledDate; }
+    
+    public LocalTime getScheduledTime() { return scheduledTime; }
+    public void setScheduledTime(LocalTime scheduledTime) { this.scheduledTime = scheduledTime; }
+    
+    public WaitlistStatus getStatus() { return status; }
+    public void setStatus(WaitlistStatus status) { this.status = status; }
+    
+    public LocalDateTime getOfferedAt() { return offeredAt; }
+    public void setOfferedAt(LocalDateTime offeredAt) { this.offeredAt = offeredAt; }
+    
+    public LocalDateTime getOfferExpiresAt() { return offerExpiresAt; }
+    public void setOfferExpiresAt(LocalDateTime offerExpiresAt) { this.offerExpiresAt = offerExpiresAt; }
+    
+    public String getBookingId() { return bookingId; }
+    public void setBookingId(String bookingId) { this.bookingId = bookingId; }
+    
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+    
+    // Business methods
+    public boolean isOfferActive() {
+        return status == WaitlistStatus.OFFERED
+            && offerExpiresAt != null
+            && offerExpiresAt.isAfter(LocalDateTime.now());
+    }
+    
+    public static enum WaitlistStatus {
+        WAITING("In attesa"),
+        OFFERED("Posto offerto"),
+        ACCEPTED("Accettato"),
+        DECLINED("Rifiutato"),
+        EXPIRED("Scaduto"),
+        CANCELLED("Annullato");
+        
+        private final String displayName;
+        
+        WaitlistStatus(String displayName) {
+            this.displayName = displayName;
+        }
+        
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+}
@@ -1,17 +1,24 @@
 package com.moveup.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
 @Document(collection = "wallets")
 public class Wallet {
     
+    // Bucket per dividere i wallet tra le partizioni dei payout (bucket % partizioni)
+    public static final int PAYOUT_BUCKETS = 1024;
+    
     @Id
     private String id;
     private String userId;
-    private Double balance = 0.0;
+    private Money balance = Money.zero();
     private String currency = "EUR";
     
     // Bank account setup
@@ -24,9 +31,9 @@ public class Wallet {
     private String stripeConnectedAccountId;
     
     // Stats
-    private Double totalEarnings = 0.0;
+    private Money totalEarnings = Money.zero();
     private Integer totalLessons = 0;
-    private Double totalWithdrawn = 0.0;
+    private Money totalWithdrawn = Money.zero();
     
     // iOS Wallet Pass
     private String passSerialNumber;
@@ -37,6 +44,22 @@ public class Wallet {
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
     
+    // Ultima sequence assegnata nel ledger (transactions)
+    private Long ledgerSequence = 0L;
+    
+    private Integer payoutBucket;
+    
+    // true se il wallet ha voci precedenti al ledger (senza sequence), riassunte nello snapshot di apertura;
+    // null finché la migrazione di WalletLedgerService non l'ha controllato
+    private Boolean legacyHistory;
+    
+    // Voci già applicate al saldo (nello stesso update) e non ancora copiate in transactions
+    private List<Transaction> pendingEntries = new ArrayList<>();
+    
+    // Incrementata anche dagli update atomici di WalletService: un save su una copia obsoleta fallisce
+    @Version
+    private Long version;
+    
     // Constructors
     public Wallet() {
         this.createdAt = LocalDateTime.now();
@@ -47,6 +70,8 @@ public class Wallet {
         this();
         this.userId = userId;
         this.passSerialNumber = "trainer-" + userId;
+        this.legacyHistory = false;
+        this.payoutBucket = ThreadLocalRandom.current().nextInt(PAYOUT_BUCKETS);
     }
     
     // Getters and Setters
@@ -58,6 +83,46 @@ public class Wallet {
         this.id = id;
     }
     
+    public Long getVersion() {
+        return version;
+    }
+    
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+    
+    public Long getLedgerSequence() {
+        return ledgerSequence;
+    }
+    
+    public void setLedgerSequence(Long ledgerSequence) {
+        this.ledgerSequence = ledgerSequence;
+    }
+    
+    public Integer getPayoutBucket() {
+        return payoutBucket;
+    }
+    
+    public void setPayoutBucket(Integer payoutBucket) {
+        this.payoutBucket = payoutBucket;
+    }
+    
+    public Boolean getLegacyHistory() {
+        return legacyHistory;
+    }
+    
+    public void setLegacyHistory(Boolean legacyHistory) {
+        this.legacyHistory = legacyHistory;
+    }
+    
+    public List<Transaction> getPendingEntries() {
+        return pendingEntries;
+    }
+    
+    public void setPendingEntries(List<Transaction> pendingEntries) {
+        this.pendingEntries = pendingEntries;
+    }
+    
     public String getUserId() {
         return userId;
     }
@@ -66,11 +131,11 @@ public class Wallet {
         this.userId = userId;
     }
     
-    public Double getBalance() {
+    public Money getBalance() {
         return balance;
     }
     
-    public void setBalance(Double balance) {
+    public void setBalance(Money balance) {
         this.balance = balance;
         this.updatedAt = LocalDateTime.now();
     }
@@ -124,11 +189,11 @@ public class Wallet {
         this.stripeConnectedAccountId = stripeConnectedAccountId;
     }
     
-    public Double getTotalEarnings() {
+    public Money getTotalEarnings() {
         return totalEarnings;
     }
     
-    public void setTotalEarnings(Double totalEarnings) {
+    public void setTotalEarnings(Money totalEarnings) {
         this.totalEarnings = totalEarnings;
     }
     
@@ -140,11 +205,11 @@ public class Wallet {
         this.totalLessons = totalLessons;
     }
     
-    public Double getTotalWithdrawn() {
+    public Money getTotalWithdrawn() {
         return totalWithdrawn;
     }
     
-    public void setTotalWithdrawn(Double totalWithdrawn) {
+    public void setTotalWithdrawn(Money totalWithdrawn) {
         this.totalWithdrawn = totalWithdrawn;
     }
     
@@ -189,18 +254,18 @@ public class Wallet {
     }
     
     // Helper methods
-    public void credit(Double amount) {
-        this.balance += amount;
-        this.totalEarnings += amount;
+    public void credit(Money amount) {
+        this.balance = this.balance.plus(amount);
+        this.totalEarnings = this.totalEarnings.plus(amount);
         this.updatedAt = LocalDateTime.now();
     }
     
-    public void debit(Double amount) {
-        if (this.balance < amount) {
+    public void debit(Money amount) {
+        if (this.balance.isLessThan(amount)) {
             throw new RuntimeException("Saldo insufficiente");
         }
-        this.balance -= amount;
-        this.totalWithdrawn += amount;
+        this.balance = this.balance.minus(amount);
+        this.totalWithdrawn = this.totalWithdrawn.plus(amount);
         this.updatedAt = LocalDateTime.now();
     }
     
@@ -209,7 +274,10 @@ public class Wallet {
         this.updatedAt = LocalDateTime.now();
     }
     
-    public Double getAverageLessonPrice() {
-        return totalLessons > 0 ? totalEarnings / totalLessons : 0.0;
+    public Money getAverageLessonPrice() {
+        if (totalLessons == null || totalLessons == 0) {
+            return Money.zero();
+        }
+        return Money.ofCents(Math.round((double) totalEarnings.getCents() / totalLessons), totalEarnings.getCurrency());
     }
 }
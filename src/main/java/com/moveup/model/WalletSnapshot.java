@@ -0,0 +1,158 @@
+package com.moveup.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Totali del wallet fino alla voce di ledger "sequence" inclusa.
+ * Saldo e totali correnti = ultimo snapshot + voci con sequence successiva.
+ */
+@Document(collection = "wallet_snapshots")
+public class WalletSnapshot {
+    
+    @Id
+    private String id;
+    private String walletId;
+    
+    private long sequence;          // Ultima voce inclusa
+    private Money balance = Money.zero();
+    private Money totalEarnings = Money.zero();
+    private Money totalWithdrawn = Money.zero();
+    private int totalLessons;
+    private int legacyEntries;      // Voci senza sequence (precedenti al ledger) incluse nei totali
+    
+    private LocalDateTime createdAt;
+    
+    // Constructors
+    public WalletSnapshot() {
+        this.createdAt = LocalDateTime.now();
+    }
+    
+    public WalletSnapshot(String walletId) {
+        this();
+        this.walletId = walletId;
+        this.sequence = -1; // nessuna voce inclusa
+    }
+    
+    // Getters and Setters
+    public String getId() {
+        return id;
+    }
+    
+    public void setId(String id) {
+        this.id = id;
+    }
+    
+    public String getWalletId() {
+        return walletId;
+    }
+    
+    public void setWalletId(String walletId) {
+        this.walletId = walletId;
+    }
+    
+    public long getSequence() {
+        return sequence;
+    }
+    
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+    
+    public Money getBalance() {
+        return balance;
+    }
+    
+    public void setBalance(Money balance) {
+        this.balance = balance;
+    }
+    
+    public Money getTotalEarnings() {
+        return totalEarnings;
+    }
+    
+    public void setTotalEarnings(Money totalEarnings) {
+        this.totalEarnings = totalEarnings;
+    }
+    
+    public Money getTotalWithdrawn() {
+        return totalWithdrawn;
+    }
+    
+    public void setTotalWithdrawn(Money totalWithdrawn) {
+        this.totalWithdrawn = totalWithdrawn;
+    }
+    
+    public int getTotalLessons() {
+        return totalLessons;
+    }
+    
+    public void setTotalLessons(int totalLessons) {
+        this.totalLessons = totalLessons;
+    }
+    
+    public int getLegacyEntries() {
+        return legacyEntries;
+    }
+    
+    public void setLegacyEntries(int legacyEntries) {
+        this.legacyEntries = legacyEntries;
+    }
+    
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+    
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+    
+    // Helper methods
+    
+    /**
+     * Snapshot di apertura (sequence 0) con le voci precedenti al ledger, che non hanno sequence
+     */
+    public static WalletSnapshot opening(String walletId, List<Transaction> legacyEntries) {
+        WalletSnapshot opening = new WalletSnapshot(walletId).plus(legacyEntries);
+        opening.id = openingId(walletId);
+        opening.sequence = 0;
+        opening.legacyEntries = legacyEntries.size();
+        return opening;
+    }
+    
+    public static String openingId(String walletId) {
+        return walletId + ":opening";
+    }
+    
+    /**
+     * Nuovo snapshot = questo + voci successive (solo voci COMPLETED)
+     */
+    public WalletSnapshot plus(Iterable<Transaction> entries) {
+        WalletSnapshot next = new WalletSnapshot(walletId);
+        next.sequence = sequence;
+        next.balance = balance;
+        next.totalEarnings = totalEarnings;
+        next.totalWithdrawn = totalWithdrawn;
+        next.totalLessons = totalLessons;
+        next.legacyEntries = legacyEntries;
+        
+        for (Transaction entry : entries) {
+            next.sequence = Math.max(next.sequence, entry.getSequence());
+            if (entry.getStatus() != Transaction.TransactionStatus.COMPLETED) {
+                continue;
+            }
+            Money delta = entry.getEffectiveBalanceDelta();
+            next.balance = next.balance.plus(delta);
+            if (entry.getType() == Transaction.TransactionType.LESSON_PAYMENT) {
+                next.totalEarnings = next.totalEarnings.plus(delta);
+                next.totalLessons++;
+            } else if (entry.getType() == Transaction.TransactionType.PAYOUT) {
+                next.totalWithdrawn = next.totalWithdrawn.minus(delta);
+            }
+        }
+        return next;
+    }
+}
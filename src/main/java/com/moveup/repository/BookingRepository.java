@@ -60,6 +60,10 @@ public interface BookingRepository extends MongoRepository<Booking, String> {
     @Query("{'instructorId': ?0, 'scheduledDate': ?1, 'scheduledTime': ?2, 'status': {$in: ['PENDING', 'CONFIRMED']}}")
     List<Booking> findConflictingBookings(String instructorId, LocalDateTime scheduledDate, LocalTime scheduledTime);
     
+    // Find active bookings for instructor in date range (availability calendar)
+    @Query("{'instructorId': ?0, 'scheduledDate': {$gte: ?1, $lt: ?2}, 'status': {$in: ['PENDING', 'CONFIRMED']}}")
+    List<Booking> findActiveBookingsByInstructorBetween(String instructorId, LocalDateTime start, LocalDateTime end);
+    
     // Find pending bookings
     @Query("{'status': 'PENDING'}")
     List<Booking> findPendingBookings();
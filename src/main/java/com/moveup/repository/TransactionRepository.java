@@ -48,6 +48,12 @@ public interface TransactionRepository extends MongoRepository<Transaction, Stri
     @Query("{ 'walletId': ?0, 'type': 'LESSON_PAYMENT', 'status': 'COMPLETED' }")
     List<Transaction> findCompletedLessonPaymentsByWalletId(String walletId);
     
+    // Find by ledger key (walletId:sequence)
+    Transaction findByLedgerKey(String ledgerKey);
+    
+    // Ledger tail after a snapshot
+    List<Transaction> findByWalletIdAndSequenceGreaterThanOrderBySequenceAsc(String walletId, long sequence);
+    
     // Count transactions by type
     long countByWalletIdAndType(String walletId, Transaction.TransactionType type);
 }
@@ -0,0 +1,33 @@
+package com.moveup.repository;
+
+import com.moveup.model.WaitlistEntry;
+import com.moveup.model.WaitlistEntry.WaitlistStatus;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface WaitlistEntryRepository extends MongoRepository<WaitlistEntry, String> {
+    
+    // Find entries for user
+    List<WaitlistEntry> findByUserIdOrderByCreatedAtDesc(String userId);
+    
+    // Find entries by status (used to re-arm offer timers on startup)
+    List<WaitlistEntry> findByStatus(WaitlistStatus status);
+    
+    // Check if a user is already queued for a slot
+    boolean existsByUserIdAndInstructorIdAndScheduledDateAndScheduledTimeAndStatusIn(
+        String userId, String instructorId, LocalDateTime scheduledDate, LocalTime scheduledTime, Collection<WaitlistStatus> statuses);
+    
+    // Find entries on a slot by status (active offers hold the slot)
+    List<WaitlistEntry> findByInstructorIdAndScheduledDateAndScheduledTimeAndStatusIn(
+        String instructorId, LocalDateTime scheduledDate, LocalTime scheduledTime, Collection<WaitlistStatus> statuses);
+    
+    // Count users waiting for a slot
+    long countByInstructorIdAndScheduledDateAndScheduledTimeAndStatus(
+        String instructorId, LocalDateTime scheduledDate, LocalTime scheduledTime, WaitlistStatus status);
+}
@@ -0,0 +1,20 @@
+package com.moveup.repository;
+
+import com.moveup.model.WalletSnapshot;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface WalletSnapshotRepository extends MongoRepository<WalletSnapshot, String> {
+    
+    // Latest snapshot for wallet
+    Optional<WalletSnapshot> findFirstByWalletIdOrderBySequenceDesc(String walletId);
+    
+    // Drop superseded snapshots (bounds excluded: the opening snapshot at sequence 0 is kept)
+    void deleteByWalletIdAndSequenceBetween(String walletId, long from, long to);
+    
+    // Drop every snapshot after the opening one
+    void deleteByWalletIdAndSequenceGreaterThan(String walletId, long sequence);
+}
@@ -0,0 +1,364 @@
+package com.moveup.service;
+
+import com.eatthepath.pushy.apns.ApnsClient;
+import com.eatthepath.pushy.apns.ApnsClientBuilder;
+import com.eatthepath.pushy.apns.ApnsClientMetricsListener;
+import com.eatthepath.pushy.apns.ApnsPushNotification;
+import com.eatthepath.pushy.apns.PushNotificationResponse;
+import com.eatthepath.pushy.apns.auth.ApnsSigningKey;
+import com.moveup.model.Booking;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.File;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Invio push APNs con pool di connessioni HTTP/2 e controllo di flusso.
+ *
+ * Un solo ApnsClient con apple.apns.connections connessioni; un semaforo limita le notifiche in volo
+ * (attesa massima acquire-timeout-ms, poi la notifica è scartata come THROTTLED). I rifiuti
+ * temporanei (TooManyRequests, InternalServerError, ServiceUnavailable, Shutdown) e gli errori di
+ * connessione sono ritentati con backoff esponenziale e jitter, tenendo il permesso fino all'esito
+ * finale. I token rifiutati come non più validi vengono tolti dalle Live Activity che li usano.
+ * Gli esiti sono gestiti su apns-callback e non sull'event loop Netty di pushy: la rimozione dei
+ * token è una scrittura Mongo bloccante.
+ * Metriche: apns.notifications{outcome}, apns.retries, apns.delivery, apns.in_flight, apns.connections.
+ *
+ * Server e trust sono configurabili (apple.apns.host, apple.apns.port, apple.apns.trusted-certificate-path)
+ * per puntare a un proxy interno o a un server APNs di test; vuoti, si usano i server Apple.
+ */
+@Service
+public class ApnsSender {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ApnsSender.class);
+    
+    // Rifiuti temporanei: la stessa notifica può essere accettata più tardi
+    private static final Set<String> RETRYABLE_REASONS = Set.of(
+        "TooManyRequests", "InternalServerError", "ServiceUnavailable", "Shutdown");
+    
+    // Token da non usare più
+    private static final Set<String> INVALID_TOKEN_REASONS = Set.of(
+        "Unregistered", "BadDeviceToken", "DeviceTokenNotForTopic", "ExpiredToken");
+    
+    /**
+     * Esito finale di un invio
+     */
+    public enum Outcome {
+        ACCEPTED,
+        REJECTED,
+        INVALID_TOKEN,
+        FAILED,
+        THROTTLED,
+        DISABLED
+    }
+    
+    @Value("${apple.apns.key.path:}")
+    private String apnsKeyPath;
+    
+    @Value("${apple.apns.key.id:}")
+    private String apnsKeyId;
+    
+    @Value("${apple.apns.team.id:}")
+    private String teamId;
+    
+    @Value("${apple.apns.production:false}")
+    private boolean isProduction;
+    
+    @Value("${apple.apns.host:}")
+    private String host;
+    
+    @Value("${apple.apns.port:443}")
+    private int port;
+    
+    @Value("${apple.apns.trusted-certificate-path:}")
+    private String trustedCertificatePath;
+    
+    @Value("${apple.apns.connections:4}")
+    private int connections;
+    
+    @Value("${apple.apns.max-in-flight:1000}")
+    private int maxInFlight;
+    
+    @Value("${apple.apns.acquire-timeout-ms:2000}")
+    private long acquireTimeoutMs;
+    
+    @Value("${apple.apns.callback-threads:2}")
+    private int callbackThreads;
+    
+    @Value("${apple.apns.max-attempts:4}")
+    private int maxAttempts;
+    
+    @Value("${apple.apns.retry-base-ms:500}")
+    private long retryBaseMs;
+    
+    @Value("${apple.apns.retry-max-ms:30000}")
+    private long retryMaxMs;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    private volatile ApnsClient apnsClient;
+    private Semaphore inFlight;
+    private ScheduledExecutorService retryScheduler;
+    private ExecutorService callbackExecutor;
+    
+    private final Map<Outcome, Counter> outcomeCounters = new EnumMap<>(Outcome.class);
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private Counter retryCounter;
+    private Counter prunedCounter;
+    private Timer deliveryTimer;
+    
+    @PostConstruct
+    public void init() {
+        inFlight = new Semaphore(maxInFlight);
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "apns-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger callbackThreadCount = new AtomicInteger();
+        callbackExecutor = Executors.newFixedThreadPool(callbackThreads, runnable -> {
+            Thread thread = new Thread(runnable, "apns-callback-" + callbackThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        for (Outcome outcome : Outcome.values()) {
+            outcomeCounters.put(outcome, meterRegistry.counter("apns.notifications", "outcome", outcome.name().toLowerCase()));
+        }
+        retryCounter = meterRegistry.counter("apns.retries");
+        prunedCounter = meterRegistry.counter("apns.tokens.pruned");
+        deliveryTimer = Timer.builder("apns.delivery")
+                .description("Tempo dall'invio all'esito finale, retry compresi")
+                .register(meterRegistry);
+        Gauge.builder("apns.in_flight", () -> maxInFlight - inFlight.availablePermits())
+                .description("Notifiche APNs in attesa di esito")
+                .register(meterRegistry);
+        Gauge.builder("apns.connections", openConnections, AtomicInteger::get)
+                .description("Connessioni HTTP/2 aperte verso APNs")
+                .register(meterRegistry);
+        
+        apnsClient = buildClient();
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        retryScheduler.shutdownNow();
+        if (apnsClient != null) {
+            try {
+                apnsClient.close().get(10, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                logger.warn("Failed to close APNs client: {}", e.getMessage());
+            }
+        }
+        callbackExecutor.shutdownNow();
+    }
+    
+    public boolean isEnabled() {
+        return apnsClient != null;
+    }
+    
+    /**
+     * Invia la notifica. Il future si completa con l'esito finale, dopo gli eventuali retry,
+     * e non si completa mai con un'eccezione.
+     */
+    public CompletableFuture<Outcome> send(ApnsPushNotification notification) {
+        if (apnsClient == null) {
+            return CompletableFuture.completedFuture(record(Outcome.DISABLED));
+        }
+        
+        try {
+            if (!inFlight.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                logger.warn("APNs in-flight limit reached ({}), dropping notification", maxInFlight);
+                return CompletableFuture.completedFuture(record(Outcome.THROTTLED));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.completedFuture(record(Outcome.THROTTLED));
+        }
+        
+        CompletableFuture<Outcome> result = new CompletableFuture<>();
+        long start = System.nanoTime();
+        result.whenComplete((outcome, error) -> {
+            inFlight.release();
+            deliveryTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        });
+        attempt(notification, 1, result);
+        return result;
+    }
+    
+    // Helper methods
+    
+    private void attempt(ApnsPushNotification notification, int attempt, CompletableFuture<Outcome> result) {
+        try {
+            // Esito fuori dall'event loop: pruneToken e i chiamanti del future possono bloccare
+            apnsClient.sendNotification(notification).whenCompleteAsync((response, error) -> {
+                if (error != null) {
+                    retryOrFail(notification, attempt, result, error.getMessage());
+                } else {
+                    handleResponse(notification, attempt, result, response);
+                }
+            }, callbackExecutor);
+        } catch (Exception e) {
+            retryOrFail(notification, attempt, result, e.getMessage());
+        }
+    }
+    
+    private void handleResponse(ApnsPushNotification notification, int attempt, CompletableFuture<Outcome> result,
+                                PushNotificationResponse<ApnsPushNotification> response) {
+        if (response.isAccepted()) {
+            result.complete(record(Outcome.ACCEPTED));
+            return;
+        }
+        
+        String reason = response.getRejectionReason().orElse("Unknown");
+        if (RETRYABLE_REASONS.contains(reason)) {
+            retryOrFail(notification, attempt, result, reason);
+        } else if (INVALID_TOKEN_REASONS.contains(reason) || response.getTokenInvalidationTimestamp().isPresent()) {
+            pruneToken(notification.getToken(), reason);
+            result.complete(record(Outcome.INVALID_TOKEN));
+        } else {
+            logger.error("APNs push rejected: {} (topic {})", reason, notification.getTopic());
+            result.complete(record(Outcome.REJECTED));
+        }
+    }
+    
+    private void retryOrFail(ApnsPushNotification notification, int attempt, CompletableFuture<Outcome> result,
+                             String reason) {
+        if (attempt >= maxAttempts || retryScheduler.isShutdown()) {
+            logger.error("APNs push failed after {} attempts: {}", attempt, reason);
+            result.complete(record(Outcome.FAILED));
+            return;
+        }
+        
+        // Backoff esponenziale con jitter: i retry di molte notifiche non ripartono insieme
+        long backoff = Math.min(retryMaxMs, retryBaseMs << Math.min(attempt - 1, 20));
+        long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        retryCounter.increment();
+        logger.debug("APNs push attempt {} failed ({}), retrying in {} ms", attempt, reason, delay);
+        try {
+            retryScheduler.schedule(() -> attempt(notification, attempt + 1, result), delay, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            result.complete(record(Outcome.FAILED));
+        }
+    }
+    
+    private void pruneToken(String token, String reason) {
+        try {
+            long pruned = mongoTemplate.updateMulti(
+                new Query(Criteria.where("liveActivity.pushToken").is(token)),
+                new Update().unset("liveActivity.pushToken"),
+                Booking.class).getModifiedCount();
+            prunedCounter.increment();
+            logger.info("Pruned APNs token rejected as {} from {} live activities", reason, pruned);
+        } catch (Exception e) {
+            logger.warn("Failed to prune APNs token: {}", e.getMessage());
+        }
+    }
+    
+    private Outcome record(Outcome outcome) {
+        outcomeCounters.get(outcome).increment();
+        return outcome;
+    }
+    
+    private ApnsClient buildClient() {
+        try {
+            ApnsClientBuilder builder = new ApnsClientBuilder()
+                .setConcurrentConnections(connections)
+                .setMetricsListener(new ConnectionMetricsListener())
+                .setGracefulShutdownTimeout(Duration.ofSeconds(5));
+            
+            if (apnsKeyPath == null || apnsKeyPath.isEmpty()) {
+                logger.warn("APNs key path not configured. Live Activity push notifications will not work.");
+                return null;
+            }
+            
+            String server = host != null && !host.isEmpty() ? host
+                : isProduction ? ApnsClientBuilder.PRODUCTION_APNS_HOST : ApnsClientBuilder.DEVELOPMENT_APNS_HOST;
+            builder.setApnsServer(server, port)
+                .setSigningKey(ApnsSigningKey.loadFromPkcs8File(new File(apnsKeyPath), teamId, apnsKeyId));
+            if (trustedCertificatePath != null && !trustedCertificatePath.isEmpty()) {
+                builder.setTrustedServerCertificateChain(new File(trustedCertificatePath));
+            }
+            
+            ApnsClient client = builder.build();
+            logger.info("APNs client initialized: {} connections, {} max in flight, server {}:{}",
+                connections, maxInFlight, server, port);
+            return client;
+        } catch (Exception e) {
+            logger.error("Failed to initialize APNs client", e);
+            return null;
+        }
+    }
+    
+    // Inner classes
+    
+    /**
+     * Stato del pool di connessioni di pushy esposto come metriche
+     */
+    private class ConnectionMetricsListener implements ApnsClientMetricsListener {
+        
+        private final Counter writeFailures = meterRegistry.counter("apns.client.events", "event", "write_failure");
+        private final Counter connectionFailures = meterRegistry.counter("apns.client.events", "event", "connection_failure");
+        
+        @Override
+        public void handleWriteFailure(ApnsClient client, long notificationId) {
+            writeFailures.increment();
+        }
+        
+        @Override
+        public void handleNotificationSent(ApnsClient client, long notificationId) {
+        }
+        
+        @Override
+        public void handleNotificationAccepted(ApnsClient client, long notificationId) {
+        }
+        
+        @Override
+        public void handleNotificationRejected(ApnsClient client, long notificationId) {
+        }
+        
+        @Override
+        public void handleConnectionAdded(ApnsClient client) {
+            openConnections.incrementAndGet();
+        }
+        
+        @Override
+        public void handleConnectionRemoved(ApnsClient client) {
+            openConnections.decrementAndGet();
+        }
+        
+        @Override
+        public void handleConnectionCreationFailed(ApnsClient client) {
+            connectionFailures.increment();
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package com.moveup.service;
+
+import com.moveup.model.AvailabilityBitmap;
+import com.moveup.model.AvailabilityChange;
+import com.moveup.model.Booking;
+import com.moveup.model.Instructor;
+import com.moveup.model.InstructorAvailability;
+import com.moveup.model.Lesson;
+import com.moveup.repository.BookingRepository;
+import com.moveup.repository.InstructorAvailabilityRepository;
+import com.moveup.repository.InstructorRepository;
+import com.moveup.repository.LessonRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Calendario di disponibilità per istruttore, materializzato in bitmap giornaliere da 96 celle.
+ *
+ * Ogni giorno combina le fasce settimanali (Instructor.availability), gli slot giornalieri
+ * (InstructorAvailability.availableSlots) e le prenotazioni attive. La bitmap viene costruita
+ * alla prima richiesta e poi aggiornata in memoria a ogni prenotazione e cancellazione.
+ *
+ * Ogni modifica viene registrata anche in availability_changes: gli altri nodi la leggono con
+ * pollChanges e scartano le proprie bitmap dell'istruttore. La cache serve per ricerche e
+ * liste; la verifica finale di una prenotazione (isSlotFreeVerified) rilegge da Mongo le
+ * prenotazioni attive del giorno, con una query e un solo caricamento delle durate.
+ */
+@Service
+public class AvailabilityCalendarService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(AvailabilityCalendarService.class);
+    
+    private static final int DEFAULT_LESSON_MINUTES = 60;
+    
+    @Value("${app.availability.change-lookback-ms:60000}")
+    private long changeLookbackMs;
+    
+    @Autowired
+    private InstructorRepository instructorRepository;
+    
+    @Autowired
+    private InstructorAvailabilityRepository availabilityRepository;
+    
+    @Autowired
+    private BookingRepository bookingRepository;
+    
+    @Autowired
+    private LessonRepository lessonRepository;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    // date -> instructorId -> calendario del giorno
+    private final Map<LocalDate, Map<String, DayCalendar>> calendars = new ConcurrentHashMap<>();
+    
+    // instructorId -> ultima versione di availability_changes già applicata alla cache
+    private final Map<String, Long> seenVersions = new ConcurrentHashMap<>();
+    
+    // instructorId -> modifiche locali (occupy, release, evict): una materializzazione
+    // concorrente a una modifica non entra in cache
+    private final Map<String, AtomicLong> localMutations = new ConcurrentHashMap<>();
+    
+    @PostConstruct
+    public void createIndexes() {
+        try {
+            mongoTemplate.indexOps(AvailabilityChange.class)
+                .ensureIndex(new Index().on("changedAt", Sort.Direction.ASC));
+        } catch (Exception e) {
+            logger.error("Failed to create availability change index", e);
+        }
+    }
+    
+    /**
+     * Bitmap delle celle libere per istruttore e giorno
+     */
+    public AvailabilityBitmap getFreeSlots(String instructorId, LocalDate date) {
+        return dayCalendar(instructorId, date).free;
+    }
+    
+    /**
+     * Verifica O(1) che l'istruttore sia libero per l'intera durata indicata
+     */
+    public boolean isSlotFree(String instructorId, LocalDateTime start, int durationMinutes) {
+        return getFreeSlots(instructorId, start.toLocalDate())
+                .isRangeFree(start.toLocalTime(), durationMinutes);
+    }
+    
+    public boolean isSlotFree(Booking booking) {
+        return isSlotFree(booking.getInstructorId(), startOf(booking), resolveDurationMinutes(booking));
+    }
+    
+    /**
+     * Verifica per la conferma di una prenotazione: fasce e slot dalla cache (invalidati a ogni
+     * modifica), prenotazioni attive del giorno rilette da Mongo. La cache non viene toccata.
+     */
+    public boolean isSlotFreeVerified(Booking booking) {
+        LocalDateTime start = startOf(booking);
+        DayCalendar cached = dayCalendar(booking.getInstructorId(), start.toLocalDate());
+        
+        List<Booking> bookings = bookingRepository.findActiveBookingsByInstructorBetween(
+            booking.getInstructorId(), start.toLocalDate().atStartOfDay(), start.toLocalDate().plusDays(1).atStartOfDay()
+        );
+        List<Booking> withNew = new ArrayList<>(bookings);
+        withNew.add(booking);
+        Map<String, Integer> durations = loadDurations(withNew);
+        
+        AvailabilityBitmap free = cached.base.andNot(bookedBitmap(bookings, durations));
+        return free.isRangeFree(start.toLocalTime(), durationOf(booking, durations));
+    }
+    
+    /**
+     * Celle libere per tutti gli istruttori indicati (AND delle singole bitmap)
+     */
+    public AvailabilityBitmap getCommonFreeSlots(Collection<String> instructorIds, LocalDate date) {
+        AvailabilityBitmap common = AvailabilityBitmap.full();
+        for (String instructorId : instructorIds) {
+            common = common.and(getFreeSlots(instructorId, date));
+            if (common.isEmpty()) {
+                break;
+            }
+        }
+        return common;
+    }
+    
+    /**
+     * Istruttori liberi nella fascia indicata, nell'ordine ricevuto
+     */
+    public List<String> filterFreeInstructors(Collection<String> instructorIds, LocalDateTime start, int durationMinutes) {
+        List<String> free = new ArrayList<>();
+        for (String instructorId : instructorIds) {
+            if (isSlotFree(instructorId, start, durationMinutes)) {
+                free.add(instructorId);
+            }
+        }
+        return free;
+    }
+    
+    /**
+     * Segna come occupate le celle della prenotazione
+     */
+    public void occupy(Booking booking) {
+        LocalDateTime start = startOf(booking);
+        int[] cells = bookedCells(start.toLocalTime(), resolveDurationMinutes(booking));
+        markMutated(booking.getInstructorId());
+        calendars.computeIfAbsent(start.toLocalDate(), d -> new ConcurrentHashMap<>())
+                .computeIfPresent(booking.getInstructorId(), (id, day) -> day.withBooked(cells[0], cells[1]));
+        publishChange(booking.getInstructorId());
+    }
+    
+    /**
+     * Libera le celle della prenotazione cancellata.
+     * Si liberano solo le celle interamente coperte, così una cella condivisa con
+     * un'altra lezione (orari non allineati ai 15 minuti) resta occupata.
+     */
+    public void release(Booking booking) {
+        LocalDateTime start = startOf(booking);
+        LocalTime startTime = start.toLocalTime();
+        LocalTime endTime = startTime.plusMinutes(resolveDurationMinutes(booking));
+        int from = AvailabilityBitmap.cellCeil(startTime);
+        int to = endTime.isAfter(startTime) ? AvailabilityBitmap.cellFloor(endTime) : AvailabilityBitmap.SLOTS_PER_DAY;
+        
+        markMutated(booking.getInstructorId());
+        Map<String, DayCalendar> day = calendars.get(start.toLocalDate());
+        if (day != null) {
+            day.computeIfPresent(booking.getInstructorId(), (id, calendar) -> calendar.withReleased(from, to));
+        }
+        publishChange(booking.getInstructorId());
+    }
+    
+    /**
+     * Scarta le bitmap materializzate di un istruttore su tutti i nodi
+     * (modifica delle fasce o prenotazione che cambia stato)
+     */
+    public void invalidate(String instructorId) {
+        evictLocal(instructorId);
+        publishChange(instructorId);
+    }
+    
+    /**
+     * Applica le modifiche registrate dagli altri nodi: scarta le bitmap degli istruttori
+     * la cui versione è più recente di quella già vista
+     */
+    @Scheduled(fixedDelayString = "${app.availability.change-poll-ms:5000}")
+    public void pollChanges() {
+        Query query = new Query(Criteria.where("changedAt").gte(LocalDateTime.now().minus(Duration.ofMillis(changeLookbackMs))));
+        query.fields().include("version");
+        for (AvailabilityChange change : mongoTemplate.find(query, AvailabilityChange.class)) {
+            Long seen = seenVersions.get(change.getId());
+            if (seen == null || change.getVersion() > seen) {
+                evictLocal(change.getId());
+                seenVersions.merge(change.getId(), change.getVersion(), Math::max);
+            }
+        }
+    }
+    
+    /**
+     * Rimuove ogni notte i giorni passati
+     */
+    @Scheduled(cron = "0 5 0 * * *")
+    public void evictPastDays() {
+        LocalDate today = LocalDate.now();
+        calendars.keySet().removeIf(date -> date.isBefore(today));
+    }
+    
+    // Change propagation
+    
+    private void evictLocal(String instructorId) {
+        markMutated(instructorId);
+        calendars.values().forEach(day -> day.remove(instructorId));
+    }
+    
+    private void publishChange(String instructorId) {
+        try {
+            AvailabilityChange change = mongoTemplate.findAndModify(
+                new Query(Criteria.where("_id").is(instructorId)),
+                new Update().inc("version", 1).set("changedAt", LocalDateTime.now()),
+                FindAndModifyOptions.options().upsert(true).returnNew(true),
+                AvailabilityChange.class);
+            if (change == null) {
+                return;
+            }
+            // Una versione saltata (o mai vista) può essere una modifica di un altro nodo non ancora letta
+            Long seen = seenVersions.get(instructorId);
+            if (seen == null || change.getVersion() > seen + 1) {
+                evictLocal(instructorId);
+            }
+            seenVersions.merge(instructorId, change.getVersion(), Math::max);
+        } catch (Exception e) {
+            // La verifica finale delle prenotazioni rilegge da Mongo; gli altri nodi restano indietro fino al prossimo evento
+            logger.warn("Failed to publish availability change for instructor {}: {}", instructorId, e.getMessage());
+        }
+    }
+    
+    // Materialization
+    
+    private DayCalendar dayCalendar(String instructorId, LocalDate date) {
+        Map<String, DayCalendar> day = calendars.computeIfAbsent(date, d -> new ConcurrentHashMap<>());
+        DayCalendar cached = day.get(instructorId);
+        if (cached != null) {
+            return cached;
+        }
+        
+        // Letture Mongo fuori dai lock della mappa
+        long mutations = mutationCount(instructorId);
+        DayCalendar fresh = materialize(instructorId, date);
+        if (mutationCount(instructorId) != mutations) {
+            return fresh; // modificato durante la lettura: non si mette in cache
+        }
+        DayCalendar existing = day.putIfAbsent(instructorId, fresh);
+        if (existing != null) {
+            return existing;
+        }
+        // occupy/release arrivato tra il controllo e l'inserimento: non l'ha visto, si scarta
+        if (mutationCount(instructorId) != mutations) {
+            day.remove(instructorId, fresh);
+        }
+        return fresh;
+    }
+    
+    private void markMutated(String instructorId) {
+        localMutations.computeIfAbsent(instructorId, id -> new AtomicLong()).incrementAndGet();
+    }
+    
+    private long mutationCount(String instructorId) {
+        AtomicLong count = localMutations.get(instructorId);
+        return count != null ? count.get() : 0;
+    }
+    
+    private DayCalendar materialize(String instructorId, LocalDate date) {
+        AvailabilityBitmap base = instructorRepository.findById(instructorId)
+                .map(instructor -> AvailabilityBitmap.fromWeeklyAvailability(instructor, date.getDayOfWeek()))
+                .orElse(AvailabilityBitmap.full());
+        
+        // Gli slot giornalieri, se presenti, sostituiscono le fasce settimanali
+        List<InstructorAvailability> overrides = availabilityRepository.findByInstructorIdAndDate(instructorId, date);
+        if (!overrides.isEmpty()) {
+            AvailabilityBitmap daily = AvailabilityBitmap.empty();
+            boolean hasSlots = false;
+            for (InstructorAvailability override : overrides) {
+                if (!override.isAvailable()) {
+                    daily = AvailabilityBitmap.empty();
+                    hasSlots = true;
+                    break;
+                }
+                if (override.getAvailableSlots() != null && !override.getAvailableSlots().isEmpty()) {
+                    daily = daily.or(AvailabilityBitmap.fromTimeSlots(override.getAvailableSlots()));
+                    hasSlots = true;
+                }
+            }
+            if (hasSlots) {
+                base = daily;
+            }
+        }
+        
+        List<Booking> bookings = bookingRepository.findActiveBookingsByInstructorBetween(
+            instructorId, date.atStartOfDay(), date.plusDays(1).atStartOfDay()
+        );
+        return new DayCalendar(base, bookedBitmap(bookings, loadDurations(bookings)));
+    }
+    
+    private AvailabilityBitmap bookedBitmap(List<Booking> bookings, Map<String, Integer> durations) {
+        AvailabilityBitmap booked = AvailabilityBitmap.empty();
+        for (Booking booking : bookings) {
+            int[] cells = bookedCells(startOf(booking).toLocalTime(), durationOf(booking, durations));
+            booked = booked.withFree(cells[0], cells[1]);
+        }
+        return booked;
+    }
+    
+    // Durate delle lezioni delle prenotazioni, con una sola query
+    private Map<String, Integer> loadDurations(List<Booking> bookings) {
+        Set<String> lessonIds = bookings.stream()
+                .map(Booking::getLessonId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<String, Integer> durations = new HashMap<>();
+        if (!lessonIds.isEmpty()) {
+            for (Lesson lesson : lessonRepository.findAllById(lessonIds)) {
+                durations.put(lesson.getId(), lesson.getDuration());
+            }
+        }
+        return durations;
+    }
+    
+    private int durationOf(Booking booking, Map<String, Integer> durations) {
+        Integer duration = booking.getLessonId() != null ? durations.get(booking.getLessonId()) : null;
+        return duration != null && duration > 0 ? duration : DEFAULT_LESSON_MINUTES;
+    }
+    
+    // Celle [from, to) occupate da una lezione; se sfora la mezzanotte si ferma a fine giornata
+    private int[] bookedCells(LocalTime startTime, int durationMinutes) {
+        LocalTime endTime = startTime.plusMinutes(durationMinutes);
+        int from = AvailabilityBitmap.cellFloor(startTime);
+        int to = endTime.isAfter(startTime) ? AvailabilityBitmap.cellCeil(endTime) : AvailabilityBitmap.SLOTS_PER_DAY;
+        return new int[]{from, to};
+    }
+    
+    private LocalDateTime startOf(Booking booking) {
+        if (booking.getScheduledTime() != null) {
+            return booking.getScheduledDate().toLocalDate().atTime(booking.getScheduledTime());
+        }
+        return booking.getScheduledDate();
+    }
+    
+    private int resolveDurationMinutes(Booking booking) {
+        if (booking.getLessonId() == null) {
+            return DEFAULT_LESSON_MINUTES;
+        }
+        return lessonRepository.findById(booking.getLessonId())
+                .map(lesson -> lesson.getDuration() > 0 ? lesson.getDuration() : DEFAULT_LESSON_MINUTES)
+                .orElse(DEFAULT_LESSON_MINUTES);
+    }
+    
+    /**
+     * Stato di un giorno: fasce lavorative (base) e celle prenotate (booked).
+     * Nella bitmap "booked" un bit a 1 indica una cella occupata.
+     */
+    private static final class DayCalendar {
+        private final AvailabilityBitmap base;
+        private final AvailabilityBitmap booked;
+        private final AvailabilityBitmap free;
+        
+        private DayCalendar(AvailabilityBitmap base, AvailabilityBitmap booked) {
+            this.base = base;
+            this.booked = booked;
+            this.free = base.andNot(booked);
+        }
+        
+        private DayCalendar withBooked(int fromCell, int toCell) {
+            return new DayCalendar(base, booked.withFree(fromCell, toCell));
+        }
+        
+        private DayCalendar withReleased(int fromCell, int toCell) {
+            return new DayCalendar(base, booked.withBusy(fromCell, toCell));
+        }
+    }
+}
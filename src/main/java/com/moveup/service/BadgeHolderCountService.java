@@ -0,0 +1,172 @@
+package com.moveup.service;
+
+import com.moveup.model.BadgeHolderCount;
+import com.moveup.model.User;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Contatori dei possessori di ogni badge, uno per documento in badge_holder_counts.
+ *
+ * Assegnazione e revoca applicano un $inc solo se hanno davvero modificato l'utente, quindi le
+ * statistiche di un badge si leggono con un findById invece di scorrere tutti gli utenti. Il job
+ * notturno ricalcola i contatori con un'aggregazione su users e corregge eventuali derive (es.
+ * utenti modificati a mano o un $inc perso per un errore tra le due scritture).
+ */
+@Service
+public class BadgeHolderCountService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(BadgeHolderCountService.class);
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @PostConstruct
+    public void init() {
+        try {
+            // Primo avvio: i contatori partono dai badge già assegnati
+            if (!mongoTemplate.exists(new Query(), BadgeHolderCount.class)) {
+                reconcile();
+            }
+        } catch (Exception e) {
+            logger.error("Failed to initialize badge holder counters", e);
+        }
+    }
+    
+    /**
+     * Un possessore in più per ciascun badge appena assegnato
+     */
+    public void increment(Collection<String> badgeIds) {
+        adjust(badgeIds, 1);
+    }
+    
+    /**
+     * Un possessore in meno per ciascun badge revocato
+     */
+    public void decrement(Collection<String> badgeIds) {
+        adjust(badgeIds, -1);
+    }
+    
+    public long getHolders(String badgeId) {
+        BadgeHolderCount count = mongoTemplate.findById(badgeId, BadgeHolderCount.class);
+        return count != null ? Math.max(0, count.getHolders()) : 0;
+    }
+    
+    public Map<String, Long> getAllHolders() {
+        Map<String, Long> holders = new HashMap<>();
+        for (BadgeHolderCount count : mongoTemplate.findAll(BadgeHolderCount.class)) {
+            holders.put(count.getId(), Math.max(0, count.getHolders()));
+        }
+        return holders;
+    }
+    
+    /**
+     * Percentuale di utenti che possiede il badge (0-100). Il totale utenti è la stima dai
+     * metadati della collection: nessuna scansione, precisione più che sufficiente per la rarità.
+     */
+    public double getHolderPercentage(String badgeId) {
+        return percentage(getHolders(badgeId), mongoTemplate.estimatedCount(User.class));
+    }
+    
+    /**
+     * Percentuale di possessori per ogni badge del catalogo (0 per i badge mai assegnati)
+     */
+    public Map<String, Double> getHolderPercentages(Collection<String> badgeIds) {
+        long totalUsers = mongoTemplate.estimatedCount(User.class);
+        Map<String, Long> holders = getAllHolders();
+        Map<String, Double> percentages = new LinkedHashMap<>();
+        for (String badgeId : badgeIds) {
+            percentages.put(badgeId, percentage(holders.getOrDefault(badgeId, 0L), totalUsers));
+        }
+        return percentages;
+    }
+    
+    /**
+     * Ricalcola tutti i contatori da users. Un'assegnazione concorrente può essere contata due
+     * volte o persa fino al run successivo: la deriva resta limitata alla finestra del job.
+     */
+    @Scheduled(cron = "${app.badges.holders-reconcile-cron:0 45 3 * * *}")
+    public void reconcile() {
+        Aggregation aggregation = Aggregation.newAggregation(
+            Aggregation.match(Criteria.where("badges.0").exists(true)),
+            Aggregation.project("badges"),
+            Aggregation.unwind("badges"),
+            Aggregation.group("badges").count().as("holders")
+        ).withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+        
+        List<Document> results = mongoTemplate.aggregate(aggregation, User.class, Document.class).getMappedResults();
+        
+        LocalDateTime now = LocalDateTime.now();
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, BadgeHolderCount.class);
+        List<Object> counted = new ArrayList<>(results.size());
+        for (Document result : results) {
+            Object badgeId = result.get("_id");
+            if (badgeId == null) {
+                continue;
+            }
+            counted.add(badgeId);
+            bulk.upsert(new Query(Criteria.where("_id").is(badgeId)),
+                new Update().set("holders", ((Number) result.get("holders")).longValue())
+                    .set("updatedAt", now)
+                    .set("reconciledAt", now));
+        }
+        if (!counted.isEmpty()) {
+            bulk.execute();
+        }
+        
+        // Badge non più posseduti da nessuno
+        mongoTemplate.updateMulti(new Query(Criteria.where("_id").nin(counted)),
+            new Update().set("holders", 0L).set("updatedAt", now).set("reconciledAt", now),
+            BadgeHolderCount.class);
+        
+        logger.info("Reconciled holder counters for {} badges", counted.size());
+    }
+    
+    // Helper methods
+    
+    private void adjust(Collection<String> badgeIds, long delta) {
+        if (badgeIds == null || badgeIds.isEmpty()) {
+            return;
+        }
+        
+        LocalDateTime now = LocalDateTime.now();
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, BadgeHolderCount.class);
+        for (String badgeId : badgeIds) {
+            bulk.upsert(new Query(Criteria.where("_id").is(badgeId)),
+                new Update().inc("holders", delta).set("updatedAt", now));
+        }
+        try {
+            bulk.execute();
+        } catch (Exception e) {
+            // Il badge è già stato assegnato o revocato: il contatore viene riallineato dal job notturno
+            logger.error("Failed to update holder counters for badges {}", badgeIds, e);
+        }
+    }
+    
+    private double percentage(long holders, long totalUsers) {
+        if (totalUsers <= 0) {
+            return 0;
+        }
+        return Math.min(100.0, Math.round(holders * 10000.0 / totalUsers) / 100.0);
+    }
+}
@@ -0,0 +1,193 @@
+package com.moveup.service;
+
+import com.moveup.model.Badge;
+import com.moveup.model.BadgeRequirements;
+import com.moveup.model.GameStatus;
+import com.moveup.model.User;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Regole dei badge attivi compilate in predicati su valori primitivi.
+ *
+ * Ogni soglia (minLessons, minReviews, minRating) è indicizzata in un array ordinato per
+ * statistica: quando una statistica passa da un valore all'altro si valutano solo i badge
+ * con una soglia in quell'intervallo, invece di tutti i badge attivi. Le regole vengono
+ * ricompilate da CatalogService a ogni nuovo snapshot del catalogo badge.
+ */
+@Service
+public class BadgeRuleEngine {
+    
+    /**
+     * Statistiche utente usate dai requisiti dei badge
+     */
+    public enum Stat {
+        TOTAL_LESSONS,
+        TOTAL_REVIEWS,
+        AVERAGE_RATING
+    }
+    
+    private static final int STAT_COUNT = Stat.values().length;
+    
+    private volatile CompiledRules rules = CompiledRules.compile(Collections.emptyList());
+    
+    /**
+     * Ricompila le regole dai badge attivi del catalogo
+     */
+    public void compile(List<Badge> activeBadges) {
+        rules = CompiledRules.compile(activeBadges);
+    }
+    
+    /**
+     * Tutti i badge attivi di cui l'utente soddisfa i requisiti
+     */
+    public List<Badge> eligibleBadges(UserStats stats) {
+        List<Badge> eligible = new ArrayList<>();
+        for (CompiledBadge badge : rules.badges) {
+            if (badge.matches(stats)) {
+                eligible.add(badge.badge);
+            }
+        }
+        return eligible;
+    }
+    
+    /**
+     * Badge con una soglia su "stat" superata passando da oldValue a newValue e ora soddisfatti
+     */
+    public List<Badge> crossedBadges(Stat stat, double oldValue, double newValue, UserStats stats) {
+        if (newValue <= oldValue) {
+            return Collections.emptyList(); // una statistica che scende non sblocca badge
+        }
+        
+        ThresholdIndex index = rules.byStat[stat.ordinal()];
+        List<Badge> crossed = new ArrayList<>();
+        for (int i = index.firstAbove(oldValue); i < index.thresholds.length && index.thresholds[i] <= newValue; i++) {
+            if (index.badges[i].matches(stats)) {
+                crossed.add(index.badges[i].badge);
+            }
+        }
+        return crossed;
+    }
+    
+    // Inner classes
+    
+    /**
+     * Statistiche di un utente in forma primitiva, indicizzate per Stat
+     */
+    public static final class UserStats {
+        private final double[] values = new double[STAT_COUNT];
+        private String primarySportCategory;
+        
+        public static UserStats of(User user) {
+            UserStats stats = new UserStats();
+            GameStatus status = user.getGameStatus();
+            if (status != null) {
+                stats.values[Stat.TOTAL_LESSONS.ordinal()] = status.getTotalLessons();
+                stats.values[Stat.TOTAL_REVIEWS.ordinal()] = status.getTotalReviews();
+                stats.values[Stat.AVERAGE_RATING.ordinal()] = status.getAverageRating();
+            }
+            return stats;
+        }
+        
+        public double get(Stat stat) {
+            return values[stat.ordinal()];
+        }
+        
+        public UserStats with(Stat stat, double value) {
+            values[stat.ordinal()] = value;
+            return this;
+        }
+        
+        public String getPrimarySportCategory() { return primarySportCategory; }
+        public void setPrimarySportCategory(String primarySportCategory) { this.primarySportCategory = primarySportCategory; }
+    }
+    
+    /**
+     * Requisiti di un badge: minimi per statistica (0 = nessun vincolo) e categoria sport
+     */
+    static final class CompiledBadge {
+        private final Badge badge;
+        private final double[] minimums = new double[STAT_COUNT];
+        private final String sportCategory;
+        
+        CompiledBadge(Badge badge) {
+            this.badge = badge;
+            BadgeRequirements requirements = badge.getRequirements() != null ? badge.getRequirements() : new BadgeRequirements();
+            minimums[Stat.TOTAL_LESSONS.ordinal()] = Math.max(0, requirements.getMinLessons());
+            minimums[Stat.TOTAL_REVIEWS.ordinal()] = Math.max(0, requirements.getMinReviews());
+            minimums[Stat.AVERAGE_RATING.ordinal()] = Math.max(0, requirements.getMinRating());
+            String category = requirements.getSportCategory();
+            this.sportCategory = category != null && !category.isEmpty() ? category : null;
+        }
+        
+        boolean matches(UserStats stats) {
+            for (int i = 0; i < STAT_COUNT; i++) {
+                if (minimums[i] > 0 && stats.values[i] < minimums[i]) {
+                    return false;
+                }
+            }
+            return sportCategory == null || sportCategory.equals(stats.primarySportCategory);
+        }
+    }
+    
+    /**
+     * Soglie di una statistica in ordine crescente, con il badge corrispondente
+     */
+    static final class ThresholdIndex {
+        private final double[] thresholds;
+        private final CompiledBadge[] badges;
+        
+        ThresholdIndex(List<CompiledBadge> entries, Stat stat) {
+            entries.sort(Comparator.comparingDouble(badge -> badge.minimums[stat.ordinal()]));
+            this.thresholds = new double[entries.size()];
+            this.badges = entries.toArray(new CompiledBadge[0]);
+            for (int i = 0; i < badges.length; i++) {
+                thresholds[i] = badges[i].minimums[stat.ordinal()];
+            }
+        }
+        
+        // Prima posizione con soglia strettamente maggiore di value
+        int firstAbove(double value) {
+            int low = 0;
+            int high = thresholds.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (thresholds[mid] <= value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+    
+    static final class CompiledRules {
+        private final CompiledBadge[] badges;
+        private final ThresholdIndex[] byStat = new ThresholdIndex[STAT_COUNT];
+        
+        private CompiledRules(CompiledBadge[] badges) {
+            this.badges = badges;
+            for (Stat stat : Stat.values()) {
+                List<CompiledBadge> entries = new ArrayList<>();
+                for (CompiledBadge badge : badges) {
+                    if (badge.minimums[stat.ordinal()] > 0) {
+                        entries.add(badge);
+                    }
+                }
+                byStat[stat.ordinal()] = new ThresholdIndex(entries, stat);
+            }
+        }
+        
+        static CompiledRules compile(List<Badge> activeBadges) {
+            return new CompiledRules(activeBadges.stream()
+                .filter(badge -> badge.getId() != null)
+                .map(CompiledBadge::new)
+                .toArray(CompiledBadge[]::new));
+        }
+    }
+}
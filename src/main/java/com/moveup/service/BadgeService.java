@@ -1,18 +1,24 @@
 package com.moveup.service;
 
 import com.moveup.model.Badge;
+import com.moveup.model.PointsEvent;
 import com.moveup.model.User;
 import com.moveup.repository.BadgeRepository;
 import com.moveup.repository.UserRepository;
+import com.moveup.service.BadgeRuleEngine.Stat;
+import com.moveup.service.BadgeRuleEngine.UserStats;
+import com.mongodb.client.result.UpdateResult;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -30,6 +36,24 @@ public class BadgeService {
     @Autowired
     private NotificationService notificationService;
     
+    @Autowired
+    private BadgeRuleEngine badgeRuleEngine;
+    
+    @Autowired
+    private CatalogService catalogService;
+    
+    @Autowired
+    private BadgeHolderCountService badgeHolderCountService;
+    
+    @Autowired
+    private PointsService pointsService;
+    
+    @Autowired
+    private PointsLedgerService pointsLedgerService;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
     // Create new badge
     public Badge createBadge(Badge badge) {
         // Check if badge title already exists
@@ -37,12 +61,14 @@ public class BadgeService {
             throw new RuntimeException("Un badge con questo titolo esiste già");
         }
         
-        return badgeRepository.save(badge);
+        Badge saved = badgeRepository.save(badge);
+        catalogService.putBadge(saved);
+        return saved;
     }
     
     // Get badge by ID
     public Optional<Badge> getBadgeById(String badgeId) {
-        return badgeRepository.findById(badgeId);
+        return catalogService.getBadge(badgeId);
     }
     
     // Get badge by title
@@ -83,7 +109,9 @@ public class BadgeService {
             existingBadge.setRewards(updatedBadge.getRewards());
         }
         
-        return badgeRepository.save(existingBadge);
+        Badge saved = badgeRepository.save(existingBadge);
+        catalogService.putBadge(saved);
+        return saved;
     }
     
     // Delete badge (soft delete - mark as inactive)
@@ -92,12 +120,12 @@ public class BadgeService {
                 .orElseThrow(() -> new RuntimeException("Badge non trovato"));
         
         badge.setActive(false);
-        badgeRepository.save(badge);
+        catalogService.putBadge(badgeRepository.save(badge));
     }
     
     // Get all active badges
     public List<Badge> getAllActiveBadges() {
-        return badgeRepository.findByIsActiveTrue();
+        return catalogService.getActiveBadges();
     }
     
     // Get badges by type
@@ -145,57 +173,65 @@ public class BadgeService {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new RuntimeException("Utente non trovato"));
         
-        // Get user stats
-        Map<String, Object> userStats = getUserStatsForBadges(user);
-        
-        // Get all active badges
-        List<Badge> allBadges = badgeRepository.findByIsActiveTrue();
-        
-        List<Badge> awardedBadges = new ArrayList<>();
-        
-        for (Badge badge : allBadges) {
-            // Check if user already has this badge
-            if (!user.hasBadge(badge.getId()) && badge.isEligibleForUser(userStats)) {
-                awardBadgeToUser(userId, badge.getId());
-                awardedBadges.add(badge);
+        List<Badge> newBadges = new ArrayList<>();
+        for (Badge badge : badgeRuleEngine.eligibleBadges(UserStats.of(user))) {
+            if (!user.hasBadge(badge.getId())) {
+                newBadges.add(badge);
             }
         }
         
-        return awardedBadges;
+        return awardBadges(userId, newBadges);
     }
     
-    // Award specific badge to user
-    public void awardBadgeToUser(String userId, String badgeId) {
+    /**
+     * Controllo incrementale dopo la variazione di una statistica: si valutano solo
+     * i badge con una soglia compresa tra il vecchio e il nuovo valore
+     */
+    public List<Badge> checkAndAwardBadges(String userId, Stat stat, double oldValue, double newValue) {
+        if (newValue <= oldValue) {
+            return Collections.emptyList();
+        }
+        
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new RuntimeException("Utente non trovato"));
         
-        Badge badge = badgeRepository.findById(badgeId)
-                .orElseThrow(() -> new RuntimeException("Badge non trovato"));
-        
-        // Check if user already has this badge
-        if (user.hasBadge(badgeId)) {
-            return; // User already has this badge
+        UserStats stats = UserStats.of(user).with(stat, newValue);
+        List<Badge> newBadges = new ArrayList<>();
+        for (Badge badge : badgeRuleEngine.crossedBadges(stat, oldValue, newValue, stats)) {
+            if (!user.hasBadge(badge.getId())) {
+                newBadges.add(badge);
+            }
         }
         
-        // Award the badge
-        user.addBadge(badgeId);
-        
-        // Add points and experience
-        int points = badge.getPointsValue();
-        if (badge.getRewards().getPoints() > 0) {
-            points = badge.getRewards().getPoints();
+        return awardBadges(userId, newBadges);
+    }
+    
+    // Award specific badge to user
+    public void awardBadgeToUser(String userId, String badgeId) {
+        if (!userRepository.existsById(userId)) {
+            throw new RuntimeException("Utente non trovato");
         }
         
-        user.addPoints(points);
+        Badge badge = catalogService.getBadge(badgeId)
+                .orElseThrow(() -> new RuntimeException("Badge non trovato"));
         
-        if (badge.getRewards().getExperiencePoints() > 0) {
-            user.addExperience(badge.getRewards().getExperiencePoints());
+        awardBadges(userId, List.of(badge));
+    }
+    
+    // Revoke badge from user (points already granted are kept)
+    public void revokeBadgeFromUser(String userId, String badgeId) {
+        UpdateResult result = mongoTemplate.updateFirst(
+            new Query(Criteria.where("_id").is(userId).and("badges").is(badgeId)),
+            new Update().pull("badges", badgeId),
+            User.class);
+        
+        if (result.getMatchedCount() == 0) {
+            if (!userRepository.existsById(userId)) {
+                throw new RuntimeException("Utente non trovato");
+            }
+            throw new RuntimeException("L'utente non possiede questo badge");
         }
-        
-        userRepository.save(user);
-        
-        // Send notification
-        notificationService.sendBadgeEarnedNotification(userId, badgeId, badge.getTitle());
+        badgeHolderCountService.decrement(List.of(badgeId));
     }
     
     // Get badges eligible for user
@@ -203,12 +239,9 @@ public class BadgeService {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new RuntimeException("Utente non trovato"));
         
-        Map<String, Object> userStats = getUserStatsForBadges(user);
-        
-        return badgeRepository.findByIsActiveTrue()
+        return badgeRuleEngine.eligibleBadges(UserStats.of(user))
                 .stream()
                 .filter(badge -> !user.hasBadge(badge.getId()))
-                .filter(badge -> badge.isEligibleForUser(userStats))
                 .toList();
     }
     
@@ -217,12 +250,8 @@ public class BadgeService {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new RuntimeException("Utente non trovato"));
         
-        return user.getGameStatus().getBadges()
-                .stream()
-                .map(badgeId -> badgeRepository.findById(badgeId))
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .toList();
+        // Risolti dal catalogo in memoria, senza una query per badge
+        return catalogService.getBadges(user.getGameStatus().getBadges());
     }
     
     // Count badges by category
@@ -242,7 +271,7 @@ public class BadgeService {
     
     // Get badge statistics
     public BadgeStatistics getBadgeStatistics(String badgeId) {
-        Badge badge = badgeRepository.findById(badgeId)
+        Badge badge = catalogService.getBadge(badgeId)
                 .orElseThrow(() -> new RuntimeException("Badge non trovato"));
         
         BadgeStatistics stats = new BadgeStatistics();
@@ -253,40 +282,127 @@ public class BadgeService {
         stats.setRarity(badge.getRarity().name());
         stats.setPointsValue(badge.getPointsValue());
         
-        // Count users who have this badge
-        long usersWithBadge = userRepository.findByIsActiveTrue()
-                .stream()
-                .filter(user -> user.hasBadge(badgeId))
-                .count();
-        
-        stats.setUsersWithBadge(usersWithBadge);
+        // Contatore mantenuto ad assegnazione e revoca, senza scorrere gli utenti
+        stats.setUsersWithBadge(badgeHolderCountService.getHolders(badgeId));
+        stats.setHolderPercentage(badgeHolderCountService.getHolderPercentage(badgeId));
         
         return stats;
     }
     
-    // Helper method to get user stats for badge eligibility
-    private Map<String, Object> getUserStatsForBadges(User user) {
-        Map<String, Object> stats = new HashMap<>();
+    // Get percentage of users holding each active badge
+    public Map<String, Double> getBadgeRarity() {
+        return badgeHolderCountService.getHolderPercentages(
+            catalogService.getActiveBadges().stream().map(Badge::getId).toList());
+    }
+    
+    // Get all badges
+    public List<Badge> getAllBadges() {
+        return catalogService.getAllBadges();
+    }
+    
+    // Helper methods
+    
+    /**
+     * Assegna i badge con un solo update: badge, punti ed esperienza insieme.
+     * La condizione su "badges" evita di accreditare due volte i punti se un altro
+     * controllo ha assegnato gli stessi badge nel frattempo. I punti finiscono nel
+     * registro (PointsEvent.Source.BADGE) e il livello salvato sale con $max.
+     */
+    private List<Badge> awardBadges(String userId, List<Badge> badges) {
+        if (badges.isEmpty()) {
+            return badges;
+        }
+        
+        List<String> badgeIds = badges.stream().map(Badge::getId).toList();
+        List<Badge> awarded = badges;
+        User updated = applyAward(Criteria.where("_id").is(userId).and("badges").nin(badgeIds), badges);
+        List<PointsEvent> ledger = new ArrayList<>();
+        if (updated != null) {
+            ledger.addAll(pointsEvents(userId, badges, updated.getPoints()));
+        } else {
+            // Parte dei badge già assegnata da un controllo concorrente: si procede uno alla volta
+            awarded = new ArrayList<>();
+            for (Badge badge : badges) {
+                User single = applyAward(Criteria.where("_id").is(userId).and("badges").ne(badge.getId()), List.of(badge));
+                if (single != null) {
+                    awarded.add(badge);
+                    ledger.addAll(pointsEvents(userId, List.of(badge), single.getPoints()));
+                }
+            }
+        }
         
-        // Basic user stats
-        stats.put("totalLessons", user.getGameStatus().getTotalLessons());
-        stats.put("totalReviews", user.getGameStatus().getTotalReviews());
-        stats.put("averageRating", user.getGameStatus().getAverageRating());
-        stats.put("totalPoints", user.getGameStatus().getTotalPoints());
-        stats.put("level", user.getGameStatus().getLevel());
-        stats.put("experiencePoints", user.getGameStatus().getExperiencePoints());
+        if (!ledger.isEmpty()) {
+            pointsLedgerService.recordAll(ledger);
+            updateLevel(userId, ledger);
+        }
         
-        // You could add more complex stats here like:
-        // - Consecutive days of activity
-        // - Primary sport category
-        // - Etc.
+        badgeHolderCountService.increment(awarded.stream().map(Badge::getId).toList());
         
-        return stats;
+        // Send notification
+        for (Badge badge : awarded) {
+            notificationService.sendBadgeEarnedNotification(userId, badge.getId(), badge.getTitle());
+        }
+        return awarded;
     }
     
-    // Get all badges
-    public List<Badge> getAllBadges() {
-        return badgeRepository.findAll();
+    // Points granted by a badge
+    public static int rewardPoints(Badge badge) {
+        return badge.getRewards().getPoints() > 0 ? badge.getRewards().getPoints() : badge.getPointsValue();
+    }
+    
+    // Experience granted by a badge
+    public static int rewardExperience(Badge badge) {
+        return Math.max(0, badge.getRewards().getExperiencePoints());
+    }
+    
+    // Applica l'assegnazione e ritorna il saldo punti risultante (null se la condizione non è soddisfatta)
+    private User applyAward(Criteria criteria, List<Badge> badges) {
+        Query query = new Query(criteria);
+        query.fields().include("points");
+        return mongoTemplate.findAndModify(query, awardUpdate(badges),
+            FindAndModifyOptions.options().returnNew(true), User.class);
+    }
+    
+    private Update awardUpdate(List<Badge> badges) {
+        int points = 0;
+        int experience = 0;
+        for (Badge badge : badges) {
+            // Add points and experience
+            points += rewardPoints(badge);
+            experience += rewardExperience(badge);
+        }
+        
+        Update update = new Update()
+            .addToSet("badges").each(badges.stream().map(Badge::getId).toArray())
+            .inc("points", points);
+        if (experience > 0) {
+            update.inc("gameStatus.experiencePoints", experience);
+        }
+        return update;
+    }
+    
+    // Un movimento per badge con punti, con i saldi ricostruiti a ritroso dal saldo finale
+    private List<PointsEvent> pointsEvents(String userId, List<Badge> badges, int balanceAfter) {
+        List<PointsEvent> events = new ArrayList<>();
+        int balance = balanceAfter - badges.stream().mapToInt(BadgeService::rewardPoints).sum();
+        for (Badge badge : badges) {
+            int points = rewardPoints(badge);
+            if (points > 0) {
+                balance += points;
+                events.add(new PointsEvent(userId, points, balance, PointsEvent.Source.BADGE,
+                    badge.getId(), "Badge ottenuto: " + badge.getTitle()));
+            }
+        }
+        return events;
+    }
+    
+    private void updateLevel(String userId, List<PointsEvent> ledger) {
+        int before = pointsService.calculateLevel(ledger.get(0).getBalanceBefore());
+        int after = pointsService.calculateLevel(ledger.get(ledger.size() - 1).getBalanceAfter());
+        if (after > before) {
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(userId)),
+                new Update().max("gameStatus.level", after), User.class);
+        }
     }
     
     // Helper class for badge statistics
@@ -298,6 +414,7 @@ public class BadgeService {
         private String rarity;
         private int pointsValue;
         private long usersWithBadge;
+        private double holderPercentage;
         
         // Getters and setters
         public String getBadgeId() { return badgeId; }
@@ -320,5 +437,8 @@ public class BadgeService {
         
         public long getUsersWithBadge() { return usersWithBadge; }
         public void setUsersWithBadge(long usersWithBadge) { this.usersWithBadge = usersWithBadge; }
+        
+        public double getHolderPercentage() { return holderPercentage; }
+        public void setHolderPercentage(double holderPercentage) { this.holderPercentage = holderPercentage; }
     }
 }
\ No newline at end of file
@@ -5,7 +5,11 @@ import com.moveup.model.Booking.BookingStatus;
 import com.moveup.model.Booking.PaymentStatus;
 import com.moveup.model.User;
 import com.moveup.model.Instructor;
+import com.moveup.model.Lesson;
+import com.moveup.model.LessonSeats;
+import com.moveup.model.WaitlistEntry;
 import com.moveup.repository.BookingRepository;
+import com.moveup.repository.LessonRepository;
 import com.moveup.repository.UserRepository;
 import com.moveup.repository.InstructorRepository;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -39,19 +43,61 @@ public class BookingService {
     @Autowired
     private EmailService emailService;
     
+    @Autowired
+    private AvailabilityCalendarService availabilityCalendarService;
+    
+    @Autowired
+    private WaitlistService waitlistService;
+    
+    @Autowired
+    private LessonRepository lessonRepository;
+    
+    @Autowired
+    private LessonSeatService lessonSeatService;
+    
+    @Autowired
+    private GamificationService gamificationService;
+    
     // Create new booking
     public Booking createBooking(Booking booking) {
-        // Verify no conflicts
+        Lesson lesson = booking.getLessonId() != null
+                ? lessonRepository.findById(booking.getLessonId()).orElse(null)
+                : null;
+        boolean groupLesson = lesson != null && lesson.isGroupLesson();
+        
+        // Verify no conflicts (group lessons share the slot among participants of the same lesson)
         List<Booking> conflicts = bookingRepository.findConflictingBookings(
             booking.getInstructorId(), 
             booking.getScheduledDate(), 
             booking.getScheduledTime()
         );
         
+        boolean groupAlreadyRunning = false;
+        if (groupLesson) {
+            for (Booking existing : conflicts) {
+                if (booking.getUserId().equals(existing.getUserId())) {
+                    throw new RuntimeException("Sei già iscritto a questa lezione");
+                }
+            }
+            groupAlreadyRunning = conflicts.stream().anyMatch(b -> lesson.getId().equals(b.getLessonId()));
+            conflicts = conflicts.stream().filter(b -> !lesson.getId().equals(b.getLessonId())).toList();
+        }
+        
         if (!conflicts.isEmpty()) {
             throw new RuntimeException("Orario già prenotato");
         }
         
+        // Verify instructor availability (weekly windows + daily slots + active bookings), read from Mongo
+        if (!groupAlreadyRunning && !availabilityCalendarService.isSlotFreeVerified(booking)) {
+            throw new RuntimeException("Istruttore non disponibile in questo orario");
+        }
+        
+        // Slot liberato da una cancellazione e offerto a chi era in lista d'attesa
+        if (waitlistService.isHeldForAnotherUser(booking.getInstructorId(), booking.getScheduledDate(),
+                booking.getScheduledTime(), booking.getUserId())) {
+            throw new RuntimeException("Orario riservato a un utente in lista d'attesa");
+        }
+        
         // Verify user exists
         User user = userRepository.findById(booking.getUserId())
                 .orElseThrow(() -> new RuntimeException("Utente non trovato"));
@@ -60,7 +106,21 @@ public class BookingService {
         Instructor instructor = instructorRepository.findById(booking.getInstructorId())
                 .orElseThrow(() -> new RuntimeException("Istruttore non trovato"));
         
-        Booking savedBooking = bookingRepository.save(booking);
+        // Reserve a seat last, so failed validations never consume capacity
+        if (groupLesson && !lessonSeatService.reserveSeat(lesson, booking.getScheduledDate(), booking.getScheduledTime())) {
+            throw new RuntimeException("Lezione al completo");
+        }
+        
+        Booking savedBooking;
+        try {
+            savedBooking = bookingRepository.save(booking);
+        } catch (RuntimeException e) {
+            if (groupLesson) {
+                lessonSeatService.releaseSeat(lesson.getId(), booking.getScheduledDate(), booking.getScheduledTime());
+            }
+            throw e;
+        }
+        availabilityCalendarService.occupy(savedBooking);
         
         // Send confirmation notifications
         notificationService.sendBookingConfirmationNotification(user.getId(), savedBooking.getId());
@@ -69,6 +129,28 @@ public class BookingService {
         return savedBooking;
     }
     
+    // Create booking from an accepted waitlist offer
+    public Booking createBookingFromWaitlist(String entryId, String userId) {
+        WaitlistEntry entry = waitlistService.acceptOffer(entryId, userId);
+        
+        try {
+            Lesson lesson = lessonRepository.findById(entry.getLessonId())
+                    .orElseThrow(() -> new RuntimeException("Lezione non trovata"));
+            
+            Booking booking = new Booking(entry.getLessonId(), entry.getInstructorId(), entry.getUserId(),
+                    entry.getScheduledDate(), entry.getScheduledTime(), lesson.getPrice());
+            booking.setPrice(lesson.getPrice());
+            
+            Booking savedBooking = createBooking(booking);
+            waitlistService.attachBooking(entryId, savedBooking.getId());
+            return savedBooking;
+        } catch (RuntimeException e) {
+            // Prenotazione non riuscita: lo slot passa al prossimo in coda
+            waitlistService.releaseAcceptedOffer(entry);
+            throw e;
+        }
+    }
+    
     // Get booking by ID
     public Optional<Booking> getBookingById(String bookingId) {
         return bookingRepository.findById(bookingId);
@@ -76,7 +158,9 @@ public class BookingService {
     
     // Update booking (used by validation endpoint)
     public Booking updateBooking(Booking booking) {
-        return bookingRepository.save(booking);
+        Booking saved = bookingRepository.save(booking);
+        availabilityCalendarService.invalidate(saved.getInstructorId());
+        return saved;
     }
     
     // Get bookings for user
@@ -134,6 +218,8 @@ public class BookingService {
         
         booking.cancel(cancelledBy, reason);
         bookingRepository.save(booking);
+        releaseSlot(booking);
+        waitlistService.onSlotFreed(booking);
         
         // Send cancellation notifications
         User user = userRepository.findById(booking.getUserId()).orElse(null);
@@ -155,16 +241,10 @@ public class BookingService {
         
         booking.complete();
         bookingRepository.save(booking);
+        availabilityCalendarService.invalidate(booking.getInstructorId());
         
-        // Add points to user for completed lesson
-        User user = userRepository.findById(booking.getUserId()).orElse(null);
-        if (user != null) {
-            int points = calculatePointsForBooking(booking);
-            user.addPoints(points);
-            userRepository.save(user);
-            
-            notificationService.sendPointsEarnedNotification(user, points, "Lezione completata");
-        }
+        // Points, streak, level and badges are applied asynchronously with a single user update
+        gamificationService.publishLessonCompleted(booking, calculatePointsForBooking(booking));
     }
     
     // Mark as no-show
@@ -174,6 +254,7 @@ public class BookingService {
         
         booking.setStatus(BookingStatus.NO_SHOW);
         bookingRepository.save(booking);
+        availabilityCalendarService.invalidate(booking.getInstructorId());
     }
     
     // Get today's confirmed bookings
@@ -260,6 +341,22 @@ public class BookingService {
     }
     
     // Helper methods
+    private void releaseSlot(Booking booking) {
+        Lesson lesson = booking.getLessonId() != null
+                ? lessonRepository.findById(booking.getLessonId()).orElse(null)
+                : null;
+        
+        if (lesson != null && lesson.isGroupLesson()) {
+            // Lezione di gruppo: l'istruttore torna libero solo quando esce l'ultimo partecipante
+            LessonSeats seats = lessonSeatService.releaseSeat(
+                lesson.getId(), booking.getScheduledDate(), booking.getScheduledTime());
+            if (seats == null || !seats.isEmpty()) {
+                return;
+            }
+        }
+        availabilityCalendarService.release(booking);
+    }
+    
     private void processRefundIfApplicable(Booking booking) {
         if (booking.getPaymentStatus().name().equals("CAPTURED")) {
             // Process refund logic here
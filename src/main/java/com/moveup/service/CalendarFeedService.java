@@ -0,0 +1,456 @@
+package com.moveup.service;
+
+import com.moveup.dto.CalendarEventDTO;
+import com.moveup.model.Booking;
+import com.moveup.model.Booking.BookingStatus;
+import com.moveup.model.CalendarFeed;
+import com.moveup.model.Lesson;
+import com.moveup.repository.BookingRepository;
+import com.moveup.repository.LessonRepository;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeDeleteEvent;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.security.SecureRandom;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Feed ICS di prenotazioni per utente e per istruttore.
+ *
+ * Ogni proprietario ha un documento calendar_feeds con un contatore di versione incrementato ($inc)
+ * a ogni salvataggio di una sua Booking, da qualunque nodo: ETag e Last-Modified derivano dal contatore,
+ * quindi un polling invariato costa una lettura per _id/token e non tocca le Booking né il renderer.
+ * I VEVENT sono tenuti in memoria per booking e aggiornati singolarmente quando la Booking cambia su
+ * questo nodo; se la versione in Mongo è avanzata altrove il feed viene ricaricato.
+ *
+ * I client calendario non inviano JWT: il feed è servito tramite un URL con token segreto per
+ * proprietario (getFeedToken / rotateFeedToken).
+ */
+@Service
+public class CalendarFeedService extends AbstractMongoEventListener<Booking> {
+    
+    private static final Logger logger = LoggerFactory.getLogger(CalendarFeedService.class);
+    
+    private static final DateTimeFormatter ICS_LOCAL = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
+    private static final DateTimeFormatter ICS_UTC = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+    private static final int DEFAULT_LESSON_MINUTES = 60;
+    private static final Integer[] DEFAULT_ALARMS = {-60, -15};
+    
+    public enum OwnerType { USER, INSTRUCTOR }
+    
+    @Value("${app.calendar.feed-cache-size:5000}")
+    private int feedCacheSize;
+    
+    @Value("${app.frontend.url:https://moveup.app}")
+    private String frontendUrl;
+    
+    @Autowired
+    private BookingRepository bookingRepository;
+    
+    @Autowired
+    private LessonRepository lessonRepository;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    private final SecureRandom random = new SecureRandom();
+    
+    // owner -> feed materializzato (LRU limitata)
+    private Map<String, Feed> feeds;
+    
+    // bookingId -> proprietari, letti prima della cancellazione e incrementati dopo
+    private final Map<String, Set<String>> pendingDeletes = new ConcurrentHashMap<>();
+    
+    @PostConstruct
+    public void init() {
+        feeds = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Feed> eldest) {
+                return size() > feedCacheSize;
+            }
+        });
+    }
+    
+    /**
+     * Versione corrente del feed, condivisa tra i nodi
+     */
+    public FeedVersion getVersion(OwnerType type, String ownerId) {
+        CalendarFeed state = mongoTemplate.findById(key(type, ownerId), CalendarFeed.class);
+        return state != null ? new FeedVersion(state.getVersion(), state.getLastModified()) : new FeedVersion(0, 0);
+    }
+    
+    public String getETag(FeedVersion version) {
+        return "\"" + version.getVersion() + "-" + Long.toString(version.getLastModified(), 36) + "\"";
+    }
+    
+    /**
+     * Proprietario e versione del feed associato al token, vuoto se il token non esiste (o è stato ruotato)
+     */
+    public Optional<FeedOwner> findByToken(String token) {
+        if (token == null || token.isEmpty()) {
+            return Optional.empty();
+        }
+        CalendarFeed state = mongoTemplate.findOne(new Query(Criteria.where("token").is(token)), CalendarFeed.class);
+        if (state == null) {
+            return Optional.empty();
+        }
+        return Optional.of(new FeedOwner(OwnerType.valueOf(state.getOwnerType()), state.getOwnerId(),
+            new FeedVersion(state.getVersion(), state.getLastModified())));
+    }
+    
+    /**
+     * Token dell'URL di sottoscrizione, creato al primo utilizzo
+     */
+    public String getFeedToken(OwnerType type, String ownerId) {
+        CalendarFeed state = mongoTemplate.findAndModify(
+            new Query(Criteria.where("_id").is(key(type, ownerId))),
+            ownerFields(new Update(), type, ownerId)
+                .setOnInsert("version", 0L)
+                .setOnInsert("lastModified", System.currentTimeMillis()),
+            FindAndModifyOptions.options().upsert(true).returnNew(true),
+            CalendarFeed.class);
+        if (state.getToken() != null) {
+            return state.getToken();
+        }
+        // Documento creato da bump (prima prenotazione) senza token
+        CalendarFeed withToken = mongoTemplate.findAndModify(
+            new Query(Criteria.where("_id").is(key(type, ownerId)).and("token").exists(false)),
+            new Update().set("token", newToken()),
+            FindAndModifyOptions.options().returnNew(true),
+            CalendarFeed.class);
+        return withToken != null ? withToken.getToken() : getFeedToken(type, ownerId);
+    }
+    
+    /**
+     * Sostituisce il token (URL condiviso per errore): il vecchio URL smette di funzionare
+     */
+    public String rotateFeedToken(OwnerType type, String ownerId) {
+        String token = newToken();
+        mongoTemplate.upsert(
+            new Query(Criteria.where("_id").is(key(type, ownerId))),
+            ownerFields(new Update(), type, ownerId).set("token", token),
+            CalendarFeed.class);
+        return token;
+    }
+    
+    /**
+     * Testo ICS del feed alla versione indicata (letta con getVersion o findByToken).
+     * Il body è ricostruito solo quando la versione è cambiata; le Booking sono rilette da Mongo
+     * al primo accesso, dopo l'evizione dalla cache o quando un altro nodo ha modificato il feed.
+     */
+    public String renderFeed(OwnerType type, String ownerId, FeedVersion version) {
+        String key = key(type, ownerId);
+        long current = version.getVersion();
+        
+        Feed feed = feeds.get(key);
+        if (feed == null || feed.version < current) {
+            feed = loadFeed(type, ownerId, current);
+            feeds.put(key, feed);
+        }
+        
+        synchronized (feed) {
+            if (feed.body == null) {
+                feed.body = buildCalendar(type, feed.events.values());
+            }
+            return feed.body;
+        }
+    }
+    
+    // Booking lifecycle events
+    
+    @Override
+    public void onAfterSave(AfterSaveEvent<Booking> event) {
+        Booking booking = event.getSource();
+        if (booking.getId() == null) {
+            return;
+        }
+        
+        Set<String> owners = new HashSet<>();
+        if (booking.getUserId() != null) {
+            owners.add(key(OwnerType.USER, booking.getUserId()));
+        }
+        if (booking.getInstructorId() != null) {
+            owners.add(key(OwnerType.INSTRUCTOR, booking.getInstructorId()));
+        }
+        
+        String vevent = null;
+        for (String owner : owners) {
+            long version = bump(owner);
+            Feed feed = feeds.get(owner);
+            if (feed == null) {
+                continue;
+            }
+            if (vevent == null) {
+                Lesson lesson = booking.getLessonId() != null
+                        ? lessonRepository.findById(booking.getLessonId()).orElse(null)
+                        : null;
+                vevent = renderEvent(booking, lesson);
+            }
+            synchronized (feed) {
+                feed.events.put(booking.getId(), vevent);
+                feed.body = null;
+                // Se nel frattempo un altro nodo ha modificato il feed la versione resta indietro e il feed viene ricaricato
+                if (feed.version == version - 1) {
+                    feed.version = version;
+                }
+            }
+        }
+    }
+    
+    @Override
+    public void onBeforeDelete(BeforeDeleteEvent<Booking> event) {
+        Object id = event.getSource().get("_id");
+        if (id == null) {
+            return;
+        }
+        Booking booking = mongoTemplate.findById(id, Booking.class);
+        if (booking == null) {
+            return;
+        }
+        Set<String> owners = new HashSet<>();
+        if (booking.getUserId() != null) {
+            owners.add(key(OwnerType.USER, booking.getUserId()));
+        }
+        if (booking.getInstructorId() != null) {
+            owners.add(key(OwnerType.INSTRUCTOR, booking.getInstructorId()));
+        }
+        pendingDeletes.put(id.toString(), owners);
+    }
+    
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<Booking> event) {
+        Document source = event.getSource();
+        Object id = source.get("_id");
+        if (id == null) {
+            return;
+        }
+        
+        String bookingId = id.toString();
+        Set<String> owners = pendingDeletes.remove(bookingId);
+        if (owners == null) {
+            return;
+        }
+        for (String owner : owners) {
+            long version = bump(owner);
+            Feed feed = feeds.get(owner);
+            if (feed == null) {
+                continue;
+            }
+            synchronized (feed) {
+                feed.events.remove(bookingId);
+                feed.body = null;
+                if (feed.version == version - 1) {
+                    feed.version = version;
+                }
+            }
+        }
+    }
+    
+    // Helper methods
+    
+    private Feed loadFeed(OwnerType type, String ownerId, long version) {
+        List<Booking> bookings = type == OwnerType.USER
+                ? bookingRepository.findByUserId(ownerId)
+                : bookingRepository.findByInstructorId(ownerId);
+        
+        Set<String> lessonIds = bookings.stream()
+                .map(Booking::getLessonId)
+                .filter(id -> id != null)
+                .collect(Collectors.toSet());
+        Map<String, Lesson> lessons = new LinkedHashMap<>();
+        lessonRepository.findAllById(lessonIds).forEach(lesson -> lessons.put(lesson.getId(), lesson));
+        
+        Feed feed = new Feed(version);
+        for (Booking booking : bookings) {
+            feed.events.put(booking.getId(), renderEvent(booking, lessons.get(booking.getLessonId())));
+        }
+        logger.debug("Loaded calendar feed {} with {} events", key(type, ownerId), bookings.size());
+        return feed;
+    }
+    
+    private long bump(String owner) {
+        int separator = owner.indexOf(':');
+        CalendarFeed state = mongoTemplate.findAndModify(
+            new Query(Criteria.where("_id").is(owner)),
+            ownerFields(new Update(), OwnerType.valueOf(owner.substring(0, separator)), owner.substring(separator + 1))
+                .inc("version", 1)
+                .set("lastModified", System.currentTimeMillis()),
+            FindAndModifyOptions.options().upsert(true).returnNew(true),
+            CalendarFeed.class);
+        return state.getVersion();
+    }
+    
+    private Update ownerFields(Update update, OwnerType type, String ownerId) {
+        return update.setOnInsert("ownerType", type.name()).setOnInsert("ownerId", ownerId);
+    }
+    
+    private String newToken() {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+    
+    private CalendarEventDTO toCalendarEvent(Booking booking, Lesson lesson) {
+        LocalDateTime start = booking.getScheduledDate().toLocalDate().atTime(booking.getScheduledTime());
+        int minutes = lesson != null && lesson.getDuration() > 0 ? lesson.getDuration() : DEFAULT_LESSON_MINUTES;
+        
+        String title = lesson != null ? lesson.getTitle()
+                : booking.getSport() != null ? "Lezione di " + booking.getSport() : "Lezione MoveUp";
+        String location = lesson != null && lesson.getLocation() != null
+                ? firstNonNull(lesson.getLocation().getFormattedAddress(), lesson.getLocation().getAddress())
+                : null;
+        
+        return CalendarEventDTO.builder()
+                .title(title)
+                .notes(booking.getNotes())
+                .location(location)
+                .startDate(start)
+                .endDate(start.plusMinutes(minutes))
+                .url(frontendUrl + "/bookings/" + booking.getId())
+                .alarmOffsets(DEFAULT_ALARMS)
+                .build();
+    }
+    
+    private String renderEvent(Booking booking, Lesson lesson) {
+        if (booking.getScheduledDate() == null || booking.getScheduledTime() == null) {
+            return "";
+        }
+        CalendarEventDTO event = toCalendarEvent(booking, lesson);
+        LocalDateTime stamp = booking.getUpdatedAt() != null ? booking.getUpdatedAt() : LocalDateTime.now();
+        
+        StringBuilder sb = new StringBuilder(512);
+        line(sb, "BEGIN:VEVENT");
+        line(sb, "UID:" + booking.getId() + "@moveup.app");
+        line(sb, "DTSTAMP:" + stamp.atOffset(ZoneOffset.UTC).format(ICS_UTC));
+        line(sb, "DTSTART:" + event.getStartDate().format(ICS_LOCAL));
+        line(sb, "DTEND:" + event.getEndDate().format(ICS_LOCAL));
+        line(sb, "SUMMARY:" + escape(event.getTitle()));
+        if (event.getLocation() != null) {
+            line(sb, "LOCATION:" + escape(event.getLocation()));
+        }
+        if (event.getNotes() != null) {
+            line(sb, "DESCRIPTION:" + escape(event.getNotes()));
+        }
+        line(sb, "URL:" + event.getUrl());
+        line(sb, "STATUS:" + (booking.getStatus() == BookingStatus.CANCELLED ? "CANCELLED"
+                : booking.getStatus() == BookingStatus.PENDING ? "TENTATIVE" : "CONFIRMED"));
+        if (booking.getStatus() != BookingStatus.CANCELLED && event.getAlarmOffsets() != null) {
+            for (Integer offset : event.getAlarmOffsets()) {
+                line(sb, "BEGIN:VALARM");
+                line(sb, "ACTION:DISPLAY");
+                line(sb, "DESCRIPTION:" + escape(event.getTitle()));
+                line(sb, "TRIGGER:-PT" + Math.abs(offset) + "M");
+                line(sb, "END:VALARM");
+            }
+        }
+        line(sb, "END:VEVENT");
+        return sb.toString();
+    }
+    
+    private String buildCalendar(OwnerType type, Iterable<String> events) {
+        StringBuilder sb = new StringBuilder(4096);
+        line(sb, "BEGIN:VCALENDAR");
+        line(sb, "VERSION:2.0");
+        line(sb, "PRODID:-//MoveUp//Bookings//IT");
+        line(sb, "CALSCALE:GREGORIAN");
+        line(sb, "X-WR-CALNAME:" + (type == OwnerType.USER ? "MoveUp - Le mie lezioni" : "MoveUp - Lezioni da tenere"));
+        line(sb, "REFRESH-INTERVAL;VALUE=DURATION:PT15M");
+        for (String event : events) {
+            sb.append(event);
+        }
+        line(sb, "END:VCALENDAR");
+        return sb.toString();
+    }
+    
+    // RFC 5545: righe terminate da CRLF e spezzate a 75 caratteri
+    private void line(StringBuilder sb, String content) {
+        int start = 0;
+        while (content.length() - start > 75) {
+            sb.append(content, start, start + 75).append("\r\n ");
+            start += 75;
+        }
+        sb.append(content, start, content.length()).append("\r\n");
+    }
+    
+    private String escape(String text) {
+        return text.replace("\\", "\\\\")
+                .replace(";", "\\;")
+                .replace(",", "\\,")
+                .replace("\r\n", "\\n")
+                .replace("\n", "\\n");
+    }
+    
+    private String firstNonNull(String first, String second) {
+        return first != null ? first : second;
+    }
+    
+    private String key(OwnerType type, String ownerId) {
+        return type.name() + ":" + ownerId;
+    }
+    
+    // Inner classes
+    
+    public static class FeedVersion {
+        private final long version;
+        private final long lastModified;
+        
+        public FeedVersion(long version, long lastModified) {
+            this.version = version;
+            this.lastModified = lastModified;
+        }
+        
+        public long getVersion() { return version; }
+        public long getLastModified() { return lastModified; }
+    }
+    
+    public static class FeedOwner {
+        private final OwnerType type;
+        private final String ownerId;
+        private final FeedVersion version;
+        
+        public FeedOwner(OwnerType type, String ownerId, FeedVersion version) {
+            this.type = type;
+            this.ownerId = ownerId;
+            this.version = version;
+        }
+        
+        public OwnerType getType() { return type; }
+        public String getOwnerId() { return ownerId; }
+        public FeedVersion getVersion() { return version; }
+    }
+    
+    private static class Feed {
+        private volatile long version;
+        private final Map<String, String> events = new LinkedHashMap<>();
+        private String body;
+        
+        Feed(long version) {
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.moveup.service;
+
+import com.moveup.model.CampaignBudget;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Budget delle campagne promozionali condiviso tra tutti i nodi.
+ *
+ * Il cap vive in un documento di campaign_budgets: ogni nodo ne prende in prestito piccoli
+ * blocchi con un $inc condizionato (leased non supera mai cap) e li consuma in memoria, quindi
+ * solo un'unità ogni leaseBlock interroga Mongo. Il cap è rispettato esattamente su tutti i nodi
+ * e tra i riavvii; allo shutdown le unità non usate tornano al budget globale. Se un nodo cade
+ * senza shutdown le sue unità restano prestate: la campagna può chiudersi con al massimo
+ * leaseBlock unità non spese per nodo, mai con unità in più.
+ */
+@Service
+public class CampaignBudgetService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(CampaignBudgetService.class);
+    
+    private static final int MAX_LEASE_ATTEMPTS = 5;
+    
+    @Value("${app.campaigns.lease-block:10}")
+    private int leaseBlock;
+    
+    @Value("${app.campaigns.exhausted-cache-ms:30000}")
+    private long exhaustedCacheMs;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    
+    /**
+     * Crea il budget della campagna se manca e ne allinea il cap alla configurazione
+     */
+    public void register(String campaignId, int cap) {
+        Update update = new Update()
+            .set("cap", cap)
+            .setOnInsert("leased", 0)
+            .setOnInsert("consumed", 0)
+            .set("updatedAt", LocalDateTime.now());
+        mongoTemplate.upsert(new Query(Criteria.where("_id").is(campaignId)), update, CampaignBudget.class);
+        leases.computeIfAbsent(campaignId, id -> new Lease());
+    }
+    
+    /**
+     * Consuma un'unità del budget. Ritorna false se la campagna è esaurita.
+     */
+    public boolean tryAcquire(String campaignId) {
+        Lease lease = lease(campaignId);
+        while (true) {
+            if (lease.take()) {
+                return true;
+            }
+            synchronized (lease) {
+                if (lease.remaining.get() > 0) {
+                    continue; // un altro thread ha appena preso un blocco
+                }
+                if (lease.exhaustedUntil > System.currentTimeMillis()) {
+                    return false;
+                }
+                int granted = leaseFromBudget(campaignId);
+                if (granted == 0) {
+                    lease.exhaustedUntil = System.currentTimeMillis() + exhaustedCacheMs;
+                    return false;
+                }
+                lease.remaining.addAndGet(granted);
+            }
+        }
+    }
+    
+    /**
+     * Compensazione: restituisce un'unità presa con tryAcquire e non usata
+     */
+    public void release(String campaignId) {
+        Lease lease = lease(campaignId);
+        lease.pendingConsumed.decrementAndGet();
+        lease.remaining.incrementAndGet();
+    }
+    
+    /**
+     * Stima senza scritture: true se questo nodo ha unità in prestito o il budget globale non risulta esaurito
+     */
+    public boolean hasRemaining(String campaignId) {
+        Lease lease = lease(campaignId);
+        if (lease.remaining.get() > 0) {
+            return true;
+        }
+        if (lease.exhaustedUntil > System.currentTimeMillis()) {
+            return false;
+        }
+        CampaignBudget budget = mongoTemplate.findById(campaignId, CampaignBudget.class);
+        return budget != null && budget.getLeased() < budget.getCap();
+    }
+    
+    /**
+     * Unità impegnate, con lo stesso criterio di tryAcquire e hasRemaining: leased meno i blocchi non
+     * spesi di questo nodo. Include le unità prestate agli altri nodi e non ancora usate (al massimo
+     * lease-block per nodo), quindi è un limite superiore delle unità effettivamente date.
+     */
+    public int getCommitted(String campaignId) {
+        CampaignBudget budget = mongoTemplate.findById(campaignId, CampaignBudget.class);
+        if (budget == null) {
+            throw new RuntimeException("Campagna non trovata");
+        }
+        return Math.max(0, budget.getLeased() - lease(campaignId).remaining.get());
+    }
+    
+    /**
+     * Stato globale della campagna, con i consumi di questo nodo non ancora scritti
+     */
+    public CampaignBudget getBudget(String campaignId) {
+        flushConsumed();
+        CampaignBudget budget = mongoTemplate.findById(campaignId, CampaignBudget.class);
+        if (budget == null) {
+            throw new RuntimeException("Campagna non trovata");
+        }
+        return budget;
+    }
+    
+    /**
+     * Scrive i consumi accumulati in memoria (solo statistiche: il cap è garantito da leased)
+     */
+    @Scheduled(fixedDelayString = "${app.campaigns.flush-ms:10000}")
+    public void flushConsumed() {
+        leases.forEach((campaignId, lease) -> {
+            int consumed = lease.pendingConsumed.getAndSet(0);
+            if (consumed == 0) {
+                return;
+            }
+            try {
+                mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(campaignId)),
+                    new Update().inc("consumed", consumed).set("updatedAt", LocalDateTime.now()),
+                    CampaignBudget.class);
+            } catch (Exception e) {
+                lease.pendingConsumed.addAndGet(consumed);
+                logger.error("Failed to flush consumed budget for campaign {}", campaignId, e);
+            }
+        });
+    }
+    
+    /**
+     * Restituisce al budget globale le unità prestate a questo nodo e non usate
+     */
+    @PreDestroy
+    public void shutdown() {
+        flushConsumed();
+        leases.forEach((campaignId, lease) -> {
+            int unused;
+            synchronized (lease) {
+                unused = lease.remaining.getAndSet(0);
+            }
+            if (unused <= 0) {
+                return;
+            }
+            try {
+                mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(campaignId)),
+                    new Update().inc("leased", -unused).set("updatedAt", LocalDateTime.now()),
+                    CampaignBudget.class);
+            } catch (Exception e) {
+                logger.error("Failed to return {} leased units to campaign {}", unused, campaignId, e);
+            }
+        });
+    }
+    
+    // Helper methods
+    
+    private Lease lease(String campaignId) {
+        return leases.computeIfAbsent(campaignId, id -> new Lease());
+    }
+    
+    /**
+     * Prende min(leaseBlock, cap - leased) unità: $inc condizionato al valore di leased appena letto,
+     * ripetuto se un altro nodo l'ha modificato nel frattempo
+     */
+    private int leaseFromBudget(String campaignId) {
+        for (int attempt = 0; attempt < MAX_LEASE_ATTEMPTS; attempt++) {
+            CampaignBudget budget = mongoTemplate.findById(campaignId, CampaignBudget.class);
+            if (budget == null) {
+                throw new RuntimeException("Campagna non trovata");
+            }
+            int granted = Math.min(leaseBlock, budget.getCap() - budget.getLeased());
+            if (granted <= 0) {
+                return 0;
+            }
+            
+            Query query = new Query(Criteria.where("_id").is(campaignId).and("leased").is(budget.getLeased()));
+            Update update = new Update().inc("leased", granted).set("updatedAt", LocalDateTime.now());
+            if (mongoTemplate.updateFirst(query, update, CampaignBudget.class).getModifiedCount() > 0) {
+                return granted;
+            }
+        }
+        
+        // Molta contesa: una sola unità, condizionata al solo cap
+        Query query = new Query(Criteria.where("_id").is(campaignId)
+            .andOperator(Criteria.expr(ComparisonOperators.valueOf("leased").lessThan("cap"))));
+        Update update = new Update().inc("leased", 1).set("updatedAt", LocalDateTime.now());
+        return mongoTemplate.updateFirst(query, update, CampaignBudget.class).getModifiedCount() > 0 ? 1 : 0;
+    }
+    
+    // Inner classes
+    
+    /**
+     * Unità prestate a questo nodo e consumi non ancora scritti su Mongo
+     */
+    static final class Lease {
+        private final AtomicInteger remaining = new AtomicInteger();
+        private final AtomicInteger pendingConsumed = new AtomicInteger();
+        private volatile long exhaustedUntil;
+        
+        boolean take() {
+            int current;
+            do {
+                current = remaining.get();
+                if (current <= 0) {
+                    return false;
+                }
+            } while (!remaining.compareAndSet(current, current - 1));
+            pendingConsumed.incrementAndGet();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package com.moveup.service;
+
+import com.moveup.model.Badge;
+import com.moveup.model.Reward;
+import com.moveup.repository.BadgeRepository;
+import com.moveup.repository.RewardRepository;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Cataloghi di badge e ricompense in memoria.
+ *
+ * Sono piccoli e cambiano di rado: ogni catalogo è uno snapshot immutabile sostituito in blocco
+ * quando un admin lo modifica o quando arriva un evento dal change stream di Mongo (modifiche
+ * fatte da altri nodi). Un refresh periodico copre i deployment senza replica set, dove i change
+ * stream non sono disponibili. Gli oggetti restituiti sono condivisi e vanno trattati in sola lettura.
+ */
+@Service
+public class CatalogService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(CatalogService.class);
+    
+    // Codice Mongo per $changeStream su server standalone
+    private static final int CHANGE_STREAM_NOT_SUPPORTED = 40573;
+    
+    @Value("${app.catalog.change-streams:true}")
+    private boolean changeStreamsEnabled;
+    
+    @Value("${app.catalog.change-stream-retry-ms:5000}")
+    private long changeStreamRetryMs;
+    
+    @Autowired
+    private BadgeRepository badgeRepository;
+    
+    @Autowired
+    private RewardRepository rewardRepository;
+    
+    @Autowired
+    private BadgeRuleEngine badgeRuleEngine;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    private volatile Snapshot<Badge> badges = Snapshot.empty();
+    private volatile Snapshot<Reward> rewards = Snapshot.empty();
+    
+    private volatile boolean running;
+    private final List<MongoChangeStreamCursor<?>> cursors = new CopyOnWriteArrayList<>();
+    private final List<Thread> watchers = new ArrayList<>();
+    
+    @PostConstruct
+    public void init() {
+        try {
+            reloadBadges();
+            reloadRewards();
+        } catch (Exception e) {
+            logger.error("Failed to load badge and reward catalogs", e);
+        }
+        
+        if (changeStreamsEnabled) {
+            running = true;
+            startWatcher(mongoTemplate.getCollectionName(Badge.class), this::applyBadgeEvent, this::reloadBadges);
+            startWatcher(mongoTemplate.getCollectionName(Reward.class), this::applyRewardEvent, this::reloadRewards);
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        cursors.forEach(MongoChangeStreamCursor::close);
+        watchers.forEach(Thread::interrupt);
+    }
+    
+    /**
+     * Rete di sicurezza: riallinea i cataloghi anche se un evento è andato perso
+     */
+    @Scheduled(fixedDelayString = "${app.catalog.refresh-ms:300000}", initialDelayString = "${app.catalog.refresh-ms:300000}")
+    public void refresh() {
+        reloadBadges();
+        reloadRewards();
+    }
+    
+    // Badges
+    
+    public synchronized void reloadBadges() {
+        setBadges(Snapshot.of(badgeRepository.findAll(), Badge::getId, Badge::isActive, null));
+    }
+    
+    /**
+     * Aggiorna subito un badge salvato da questo nodo, senza attendere il change stream
+     */
+    public synchronized void putBadge(Badge badge) {
+        setBadges(badges.with(badge));
+    }
+    
+    public Optional<Badge> getBadge(String badgeId) {
+        return Optional.ofNullable(badges.get(badgeId));
+    }
+    
+    public List<Badge> getAllBadges() {
+        return badges.all;
+    }
+    
+    public List<Badge> getActiveBadges() {
+        return badges.active;
+    }
+    
+    /**
+     * Badge per id, nell'ordine dato; gli id sconosciuti sono ignorati
+     */
+    public List<Badge> getBadges(Collection<String> badgeIds) {
+        return badges.resolve(badgeIds);
+    }
+    
+    // Rewards
+    
+    public synchronized void reloadRewards() {
+        rewards = Snapshot.of(rewardRepository.findAll(), Reward::getId, Reward::isActive,
+            Comparator.comparingInt(Reward::getPointsCost));
+    }
+    
+    /**
+     * Aggiorna subito una ricompensa salvata da questo nodo, senza attendere il change stream
+     */
+    public synchronized void putReward(Reward reward) {
+        rewards = rewards.with(reward);
+    }
+    
+    public Optional<Reward> getReward(String rewardId) {
+        return Optional.ofNullable(rewards.get(rewardId));
+    }
+    
+    public List<Reward> getAllRewards() {
+        return rewards.all;
+    }
+    
+    /**
+     * Ricompense attive ordinate per costo in punti crescente
+     */
+    public List<Reward> getActiveRewards() {
+        return rewards.active;
+    }
+    
+    public List<Reward> getRewards(Collection<String> rewardIds) {
+        return rewards.resolve(rewardIds);
+    }
+    
+    // Helper methods
+    
+    private void setBadges(Snapshot<Badge> snapshot) {
+        badges = snapshot;
+        badgeRuleEngine.compile(snapshot.active);
+    }
+    
+    private synchronized void applyBadgeEvent(ChangeStreamDocument<Document> event) {
+        Snapshot<Badge> next = apply(badges, event, Badge.class);
+        if (next == null) {
+            reloadBadges();
+        } else {
+            setBadges(next);
+        }
+    }
+    
+    private synchronized void applyRewardEvent(ChangeStreamDocument<Document> event) {
+        Snapshot<Reward> next = apply(rewards, event, Reward.class);
+        if (next == null) {
+            reloadRewards();
+        } else {
+            rewards = next;
+        }
+    }
+    
+    /**
+     * Nuovo snapshot con l'evento applicato, o null se serve ricaricare tutto il catalogo
+     */
+    private <T> Snapshot<T> apply(Snapshot<T> current, ChangeStreamDocument<Document> event, Class<T> type) {
+        switch (event.getOperationType()) {
+            case INSERT:
+            case UPDATE:
+            case REPLACE:
+                Document document = event.getFullDocument();
+                return document != null ? current.with(mongoTemplate.getConverter().read(type, document)) : null;
+            case DELETE:
+                String id = idOf(event.getDocumentKey() != null ? event.getDocumentKey().get("_id") : null);
+                return id != null ? current.without(id) : null;
+            default:
+                return null; // drop, rename, invalidate
+        }
+    }
+    
+    private void startWatcher(String collection, Consumer<ChangeStreamDocument<Document>> handler,
+                              Runnable reload) {
+        Thread thread = new Thread(() -> watch(collection, handler, reload), "catalog-watch-" + collection);
+        thread.setDaemon(true);
+        watchers.add(thread);
+        thread.start();
+    }
+    
+    private void watch(String collection, Consumer<ChangeStreamDocument<Document>> handler,
+                       Runnable reload) {
+        while (running) {
+            MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = null;
+            try {
+                cursor = mongoTemplate.getCollection(collection).watch().fullDocument(FullDocument.UPDATE_LOOKUP).cursor();
+                cursors.add(cursor);
+                // Ricarica dopo ogni (ri)connessione: gli eventi persi nel frattempo sono nello snapshot
+                reload.run();
+                while (running) {
+                    handler.accept(cursor.next());
+                }
+            } catch (MongoCommandException e) {
+                if (e.getErrorCode() == CHANGE_STREAM_NOT_SUPPORTED) {
+                    logger.info("Change streams not supported, catalog {} relies on periodic refresh", collection);
+                    return;
+                }
+                pauseAfterError(collection, e);
+            } catch (Exception e) {
+                pauseAfterError(collection, e);
+            } finally {
+                if (cursor != null) {
+                    cursors.remove(cursor);
+                    cursor.close();
+                }
+            }
+        }
+    }
+    
+    private void pauseAfterError(String collection, Exception e) {
+        if (!running) {
+            return;
+        }
+        logger.warn("Catalog change stream on {} interrupted, retrying: {}", collection, e.getMessage());
+        try {
+            Thread.sleep(changeStreamRetryMs);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+    
+    private static String idOf(BsonValue id) {
+        if (id == null) {
+            return null;
+        }
+        if (id.isObjectId()) {
+            return id.asObjectId().getValue().toHexString();
+        }
+        return id.isString() ? id.asString().getValue() : null;
+    }
+    
+    // Inner classes
+    
+    /**
+     * Catalogo immutabile: indice per id, elenco completo ed elenco degli attivi
+     */
+    static final class Snapshot<T> {
+        private final Map<String, T> byId;
+        private final List<T> all;
+        private final List<T> active;
+        private final Function<T, String> idFunction;
+        private final Predicate<T> activeFilter;
+        private final Comparator<T> activeOrder;
+        
+        private Snapshot(Map<String, T> byId, Function<T, String> idFunction, Predicate<T> activeFilter,
+                         Comparator<T> activeOrder) {
+            this.byId = Collections.unmodifiableMap(byId);
+            this.all = List.copyOf(byId.values());
+            List<T> activeItems = new ArrayList<>();
+            for (T item : byId.values()) {
+                if (activeFilter.test(item)) {
+                    activeItems.add(item);
+                }
+            }
+            if (activeOrder != null) {
+                activeItems.sort(activeOrder);
+            }
+            this.active = Collections.unmodifiableList(activeItems);
+            this.idFunction = idFunction;
+            this.activeFilter = activeFilter;
+            this.activeOrder = activeOrder;
+        }
+        
+        static <T> Snapshot<T> empty() {
+            return new Snapshot<>(new LinkedHashMap<>(), item -> null, item -> false, null);
+        }
+        
+        static <T> Snapshot<T> of(List<T> items, Function<T, String> idFunction, Predicate<T> activeFilter,
+                                  Comparator<T> activeOrder) {
+            Map<String, T> byId = new LinkedHashMap<>();
+            for (T item : items) {
+                byId.put(idFunction.apply(item), item);
+            }
+            return new Snapshot<>(byId, idFunction, activeFilter, activeOrder);
+        }
+        
+        T get(String id) {
+            return id != null ? byId.get(id) : null;
+        }
+        
+        List<T> resolve(Collection<String> ids) {
+            if (ids == null || ids.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<T> items = new ArrayList<>(ids.size());
+            for (String id : ids) {
+                T item = get(id);
+                if (item != null) {
+                    items.add(item);
+                }
+            }
+            return items;
+        }
+        
+        Snapshot<T> with(T item) {
+            Map<String, T> next = new LinkedHashMap<>(byId);
+            next.put(idFunction.apply(item), item);
+            return new Snapshot<>(next, idFunction, activeFilter, activeOrder);
+        }
+        
+        Snapshot<T> without(String id) {
+            Map<String, T> next = new LinkedHashMap<>(byId);
+            next.remove(id);
+            return new Snapshot<>(next, idFunction, activeFilter, activeOrder);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.moveup.service;
+
+import com.moveup.model.Notification;
+import com.moveup.model.NotificationChannel;
+import com.moveup.model.NotificationPriority;
+import com.moveup.model.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Canale email: solo notifiche ad alta priorità, per gli utenti che non hanno disattivato le notifiche
+ */
+@Component
+public class EmailNotificationSender implements NotificationSender {
+    
+    @Autowired
+    private EmailService emailService;
+    
+    @Override
+    public NotificationChannel getChannel() {
+        return NotificationChannel.EMAIL;
+    }
+    
+    @Override
+    public boolean accepts(Notification notification, User recipient) {
+        return recipient != null
+            && recipient.getEmail() != null
+            && !Boolean.FALSE.equals(recipient.getNotificationsEnabled())
+            && (notification.getPriority() == NotificationPriority.HIGH
+                || notification.getPriority() == NotificationPriority.URGENT);
+    }
+    
+    @Override
+    public DeliveryReport send(List<Notification> notifications, Map<String, User> recipients) {
+        DeliveryReport report = new DeliveryReport();
+        for (Notification notification : notifications) {
+            User recipient = recipients.get(notification.getRecipientId());
+            try {
+                emailService.sendNotificationEmail(recipient.getEmail(), recipient.getFirstName(),
+                    notification.getTitle(), notification.getMessage());
+                report.delivered(notification.getId());
+            } catch (Exception e) {
+                report.failed(notification.getId(), "EMAIL: " + e.getMessage());
+            }
+        }
+        return report;
+    }
+}
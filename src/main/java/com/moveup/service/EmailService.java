@@ -129,6 +129,11 @@ public class EmailService {
         }
     }
     
+    // Send in-app notification by email (used by the notification dispatcher, errors are propagated)
+    public void sendNotificationEmail(String to, String firstName, String title, String message) throws MessagingException {
+        sendHtmlEmail(to, title + " - MoveUp", buildNotificationEmailBody(firstName, title, message));
+    }
+    
     // Generic method to send HTML emails
     private void sendHtmlEmail(String to, String subject, String htmlBody) throws MessagingException {
         MimeMessage message = emailSender.createMimeMessage();
@@ -294,4 +299,23 @@ public class EmailService {
             </html>
             """.formatted(firstName, verificationUrl);
     }
-}
\ No newline at end of file
+    
+    private String buildNotificationEmailBody(String firstName, String title, String message) {
+        return """
+            <!DOCTYPE html>
+            <html>
+            <body style="font-family: Arial, sans-serif; margin: 0; padding: 20px; background-color: #f5f5f5;">
+                <div style="max-width: 600px; margin: 0 auto; background-color: white; padding: 30px; border-radius: 10px;">
+                    <h1 style="color: #1E88E5; text-align: center;">%s</h1>
+                    <p>Ciao %s,</p>
+                    <p>%s</p>
+                    <div style="text-align: center; margin: 30px 0;">
+                        <a href="%s" style="background-color: #1E88E5; color: white; padding: 15px 30px; text-decoration: none; border-radius: 5px; display: inline-block;">Apri MoveUp</a>
+                    </div>
+                    <p>Il team di MoveUp</p>
+                </div>
+            </body>
+            </html>
+            """.formatted(title, firstName != null ? firstName : "", message != null ? message : "", frontendUrl);
+    }
+}
@@ -0,0 +1,246 @@
+package com.moveup.service;
+
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.InvalidRequestException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.Account;
+import com.stripe.model.BankAccount;
+import com.stripe.model.Customer;
+import com.stripe.model.ExternalAccount;
+import com.stripe.model.ExternalAccountCollection;
+import com.stripe.model.PaymentIntent;
+import com.stripe.model.Refund;
+import com.stripe.model.Transfer;
+import com.stripe.net.RequestOptions;
+import com.stripe.param.AccountCreateParams;
+import com.stripe.param.CustomerCreateParams;
+import com.stripe.param.PaymentIntentCaptureParams;
+import com.stripe.param.PaymentIntentCreateParams;
+import com.stripe.param.RefundCreateParams;
+import com.stripe.param.TransferCreateParams;
+import com.stripe.param.TransferListParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Stripe locale in memoria per load test e sviluppo (app.stripe.client=fake).
+ * Simula latenza e guasti di rete configurabili e rispetta le idempotency key come Stripe:
+ * la stessa chiave restituisce lo stesso oggetto senza ripetere l'operazione.
+ */
+@Component
+@ConditionalOnProperty(name = "app.stripe.client", havingValue = "fake")
+public class FakeStripeClient implements StripeClient {
+    
+    private static final Logger logger = LoggerFactory.getLogger(FakeStripeClient.class);
+    
+    @Value("${app.stripe.fake.latency-ms:50}")
+    private long latencyMs;
+    
+    @Value("${app.stripe.fake.failure-rate:0.0}")
+    private double failureRate;
+    
+    private final Map<String, PaymentIntent> paymentIntents = new ConcurrentHashMap<>();
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+    private final Map<String, Transfer> transfers = new ConcurrentHashMap<>();
+    private final Map<String, Object> idempotentResults = new ConcurrentHashMap<>();
+    
+    public FakeStripeClient() {
+        logger.warn("Using FAKE Stripe client: no real payment will be processed");
+    }
+    
+    @Override
+    public PaymentIntent createPaymentIntent(PaymentIntentCreateParams params, RequestOptions options) throws StripeException {
+        return idempotent(options, () -> {
+            PaymentIntent intent = new PaymentIntent();
+            intent.setId(newId("pi"));
+            intent.setAmount(params.getAmount());
+            intent.setCurrency(params.getCurrency());
+            intent.setMetadata(params.getMetadata() != null ? new HashMap<>(params.getMetadata()) : new HashMap<>());
+            
+            boolean manualCapture = params.getCaptureMethod() == PaymentIntentCreateParams.CaptureMethod.MANUAL;
+            if (!Boolean.TRUE.equals(params.getConfirm())) {
+                intent.setStatus("requires_payment_method");
+            } else {
+                intent.setStatus(manualCapture ? "requires_capture" : "succeeded");
+            }
+            paymentIntents.put(intent.getId(), intent);
+            return intent;
+        });
+    }
+    
+    @Override
+    public PaymentIntent retrievePaymentIntent(String paymentIntentId, RequestOptions options) throws StripeException {
+        simulateNetwork();
+        return findPaymentIntent(paymentIntentId);
+    }
+    
+    @Override
+    public PaymentIntent confirmPaymentIntent(String paymentIntentId, RequestOptions options) throws StripeException {
+        PaymentIntent intent = findPaymentIntent(paymentIntentId);
+        return idempotent(options, () -> {
+            intent.setStatus("succeeded");
+            return intent;
+        });
+    }
+    
+    @Override
+    public PaymentIntent capturePaymentIntent(String paymentIntentId, PaymentIntentCaptureParams params,
+            RequestOptions options) throws StripeException {
+        PaymentIntent intent = findPaymentIntent(paymentIntentId);
+        return idempotent(options, () -> {
+            intent.setStatus("succeeded");
+            intent.setAmountReceived(params != null && params.getAmountToCapture() != null
+                ? params.getAmountToCapture() : intent.getAmount());
+            return intent;
+        });
+    }
+    
+    @Override
+    public PaymentIntent cancelPaymentIntent(String paymentIntentId, RequestOptions options) throws StripeException {
+        PaymentIntent intent = findPaymentIntent(paymentIntentId);
+        return idempotent(options, () -> {
+            intent.setStatus("canceled");
+            return intent;
+        });
+    }
+    
+    @Override
+    public Refund createRefund(RefundCreateParams params, RequestOptions options) throws StripeException {
+        return idempotent(options, () -> {
+            Refund refund = new Refund();
+            refund.setId(newId("re"));
+            refund.setPaymentIntent(params.getPaymentIntent());
+            refund.setAmount(params.getAmount());
+            refund.setStatus("succeeded");
+            return refund;
+        });
+    }
+    
+    @Override
+    public Transfer createTransfer(TransferCreateParams params, RequestOptions options) throws StripeException {
+        return idempotent(options, () -> {
+            Transfer transfer = new Transfer();
+            transfer.setId(newId("tr"));
+            transfer.setAmount(params.getAmount());
+            transfer.setCurrency(params.getCurrency());
+            transfer.setDestination(params.getDestination());
+            transfer.setTransferGroup(params.getTransferGroup());
+            transfer.setReversed(false);
+            transfers.put(transfer.getId(), transfer);
+            return transfer;
+        });
+    }
+    
+    @Override
+    public List<Transfer> listTransfers(TransferListParams params, RequestOptions options) throws StripeException {
+        simulateNetwork();
+        List<Transfer> result = new ArrayList<>();
+        for (Transfer transfer : transfers.values()) {
+            if ((params.getTransferGroup() == null || params.getTransferGroup().equals(transfer.getTransferGroup()))
+                    && (params.getDestination() == null || params.getDestination().equals(transfer.getDestination()))) {
+                result.add(transfer);
+            }
+        }
+        return result;
+    }
+    
+    @Override
+    public Customer createCustomer(CustomerCreateParams params, RequestOptions options) throws StripeException {
+        return idempotent(options, () -> {
+            Customer customer = new Customer();
+            customer.setId(newId("cus"));
+            customer.setEmail(params.getEmail());
+            return customer;
+        });
+    }
+    
+    @Override
+    public Account createAccount(AccountCreateParams params, RequestOptions options) throws StripeException {
+        return idempotent(options, () -> {
+            Account account = new Account();
+            account.setId(newId("acct"));
+            account.setEmail(params.getEmail());
+            ExternalAccountCollection externalAccounts = new ExternalAccountCollection();
+            externalAccounts.setData(new ArrayList<>());
+            account.setExternalAccounts(externalAccounts);
+            accounts.put(account.getId(), account);
+            return account;
+        });
+    }
+    
+    @Override
+    public Account retrieveAccount(String accountId, RequestOptions options) throws StripeException {
+        simulateNetwork();
+        Account account = accounts.get(accountId);
+        if (account == null) {
+            throw new InvalidRequestException("No such account: " + accountId, "account", null, null, 404, null);
+        }
+        return account;
+    }
+    
+    @Override
+    public ExternalAccount createExternalAccount(String accountId, Map<String, Object> params,
+            RequestOptions options) throws StripeException {
+        Account account = retrieveAccount(accountId, options);
+        return idempotent(options, () -> {
+            BankAccount bankAccount = new BankAccount();
+            bankAccount.setId(newId("ba"));
+            bankAccount.setCurrency((String) params.get("currency"));
+            bankAccount.setStatus("new");
+            synchronized (account) {
+                account.getExternalAccounts().getData().add(bankAccount);
+            }
+            return bankAccount;
+        });
+    }
+    
+    // Helper methods
+    
+    @SuppressWarnings("unchecked")
+    private <T> T idempotent(RequestOptions options, Supplier<T> operation) throws StripeException {
+        simulateNetwork();
+        String key = options != null ? options.getIdempotencyKey() : null;
+        if (key == null) {
+            return operation.get();
+        }
+        return (T) idempotentResults.computeIfAbsent(key, k -> operation.get());
+    }
+    
+    private void simulateNetwork() throws StripeException {
+        if (latencyMs > 0) {
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ApiConnectionException("Fake Stripe call interrupted", e);
+            }
+        }
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            throw new ApiConnectionException("Fake Stripe network failure");
+        }
+    }
+    
+    private PaymentIntent findPaymentIntent(String paymentIntentId) throws StripeException {
+        PaymentIntent intent = paymentIntents.get(paymentIntentId);
+        if (intent == null) {
+            throw new InvalidRequestException("No such payment_intent: " + paymentIntentId, "id", null, null, 404, null);
+        }
+        return intent;
+    }
+    
+    private String newId(String prefix) {
+        return prefix + "_fake_" + UUID.randomUUID().toString().replace("-", "").substring(0, 24);
+    }
+}
@@ -2,18 +2,26 @@ package com.moveup.service;
 
 import com.moveup.model.User;
 import com.moveup.model.Booking;
+import com.moveup.model.CampaignBudget;
+import com.moveup.model.Money;
 import com.moveup.repository.UserRepository;
 import com.moveup.repository.BookingRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import jakarta.annotation.PostConstruct;
 import java.time.LocalDateTime;
 
 @Service
 @Transactional
 public class FirstLessonService {
     
+    private static final Logger logger = LoggerFactory.getLogger(FirstLessonService.class);
+    
     @Autowired
     private UserRepository userRepository;
     
@@ -26,10 +34,24 @@ public class FirstLessonService {
     @Autowired
     private WalletService walletService;
     
+    @Autowired
+    private CampaignBudgetService campaignBudgetService;
+    
     // Configuration
-    private static final int MAX_FREE_LESSONS = 500; // Limite campagna
+    public static final String CAMPAIGN_ID = "first-lesson";
     private static final double MAX_FREE_LESSON_AMOUNT = 10.0; // Max €10 gratis
-    private static int freeLessonsGiven = 0; // Counter campagna
+    
+    @Value("${app.campaigns.first-lesson.cap:500}")
+    private int maxFreeLessons; // Limite campagna, condiviso tra tutti i nodi
+    
+    @PostConstruct
+    public void init() {
+        try {
+            campaignBudgetService.register(CAMPAIGN_ID, maxFreeLessons);
+        } catch (Exception e) {
+            logger.error("Failed to register first lesson campaign budget", e);
+        }
+    }
     
     /**
      * Check se l'utente ha diritto alla prima lezione gratis
@@ -58,7 +80,7 @@ public class FirstLessonService {
         }
         
         // Check limite campagna
-        if (freeLessonsGiven >= MAX_FREE_LESSONS) {
+        if (!campaignBudgetService.hasRemaining(CAMPAIGN_ID)) {
             return new FirstLessonEligibility(
                 false,
                 "Promozione terminata - limite raggiunto",
@@ -94,12 +116,19 @@ public class FirstLessonService {
         // Se la lezione costa meno di €10, è completamente gratis
         boolean isCompletelyFree = lessonPrice <= MAX_FREE_LESSON_AMOUNT;
         
-        // Marca utente come "ha usato prima lezione"
-        user.setHasUsedFirstLesson(true);
-        userRepository.save(user);
+        // Prende una lezione dal budget campagna: l'ultima può essere andata a un altro nodo
+        if (!campaignBudgetService.tryAcquire(CAMPAIGN_ID)) {
+            throw new RuntimeException("Promozione terminata - limite raggiunto");
+        }
         
-        // Incrementa counter campagna
-        freeLessonsGiven++;
+        // Marca utente come "ha usato prima lezione"
+        try {
+            user.setHasUsedFirstLesson(true);
+            userRepository.save(user);
+        } catch (RuntimeException e) {
+            campaignBudgetService.release(CAMPAIGN_ID);
+            throw e;
+        }
         
         return new FirstLessonDiscount(
             true,
@@ -125,7 +154,8 @@ public class FirstLessonService {
         // Se completamente gratis, nessun addebito al cliente
         if (discount.isCompletelyFree()) {
             // MoveUp paga direttamente il trainer
-            double trainerAmount = walletService.calculateNetAmount(booking.getPrice());
+            Money grossAmount = Money.ofDecimal(booking.getPrice());
+            Money trainerAmount = walletService.calculateNetAmount(grossAmount);
             
             // Credit wallet trainer (MoveUp copre)
             walletService.creditWallet(
@@ -135,8 +165,8 @@ public class FirstLessonService {
                 booking.getId(),
                 userId,
                 "MoveUp Platform",
-                booking.getPrice(),
-                walletService.calculatePlatformFee(booking.getPrice())
+                grossAmount,
+                walletService.calculatePlatformFee(grossAmount)
             );
             
             // Update booking
@@ -162,7 +192,8 @@ public class FirstLessonService {
         
         // MoveUp copre la parte scontata
         double moveUpCovers = discount.getDiscountAmount();
-        double trainerAmount = walletService.calculateNetAmount(booking.getPrice());
+        Money grossAmount = Money.ofDecimal(booking.getPrice());
+        Money trainerAmount = walletService.calculateNetAmount(grossAmount);
         
         // Credit wallet trainer (cliente paga parte + MoveUp copre resto)
         walletService.creditWallet(
@@ -172,8 +203,9 @@ public class FirstLessonService {
             booking.getId(),
             userId,
             "Cliente + MoveUp",
-            booking.getPrice(),
-            walletService.calculatePlatformFee(booking.getPrice())
+            grossAmount,
+            walletService.calculatePlatformFee(grossAmount),
+            paymentIntent.getId()
         );
         
         return new FirstLessonPaymentResult(
@@ -187,17 +219,20 @@ public class FirstLessonService {
     }
     
     /**
-     * Stats campagna first lesson
+     * Stats campagna first lesson.
+     * Lezioni date e rimanenti seguono i lease (come il controllo del cap), non i consumi scritti a
+     * intervalli da ogni nodo: le date comprendono i blocchi prestati agli altri nodi e non ancora spesi.
      */
     public FirstLessonStats getCampaignStats() {
+        CampaignBudget budget = campaignBudgetService.getBudget(CAMPAIGN_ID);
+        int freeLessonsGiven = Math.min(budget.getCap(), campaignBudgetService.getCommitted(CAMPAIGN_ID));
         double totalCostCovered = freeLessonsGiven * MAX_FREE_LESSON_AMOUNT;
-        int remaining = MAX_FREE_LESSONS - freeLessonsGiven;
-        double percentageUsed = (double) freeLessonsGiven / MAX_FREE_LESSONS * 100;
+        double percentageUsed = budget.getCap() > 0 ? (double) freeLessonsGiven / budget.getCap() * 100 : 100;
         
         return new FirstLessonStats(
             freeLessonsGiven,
-            remaining,
-            MAX_FREE_LESSONS,
+            budget.getCap() - freeLessonsGiven,
+            budget.getCap(),
             totalCostCovered,
             percentageUsed
         );
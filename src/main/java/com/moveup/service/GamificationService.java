@@ -0,0 +1,345 @@
+package com.moveup.service;
+
+import com.moveup.model.Badge;
+import com.moveup.model.Booking;
+import com.moveup.model.GameStatus;
+import com.moveup.model.GamificationEvent;
+import com.moveup.model.PointsEvent;
+import com.moveup.model.User;
+import com.moveup.service.BadgeRuleEngine.Stat;
+import com.moveup.service.BadgeRuleEngine.UserStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Gamification a valle del completamento di una lezione.
+ *
+ * BookingService accoda un evento LESSON_COMPLETED; il consumer lo elabora in modo asincrono,
+ * raggruppando gli eventi dello stesso utente in ordine di arrivo. Per ogni gruppo l'utente viene
+ * letto una volta, punti, streak, livello, badge e dati della storia sono calcolati in memoria e
+ * tutte le modifiche all'utente vanno in un unico update. Gli id degli eventi applicati restano
+ * sull'utente (gameStatus.appliedGamificationEvents, ultimi app.gamification.applied-window) e
+ * vengono scartati se l'elaborazione viene ripetuta dopo un errore, anche mescolati a eventi nuovi:
+ * l'utente non riceve due volte gli stessi punti. L'update è inoltre condizionato all'ultimo evento
+ * applicato (gameStatus.lastGamificationEventId), così due consumer non partono dallo stesso stato.
+ */
+@Service
+public class GamificationService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(GamificationService.class);
+    
+    @Value("${app.gamification.batch-size:500}")
+    private int batchSize;
+    
+    @Value("${app.gamification.lock-timeout-ms:60000}")
+    private long lockTimeoutMs;
+    
+    @Value("${app.gamification.max-attempts:5}")
+    private int maxAttempts;
+    
+    @Value("${app.gamification.retention-days:7}")
+    private int retentionDays;
+    
+    @Value("${app.gamification.applied-window:200}")
+    private int appliedWindow;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private PointsService pointsService;
+    
+    @Autowired
+    private PointsLedgerService pointsLedgerService;
+    
+    @Autowired
+    private BadgeRuleEngine badgeRuleEngine;
+    
+    @Autowired
+    private BadgeHolderCountService badgeHolderCountService;
+    
+    @Autowired
+    private StoryGeneratorService storyGeneratorService;
+    
+    @Autowired
+    private NotificationService notificationService;
+    
+    @PostConstruct
+    public void init() {
+        try {
+            mongoTemplate.indexOps(GamificationEvent.class)
+                    .ensureIndex(new Index().on("status", Sort.Direction.ASC).on("occurredAt", Sort.Direction.ASC));
+            mongoTemplate.indexOps(GamificationEvent.class)
+                    .ensureIndex(new Index().on("lockToken", Sort.Direction.ASC).sparse());
+            mongoTemplate.indexOps(GamificationEvent.class)
+                    .ensureIndex(new Index().on("expiresAt", Sort.Direction.ASC).expire(Duration.ZERO));
+        } catch (Exception e) {
+            logger.error("Failed to ensure gamification event indexes", e);
+        }
+    }
+    
+    /**
+     * Accoda il completamento di una lezione. Ritorna false se era già stato accodato.
+     */
+    public boolean publishLessonCompleted(Booking booking, int basePoints) {
+        try {
+            mongoTemplate.insert(GamificationEvent.lessonCompleted(booking, basePoints));
+            return true;
+        } catch (DuplicateKeyException e) {
+            logger.info("Lesson completion already queued for booking {}", booking.getId());
+            return false;
+        }
+    }
+    
+    /**
+     * Elabora gli eventi in coda, un utente alla volta e in ordine di arrivo
+     */
+    @Scheduled(fixedDelayString = "${app.gamification.poll-ms:1000}")
+    public void drainQueue() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime staleBefore = now.minus(Duration.ofMillis(lockTimeoutMs));
+        
+        // Include gli eventi PROCESSING: servono a capire quali utenti sono in mano a un altro nodo
+        Query query = new Query(Criteria.where("status")
+                .in(GamificationEvent.STATUS_PENDING, GamificationEvent.STATUS_PROCESSING))
+                .with(Sort.by("occurredAt"))
+                .limit(batchSize);
+        query.fields().include("userId", "status", "lockedAt");
+        List<GamificationEvent> batch = mongoTemplate.find(query, GamificationEvent.class);
+        if (batch.isEmpty()) {
+            return;
+        }
+        
+        Map<String, List<String>> byUser = new LinkedHashMap<>();
+        Set<String> busyUsers = new HashSet<>();
+        for (GamificationEvent event : batch) {
+            boolean lockedElsewhere = GamificationEvent.STATUS_PROCESSING.equals(event.getStatus())
+                    && event.getLockedAt() != null && event.getLockedAt().isAfter(staleBefore);
+            if (lockedElsewhere) {
+                busyUsers.add(event.getUserId());
+            }
+            byUser.computeIfAbsent(event.getUserId(), k -> new ArrayList<>()).add(event.getId());
+        }
+        
+        for (Map.Entry<String, List<String>> entry : byUser.entrySet()) {
+            if (busyUsers.contains(entry.getKey())) {
+                continue; // gli eventi successivi aspettano quelli in corso su un altro nodo
+            }
+            List<GamificationEvent> events = claim(entry.getValue(), now, staleBefore);
+            if (events.isEmpty()) {
+                continue;
+            }
+            try {
+                markProcessed(events, processUser(entry.getKey(), events));
+            } catch (Exception e) {
+                markFailed(events, e);
+            }
+        }
+    }
+    
+    // Helper methods
+    
+    private List<GamificationEvent> claim(List<String> eventIds, LocalDateTime now, LocalDateTime staleBefore) {
+        String token = UUID.randomUUID().toString();
+        Query query = new Query(Criteria.where("_id").in(eventIds).orOperator(
+            Criteria.where("status").is(GamificationEvent.STATUS_PENDING),
+            Criteria.where("status").is(GamificationEvent.STATUS_PROCESSING).and("lockedAt").lt(staleBefore)
+        ));
+        Update update = new Update()
+                .set("status", GamificationEvent.STATUS_PROCESSING)
+                .set("lockToken", token)
+                .set("lockedAt", now);
+        if (mongoTemplate.updateMulti(query, update, GamificationEvent.class).getModifiedCount() == 0) {
+            return List.of();
+        }
+        
+        Query claimed = new Query(Criteria.where("lockToken").is(token)).with(Sort.by("occurredAt"));
+        return mongoTemplate.find(claimed, GamificationEvent.class);
+    }
+    
+    /**
+     * Applica gli eventi non ancora applicati all'utente e ritorna i loro id
+     */
+    private Set<String> processUser(String userId, List<GamificationEvent> claimed) {
+        // Una sola lettura dell'utente, limitata ai campi di gamification
+        Query userQuery = new Query(Criteria.where("_id").is(userId));
+        userQuery.fields().include("points", "badges", "gameStatus");
+        User user = mongoTemplate.findOne(userQuery, User.class);
+        if (user == null) {
+            throw new RuntimeException("Utente non trovato");
+        }
+        
+        GameStatus status = user.getGameStatus() != null ? user.getGameStatus() : new GameStatus();
+        String lastApplied = status.getLastGamificationEventId();
+        
+        // Eventi ripresi dopo un errore (lock scaduto) ma già applicati: non si ricalcolano
+        Set<String> alreadyApplied = new HashSet<>(status.getAppliedGamificationEvents() != null
+                ? status.getAppliedGamificationEvents() : List.of());
+        List<GamificationEvent> events = claimed.stream()
+                .filter(event -> !alreadyApplied.contains(event.getId()))
+                .toList();
+        if (events.isEmpty()) {
+            logger.info("Gamification events {} already applied to user {}",
+                    claimed.stream().map(GamificationEvent::getId).toList(), userId);
+            return Set.of();
+        }
+        
+        int points = user.getPoints();
+        int startLevel = pointsService.calculateLevel(points);
+        int pointsDelta = 0;
+        int experienceDelta = 0;
+        int lessons = status.getTotalLessons();
+        Set<String> heldBadges = new HashSet<>(user.getBadges() != null ? user.getBadges() : List.of());
+        List<Badge> newBadges = new ArrayList<>();
+        List<PointsEvent> ledger = new ArrayList<>();
+        
+        for (GamificationEvent event : events) {
+            // Punti della lezione
+            int awarded = event.getBasePoints();
+            
+            // Streak (non riconteggiata se la stessa prenotazione è già passata da PointsService)
+            if (!event.getBookingId().equals(status.getLastStreakBookingId())) {
+                int streak = pointsService.nextStreak(status, event.getOccurredAt());
+                status.setCurrentStreak(streak);
+                status.setLongestStreak(Math.max(status.getLongestStreak(), streak));
+                status.setLastLessonAt(event.getOccurredAt());
+                status.setLastStreakBookingId(event.getBookingId());
+            }
+            
+            // Badge sbloccati dalla nuova lezione
+            int previousLessons = lessons++;
+            UserStats stats = UserStats.of(user).with(Stat.TOTAL_LESSONS, lessons);
+            List<Badge> eventBadges = new ArrayList<>();
+            for (Badge badge : badgeRuleEngine.crossedBadges(Stat.TOTAL_LESSONS, previousLessons, lessons, stats)) {
+                if (heldBadges.add(badge.getId())) {
+                    newBadges.add(badge);
+                    eventBadges.add(badge);
+                    awarded += BadgeService.rewardPoints(badge);
+                    experienceDelta += BadgeService.rewardExperience(badge);
+                }
+            }
+            
+            pointsDelta += awarded;
+            points += awarded;
+            
+            event.setPointsAwarded(awarded);
+            event.setBadgesAwarded(eventBadges.stream().map(Badge::getId).toList());
+            event.setStreakAfter(status.getCurrentStreak());
+            event.setLevelAfter(pointsService.calculateLevel(points));
+            event.setStoryBadge(storyGeneratorService.milestoneBadge(lessons, awarded));
+            
+            // Movimenti separati per la lezione e per ogni badge, con il saldo progressivo
+            int balance = points - awarded + event.getBasePoints();
+            ledger.add(new PointsEvent(userId, event.getBasePoints(), balance, PointsEvent.Source.LESSON,
+                event.getBookingId(), "Lezione completata"));
+            for (Badge badge : eventBadges) {
+                int badgePoints = BadgeService.rewardPoints(badge);
+                if (badgePoints > 0) {
+                    balance += badgePoints;
+                    ledger.add(new PointsEvent(userId, badgePoints, balance, PointsEvent.Source.BADGE,
+                        badge.getId(), "Badge ottenuto: " + badge.getTitle()));
+                }
+            }
+        }
+        
+        List<String> eventIds = events.stream().map(GamificationEvent::getId).toList();
+        String lastEventId = eventIds.get(eventIds.size() - 1);
+        
+        // Un solo update per tutti gli eventi del gruppo
+        Update update = new Update()
+                .inc("points", pointsDelta)
+                .inc("gameStatus.totalLessons", events.size())
+                .set("gameStatus.currentStreak", status.getCurrentStreak())
+                .set("gameStatus.longestStreak", status.getLongestStreak())
+                .set("gameStatus.lastLessonAt", status.getLastLessonAt())
+                .set("gameStatus.lastStreakBookingId", status.getLastStreakBookingId())
+                .set("gameStatus.lastGamificationEventId", lastEventId)
+                .push("gameStatus.appliedGamificationEvents").slice(-appliedWindow).each(eventIds.toArray())
+                .max("gameStatus.level", pointsService.calculateLevel(points));
+        if (!newBadges.isEmpty()) {
+            update.addToSet("badges").each(newBadges.stream().map(Badge::getId).toArray());
+        }
+        if (experienceDelta > 0) {
+            update.inc("gameStatus.experiencePoints", experienceDelta);
+        }
+        
+        Criteria watermark = lastApplied != null
+                ? Criteria.where("gameStatus.lastGamificationEventId").is(lastApplied)
+                : Criteria.where("gameStatus.lastGamificationEventId").exists(false);
+        Criteria notApplied = Criteria.where("gameStatus.appliedGamificationEvents").nin(eventIds);
+        if (mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(userId).andOperator(watermark, notApplied)),
+                update, User.class).getModifiedCount() == 0) {
+            // Un altro consumer ha applicato eventi nel frattempo: il gruppo viene ritentato
+            throw new RuntimeException("Stato gamification modificato durante l'elaborazione");
+        }
+        
+        // Effetti secondari, dopo l'unica scrittura sull'utente
+        pointsLedgerService.recordAll(ledger);
+        badgeHolderCountService.increment(newBadges.stream().map(Badge::getId).toList());
+        for (GamificationEvent event : events) {
+            notificationService.sendPointsEarnedNotification(userId, event.getPointsAwarded(), "Lezione completata");
+        }
+        for (Badge badge : newBadges) {
+            notificationService.sendBadgeEarnedNotification(userId, badge.getId(), badge.getTitle());
+        }
+        return new HashSet<>(eventIds);
+    }
+    
+    private void markProcessed(List<GamificationEvent> events, Set<String> applied) {
+        LocalDateTime now = LocalDateTime.now();
+        for (GamificationEvent event : events) {
+            Update update = new Update()
+                    .set("status", GamificationEvent.STATUS_PROCESSED)
+                    .set("processedAt", now)
+                    .set("expiresAt", now.plusDays(retentionDays))
+                    .inc("attempts", 1)
+                    .unset("lockToken")
+                    .unset("lockedAt");
+            // Per gli eventi applicati in un tentativo precedente i risultati non sono ricalcolabili
+            if (applied.contains(event.getId())) {
+                update.set("pointsAwarded", event.getPointsAwarded())
+                        .set("badgesAwarded", event.getBadgesAwarded())
+                        .set("levelAfter", event.getLevelAfter())
+                        .set("streakAfter", event.getStreakAfter())
+                        .set("storyBadge", event.getStoryBadge());
+            }
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(event.getId())), update, GamificationEvent.class);
+        }
+    }
+    
+    private void markFailed(List<GamificationEvent> events, Exception error) {
+        for (GamificationEvent event : events) {
+            int attempts = event.getAttempts() + 1;
+            Update update = new Update()
+                    .set("attempts", attempts)
+                    .set("lastError", error.getClass().getSimpleName() + ": " + error.getMessage())
+                    .set("status", attempts >= maxAttempts ? GamificationEvent.STATUS_DEAD : GamificationEvent.STATUS_PENDING)
+                    .unset("lockToken")
+                    .unset("lockedAt");
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(event.getId())), update, GamificationEvent.class);
+        }
+        logger.error("Gamification events for user {} failed", events.get(0).getUserId(), error);
+    }
+}
@@ -0,0 +1,393 @@
+package com.moveup.service;
+
+import com.moveup.model.IdempotencyRecord;
+import com.moveup.repository.IdempotencyRecordRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Gestione delle Idempotency-Key per gli endpoint che creano prenotazioni, pagamenti e check-in.
+ *
+ * Le risposte completate stanno in una cache locale limitata (LRU) e nella collection
+ * idempotency_keys con indice TTL. Un duplicato concorrente sullo stesso nodo attende
+ * il future della prima esecuzione; su nodi diversi il record IN_PROGRESS fa da lock.
+ *
+ * Un lock IN_PROGRESS scaduto viene ripreso da un altro nodo, quindi una risposta che non si riesce
+ * a salvare non deve lasciarlo IN_PROGRESS: il record passa a COMPLETED_UNKNOWN (mai ripreso) e il
+ * salvataggio della risposta viene ritentato in background.
+ */
+@Service
+public class IdempotencyService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyService.class);
+    
+    private static final long REMOTE_POLL_INTERVAL_MS = 200;
+    
+    // Tentativi di salvataggio della risposta prima di passare al retry in background
+    private static final int MAX_PERSIST_ATTEMPTS = 3;
+    private static final long PERSIST_BACKOFF_MS = 100;
+    private static final long PERSIST_RETRY_MS = 5000;
+    
+    @Value("${app.idempotency.ttl-hours:24}")
+    private long ttlHours;
+    
+    @Value("${app.idempotency.local-cache-size:10000}")
+    private int localCacheSize;
+    
+    @Value("${app.idempotency.wait-timeout-ms:30000}")
+    private long waitTimeoutMs;
+    
+    @Value("${app.idempotency.lock-timeout-ms:60000}")
+    private long lockTimeoutMs;
+    
+    @Autowired
+    private IdempotencyRecordRepository idempotencyRecordRepository;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    // Esecuzioni in corso su questo nodo: i duplicati attendono il future
+    private final Map<String, CompletableFuture<StoredResponse>> inFlight = new ConcurrentHashMap<>();
+    
+    // Risposte completate recenti (LRU limitata)
+    private Map<String, StoredResponse> completed;
+    
+    // Retry dei salvataggi falliti, fuori dal thread della richiesta
+    private ScheduledExecutorService persistRetryScheduler;
+    
+    @PostConstruct
+    public void init() {
+        completed = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StoredResponse> eldest) {
+                return size() > localCacheSize;
+            }
+        });
+        
+        // Indice TTL: Mongo elimina i record alla scadenza di expiresAt
+        try {
+            mongoTemplate.indexOps(IdempotencyRecord.class)
+                    .ensureIndex(new Index().on("expiresAt", Sort.Direction.ASC).expire(Duration.ZERO));
+        } catch (Exception e) {
+            logger.error("Failed to ensure TTL index on idempotency_keys", e);
+        }
+        
+        persistRetryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "idempotency-persist-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        persistRetryScheduler.shutdownNow();
+    }
+    
+    /**
+     * Prenota l'esecuzione della richiesta identificata da scope + key.
+     * Ritorna EXECUTE se il chiamante deve eseguirla (e poi chiamare complete/abandon),
+     * REPLAY con la risposta salvata, MISMATCH se la chiave è stata usata con un'altra richiesta,
+     * IN_PROGRESS se la prima esecuzione non termina entro il timeout di attesa.
+     */
+    public Claim begin(String scope, String key, String fingerprint) {
+        String id = scope + ":" + key;
+        long deadline = System.currentTimeMillis() + waitTimeoutMs;
+        
+        while (System.currentTimeMillis() < deadline) {
+            StoredResponse cached = completed.get(id);
+            if (cached != null && !cached.isExpired()) {
+                return Claim.replayOrMismatch(id, cached, fingerprint);
+            }
+            
+            CompletableFuture<StoredResponse> mine = new CompletableFuture<>();
+            CompletableFuture<StoredResponse> existing = inFlight.putIfAbsent(id, mine);
+            
+            if (existing != null) {
+                // Duplicato concorrente sullo stesso nodo: attende la prima esecuzione
+                StoredResponse response = await(existing, deadline);
+                if (response != null) {
+                    return Claim.replayOrMismatch(id, response, fingerprint);
+                }
+                continue; // prima esecuzione abbandonata o ancora in corso altrove: riprova
+            }
+            
+            Claim claim;
+            try {
+                claim = claimRemote(id, fingerprint, mine);
+            } catch (RuntimeException e) {
+                // Errore Mongo: i waiter locali non devono restare appesi al future
+                inFlight.remove(id, mine);
+                mine.completeExceptionally(e);
+                throw e;
+            }
+            if (claim != null) {
+                return claim;
+            }
+            
+            // Lock detenuto da un altro nodo: libera i waiter locali e riprova dopo una pausa
+            inFlight.remove(id, mine);
+            mine.complete(null);
+            sleep(REMOTE_POLL_INTERVAL_MS);
+        }
+        
+        return Claim.inProgress(id);
+    }
+    
+    /**
+     * Salva la risposta della prima esecuzione e sveglia i duplicati in attesa
+     */
+    public void complete(String id, String fingerprint, int status, String contentType, String body) {
+        LocalDateTime expiresAt = LocalDateTime.now().plusHours(ttlHours);
+        StoredResponse response = new StoredResponse(fingerprint, status, contentType, body, expiresAt);
+        
+        IdempotencyRecord record = new IdempotencyRecord(id, fingerprint, expiresAt);
+        record.complete(status, contentType, body);
+        if (!persist(record, MAX_PERSIST_ATTEMPTS)) {
+            // Il side effect è avvenuto: nessun altro nodo deve poter riprendere il lock
+            markCompletedUnknown(id);
+            schedulePersistRetry(record);
+        }
+        
+        completed.put(id, response);
+        CompletableFuture<StoredResponse> future = inFlight.remove(id);
+        if (future != null) {
+            future.complete(response);
+        }
+    }
+    
+    /**
+     * Rilascia la chiave senza salvare la risposta (errore server): il prossimo tentativo la riesegue
+     */
+    public void abandon(String id) {
+        try {
+            idempotencyRecordRepository.deleteById(id);
+        } catch (Exception e) {
+            logger.error("Failed to release idempotency record {}", id, e);
+        }
+        
+        CompletableFuture<StoredResponse> future = inFlight.remove(id);
+        if (future != null) {
+            future.complete(null);
+        }
+    }
+    
+    // Helper methods
+    
+    private boolean persist(IdempotencyRecord record, int attempts) {
+        for (int attempt = 1; attempt <= attempts; attempt++) {
+            try {
+                idempotencyRecordRepository.save(record);
+                return true;
+            } catch (Exception e) {
+                logger.warn("Failed to persist idempotency record {} (attempt {}/{}): {}",
+                        record.getId(), attempt, attempts, e.getMessage());
+                if (attempt < attempts) {
+                    sleep(PERSIST_BACKOFF_MS * attempt);
+                }
+            }
+        }
+        return false;
+    }
+    
+    private void markCompletedUnknown(String id) {
+        try {
+            mongoTemplate.updateFirst(
+                    new Query(Criteria.where("_id").is(id).and("status").is(IdempotencyRecord.STATUS_IN_PROGRESS)),
+                    new Update().set("status", IdempotencyRecord.STATUS_COMPLETED_UNKNOWN),
+                    IdempotencyRecord.class);
+        } catch (Exception e) {
+            logger.error("Failed to mark idempotency record {} as completed with unknown response", id, e);
+        }
+    }
+    
+    private void schedulePersistRetry(IdempotencyRecord record) {
+        persistRetryScheduler.schedule(() -> {
+            if (record.isExpired()) {
+                logger.error("Giving up persisting idempotency record {}: expired", record.getId());
+                return;
+            }
+            if (!persist(record, 1)) {
+                // Finché il record resta IN_PROGRESS va marcato, altrimenti verrebbe ripreso
+                markCompletedUnknown(record.getId());
+                schedulePersistRetry(record);
+            }
+        }, PERSIST_RETRY_MS, TimeUnit.MILLISECONDS);
+    }
+    
+    private Claim claimRemote(String id, String fingerprint, CompletableFuture<StoredResponse> mine) {
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            idempotencyRecordRepository.insert(new IdempotencyRecord(id, fingerprint, now.plusHours(ttlHours)));
+            return Claim.execute(id);
+        } catch (DuplicateKeyException e) {
+            // Record già presente: completato, in corso su un altro nodo o scaduto
+        }
+        
+        IdempotencyRecord record = idempotencyRecordRepository.findById(id).orElse(null);
+        if (record == null) {
+            return null; // rimosso nel frattempo: nuovo tentativo al prossimo giro
+        }
+        
+        if (record.isExpired()) {
+            idempotencyRecordRepository.deleteById(id);
+            return null;
+        }
+        
+        if (record.isCompleted()) {
+            StoredResponse response = new StoredResponse(
+                record.getFingerprint(),
+                record.getResponseStatus(),
+                record.getResponseContentType(),
+                record.getResponseBody(),
+                record.getExpiresAt()
+            );
+            completed.put(id, response);
+            inFlight.remove(id, mine);
+            mine.complete(response);
+            return Claim.replayOrMismatch(id, response, fingerprint);
+        }
+        
+        if (record.isCompletedUnknown()) {
+            // Eseguita ma risposta non salvata: non si riesegue mai
+            inFlight.remove(id, mine);
+            mine.complete(null);
+            return Claim.unknown(id);
+        }
+        
+        // Lock scaduto (nodo caduto durante l'esecuzione): lo riprendiamo in modo condizionale
+        LocalDateTime staleBefore = now.minus(Duration.ofMillis(lockTimeoutMs));
+        if (record.getLockedAt() != null && record.getLockedAt().isBefore(staleBefore)) {
+            Query query = new Query(Criteria.where("_id").is(id)
+                    .and("status").is(IdempotencyRecord.STATUS_IN_PROGRESS)
+                    .and("lockedAt").is(record.getLockedAt()));
+            Update update = new Update()
+                    .set("lockedAt", now)
+                    .set("fingerprint", fingerprint);
+            IdempotencyRecord taken = mongoTemplate.findAndModify(
+                query, update, FindAndModifyOptions.options().returnNew(true), IdempotencyRecord.class
+            );
+            if (taken != null) {
+                logger.warn("Took over stale idempotency lock {}", id);
+                return Claim.execute(id);
+            }
+        }
+        
+        return null;
+    }
+    
+    private StoredResponse await(CompletableFuture<StoredResponse> future, long deadline) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            return null;
+        }
+        try {
+            return future.get(remaining, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            return null;
+        }
+    }
+    
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    // Inner classes
+    
+    public enum Outcome {
+        EXECUTE, REPLAY, MISMATCH, IN_PROGRESS, UNKNOWN
+    }
+    
+    public static class Claim {
+        private final Outcome outcome;
+        private final String id;
+        private final StoredResponse response;
+        
+        private Claim(Outcome outcome, String id, StoredResponse response) {
+            this.outcome = outcome;
+            this.id = id;
+            this.response = response;
+        }
+        
+        static Claim execute(String id) {
+            return new Claim(Outcome.EXECUTE, id, null);
+        }
+        
+        static Claim inProgress(String id) {
+            return new Claim(Outcome.IN_PROGRESS, id, null);
+        }
+        
+        static Claim unknown(String id) {
+            return new Claim(Outcome.UNKNOWN, id, null);
+        }
+        
+        static Claim replayOrMismatch(String id, StoredResponse response, String fingerprint) {
+            if (response.getFingerprint() != null && !response.getFingerprint().equals(fingerprint)) {
+                return new Claim(Outcome.MISMATCH, id, null);
+            }
+            return new Claim(Outcome.REPLAY, id, response);
+        }
+        
+        public Outcome getOutcome() { return outcome; }
+        public String getId() { return id; }
+        public StoredResponse getResponse() { return response; }
+    }
+    
+    public static class StoredResponse {
+        private final String fingerprint;
+        private final int status;
+        private final String contentType;
+        private final String body;
+        private final LocalDateTime expiresAt;
+        
+        public StoredResponse(String fingerprint, int status, String contentType, String body, LocalDateTime expiresAt) {
+            this.fingerprint = fingerprint;
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+            this.expiresAt = expiresAt;
+        }
+        
+        public String getFingerprint() { return fingerprint; }
+        public int getStatus() { return status; }
+        public String getContentType() { return contentType; }
+        public String getBody() { return body; }
+        
+        public boolean isExpired() {
+            return expiresAt != null && expiresAt.isBefore(LocalDateTime.now());
+        }
+    }
+}
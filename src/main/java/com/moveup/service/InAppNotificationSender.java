@@ -0,0 +1,37 @@
+package com.moveup.service;
+
+import com.moveup.model.Notification;
+import com.moveup.model.NotificationChannel;
+import com.moveup.model.User;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Canale in-app: la notifica è già nel feed dell'utente una volta scritta su Mongo,
+ * la consegna segna solo delivery.inAppSent (delivery.isSent arriva quando anche gli altri
+ * canali che hanno accettato la notifica l'hanno consegnata)
+ */
+@Component
+public class InAppNotificationSender implements NotificationSender {
+    
+    @Override
+    public NotificationChannel getChannel() {
+        return NotificationChannel.IN_APP;
+    }
+    
+    @Override
+    public boolean accepts(Notification notification, User recipient) {
+        return true;
+    }
+    
+    @Override
+    public DeliveryReport send(List<Notification> notifications, Map<String, User> recipients) {
+        DeliveryReport report = new DeliveryReport();
+        for (Notification notification : notifications) {
+            report.delivered(notification.getId());
+        }
+        return report;
+    }
+}
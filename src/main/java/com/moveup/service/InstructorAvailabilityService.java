@@ -1,5 +1,6 @@
 package com.moveup.service;
 
+import com.moveup.model.AvailabilityBitmap;
 import com.moveup.model.Instructor;
 import com.moveup.model.InstructorAvailability;
 import com.moveup.repository.InstructorRepository;
@@ -27,6 +28,11 @@ public class InstructorAvailabilityService {
     @Autowired
     private BookingRepository bookingRepository;
     
+    @Autowired
+    private AvailabilityCalendarService availabilityCalendarService;
+    
+    private static final int DEFAULT_LESSON_MINUTES = 60;
+    
     /**
      * INSTANT BOOKING: Trova trainer disponibili SUBITO nelle prossime 2 ore
      * Stile "Uber for Sports"
@@ -97,7 +103,8 @@ public class InstructorAvailabilityService {
     
     /**
      * Trova trainer disponibili in un range orario specifico
-     * TODO: Implement with proper repository methods and model fields
+     * Usa le bitmap giornaliere di AvailabilityCalendarService: un trainer è disponibile
+     * se nel range esiste almeno una lezione standard (60 min) di celle libere consecutive
      */
     public List<InstantBookingResult> findAvailableInTimeRange(
             Double userLat,
@@ -107,13 +114,79 @@ public class InstructorAvailabilityService {
             LocalDateTime startTime,
             LocalDateTime endTime
     ) {
-        // TODO: This method requires:
-        // - findByLocationNear in InstructorRepository
-        // - findByInstructorIdAndDayOfWeek in InstructorAvailabilityRepository
-        // - getStartTime/getEndTime in InstructorAvailability (use TimeSlot objects)
-        // - getLatitude/getLongitude in Instructor model
-        // - getLocation in InstructorAvailability model
-        throw new RuntimeException("findAvailableInTimeRange not yet implemented");
+        if (!startTime.toLocalDate().equals(endTime.toLocalDate()) && !endTime.toLocalTime().equals(LocalTime.MIDNIGHT)) {
+            throw new RuntimeException("Il range orario deve essere compreso nella stessa giornata");
+        }
+        
+        double radiusMeters = (radiusKm != null ? radiusKm : 10.0) * 1000;
+        List<Instructor> nearbyInstructors = instructorRepository.findByLocationWithinRadius(
+            userLat, userLng, radiusMeters
+        );
+        
+        int fromCell = AvailabilityBitmap.cellCeil(startTime.toLocalTime());
+        int toCell = endTime.toLocalDate().isAfter(startTime.toLocalDate())
+            ? AvailabilityBitmap.SLOTS_PER_DAY
+            : AvailabilityBitmap.cellFloor(endTime.toLocalTime());
+        int lessonCells = AvailabilityBitmap.cellsFor(DEFAULT_LESSON_MINUTES);
+        
+        List<InstantBookingResult> results = new ArrayList<>();
+        for (Instructor instructor : nearbyInstructors) {
+            if (!instructor.isActive()) {
+                continue;
+            }
+            if (sport != null && !sport.isEmpty()
+                    && (instructor.getSpecializations() == null || !instructor.getSpecializations().contains(sport))) {
+                continue;
+            }
+            
+            AvailabilityBitmap free = availabilityCalendarService.getFreeSlots(
+                instructor.getId(), startTime.toLocalDate()
+            );
+            int firstCell = free.firstFreeRun(fromCell, toCell, lessonCells);
+            if (firstCell < 0) {
+                continue;
+            }
+            
+            double distance = calculateDistance(
+                userLat, userLng,
+                instructor.getLocation().getLatitude(),
+                instructor.getLocation().getLongitude()
+            );
+            int etaMinutes = 5 + (int)(distance * 2);
+            
+            results.add(new InstantBookingResult(
+                instructor,
+                distance,
+                etaMinutes,
+                AvailabilityBitmap.timeOf(firstCell),
+                instructor.getLocation().getAddress(),
+                calculatePriceForSport(instructor, sport)
+            ));
+        }
+        
+        return results.stream()
+            .sorted(Comparator.comparing(InstantBookingResult::getNextAvailableSlot)
+                .thenComparing(InstantBookingResult::getDistance))
+            .collect(Collectors.toList());
+    }
+    
+    /**
+     * Salva gli slot giornalieri di un istruttore (sostituiscono le fasce settimanali per quel giorno)
+     */
+    public InstructorAvailability saveDailyAvailability(InstructorAvailability availability) {
+        InstructorAvailability saved = availabilityRepository.save(availability);
+        availabilityCalendarService.invalidate(saved.getInstructorId());
+        return saved;
+    }
+    
+    /**
+     * Elimina gli slot giornalieri: per quel giorno tornano a valere le fasce settimanali
+     */
+    public void deleteDailyAvailability(String availabilityId) {
+        availabilityRepository.findById(availabilityId).ifPresent(availability -> {
+            availabilityRepository.delete(availability);
+            availabilityCalendarService.invalidate(availability.getInstructorId());
+        });
     }
     
     // Haversine formula per calcolare distanza tra due coordinate
@@ -36,6 +36,9 @@ public class InstructorService {
     @Autowired
     private UserService userService;
     
+    @Autowired
+    private AvailabilityCalendarService availabilityCalendarService;
+    
     // Create new instructor
     public Instructor createInstructor(Instructor instructor) {
         // Check if email already exists
@@ -108,8 +111,17 @@ public class InstructorService {
         if (updatedInstructor.getSports() != null) {
             existingInstructor.setSports(updatedInstructor.getSports());
         }
+        boolean availabilityChanged = updatedInstructor.getAvailability() != null;
+        if (availabilityChanged) {
+            existingInstructor.setAvailability(updatedInstructor.getAvailability());
+        }
         
-        return instructorRepository.save(existingInstructor);
+        Instructor saved = instructorRepository.save(existingInstructor);
+        if (availabilityChanged) {
+            // Fasce settimanali cambiate: le bitmap in cache (su tutti i nodi) vanno ricostruite
+            availabilityCalendarService.invalidate(instructorId);
+        }
+        return saved;
     }
     
     // Verify instructor email
@@ -0,0 +1,147 @@
+package com.moveup.service;
+
+import com.moveup.model.Lesson;
+import com.moveup.model.LessonSeats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Posti delle lezioni di gruppo (Lesson.maxParticipants > 1).
+ *
+ * Ogni occorrenza ha un documento in lesson_seats: la prenotazione decrementa seatsLeft con un
+ * findAndModify condizionato a seatsLeft > 0, quindi non si va mai oltre la capienza anche con
+ * molte richieste concorrenti su più nodi. A posti esauriti il nodo ricorda lo stato per qualche
+ * secondo e rifiuta subito, senza martellare lo stesso documento quando una classe molto richiesta apre.
+ */
+@Service
+public class LessonSeatService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(LessonSeatService.class);
+    
+    @Value("${app.lessons.sold-out-cache-ms:2000}")
+    private long soldOutCacheMs;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    // Occorrenze il cui documento contatore esiste già (evita l'insert a ogni prenotazione)
+    private final Set<String> initialized = ConcurrentHashMap.newKeySet();
+    
+    // occorrenza -> istante fino a cui considerarla esaurita senza interrogare Mongo
+    private final Map<String, Long> soldOutUntil = new ConcurrentHashMap<>();
+    
+    /**
+     * Prenota un posto. Ritorna false se la lezione è al completo.
+     */
+    public boolean reserveSeat(Lesson lesson, LocalDateTime scheduledDate, LocalTime scheduledTime) {
+        String id = occurrenceId(lesson.getId(), scheduledDate, scheduledTime);
+        
+        Long until = soldOutUntil.get(id);
+        if (until != null) {
+            if (until > System.currentTimeMillis()) {
+                return false;
+            }
+            soldOutUntil.remove(id, until);
+        }
+        
+        ensureCounter(id, lesson, scheduledDate, scheduledTime);
+        
+        Query query = new Query(Criteria.where("_id").is(id).and("seatsLeft").gt(0));
+        Update update = new Update().inc("seatsLeft", -1).set("updatedAt", LocalDateTime.now());
+        LessonSeats seats = mongoTemplate.findAndModify(
+            query, update, FindAndModifyOptions.options().returnNew(true), LessonSeats.class
+        );
+        
+        if (seats == null) {
+            soldOutUntil.put(id, System.currentTimeMillis() + soldOutCacheMs);
+            return false;
+        }
+        if (seats.isFull()) {
+            soldOutUntil.put(id, System.currentTimeMillis() + soldOutCacheMs);
+        }
+        return true;
+    }
+    
+    /**
+     * Restituisce un posto (cancellazione). Ritorna il contatore aggiornato, null se non c'era nulla da liberare.
+     */
+    public LessonSeats releaseSeat(String lessonId, LocalDateTime scheduledDate, LocalTime scheduledTime) {
+        String id = occurrenceId(lessonId, scheduledDate, scheduledTime);
+        
+        Query query = new Query(Criteria.where("_id").is(id)
+                .andOperator(Criteria.expr(ComparisonOperators.valueOf("seatsLeft").lessThan("capacity"))));
+        Update update = new Update().inc("seatsLeft", 1).set("updatedAt", LocalDateTime.now());
+        LessonSeats seats = mongoTemplate.findAndModify(
+            query, update, FindAndModifyOptions.options().returnNew(true), LessonSeats.class
+        );
+        
+        soldOutUntil.remove(id);
+        return seats;
+    }
+    
+    /**
+     * Posti ancora disponibili per un'occorrenza (capienza piena se nessuno ha ancora prenotato)
+     */
+    public int getSeatsLeft(Lesson lesson, LocalDateTime scheduledDate, LocalTime scheduledTime) {
+        LessonSeats seats = mongoTemplate.findById(
+            occurrenceId(lesson.getId(), scheduledDate, scheduledTime), LessonSeats.class
+        );
+        return seats != null ? seats.getSeatsLeft() : lesson.getMaxParticipants();
+    }
+    
+    /**
+     * Pulizia della memoria locale: i contatori restano su Mongo
+     */
+    @Scheduled(cron = "0 15 0 * * *")
+    public void evictLocalState() {
+        initialized.clear();
+        long now = System.currentTimeMillis();
+        soldOutUntil.values().removeIf(until -> until <= now);
+    }
+    
+    // Helper methods
+    
+    private void ensureCounter(String id, Lesson lesson, LocalDateTime scheduledDate, LocalTime scheduledTime) {
+        if (initialized.contains(id)) {
+            return;
+        }
+        
+        LessonSeats seats = new LessonSeats();
+        seats.setId(id);
+        seats.setLessonId(lesson.getId());
+        seats.setScheduledDate(scheduledDate);
+        seats.setScheduledTime(scheduledTime);
+        seats.setCapacity(lesson.getMaxParticipants());
+        seats.setSeatsLeft(lesson.getMaxParticipants());
+        seats.setUpdatedAt(LocalDateTime.now());
+        
+        try {
+            mongoTemplate.insert(seats);
+            logger.debug("Created seat counter {} with capacity {}", id, lesson.getMaxParticipants());
+        } catch (DuplicateKeyException e) {
+            // Creato da un'altra richiesta o da un altro nodo
+        }
+        initialized.add(id);
+    }
+    
+    private String occurrenceId(String lessonId, LocalDateTime scheduledDate, LocalTime scheduledTime) {
+        return lessonId + ":" + scheduledDate.toLocalDate() + ":" + scheduledTime;
+    }
+}
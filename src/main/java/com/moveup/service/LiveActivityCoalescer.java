@@ -0,0 +1,245 @@
+package com.moveup.service;
+
+import com.moveup.dto.LiveActivityUpdateRequest;
+import com.moveup.model.Booking;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accorpa gli aggiornamenti di ogni Live Activity prima dell'invio ad APNs.
+ *
+ * Un cambio di stato parte subito con priorità alta (10), che Apple conteggia nel budget
+ * dell'activity. Gli aggiornamenti con lo stesso stato (tipicamente la posizione dell'istruttore)
+ * restano in attesa: nella finestra app.live-activity.coalesce-window-ms si tiene solo l'ultimo,
+ * inviato a fine finestra con priorità bassa (5), che non consuma budget.
+ *
+ * Lo stato dell'accorpamento è nel documento della prenotazione (Booking.liveActivity), non in
+ * memoria: il cambio di stato è riconosciuto con un findAndModify condizionato allo stato salvato,
+ * e l'invio in attesa (flushAt) è preso da un solo nodo, qualunque nodo abbia ricevuto gli aggiornamenti.
+ */
+@Component
+public class LiveActivityCoalescer {
+    
+    private static final Logger logger = LoggerFactory.getLogger(LiveActivityCoalescer.class);
+    
+    // Invii accorpati presi a ogni giro, per non occupare il thread troppo a lungo
+    private static final int MAX_FLUSH_PER_POLL = 500;
+    
+    private static final String ENDED = "ended";
+    
+    @Value("${app.live-activity.coalesce-window-ms:15000}")
+    private long windowMs;
+    
+    @Value("${app.live-activity.flush-poll-ms:1000}")
+    private long flushPollMs;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    private ScheduledExecutorService flushScheduler;
+    private volatile Flush flushHandler;
+    
+    private Counter immediateCounter;
+    private Counter batchedCounter;
+    private Counter coalescedCounter;
+    
+    /**
+     * Invio di un aggiornamento accorpato arrivato a scadenza, fornito da LiveActivityService
+     */
+    @FunctionalInterface
+    public interface Flush {
+        void send(Booking booking, String status, LiveActivityUpdateRequest.InstructorLocation location);
+    }
+    
+    @PostConstruct
+    public void init() {
+        try {
+            mongoTemplate.indexOps(Booking.class).ensureIndex(
+                new Index().on("liveActivity.flushAt", Sort.Direction.ASC).sparse());
+        } catch (Exception e) {
+            logger.error("Failed to ensure live activity flush index", e);
+        }
+        
+        immediateCounter = meterRegistry.counter("live_activity.updates", "outcome", "immediate");
+        batchedCounter = meterRegistry.counter("live_activity.updates", "outcome", "batched");
+        coalescedCounter = meterRegistry.counter("live_activity.updates", "outcome", "coalesced");
+        
+        flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "live-activity-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flushScheduler.scheduleWithFixedDelay(this::flushDue, flushPollMs, flushPollMs, TimeUnit.MILLISECONDS);
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        flushScheduler.shutdownNow();
+    }
+    
+    /**
+     * Registra chi invia gli aggiornamenti accorpati (LiveActivityService all'avvio)
+     */
+    public void setFlushHandler(Flush flushHandler) {
+        this.flushHandler = flushHandler;
+    }
+    
+    /**
+     * Registra un aggiornamento sulla prenotazione. Se lo stato cambia rispetto a quello salvato
+     * il risultato è immediato e il chiamante invia subito; altrimenti l'aggiornamento sostituisce
+     * quello in attesa e parte a fine finestra.
+     */
+    public Submission submit(String activityId, String status, LiveActivityUpdateRequest.InstructorLocation location) {
+        LocalDateTime now = LocalDateTime.now();
+        FindAndModifyOptions returnNew = FindAndModifyOptions.options().returnNew(true);
+        
+        // Cambio di stato: lo vince un solo aggiornamento, anche con richieste su nodi diversi.
+        // Un'activity chiusa non torna attiva con un aggiornamento in ritardo
+        Update transition = locationUpdate(location, now)
+            .set("liveActivity.status", status)
+            .set("liveActivity.lastPushAt", now)
+            .unset("liveActivity.flushAt");
+        Booking changed = mongoTemplate.findAndModify(
+            new Query(Criteria.where("liveActivity.activityId").is(activityId).and("liveActivity.status").nin(status, ENDED)),
+            transition, returnNew, Booking.class);
+        if (changed != null) {
+            immediateCounter.increment();
+            return new Submission(changed, true);
+        }
+        
+        // Stesso stato: si aggiorna solo la posizione, l'invio è quello in attesa
+        Booking booking = mongoTemplate.findAndModify(
+            new Query(Criteria.where("liveActivity.activityId").is(activityId).and("liveActivity.status").ne(ENDED)),
+            locationUpdate(location, now), returnNew, Booking.class);
+        if (booking == null) {
+            throw new RuntimeException("Live Activity non trovata o terminata");
+        }
+        
+        Booking.LiveActivityInfo info = booking.getLiveActivity();
+        if (info.getFlushAt() != null) {
+            coalescedCounter.increment();
+            return new Submission(booking, false);
+        }
+        
+        LocalDateTime due = info.getLastPushAt() != null ? info.getLastPushAt().plusNanos(windowMs * 1_000_000) : now;
+        Query unscheduled = new Query(Criteria.where("liveActivity.activityId").is(activityId)
+            .and("liveActivity.flushAt").is(null));
+        if (mongoTemplate.updateFirst(unscheduled, new Update().set("liveActivity.flushAt", due.isAfter(now) ? due : now),
+                Booking.class).getModifiedCount() == 0) {
+            coalescedCounter.increment(); // programmato nel frattempo da un altro nodo
+        }
+        return new Submission(booking, false);
+    }
+    
+    /**
+     * Chiude l'activity scartando l'eventuale aggiornamento in attesa (da chiamare prima dell'evento end)
+     */
+    public void end(String activityId) {
+        mongoTemplate.updateFirst(new Query(Criteria.where("liveActivity.activityId").is(activityId)),
+            new Update()
+                .set("liveActivity.status", ENDED)
+                .set("liveActivity.lastUpdate", LocalDateTime.now())
+                .unset("liveActivity.flushAt"),
+            Booking.class);
+    }
+    
+    /**
+     * Ultima posizione nota dell'istruttore salvata sull'activity
+     */
+    public static LiveActivityUpdateRequest.InstructorLocation lastLocation(Booking booking) {
+        Booking.LiveActivityInfo info = booking.getLiveActivity();
+        if (info == null || info.getInstructorLocation() == null || info.getInstructorLocation().getCoordinates() == null) {
+            return null;
+        }
+        double[] coordinates = info.getInstructorLocation().getCoordinates();
+        LiveActivityUpdateRequest.InstructorLocation location = new LiveActivityUpdateRequest.InstructorLocation();
+        location.setLongitude(coordinates[0]);
+        location.setLatitude(coordinates[1]);
+        location.setDistanceFromLesson(info.getInstructorDistance() != null ? info.getInstructorDistance() : 0);
+        return location;
+    }
+    
+    // Helper methods
+    
+    /**
+     * Prende gli invii accorpati scaduti: il findAndModify assegna ogni invio a un solo nodo
+     */
+    private void flushDue() {
+        Flush handler = flushHandler;
+        if (handler == null) {
+            return;
+        }
+        
+        try {
+            for (int i = 0; i < MAX_FLUSH_PER_POLL; i++) {
+                LocalDateTime now = LocalDateTime.now();
+                Booking booking = mongoTemplate.findAndModify(
+                    new Query(Criteria.where("liveActivity.flushAt").lte(now).and("liveActivity.status").ne(ENDED)),
+                    new Update().set("liveActivity.lastPushAt", now).unset("liveActivity.flushAt"),
+                    FindAndModifyOptions.options().returnNew(true),
+                    Booking.class);
+                if (booking == null) {
+                    return;
+                }
+                
+                batchedCounter.increment();
+                try {
+                    handler.send(booking, booking.getLiveActivity().getStatus(), lastLocation(booking));
+                } catch (Exception e) {
+                    logger.warn("Failed to flush coalesced Live Activity update: {}", e.getMessage());
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Failed to poll coalesced Live Activity updates", e);
+        }
+    }
+    
+    private Update locationUpdate(LiveActivityUpdateRequest.InstructorLocation location, LocalDateTime now) {
+        Update update = new Update().set("liveActivity.lastUpdate", now);
+        if (location != null) {
+            update.set("liveActivity.instructorLocation", new Booking.GeoLocation(location.getLongitude(), location.getLatitude()))
+                .set("liveActivity.instructorDistance", location.getDistanceFromLesson());
+        }
+        return update;
+    }
+    
+    // Inner classes
+    
+    /**
+     * Esito di submit: prenotazione aggiornata e se l'aggiornamento va inviato subito
+     */
+    public static final class Submission {
+        private final Booking booking;
+        private final boolean immediate;
+        
+        Submission(Booking booking, boolean immediate) {
+            this.booking = booking;
+            this.immediate = immediate;
+        }
+        
+        public Booking getBooking() { return booking; }
+        public boolean isImmediate() { return immediate; }
+    }
+}
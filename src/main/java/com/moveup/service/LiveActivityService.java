@@ -6,7 +6,6 @@ import com.moveup.model.Booking;
 import com.moveup.repository.BookingRepository;
 import com.eatthepath.pushy.apns.*;
 import com.eatthepath.pushy.apns.util.*;
-import com.eatthepath.pushy.apns.auth.ApnsSigningKey;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,10 +13,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.File;
+import jakarta.annotation.PostConstruct;
 import java.time.LocalDateTime;
 import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
 
 /**
  * Service for managing Live Activity push notifications via APNs
@@ -28,55 +26,26 @@ public class LiveActivityService {
     
     private static final Logger logger = LoggerFactory.getLogger(LiveActivityService.class);
     
-    @Value("${apple.apns.key.path:}")
-    private String apnsKeyPath;
-    
-    @Value("${apple.apns.key.id:}")
-    private String apnsKeyId;
-    
-    @Value("${apple.apns.team.id:}")
-    private String teamId;
+    // Le Live Activity usano il topic dell'app con questo suffisso e push type liveactivity
+    private static final String LIVE_ACTIVITY_TOPIC_SUFFIX = ".push-type.liveactivity";
     
     @Value("${apple.apns.topic:com.moveup.app}")
     private String apnsTopic;
     
-    @Value("${apple.apns.production:false}")
-    private boolean isProduction;
-    
     @Autowired
     private BookingRepository bookingRepository;
     
-    private ApnsClient apnsClient;
+    @Autowired
+    private ApnsSender apnsSender;
     
-    /**
-     * Initialize APNs client (called after bean construction)
-     */
-    public void initializeApnsClient() {
-        if (apnsKeyPath == null || apnsKeyPath.isEmpty()) {
-            logger.warn("APNs key path not configured. Live Activity push notifications will not work.");
-            return;
-        }
-        
-        try {
-            File keyFile = new File(apnsKeyPath);
-            
-            ApnsClient client = new ApnsClientBuilder()
-                .setApnsServer(isProduction ? 
-                    ApnsClientBuilder.PRODUCTION_APNS_HOST : 
-                    ApnsClientBuilder.DEVELOPMENT_APNS_HOST)
-                .setSigningKey(ApnsSigningKey.loadFromPkcs8File(
-                    keyFile, 
-                    teamId, 
-                    apnsKeyId))
-                .build();
-            
-            this.apnsClient = client;
-            logger.info("APNs client initialized successfully. Environment: {}", 
-                isProduction ? "Production" : "Development");
-                
-        } catch (Exception e) {
-            logger.error("Failed to initialize APNs client", e);
-        }
+    @Autowired
+    private LiveActivityCoalescer coalescer;
+    
+    @PostConstruct
+    public void init() {
+        // Gli aggiornamenti accorpati scaduti partono con priorità bassa dal thread del coalescer
+        coalescer.setFlushHandler((booking, status, location) ->
+            sendActivityUpdate(booking.getLiveActivity().getPushToken(), booking, status, location, DeliveryPriority.CONSERVE_POWER));
     }
     
     /**
@@ -94,7 +63,7 @@ public class LiveActivityService {
             booking.setLiveActivity(createLiveActivityInfo(
                 activityId, 
                 request.getPushToken(), 
-                "active"
+                "upcoming"
             ));
             
             bookingRepository.save(booking);
@@ -102,7 +71,7 @@ public class LiveActivityService {
             logger.info("Live Activity started: {} for booking: {}", activityId, booking.getId());
             
             // Send initial push notification
-            sendActivityUpdate(request.getPushToken(), booking, "upcoming", null);
+            sendActivityUpdate(request.getPushToken(), booking, "upcoming", null, DeliveryPriority.IMMEDIATE);
             
             return activityId;
             
@@ -117,23 +86,16 @@ public class LiveActivityService {
      */
     public void updateActivity(String activityId, String status, LiveActivityUpdateRequest.InstructorLocation location) {
         try {
-            Booking booking = bookingRepository.findByLiveActivityActivityId(activityId)
-                .orElseThrow(() -> new RuntimeException("Live Activity not found"));
-            
-            if (booking.getLiveActivity() == null) {
-                throw new RuntimeException("Live Activity not initialized");
+            // Stato e posizione salvati dal coalescer: push subito se lo stato salvato cambia,
+            // altrimenti accorpato con priorità bassa
+            LiveActivityCoalescer.Submission submission = coalescer.submit(activityId, status, location);
+            
+            if (submission.isImmediate()) {
+                Booking booking = submission.getBooking();
+                sendActivityUpdate(booking.getLiveActivity().getPushToken(), booking, status,
+                    LiveActivityCoalescer.lastLocation(booking), DeliveryPriority.IMMEDIATE);
             }
             
-            String pushToken = booking.getLiveActivity().getPushToken();
-            
-            // Update status
-            booking.getLiveActivity().setStatus(status);
-            booking.getLiveActivity().setLastUpdate(LocalDateTime.now());
-            bookingRepository.save(booking);
-            
-            // Send push notification
-            sendActivityUpdate(pushToken, booking, status, location);
-            
             logger.info("Live Activity updated: {} - Status: {}", activityId, status);
             
         } catch (Exception e) {
@@ -156,14 +118,12 @@ public class LiveActivityService {
             
             String pushToken = booking.getLiveActivity().getPushToken();
             
+            // Stato "ended" prima dell'evento: un aggiornamento accorpato non parte più
+            coalescer.end(activityId);
+            
             // Send final update
             sendActivityEnd(pushToken, booking, dismissalPolicy);
             
-            // Update status to ended
-            booking.getLiveActivity().setStatus("ended");
-            booking.getLiveActivity().setLastUpdate(LocalDateTime.now());
-            bookingRepository.save(booking);
-            
             logger.info("Live Activity ended: {} - Dismissal: {}", activityId, dismissalPolicy);
             
         } catch (Exception e) {
@@ -175,9 +135,9 @@ public class LiveActivityService {
      * Send activity update push notification
      */
     private void sendActivityUpdate(String pushToken, Booking booking, String status, 
-                                    LiveActivityUpdateRequest.InstructorLocation location) {
-        if (apnsClient == null) {
-            logger.warn("APNs client not initialized. Skipping push notification.");
+                                    LiveActivityUpdateRequest.InstructorLocation location,
+                                    DeliveryPriority priority) {
+        if (!canPush(pushToken)) {
             return;
         }
         
@@ -185,29 +145,10 @@ public class LiveActivityService {
             // Build APNs payload for Live Activity
             String payload = buildActivityPayload(booking, status, location, false);
             
-            SimpleApnsPushNotification pushNotification = 
-                new SimpleApnsPushNotification(
-                    pushToken,
-                    apnsTopic,
-                    payload,
-                    null,
-                    DeliveryPriority.IMMEDIATE,
-                    PushType.ALERT
-                );
-            
-            CompletableFuture<PushNotificationResponse<SimpleApnsPushNotification>> sendFuture = 
-                apnsClient.sendNotification(pushNotification);
-            
-            sendFuture.whenComplete((response, throwable) -> {
-                if (throwable != null) {
-                    logger.error("Failed to send Live Activity push", throwable);
-                } else if (response.isAccepted()) {
-                    logger.info("Live Activity push sent successfully");
-                } else {
-                    logger.error("Live Activity push rejected: {}", response.getRejectionReason());
-                }
-            });
-            
+            // Esito (retry, token non validi, metriche) gestito da ApnsSender
+            apnsSender.send(buildPushNotification(pushToken, payload, priority))
+                .thenAccept(outcome -> logger.debug("Live Activity push for booking {}: {}", booking.getId(), outcome));
+                
         } catch (Exception e) {
             logger.error("Error sending Live Activity push", e);
         }
@@ -217,32 +158,41 @@ public class LiveActivityService {
      * Send activity end push notification
      */
     private void sendActivityEnd(String pushToken, Booking booking, String dismissalPolicy) {
-        if (apnsClient == null) {
-            logger.warn("APNs client not initialized. Skipping push notification.");
+        if (!canPush(pushToken)) {
             return;
         }
         
         try {
             String payload = buildActivityPayload(booking, "completed", null, true);
             
-            SimpleApnsPushNotification pushNotification = 
-                new SimpleApnsPushNotification(
-                    pushToken,
-                    apnsTopic,
-                    payload,
-                    null,
-                    DeliveryPriority.IMMEDIATE,
-                    PushType.ALERT
-                );
-            
-            apnsClient.sendNotification(pushNotification);
-            logger.info("Live Activity end push sent");
-            
+            apnsSender.send(buildPushNotification(pushToken, payload, DeliveryPriority.IMMEDIATE))
+                .thenAccept(outcome -> logger.info("Live Activity end push for booking {}: {}", booking.getId(), outcome));
+                
         } catch (Exception e) {
             logger.error("Error sending Live Activity end push", e);
         }
     }
     
+    private boolean canPush(String pushToken) {
+        if (!apnsSender.isEnabled()) {
+            logger.warn("APNs client not initialized. Skipping push notification.");
+            return false;
+        }
+        // Token tolto da ApnsSender dopo un rifiuto Unregistered
+        return pushToken != null;
+    }
+    
+    private SimpleApnsPushNotification buildPushNotification(String pushToken, String payload, DeliveryPriority priority) {
+        return new SimpleApnsPushNotification(
+            pushToken,
+            apnsTopic + LIVE_ACTIVITY_TOPIC_SUFFIX,
+            payload,
+            null,
+            priority,
+            PushType.LIVE_ACTIVITY
+        );
+    }
+    
     /**
      * Build APNs JSON payload for Live Activity
      */
@@ -0,0 +1,99 @@
+package com.moveup.service;
+
+import com.stripe.exception.StripeException;
+import com.stripe.model.Account;
+import com.stripe.model.Customer;
+import com.stripe.model.ExternalAccount;
+import com.stripe.model.PaymentIntent;
+import com.stripe.model.Refund;
+import com.stripe.model.Transfer;
+import com.stripe.net.RequestOptions;
+import com.stripe.param.AccountCreateParams;
+import com.stripe.param.CustomerCreateParams;
+import com.stripe.param.PaymentIntentCaptureParams;
+import com.stripe.param.PaymentIntentCreateParams;
+import com.stripe.param.RefundCreateParams;
+import com.stripe.param.TransferCreateParams;
+import com.stripe.param.TransferListParams;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Client verso le API Stripe reali (default)
+ */
+@Component
+@ConditionalOnProperty(name = "app.stripe.client", havingValue = "live", matchIfMissing = true)
+public class LiveStripeClient implements StripeClient {
+    
+    @Override
+    public PaymentIntent createPaymentIntent(PaymentIntentCreateParams params, RequestOptions options) throws StripeException {
+        return PaymentIntent.create(params, options);
+    }
+    
+    @Override
+    public PaymentIntent retrievePaymentIntent(String paymentIntentId, RequestOptions options) throws StripeException {
+        return PaymentIntent.retrieve(paymentIntentId, options);
+    }
+    
+    @Override
+    public PaymentIntent confirmPaymentIntent(String paymentIntentId, RequestOptions options) throws StripeException {
+        return reference(paymentIntentId).confirm(options);
+    }
+    
+    @Override
+    public PaymentIntent capturePaymentIntent(String paymentIntentId, PaymentIntentCaptureParams params,
+            RequestOptions options) throws StripeException {
+        return reference(paymentIntentId).capture(params, options);
+    }
+    
+    @Override
+    public PaymentIntent cancelPaymentIntent(String paymentIntentId, RequestOptions options) throws StripeException {
+        return reference(paymentIntentId).cancel(options);
+    }
+    
+    @Override
+    public Refund createRefund(RefundCreateParams params, RequestOptions options) throws StripeException {
+        return Refund.create(params, options);
+    }
+    
+    @Override
+    public Transfer createTransfer(TransferCreateParams params, RequestOptions options) throws StripeException {
+        return Transfer.create(params, options);
+    }
+    
+    @Override
+    public List<Transfer> listTransfers(TransferListParams params, RequestOptions options) throws StripeException {
+        return Transfer.list(params, options).getData();
+    }
+    
+    @Override
+    public Customer createCustomer(CustomerCreateParams params, RequestOptions options) throws StripeException {
+        return Customer.create(params, options);
+    }
+    
+    @Override
+    public Account createAccount(AccountCreateParams params, RequestOptions options) throws StripeException {
+        return Account.create(params, options);
+    }
+    
+    @Override
+    public Account retrieveAccount(String accountId, RequestOptions options) throws StripeException {
+        return Account.retrieve(accountId, options);
+    }
+    
+    @Override
+    public ExternalAccount createExternalAccount(String accountId, Map<String, Object> params,
+            RequestOptions options) throws StripeException {
+        return Account.retrieve(accountId, options).getExternalAccounts().create(params, options);
+    }
+    
+    // Riferimento per id: evita una retrieve prima di capture/cancel/confirm
+    private PaymentIntent reference(String paymentIntentId) {
+        PaymentIntent intent = new PaymentIntent();
+        intent.setId(paymentIntentId);
+        return intent;
+    }
+}
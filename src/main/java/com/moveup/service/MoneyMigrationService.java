@@ -0,0 +1,65 @@
+package com.moveup.service;
+
+import com.moveup.model.Money;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Migrazione degli importi salvati come double (euro) al formato Money { cents, currency }.
+ *
+ * Gli aggiornamenti atomici dei wallet fanno $inc su "balance.cents", quindi i documenti
+ * vanno convertiti prima che l'applicazione inizi a scrivere. L'update filtra sui campi
+ * ancora numerici: rieseguirlo a ogni avvio non tocca i documenti già migrati.
+ */
+@Service
+public class MoneyMigrationService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(MoneyMigrationService.class);
+    
+    // Collection -> campi importo
+    private static final Map<String, List<String>> MONEY_FIELDS = Map.of(
+        "wallets", List.of("balance", "totalEarnings", "totalWithdrawn"),
+        "wallet_snapshots", List.of("balance", "totalEarnings", "totalWithdrawn"),
+        "transactions", List.of("amount", "grossAmount", "platformFee", "netAmount", "balanceDelta"),
+        "trainer_payouts", List.of("amount", "ledgerBalance")
+    );
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @PostConstruct
+    public void migrate() {
+        MONEY_FIELDS.forEach((collection, fields) -> {
+            for (String field : fields) {
+                try {
+                    UpdateResult result = mongoTemplate.getCollection(collection).updateMany(
+                        new Document(field, new Document("$type", "number")),
+                        List.of(new Document("$set", new Document(field, toMoney(field))))
+                    );
+                    if (result.getModifiedCount() > 0) {
+                        logger.info("Migrated {} {}.{} values to cents", result.getModifiedCount(), collection, field);
+                    }
+                } catch (Exception e) {
+                    logger.error("Failed to migrate {}.{} to cents", collection, field, e);
+                }
+            }
+        });
+    }
+    
+    // { cents: round(field * 100), currency: currency del documento o EUR }
+    private Document toMoney(String field) {
+        Document cents = new Document("$toLong", new Document("$round",
+            List.of(new Document("$multiply", List.of("$" + field, 100)), 0)));
+        Document currency = new Document("$toUpper", new Document("$ifNull", List.of("$currency", Money.EUR)));
+        return new Document("cents", cents).append("currency", currency);
+    }
+}
@@ -0,0 +1,468 @@
+package com.moveup.service;
+
+import com.moveup.model.Notification;
+import com.moveup.model.NotificationChannel;
+import com.moveup.model.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan-out delle notifiche: scrittura a blocchi e consegna per canale.
+ *
+ * Le notifiche inviate con enqueue finiscono in una coda in memoria; un thread dedicato le scrive
+ * con un insert unico (insertMany) per blocco e le passa ai worker dei canali. Ogni canale (in-app,
+ * push, email) ha un proprio pool con concorrenza limitata, così un SMTP lento non frena le push,
+ * e aggiorna i flag di Notification.delivery di un intero blocco con un solo comando.
+ *
+ * Prima della consegna ogni notifica registra in delivery.pendingChannels i canali che l'hanno
+ * accettata; ogni canale toglie il proprio a consegna avvenuta (o fallita) e delivery.isSent diventa
+ * true solo quando non ne resta nessuno. Il recupero riprende le notifiche con canali ancora in
+ * sospeso e le riconsegna solo su quei canali.
+ *
+ * La coda in memoria resta aperta al massimo write-linger-ms: se il nodo cade in quell'intervallo
+ * le notifiche non ancora scritte vanno perse. Le notifiche scritte ma non consegnate (nodo caduto
+ * durante la consegna) e quelle programmate arrivate a scadenza sono riprese dal recupero periodico.
+ */
+@Service
+public class NotificationDispatcher {
+    
+    private static final Logger logger = LoggerFactory.getLogger(NotificationDispatcher.class);
+    
+    @Value("${app.notifications.queue-capacity:100000}")
+    private int queueCapacity;
+    
+    @Value("${app.notifications.write-batch-size:1000}")
+    private int writeBatchSize;
+    
+    @Value("${app.notifications.write-linger-ms:50}")
+    private long writeLingerMs;
+    
+    @Value("${app.notifications.recovery-grace-ms:300000}")
+    private long recoveryGraceMs;
+    
+    @Value("${app.notifications.recovery-max-age-hours:24}")
+    private int recoveryMaxAgeHours;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private List<NotificationSender> senders;
+    
+    @Autowired
+    private Environment environment;
+    
+    private BlockingQueue<Notification> pending;
+    private final Map<NotificationChannel, ChannelWorker> workers = new EnumMap<>(NotificationChannel.class);
+    
+    private volatile boolean running;
+    private Thread writer;
+    
+    @PostConstruct
+    public void init() {
+        try {
+            mongoTemplate.indexOps(Notification.class).ensureIndex(
+                new Index().on("delivery.isSent", Sort.Direction.ASC)
+                    .on("createdAt", Sort.Direction.ASC)
+            );
+        } catch (Exception e) {
+            logger.error("Failed to ensure notification delivery indexes", e);
+        }
+        
+        for (NotificationSender sender : senders) {
+            workers.put(sender.getChannel(), new ChannelWorker(sender, environment));
+        }
+        
+        pending = new LinkedBlockingQueue<>(queueCapacity);
+        running = true;
+        writer = new Thread(this::writeLoop, "notification-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        writer.interrupt();
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        // Quello che il writer non ha fatto in tempo a scrivere; la consegna la farà il recupero
+        List<Notification> remaining = new ArrayList<>();
+        pending.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            try {
+                mongoTemplate.insert(remaining, Notification.class);
+            } catch (Exception e) {
+                logger.error("Failed to write {} queued notifications on shutdown", remaining.size(), e);
+            }
+        }
+        
+        for (ChannelWorker worker : workers.values()) {
+            worker.executor.shutdown();
+        }
+        for (ChannelWorker worker : workers.values()) {
+            try {
+                worker.executor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /**
+     * Accoda la notifica: scrittura e consegna avvengono a blocchi nel thread del dispatcher.
+     * Con la coda piena la notifica è scritta subito nel thread chiamante.
+     */
+    public void enqueue(Notification notification) {
+        if (!running || !pending.offer(notification)) {
+            insertAndDispatch(List.of(notification));
+        }
+    }
+    
+    /**
+     * Scrive le notifiche con un unico insert e avvia la consegna di quelle non programmate
+     */
+    public List<Notification> insertAndDispatch(List<Notification> notifications) {
+        if (notifications.isEmpty()) {
+            return notifications;
+        }
+        
+        LocalDateTime now = LocalDateTime.now();
+        List<Notification> due = new ArrayList<>(notifications.size());
+        for (Notification notification : notifications) {
+            if (!notification.isScheduled()) {
+                notification.markAsDispatched(now);
+                due.add(notification);
+            }
+        }
+        
+        // I canali in sospeso sono scritti con l'insert: il recupero li trova anche se il nodo cade
+        Map<String, User> recipients = due.isEmpty() ? Map.of() : loadRecipients(due);
+        Map<ChannelWorker, List<Notification>> routes = route(due, recipients);
+        mongoTemplate.insert(notifications, Notification.class);
+        submit(routes, recipients, true);
+        return notifications;
+    }
+    
+    /**
+     * Riprende le notifiche programmate arrivate a scadenza e quelle rimaste senza consegna
+     */
+    @Scheduled(fixedDelayString = "${app.notifications.recovery-ms:60000}")
+    public void dispatchDue() {
+        int claimed;
+        do {
+            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime stale = now.minusNanos(recoveryGraceMs * 1_000_000);
+            LocalDateTime oldest = now.minusHours(recoveryMaxAgeHours);
+            Criteria due = dueCriteria(now, stale, oldest);
+            
+            Query candidates = new Query(due).limit(writeBatchSize);
+            candidates.fields().include("_id");
+            List<String> ids = new ArrayList<>();
+            for (Notification notification : mongoTemplate.find(candidates, Notification.class)) {
+                ids.add(notification.getId());
+            }
+            if (ids.isEmpty()) {
+                return;
+            }
+            
+            // Presa in carico condizionata: un altro nodo può aver preso le stesse notifiche
+            String token = UUID.randomUUID().toString();
+            mongoTemplate.updateMulti(
+                new Query(new Criteria().andOperator(Criteria.where("_id").in(ids), dueCriteria(now, stale, oldest))),
+                new Update().set("delivery.dispatchedAt", now).set("delivery.dispatchToken", token),
+                Notification.class);
+            
+            List<Notification> batch = mongoTemplate.find(
+                new Query(Criteria.where("delivery.dispatchToken").is(token)), Notification.class);
+            claimed = batch.size();
+            if (claimed > 0) {
+                logger.info("Recovering delivery of {} notifications", claimed);
+                Map<String, User> recipients = loadRecipients(batch);
+                Map<ChannelWorker, List<Notification>> routes = route(batch, recipients);
+                saveRoutes(batch);
+                if (!submit(routes, recipients, false)) {
+                    return; // worker pieni: il resto al prossimo giro, dopo recovery-grace-ms
+                }
+            }
+        } while (claimed == writeBatchSize);
+    }
+    
+    // Helper methods
+    
+    private void writeLoop() {
+        List<Notification> batch = new ArrayList<>(writeBatchSize);
+        while (running || !pending.isEmpty()) {
+            try {
+                Notification first = pending.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                
+                // Attende altre notifiche per al massimo writeLingerMs, poi scrive il blocco
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(writeLingerMs);
+                while (batch.size() < writeBatchSize) {
+                    pending.drainTo(batch, writeBatchSize - batch.size());
+                    long wait = deadline - System.nanoTime();
+                    if (batch.size() >= writeBatchSize || wait <= 0) {
+                        break;
+                    }
+                    Notification next = pending.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                
+                insertAndDispatch(new ArrayList<>(batch));
+            } catch (InterruptedException e) {
+                // Shutdown: scrive il blocco già raccolto, il resto della coda lo scrive shutdown()
+                writeQuietly(batch);
+                if (!running) {
+                    return;
+                }
+            } catch (Exception e) {
+                logger.error("Failed to write batch of {} notifications", batch.size(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+    
+    private void writeQuietly(List<Notification> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            insertAndDispatch(new ArrayList<>(batch));
+        } catch (Exception e) {
+            logger.error("Failed to write batch of {} notifications", batch.size(), e);
+        }
+    }
+    
+    private Criteria dueCriteria(LocalDateTime now, LocalDateTime stale, LocalDateTime oldest) {
+        return new Criteria().andOperator(
+            Criteria.where("delivery.isSent").is(false),
+            // Mai instradata (programmata o scritta prima dei canali in sospeso) o con canali da completare
+            new Criteria().orOperator(
+                Criteria.where("delivery.pendingChannels").is(null),
+                Criteria.where("delivery.pendingChannels.0").exists(true)),
+            new Criteria().orOperator(
+                Criteria.where("scheduledFor").gte(oldest).lte(now),
+                new Criteria().andOperator(
+                    Criteria.where("scheduledFor").is(null),
+                    Criteria.where("createdAt").gte(oldest).lt(stale))
+            ),
+            new Criteria().orOperator(
+                Criteria.where("delivery.dispatchedAt").is(null),
+                Criteria.where("delivery.dispatchedAt").lt(stale))
+        );
+    }
+    
+    private Map<String, User> loadRecipients(List<Notification> notifications) {
+        Set<String> recipientIds = new LinkedHashSet<>();
+        for (Notification notification : notifications) {
+            recipientIds.add(notification.getRecipientId());
+        }
+        
+        Query query = new Query(Criteria.where("_id").in(recipientIds));
+        query.fields().include("email", "firstName", "notificationsEnabled", "pushTokens");
+        Map<String, User> recipients = new HashMap<>();
+        for (User user : mongoTemplate.find(query, User.class)) {
+            recipients.put(user.getId(), user);
+        }
+        return recipients;
+    }
+    
+    /**
+     * Sceglie i canali di ogni notifica e li registra in delivery.pendingChannels. Una notifica
+     * ripresa dal recupero resta solo sui canali ancora in sospeso; senza canali è già consegnata.
+     */
+    private Map<ChannelWorker, List<Notification>> route(List<Notification> notifications, Map<String, User> recipients) {
+        Map<ChannelWorker, List<Notification>> routes = new LinkedHashMap<>();
+        for (Notification notification : notifications) {
+            User recipient = recipients.get(notification.getRecipientId());
+            List<NotificationChannel> previous = notification.getPendingChannels();
+            List<NotificationChannel> channels = new ArrayList<>();
+            for (ChannelWorker worker : workers.values()) {
+                NotificationChannel channel = worker.sender.getChannel();
+                if ((previous == null || previous.contains(channel)) && worker.sender.accepts(notification, recipient)) {
+                    channels.add(channel);
+                    routes.computeIfAbsent(worker, k -> new ArrayList<>()).add(notification);
+                }
+            }
+            notification.markAsRouted(channels);
+        }
+        return routes;
+    }
+    
+    private void saveRoutes(List<Notification> notifications) {
+        LocalDateTime now = LocalDateTime.now();
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Notification.class);
+        for (Notification notification : notifications) {
+            Update update = new Update().set("delivery.pendingChannels", notification.getPendingChannels());
+            if (notification.isDelivered()) {
+                update.set("delivery.isSent", true).set("delivery.sentAt", now);
+            }
+            bulk.updateOne(new Query(Criteria.where("_id").is(notification.getId())), update);
+        }
+        bulk.execute();
+    }
+    
+    /**
+     * Un task per canale e per sotto-blocco. Con la coda di un worker piena il blocco è consegnato
+     * dal thread chiamante (writer o richiesta) solo se callerRuns: il recupero gira sul thread
+     * condiviso dello scheduler e lascia le notifiche al giro successivo. Ritorna false se qualche
+     * blocco non è stato accodato.
+     */
+    private boolean submit(Map<ChannelWorker, List<Notification>> routes, Map<String, User> recipients, boolean callerRuns) {
+        boolean accepted = true;
+        for (Map.Entry<ChannelWorker, List<Notification>> entry : routes.entrySet()) {
+            ChannelWorker worker = entry.getKey();
+            List<Notification> notifications = entry.getValue();
+            for (int from = 0; from < notifications.size(); from += worker.batchSize) {
+                List<Notification> chunk = notifications.subList(from, Math.min(from + worker.batchSize, notifications.size()));
+                try {
+                    worker.executor.execute(() -> deliver(worker, chunk, recipients));
+                } catch (RejectedExecutionException e) {
+                    if (callerRuns) {
+                        deliver(worker, chunk, recipients);
+                    } else {
+                        logger.warn("Channel {} queue full: {} recovered notifications postponed",
+                            worker.sender.getChannel(), chunk.size());
+                        accepted = false;
+                    }
+                }
+            }
+        }
+        return accepted;
+    }
+    
+    private void deliver(ChannelWorker worker, List<Notification> chunk, Map<String, User> recipients) {
+        NotificationSender.DeliveryReport report;
+        try {
+            report = worker.sender.send(chunk, recipients);
+        } catch (Exception e) {
+            logger.error("Channel {} failed on {} notifications", worker.sender.getChannel(), chunk.size(), e);
+            report = new NotificationSender.DeliveryReport();
+            for (Notification notification : chunk) {
+                report.failed(notification.getId(), worker.sender.getChannel() + ": " + e.getMessage());
+            }
+        }
+        
+        try {
+            markDelivered(worker.sender.getChannel(), report.getDelivered());
+            markFailed(worker.sender.getChannel(), report.getFailed());
+            markCompleted(chunk);
+        } catch (Exception e) {
+            logger.error("Failed to update delivery flags on channel {}", worker.sender.getChannel(), e);
+        }
+    }
+    
+    private void markDelivered(NotificationChannel channel, Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        mongoTemplate.updateMulti(new Query(Criteria.where("_id").in(ids)),
+            new Update()
+                .set(channel.getDeliveryFlag(), true)
+                .pull("delivery.pendingChannels", channel),
+            Notification.class);
+    }
+    
+    private void markFailed(NotificationChannel channel, Map<String, String> failures) {
+        if (failures.isEmpty()) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Notification.class);
+        failures.forEach((id, reason) -> bulk.updateOne(new Query(Criteria.where("_id").is(id)),
+            new Update()
+                .set("delivery.isFailed", true)
+                .set("delivery.failureReason", reason)
+                .set("delivery.failedAt", now)
+                .inc("delivery.retryCount", 1)
+                .pull("delivery.pendingChannels", channel)));
+        bulk.execute();
+    }
+    
+    /**
+     * delivery.isSent solo quando tutti i canali che avevano accettato la notifica l'hanno consegnata
+     */
+    private void markCompleted(List<Notification> chunk) {
+        List<String> ids = new ArrayList<>(chunk.size());
+        for (Notification notification : chunk) {
+            ids.add(notification.getId());
+        }
+        mongoTemplate.updateMulti(
+            new Query(Criteria.where("_id").in(ids)
+                .and("delivery.pendingChannels").size(0)
+                .and("delivery.isFailed").is(false)
+                .and("delivery.isSent").is(false)),
+            new Update().set("delivery.isSent", true).set("delivery.sentAt", LocalDateTime.now()),
+            Notification.class);
+    }
+    
+    // Inner classes
+    
+    /**
+     * Worker di un canale: pool a concorrenza fissa (app.notifications.<canale>.concurrency) con coda limitata;
+     * a coda piena l'invio è rifiutato e submit decide se consegnare nel thread chiamante
+     */
+    static final class ChannelWorker {
+        private final NotificationSender sender;
+        private final ThreadPoolExecutor executor;
+        private final int batchSize;
+        
+        ChannelWorker(NotificationSender sender, Environment environment) {
+            String prefix = "app.notifications." + sender.getChannel().name().toLowerCase().replace('_', '-');
+            int concurrency = environment.getProperty(prefix + ".concurrency", Integer.class, 4);
+            this.sender = sender;
+            this.batchSize = environment.getProperty(prefix + ".batch-size", Integer.class, 500);
+            this.executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(environment.getProperty(prefix + ".queue-capacity", Integer.class, 1000)),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "notification-" + sender.getChannel().name().toLowerCase());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.moveup.service;
+
+import com.moveup.model.Notification;
+import com.moveup.model.NotificationChannel;
+import com.moveup.model.User;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Consegna di un blocco di notifiche su un canale, usata dai worker di NotificationDispatcher.
+ * Implementazioni: InAppNotificationSender, PushNotificationSender (FCM) ed EmailNotificationSender.
+ */
+public interface NotificationSender {
+    
+    NotificationChannel getChannel();
+    
+    /**
+     * Se la notifica va consegnata su questo canale (recipient è null se l'utente non esiste più)
+     */
+    boolean accepts(Notification notification, User recipient);
+    
+    /**
+     * Consegna il blocco; recipients contiene i destinatari indicizzati per id
+     */
+    DeliveryReport send(List<Notification> notifications, Map<String, User> recipients);
+    
+    /**
+     * Esito di un blocco: id consegnati e id falliti con il motivo
+     */
+    final class DeliveryReport {
+        private final List<String> delivered = new ArrayList<>();
+        private final Map<String, String> failed = new LinkedHashMap<>();
+        
+        public void delivered(String notificationId) {
+            delivered.add(notificationId);
+        }
+        
+        public void failed(String notificationId, String reason) {
+            failed.put(notificationId, reason);
+        }
+        
+        public List<String> getDelivered() { return delivered; }
+        public Map<String, String> getFailed() { return failed; }
+    }
+}
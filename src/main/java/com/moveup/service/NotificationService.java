@@ -4,27 +4,61 @@ import com.moveup.model.Notification;
 import com.moveup.model.NotificationPriority;
 import com.moveup.model.User;
 import com.moveup.repository.NotificationRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import jakarta.annotation.PostConstruct;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Service
 @Transactional
 public class NotificationService {
     
+    private static final Logger logger = LoggerFactory.getLogger(NotificationService.class);
+    
+    @Value("${app.notifications.broadcast-batch-size:1000}")
+    private int broadcastBatchSize;
+    
     @Autowired
     private NotificationRepository notificationRepository;
     
-    // Create notification
+    @Autowired
+    private NotificationDispatcher notificationDispatcher;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @PostConstruct
+    public void init() {
+        try {
+            mongoTemplate.indexOps(User.class).ensureIndex(
+                new Index().on("location.city", Sort.Direction.ASC).on("isActive", Sort.Direction.ASC)
+            );
+        } catch (Exception e) {
+            logger.error("Failed to ensure user city index", e);
+        }
+    }
+    
+    // Create notification (saved synchronously, delivered by the dispatcher)
     public Notification createNotification(String recipientId, String title, String message, String type) {
         Notification notification = new Notification(recipientId, title, message, 
             type);
-        return notificationRepository.save(notification);
+        return notificationDispatcher.insertAndDispatch(List.of(notification)).get(0);
     }
     
     // Get notifications for user
@@ -71,7 +105,7 @@ public class NotificationService {
         notification.setRelatedEntityId(bookingId);
         notification.setRelatedEntityType("BOOKING");
         
-        notificationRepository.save(notification);
+        notificationDispatcher.enqueue(notification);
     }
     
     // Send booking reminder notification
@@ -85,7 +119,7 @@ public class NotificationService {
         notification.setRelatedEntityType("BOOKING");
         notification.setPriority(NotificationPriority.HIGH);
         
-        notificationRepository.save(notification);
+        notificationDispatcher.enqueue(notification);
     }
     
     // Send booking cancellation notification
@@ -98,7 +132,22 @@ public class NotificationService {
         notification.setRelatedEntityId(bookingId);
         notification.setRelatedEntityType("BOOKING");
         
-        notificationRepository.save(notification);
+        notificationDispatcher.enqueue(notification);
+    }
+    
+    // Send waitlist offer notification (slot freed, hold reserved until expiresAt)
+    public void sendWaitlistOfferNotification(String userId, String waitlistEntryId, LocalDateTime expiresAt) {
+        Notification notification = new Notification();
+        notification.setRecipientId(userId);
+        notification.setTitle("Si è liberato un posto!");
+        notification.setMessage("L'orario che aspettavi è disponibile. Conferma entro le " 
+            + expiresAt.toLocalTime().withNano(0) + " per prenotarlo.");
+        notification.setType("WAITLIST_OFFER");
+        notification.setRelatedEntityId(waitlistEntryId);
+        notification.setRelatedEntityType("WAITLIST");
+        notification.setPriority(NotificationPriority.HIGH);
+        
+        notificationDispatcher.enqueue(notification);
     }
     
     // Send welcome notification to new users
@@ -110,7 +159,7 @@ public class NotificationService {
         notification.setType("WELCOME");
         notification.setPriority(NotificationPriority.HIGH);
         
-        notificationRepository.save(notification);
+        notificationDispatcher.enqueue(notification);
     }
     
     // Send new review notification
@@ -123,7 +172,7 @@ public class NotificationService {
         notification.setRelatedEntityId(reviewId);
         notification.setRelatedEntityType("REVIEW");
         
-        notificationRepository.save(notification);
+        notificationDispatcher.enqueue(notification);
     }
     
     // Send payment success notification
@@ -136,7 +185,7 @@ public class NotificationService {
         notification.setRelatedEntityId(bookingId);
         notification.setRelatedEntityType("BOOKING");
         
-        notificationRepository.save(notification);
+        notificationDispatcher.enqueue(notification);
     }
     
     // Send payment failed notification
@@ -150,7 +199,7 @@ public class NotificationService {
         notification.setRelatedEntityType("BOOKING");
         notification.setPriority(NotificationPriority.HIGH);
         
-        notificationRepository.save(notification);
+        notificationDispatcher.enqueue(notification);
     }
     
     // Send badge earned notification
@@ -163,11 +212,16 @@ public class NotificationService {
         notification.setRelatedEntityId(badgeId);
         notification.setRelatedEntityType("BADGE");
         
-        notificationRepository.save(notification);
+        notificationDispatcher.enqueue(notification);
     }
     
     // Send reward available notification
     public void sendRewardAvailableNotification(String userId, String rewardId, String rewardTitle) {
+        notificationDispatcher.enqueue(buildRewardAvailableNotification(userId, rewardId, rewardTitle));
+    }
+    
+    // Build (without saving) a reward available notification, for batch inserts
+    public Notification buildRewardAvailableNotification(String userId, String rewardId, String rewardTitle) {
         Notification notification = new Notification();
         notification.setRecipientId(userId);
         notification.setTitle("Ricompensa Disponibile");
@@ -175,19 +229,64 @@ public class NotificationService {
         notification.setType("REWARD_AVAILABLE");
         notification.setRelatedEntityId(rewardId);
         notification.setRelatedEntityType("REWARD");
+        return notification;
+    }
+    
+    // Save new notifications with a single batch insert
+    public List<Notification> createNotifications(List<Notification> notifications) {
+        return notificationDispatcher.insertAndDispatch(notifications);
+    }
+    
+    /**
+     * Notifica tutti gli utenti attivi di una città: gli utenti sono letti in streaming
+     * (solo l'id) e le notifiche scritte a blocchi di broadcastBatchSize, consegnate dai worker
+     * dei canali mentre la lettura prosegue. Ritorna il numero di notifiche create.
+     */
+    public long broadcastToCity(String city, String title, String message, String type,
+                                NotificationPriority priority) {
+        Query query = new Query(Criteria.where("location.city").is(city).and("isActive").is(true));
+        query.fields().include("_id");
+        query.cursorBatchSize(broadcastBatchSize);
         
-        notificationRepository.save(notification);
+        long count = 0;
+        List<Notification> batch = new ArrayList<>(broadcastBatchSize);
+        try (Stream<User> users = mongoTemplate.stream(query, User.class)) {
+            Iterator<User> cursor = users.iterator();
+            while (cursor.hasNext()) {
+                Notification notification = new Notification(cursor.next().getId(), title, message, type);
+                if (priority != null) {
+                    notification.setPriority(priority);
+                }
+                batch.add(notification);
+                if (batch.size() >= broadcastBatchSize) {
+                    notificationDispatcher.insertAndDispatch(batch);
+                    count += batch.size();
+                    batch = new ArrayList<>(broadcastBatchSize);
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            notificationDispatcher.insertAndDispatch(batch);
+            count += batch.size();
+        }
+        
+        logger.info("Broadcast {} to {} users in {}", type, count, city);
+        return count;
     }
     
     // Send points earned notification
     public void sendPointsEarnedNotification(User user, int points, String reason) {
+        sendPointsEarnedNotification(user.getId(), points, reason);
+    }
+    
+    public void sendPointsEarnedNotification(String userId, int points, String reason) {
         Notification notification = new Notification();
-        notification.setRecipientId(user.getId());
+        notification.setRecipientId(userId);
         notification.setTitle("Punti Guadagnati!");
         notification.setMessage(String.format("Hai guadagnato %d punti per: %s", points, reason));
         notification.setType("SYSTEM_UPDATE");
         
-        notificationRepository.save(notification);
+        notificationDispatcher.enqueue(notification);
     }
     
     // Schedule notification
@@ -200,7 +299,7 @@ public class NotificationService {
         notification.setType(type);
         notification.setScheduledFor(scheduledFor);
         
-        return notificationRepository.save(notification);
+        return notificationDispatcher.insertAndDispatch(List.of(notification)).get(0);
     }
     
     // Get notifications ready to send
@@ -271,7 +370,7 @@ public class NotificationService {
         notification.setRelatedEntityType("BOOKING");
         notification.setPriority(NotificationPriority.HIGH);
         
-        notificationRepository.save(notification);
+        notificationDispatcher.enqueue(notification);
     }
     
     // Get user notifications
@@ -0,0 +1,717 @@
+package com.moveup.service;
+
+import com.moveup.model.Booking;
+import com.moveup.model.Money;
+import com.moveup.model.Payment;
+import com.moveup.model.ReconciliationReport;
+import com.moveup.model.ReconciliationReport.Discrepancy;
+import com.moveup.model.ReconciliationReport.DiscrepancyType;
+import com.moveup.model.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Riconciliazione tra l'export Stripe delle balance transactions e payments, bookings e transactions.
+ *
+ * L'export può avere milioni di righe e non è ordinato per PaymentIntent: viene letto in streaming
+ * e ordinato su disco a blocchi (run ordinati + merge a k vie). Le collection sono lette con cursori
+ * ordinati sullo stesso campo, quindi il confronto è un merge-join: in memoria restano un blocco di
+ * ordinamento e le righe del PaymentIntent corrente, mai una collection intera.
+ */
+@Service
+public class PaymentReconciliationService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(PaymentReconciliationService.class);
+    
+    private static final Comparator<StripeRow> BY_PAYMENT_INTENT = Comparator.comparing(StripeRow::getPaymentIntentId);
+    
+    @Value("${app.reconciliation.import-dir:${java.io.tmpdir}/moveup-reconciliation/import}")
+    private String importDir;
+    
+    @Value("${app.reconciliation.report-dir:${java.io.tmpdir}/moveup-reconciliation/reports}")
+    private String reportDir;
+    
+    @Value("${app.reconciliation.sort-buffer-rows:200000}")
+    private int sortBufferRows;
+    
+    @Value("${app.reconciliation.cursor-batch-size:1000}")
+    private int cursorBatchSize;
+    
+    @Value("${app.reconciliation.sample-size:100}")
+    private int sampleSize;
+    
+    @Value("${app.reconciliation.progress-every:100000}")
+    private long progressEvery;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @PostConstruct
+    public void init() {
+        try {
+            // I cursori del merge-join sono ordinati su questi campi
+            mongoTemplate.indexOps(Payment.class)
+                    .ensureIndex(new Index().on("stripePaymentIntentId", Sort.Direction.ASC));
+            mongoTemplate.indexOps(Booking.class)
+                    .ensureIndex(new Index().on("paymentIntentId", Sort.Direction.ASC));
+            mongoTemplate.indexOps(Transaction.class)
+                    .ensureIndex(new Index().on("stripePaymentIntentId", Sort.Direction.ASC));
+        } catch (Exception e) {
+            logger.error("Failed to ensure reconciliation indexes", e);
+        }
+    }
+    
+    /**
+     * Registra una nuova riconciliazione per un file presente nella directory di import
+     */
+    public ReconciliationReport startReconciliation(String fileName, LocalDateTime from, LocalDateTime to) {
+        if (fileName == null || fileName.isBlank()) {
+            throw new RuntimeException("Nome del file di export obbligatorio");
+        }
+        if (!Files.isRegularFile(resolveImport(fileName))) {
+            throw new RuntimeException("File di export non trovato: " + fileName);
+        }
+        return mongoTemplate.insert(new ReconciliationReport(fileName, from, to));
+    }
+    
+    /**
+     * Esegue la riconciliazione in background; l'avanzamento è visibile nel report
+     */
+    @Async
+    public void runReconciliation(String reportId) {
+        ReconciliationReport report = mongoTemplate.findById(reportId, ReconciliationReport.class);
+        if (report == null || !ReconciliationReport.STATUS_RUNNING.equals(report.getStatus())) {
+            return;
+        }
+        
+        try {
+            reconcile(report);
+            report.setStatus(ReconciliationReport.STATUS_COMPLETED);
+            logger.info("Reconciliation {} completed: {} Stripe rows, {} keys, {} discrepancies",
+                reportId, report.getStripeRows(), report.getKeysCompared(), report.getDiscrepancyCount());
+        } catch (Exception e) {
+            report.setStatus(ReconciliationReport.STATUS_FAILED);
+            report.setError(e.getMessage());
+            logger.error("Reconciliation {} failed", reportId, e);
+        }
+        report.setCompletedAt(LocalDateTime.now());
+        mongoTemplate.save(report);
+    }
+    
+    public Optional<ReconciliationReport> getReport(String reportId) {
+        return Optional.ofNullable(mongoTemplate.findById(reportId, ReconciliationReport.class));
+    }
+    
+    // Helper methods
+    
+    private void reconcile(ReconciliationReport report) throws IOException {
+        Path workDir = Files.createTempDirectory("moveup-reconciliation-");
+        Path reportFile = Files.createDirectories(Paths.get(reportDir)).resolve("reconciliation-" + report.getId() + ".csv");
+        report.setReportFile(reportFile.toString());
+        
+        try (MergedRuns stripeRows = sortExport(resolveImport(report.getSourceFile()), workDir, report);
+             Stream<Payment> payments = mongoTemplate.stream(sortedQuery("stripePaymentIntentId", report,
+                 "stripePaymentIntentId", "bookingId", "amount", "currency", "status"), Payment.class);
+             Stream<Booking> bookings = mongoTemplate.stream(sortedQuery("paymentIntentId", report,
+                 "paymentIntentId", "paymentStatus", "price", "totalAmount"), Booking.class);
+             Stream<Transaction> transactions = mongoTemplate.stream(sortedQuery("stripePaymentIntentId", report,
+                 "stripePaymentIntentId", "type", "bookingId"), Transaction.class);
+             DiscrepancyWriter writer = new DiscrepancyWriter(reportFile)) {
+            
+            KeyedCursor<StripeRow> stripeCursor = new KeyedCursor<>(stripeRows, StripeRow::getPaymentIntentId);
+            KeyedCursor<Payment> paymentCursor = new KeyedCursor<>(payments.iterator(), Payment::getStripePaymentIntentId);
+            KeyedCursor<Booking> bookingCursor = new KeyedCursor<>(bookings.iterator(), Booking::getPaymentIntentId);
+            KeyedCursor<Transaction> transactionCursor = new KeyedCursor<>(transactions.iterator(), Transaction::getStripePaymentIntentId);
+            
+            String key;
+            while ((key = minKey(stripeCursor.peekKey(), paymentCursor.peekKey(),
+                    bookingCursor.peekKey(), transactionCursor.peekKey())) != null) {
+                compare(key, stripeCursor.take(key), paymentCursor.take(key), bookingCursor.take(key),
+                    transactionCursor.take(key), report, writer);
+                
+                report.setKeysCompared(report.getKeysCompared() + 1);
+                if (report.getKeysCompared() % progressEvery == 0) {
+                    mongoTemplate.save(report);
+                }
+            }
+        } finally {
+            deleteWorkDir(workDir);
+        }
+    }
+    
+    /**
+     * Confronta tutto ciò che riguarda un PaymentIntent: righe Stripe, pagamenti, prenotazioni, ledger
+     */
+    private void compare(String paymentIntentId, List<StripeRow> stripeRows, List<Payment> payments,
+                         List<Booking> bookings, List<Transaction> transactions,
+                         ReconciliationReport report, DiscrepancyWriter writer) throws IOException {
+        
+        long discrepanciesBefore = report.getDiscrepancyCount();
+        Payment payment = payments.isEmpty() ? null : payments.get(0);
+        Booking booking = bookings.isEmpty() ? null : bookings.get(0);
+        Finding finding = new Finding(paymentIntentId, payment, booking, report, writer);
+        
+        if (payments.size() > 1 || bookings.size() > 1) {
+            finding.emit(DiscrepancyType.DUPLICATE_RECORD, payments.size() + " pagamenti, " + bookings.size() + " prenotazioni", null, null);
+        }
+        
+        if (stripeRows.isEmpty()) {
+            if (payment != null && ("COMPLETED".equals(payment.getStatus()) || "REFUNDED".equals(payment.getStatus()))) {
+                finding.emit(DiscrepancyType.MISSING_IN_STRIPE, "Pagamento " + payment.getStatus() + " assente nell'export",
+                    null, paymentAmount(payment));
+            }
+            if (booking != null && (booking.getPaymentStatus() == Booking.PaymentStatus.CAPTURED
+                    || booking.getPaymentStatus() == Booking.PaymentStatus.REFUNDED)) {
+                finding.emit(DiscrepancyType.MISSING_IN_STRIPE, "Prenotazione " + booking.getPaymentStatus() + " assente nell'export",
+                    null, bookingAmount(booking));
+            }
+            if (!transactions.isEmpty()) {
+                finding.emit(DiscrepancyType.MISSING_IN_STRIPE, "Voce di ledger senza incasso Stripe", null, null);
+            }
+            return;
+        }
+        
+        // Totali Stripe del PaymentIntent: incassi positivi, rimborsi e dispute negativi
+        long chargedCents = 0;
+        long reversedCents = 0;
+        boolean disputed = false;
+        String currency = stripeRows.get(0).getCurrency();
+        for (StripeRow row : stripeRows) {
+            if (row.getCents() > 0) {
+                chargedCents += row.getCents();
+            } else {
+                reversedCents -= row.getCents();
+            }
+            disputed |= row.isDispute();
+        }
+        Money charged = Money.ofCents(chargedCents, currency);
+        
+        if (payment == null && booking == null) {
+            if (chargedCents > 0) {
+                finding.emit(DiscrepancyType.MISSING_IN_MOVEUP, "Addebito Stripe senza pagamento né prenotazione", charged, null);
+            }
+            return;
+        }
+        
+        if (payment != null) {
+            Money recorded = paymentAmount(payment);
+            if (chargedCents > 0 && !charged.equals(recorded)) {
+                finding.emit(DiscrepancyType.AMOUNT_MISMATCH, "Importo del pagamento diverso dall'incasso", charged, recorded);
+            }
+            String expected = reversedCents > 0 ? "REFUNDED" : "COMPLETED";
+            if (!disputed && chargedCents > 0 && !expected.equals(payment.getStatus())) {
+                finding.emit(DiscrepancyType.STATUS_MISMATCH, "Stripe: " + expected + ", pagamento: " + payment.getStatus(), charged, recorded);
+            }
+        }
+        
+        if (booking != null) {
+            Money recorded = bookingAmount(booking);
+            if (chargedCents > 0 && recorded != null && recorded.getCents() != chargedCents) {
+                finding.emit(DiscrepancyType.AMOUNT_MISMATCH, "Prezzo della prenotazione diverso dall'incasso", charged, recorded);
+            }
+            Booking.PaymentStatus expected = reversedCents > 0 ? Booking.PaymentStatus.REFUNDED : Booking.PaymentStatus.CAPTURED;
+            if (!disputed && chargedCents > 0 && booking.getPaymentStatus() != expected) {
+                finding.emit(DiscrepancyType.STATUS_MISMATCH, "Stripe: " + expected + ", prenotazione: " + booking.getPaymentStatus(), charged, recorded);
+            }
+            boolean credited = transactions.stream().anyMatch(t -> t.getType() == Transaction.TransactionType.LESSON_PAYMENT);
+            if (!disputed && chargedCents > reversedCents && !credited) {
+                finding.emit(DiscrepancyType.MISSING_LEDGER_ENTRY, "Lezione incassata senza accredito nel wallet del trainer", charged, null);
+            }
+        }
+        
+        if (report.getDiscrepancyCount() == discrepanciesBefore) {
+            report.setMatched(report.getMatched() + 1);
+        }
+    }
+    
+    /**
+     * Legge l'export in streaming e lo divide in run ordinati su disco; l'ultimo blocco resta in memoria
+     */
+    private MergedRuns sortExport(Path export, Path workDir, ReconciliationReport report) throws IOException {
+        List<Path> runs = new ArrayList<>();
+        List<StripeRow> buffer = new ArrayList<>();
+        
+        try (CsvReader csv = new CsvReader(Files.newBufferedReader(export, StandardCharsets.UTF_8))) {
+            ExportColumns columns = ExportColumns.of(csv.next());
+            List<String> record;
+            while ((record = csv.next()) != null) {
+                if (record.size() == 1 && record.get(0).isBlank()) {
+                    continue;
+                }
+                report.setStripeRows(report.getStripeRows() + 1);
+                StripeRow row = columns.toRow(record);
+                if (row == null) {
+                    report.setStripeRowsSkipped(report.getStripeRowsSkipped() + 1);
+                    continue;
+                }
+                buffer.add(row);
+                if (buffer.size() >= sortBufferRows) {
+                    runs.add(writeRun(buffer, workDir.resolve("run-" + runs.size() + ".tsv")));
+                    buffer.clear();
+                }
+            }
+        }
+        
+        buffer.sort(BY_PAYMENT_INTENT);
+        logger.info("Stripe export {} split into {} sorted runs", report.getSourceFile(), runs.size() + 1);
+        return new MergedRuns(runs, buffer);
+    }
+    
+    private Path writeRun(List<StripeRow> rows, Path file) throws IOException {
+        rows.sort(BY_PAYMENT_INTENT);
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (StripeRow row : rows) {
+                out.write(row.toLine());
+                out.newLine();
+            }
+        }
+        return file;
+    }
+    
+    private Query sortedQuery(String keyField, ReconciliationReport report, String... fields) {
+        Criteria criteria = Criteria.where(keyField).ne(null);
+        if (report.getFrom() != null || report.getTo() != null) {
+            Criteria created = Criteria.where("createdAt");
+            if (report.getFrom() != null) {
+                created = created.gte(report.getFrom());
+            }
+            if (report.getTo() != null) {
+                created = created.lt(report.getTo());
+            }
+            criteria = new Criteria().andOperator(criteria, created);
+        }
+        
+        Query query = new Query(criteria).with(Sort.by(Sort.Direction.ASC, keyField));
+        query.fields().include(fields);
+        query.cursorBatchSize(cursorBatchSize);
+        return query;
+    }
+    
+    private Path resolveImport(String fileName) {
+        Path base = Paths.get(importDir).toAbsolutePath().normalize();
+        Path file = base.resolve(fileName).normalize();
+        if (!file.startsWith(base)) {
+            throw new RuntimeException("Percorso del file di export non valido");
+        }
+        return file;
+    }
+    
+    private void deleteWorkDir(Path workDir) {
+        try (Stream<Path> files = Files.list(workDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(workDir);
+        } catch (IOException e) {
+            logger.warn("Failed to delete reconciliation work dir {}", workDir, e);
+        }
+    }
+    
+    private static String minKey(String... keys) {
+        String min = null;
+        for (String key : keys) {
+            if (key != null && (min == null || key.compareTo(min) < 0)) {
+                min = key;
+            }
+        }
+        return min;
+    }
+    
+    private static Money paymentAmount(Payment payment) {
+        return payment.getAmount() != null ? Money.ofDecimal(payment.getAmount(), payment.getCurrency()) : null;
+    }
+    
+    private static Money bookingAmount(Booking booking) {
+        return Money.ofDecimal(booking.getPrice() != null ? booking.getPrice() : booking.getTotalAmount());
+    }
+    
+    // Inner classes
+    
+    /**
+     * Riga dell'export ridotta ai campi usati nel confronto
+     */
+    static final class StripeRow {
+        private final String paymentIntentId;
+        private final long cents;
+        private final String currency;
+        private final boolean dispute;
+        
+        StripeRow(String paymentIntentId, long cents, String currency, boolean dispute) {
+            this.paymentIntentId = paymentIntentId;
+            this.cents = cents;
+            this.currency = currency;
+            this.dispute = dispute;
+        }
+        
+        static StripeRow fromLine(String line) {
+            String[] parts = line.split("\t", -1);
+            return new StripeRow(parts[0], Long.parseLong(parts[1]), parts[2], "1".equals(parts[3]));
+        }
+        
+        String toLine() {
+            return paymentIntentId + "\t" + cents + "\t" + currency + "\t" + (dispute ? "1" : "0");
+        }
+        
+        String getPaymentIntentId() { return paymentIntentId; }
+        long getCents() { return cents; }
+        String getCurrency() { return currency; }
+        boolean isDispute() { return dispute; }
+    }
+    
+    /**
+     * Posizione delle colonne nell'export: accetta sia il report itemized sia l'export della dashboard
+     */
+    static final class ExportColumns {
+        private final int paymentIntent;
+        private final int amount;
+        private final int currency;
+        private final int category;
+        
+        private ExportColumns(int paymentIntent, int amount, int currency, int category) {
+            this.paymentIntent = paymentIntent;
+            this.amount = amount;
+            this.currency = currency;
+            this.category = category;
+        }
+        
+        static ExportColumns of(List<String> header) {
+            if (header == null) {
+                throw new RuntimeException("Export Stripe vuoto");
+            }
+            List<String> names = new ArrayList<>(header.size());
+            for (String name : header) {
+                names.add(name.replace("\uFEFF", "").toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]", ""));
+            }
+            int paymentIntent = indexOf(names, "paymentintentid", "paymentintent");
+            int amount = indexOf(names, "gross", "amount");
+            if (paymentIntent < 0 || amount < 0) {
+                throw new RuntimeException("L'export Stripe deve contenere le colonne payment_intent_id e gross/amount");
+            }
+            return new ExportColumns(paymentIntent, amount, indexOf(names, "currency"), indexOf(names, "reportingcategory", "type"));
+        }
+        
+        /**
+         * Null per le righe senza PaymentIntent (payout, transfer, fee Stripe)
+         */
+        StripeRow toRow(List<String> record) {
+            String paymentIntentId = field(record, paymentIntent);
+            String value = field(record, amount);
+            if (!paymentIntentId.startsWith("pi_") || value.isEmpty()) {
+                return null;
+            }
+            String code = currency >= 0 ? field(record, currency) : "";
+            Money money = Money.parse(value, code.isEmpty() ? Money.EUR : code);
+            boolean dispute = category >= 0 && field(record, category).toLowerCase(Locale.ROOT).contains("dispute");
+            return new StripeRow(paymentIntentId, money.getCents(), money.getCurrency(), dispute);
+        }
+        
+        private static String field(List<String> record, int index) {
+            return index < record.size() ? record.get(index).trim() : "";
+        }
+        
+        private static int indexOf(List<String> names, String... candidates) {
+            for (String candidate : candidates) {
+                int index = names.indexOf(candidate);
+                if (index >= 0) {
+                    return index;
+                }
+            }
+            return -1;
+        }
+    }
+    
+    /**
+     * Lettore CSV in streaming (RFC 4180): un record alla volta, campi tra virgolette anche su più righe
+     */
+    static final class CsvReader implements Closeable {
+        private final BufferedReader reader;
+        
+        CsvReader(BufferedReader reader) {
+            this.reader = reader;
+        }
+        
+        List<String> next() throws IOException {
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            boolean read = false;
+            int c;
+            while ((c = reader.read()) != -1) {
+                read = true;
+                if (quoted) {
+                    if (c != '"') {
+                        field.append((char) c);
+                        continue;
+                    }
+                    reader.mark(1);
+                    int next = reader.read();
+                    if (next == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        if (next != -1) {
+                            reader.reset();
+                        }
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n') {
+                    fields.add(field.toString());
+                    return fields;
+                } else if (c != '\r') {
+                    field.append((char) c);
+                }
+            }
+            if (!read) {
+                return null;
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+    
+    /**
+     * Merge a k vie dei run ordinati: una riga per run in memoria
+     */
+    static final class MergedRuns implements Iterator<StripeRow>, Closeable {
+        private final List<BufferedReader> readers = new ArrayList<>();
+        private final PriorityQueue<RunCursor> queue =
+            new PriorityQueue<>(Comparator.comparing((RunCursor cursor) -> cursor.head, BY_PAYMENT_INTENT));
+        
+        MergedRuns(List<Path> runs, List<StripeRow> lastRun) throws IOException {
+            try {
+                for (Path run : runs) {
+                    BufferedReader reader = Files.newBufferedReader(run, StandardCharsets.UTF_8);
+                    readers.add(reader);
+                    offer(new RunCursor(new FileRun(reader)));
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+            offer(new RunCursor(lastRun.iterator()));
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+        
+        @Override
+        public StripeRow next() {
+            RunCursor cursor = queue.poll();
+            if (cursor == null) {
+                throw new NoSuchElementException();
+            }
+            StripeRow row = cursor.head;
+            offer(cursor);
+            return row;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            for (BufferedReader reader : readers) {
+                reader.close();
+            }
+        }
+        
+        private void offer(RunCursor cursor) {
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+    }
+    
+    static final class RunCursor {
+        private final Iterator<StripeRow> rows;
+        private StripeRow head;
+        
+        RunCursor(Iterator<StripeRow> rows) {
+            this.rows = rows;
+        }
+        
+        boolean advance() {
+            head = rows.hasNext() ? rows.next() : null;
+            return head != null;
+        }
+    }
+    
+    static final class FileRun implements Iterator<StripeRow> {
+        private final BufferedReader reader;
+        private String line;
+        
+        FileRun(BufferedReader reader) throws IOException {
+            this.reader = reader;
+            this.line = reader.readLine();
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return line != null;
+        }
+        
+        @Override
+        public StripeRow next() {
+            if (line == null) {
+                throw new NoSuchElementException();
+            }
+            StripeRow row = StripeRow.fromLine(line);
+            try {
+                line = reader.readLine();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return row;
+        }
+    }
+    
+    /**
+     * Sorgente ordinata letta a gruppi di chiave uguale; verifica che l'ordine sia davvero crescente
+     */
+    static final class KeyedCursor<T> {
+        private final Iterator<T> source;
+        private final Function<T, String> key;
+        private T head;
+        private String headKey;
+        
+        KeyedCursor(Iterator<T> source, Function<T, String> key) {
+            this.source = source;
+            this.key = key;
+            advance();
+        }
+        
+        String peekKey() {
+            return headKey;
+        }
+        
+        List<T> take(String wanted) {
+            if (headKey == null || !headKey.equals(wanted)) {
+                return Collections.emptyList();
+            }
+            List<T> items = new ArrayList<>(2);
+            while (headKey != null && headKey.equals(wanted)) {
+                items.add(head);
+                advance();
+            }
+            return items;
+        }
+        
+        private void advance() {
+            String previous = headKey;
+            head = source.hasNext() ? source.next() : null;
+            headKey = head != null ? key.apply(head) : null;
+            if (headKey != null && previous != null && headKey.compareTo(previous) < 0) {
+                throw new RuntimeException("Sorgente non ordinata per PaymentIntent: " + headKey + " dopo " + previous);
+            }
+        }
+    }
+    
+    /**
+     * Discrepanze di un PaymentIntent: contate nel report e scritte nel CSV
+     */
+    private final class Finding {
+        private final String paymentIntentId;
+        private final Payment payment;
+        private final Booking booking;
+        private final ReconciliationReport report;
+        private final DiscrepancyWriter writer;
+        
+        Finding(String paymentIntentId, Payment payment, Booking booking,
+                ReconciliationReport report, DiscrepancyWriter writer) {
+            this.paymentIntentId = paymentIntentId;
+            this.payment = payment;
+            this.booking = booking;
+            this.report = report;
+            this.writer = writer;
+        }
+        
+        void emit(DiscrepancyType type, String detail, Money stripeAmount, Money moveupAmount) throws IOException {
+            Discrepancy discrepancy = new Discrepancy(type, paymentIntentId, detail);
+            discrepancy.setPaymentId(payment != null ? payment.getId() : null);
+            discrepancy.setBookingId(booking != null ? booking.getId() : payment != null ? payment.getBookingId() : null);
+            discrepancy.setStripeAmount(stripeAmount);
+            discrepancy.setMoveupAmount(moveupAmount);
+            report.record(discrepancy, sampleSize);
+            writer.write(discrepancy);
+        }
+    }
+    
+    static final class DiscrepancyWriter implements Closeable {
+        private final BufferedWriter out;
+        
+        DiscrepancyWriter(Path file) throws IOException {
+            this.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+            out.write("type,payment_intent_id,payment_id,booking_id,stripe_amount,moveup_amount,currency,detail");
+            out.newLine();
+        }
+        
+        void write(Discrepancy d) throws IOException {
+            Money reference = d.getStripeAmount() != null ? d.getStripeAmount() : d.getMoveupAmount();
+            out.write(String.join(",",
+                d.getType().name(),
+                escape(d.getPaymentIntentId()),
+                escape(d.getPaymentId()),
+                escape(d.getBookingId()),
+                d.getStripeAmount() != null ? d.getStripeAmount().toPlainString() : "",
+                d.getMoveupAmount() != null ? d.getMoveupAmount().toPlainString() : "",
+                reference != null ? reference.getCurrency() : "",
+                escape(d.getDetail())));
+            out.newLine();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+        
+        private static String escape(String value) {
+            if (value == null) {
+                return "";
+            }
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+                return value;
+            }
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+    }
+}
@@ -1,20 +1,19 @@
 package com.moveup.service;
 
 import com.moveup.model.Booking;
+import com.moveup.model.Money;
 import com.moveup.model.Transaction;
 import com.moveup.model.User;
-import com.moveup.model.Wallet;
 import com.moveup.model.Payment;
 import com.moveup.repository.BookingRepository;
 import com.moveup.repository.UserRepository;
 import com.moveup.repository.PaymentRepository;
 import com.stripe.Stripe;
+import com.stripe.exception.SignatureVerificationException;
 import com.stripe.exception.StripeException;
-import com.stripe.model.Event;
 import com.stripe.model.PaymentIntent;
 import com.stripe.model.Refund;
 import com.stripe.model.Customer;
-import com.stripe.net.Webhook;
 import com.stripe.param.PaymentIntentCreateParams;
 import com.stripe.param.PaymentIntentCaptureParams;
 import com.stripe.param.RefundCreateParams;
@@ -27,13 +26,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import jakarta.annotation.PostConstruct;
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
 import java.util.Optional;
-import org.json.JSONObject;
 
 @Service
 @Transactional
@@ -41,18 +37,26 @@ public class PaymentService {
     
     private static final Logger logger = LoggerFactory.getLogger(PaymentService.class);
     
+    private static final long PLATFORM_FEE_BASIS_POINTS = 500;      // 5%
+    private static final long STRIPE_FEE_BASIS_POINTS = 290;        // 2.9%
+    private static final Money STRIPE_FIXED_FEE = Money.ofCents(30); // €0.30
+    private static final long PREMIUM_DISCOUNT_BASIS_POINTS = 1000; // 10%
+    
     @Value("${stripe.secret.key:sk_test_dummy}")
     private String stripeSecretKey;
     
-    @Value("${stripe.webhook.secret:}")
-    private String stripeWebhookSecret;
-    
     @Value("${stripe.currency:eur}")
     private String currency;
     
     @Autowired
     private StripeService stripeService;
     
+    @Autowired
+    private StripeGateway stripeGateway;
+    
+    @Autowired
+    private StripeWebhookService stripeWebhookService;
+    
     @Autowired
     private WalletService walletService;
     
@@ -83,7 +87,9 @@ public class PaymentService {
                 .setDescription("MoveUp Lesson Booking")
                 .build();
         
-        PaymentIntent intent = PaymentIntent.create(params);
+        // Stessa prenotazione e stesso importo: un retry del client riusa il PaymentIntent già creato
+        PaymentIntent intent = stripeGateway.createPaymentIntent(params,
+            StripeGateway.idempotencyKey("pi", bookingId, amountInCents, currency));
         
         logger.info("Created PaymentIntent: {} for booking: {} amount: {}", 
                    intent.getId(), bookingId, amount);
@@ -113,7 +119,9 @@ public class PaymentService {
                 .setDescription("MoveUp Lesson Booking - ID: " + bookingId)
                 .build();
         
-        PaymentIntent intent = PaymentIntent.create(params);
+        // Stessa prenotazione, carta e importo: un retry non addebita una seconda volta
+        PaymentIntent intent = stripeGateway.createPaymentIntent(params,
+            StripeGateway.idempotencyKey("pi-confirm", bookingId, paymentMethodId, amountInCents));
         
         // Create and save Payment record
         Payment payment = new Payment(bookingId, booking.getUserId(), amount);
@@ -130,10 +138,10 @@ public class PaymentService {
     
     // Confirm payment intent
     public PaymentIntent confirmPayment(String paymentIntentId) throws StripeException {
-        PaymentIntent intent = PaymentIntent.retrieve(paymentIntentId);
+        PaymentIntent intent = stripeGateway.retrievePaymentIntent(paymentIntentId);
         
         if ("requires_confirmation".equals(intent.getStatus())) {
-            intent = intent.confirm();
+            intent = stripeGateway.confirmPaymentIntent(paymentIntentId, "confirm-" + paymentIntentId);
         }
         
         logger.info("Confirmed payment intent: {} status: {}", paymentIntentId, intent.getStatus());
@@ -143,14 +151,14 @@ public class PaymentService {
     
     // Capture payment (for authorized payments)
     public PaymentIntent capturePayment(String paymentIntentId, double amount) throws StripeException {
-        PaymentIntent intent = PaymentIntent.retrieve(paymentIntentId);
-        
-        Map<String, Object> params = new HashMap<>();
+        PaymentIntentCaptureParams.Builder params = PaymentIntentCaptureParams.builder();
+        String idempotencyKey = "capture-" + paymentIntentId;
         if (amount > 0) {
-            params.put("amount_to_capture", convertToCents(amount));
+            params.setAmountToCapture(convertToCents(amount));
+            idempotencyKey += "-" + convertToCents(amount);
         }
         
-        intent = intent.capture(params);
+        PaymentIntent intent = stripeGateway.capturePaymentIntent(paymentIntentId, params.build(), idempotencyKey);
         
         logger.info("Captured payment intent: {} amount: {}", paymentIntentId, amount);
         
@@ -166,7 +174,9 @@ public class PaymentService {
                 .putMetadata("refund_reason", reason)
                 .build();
         
-        Refund refund = Refund.create(params);
+        // Un doppio invio dello stesso rimborso parziale entro le 24h della chiave non rimborsa due volte
+        Refund refund = stripeGateway.createRefund(params,
+            StripeGateway.idempotencyKey("refund", paymentIntentId, convertToCents(amount)));
         
         logger.info("Created refund: {} for payment: {} amount: {}", 
                    refund.getId(), paymentIntentId, amount);
@@ -182,7 +192,7 @@ public class PaymentService {
                 .putMetadata("refund_reason", reason)
                 .build();
         
-        Refund refund = Refund.create(params);
+        Refund refund = stripeGateway.createRefund(params, "refund-full-" + paymentIntentId);
         
         logger.info("Created full refund: {} for payment: {}", refund.getId(), paymentIntentId);
         
@@ -197,7 +207,8 @@ public class PaymentService {
                 .setPhone(phoneNumber)
                 .build();
         
-        Customer customer = Customer.create(params);
+        Customer customer = stripeGateway.createCustomer(params,
+            StripeGateway.idempotencyKey("customer", email != null ? email.trim().toLowerCase() : null));
         
         logger.info("Created Stripe customer: {} for email: {}", customer.getId(), email);
         
@@ -206,50 +217,30 @@ public class PaymentService {
     
     // Get payment intent
     public PaymentIntent getPaymentIntent(String paymentIntentId) throws StripeException {
-        return PaymentIntent.retrieve(paymentIntentId);
+        return stripeGateway.retrievePaymentIntent(paymentIntentId);
     }
     
     // Calculate platform fee (MoveUp commission)
     public double calculatePlatformFee(double amount) {
         // 5% platform fee
-        double feePercentage = 0.05;
-        return BigDecimal.valueOf(amount * feePercentage)
-                .setScale(2, RoundingMode.HALF_UP)
-                .doubleValue();
+        return Money.ofDecimal(amount).percentage(PLATFORM_FEE_BASIS_POINTS).toDecimal();
     }
     
     // Calculate instructor payout
     public double calculateInstructorPayout(double totalAmount) {
-        double platformFee = calculatePlatformFee(totalAmount);
-        return BigDecimal.valueOf(totalAmount - platformFee)
-                .setScale(2, RoundingMode.HALF_UP)
-                .doubleValue();
+        Money total = Money.ofDecimal(totalAmount);
+        return total.minus(total.percentage(PLATFORM_FEE_BASIS_POINTS)).toDecimal();
     }
     
     // Calculate payment processing fee (Stripe fee)
     public double calculateProcessingFee(double amount) {
         // Stripe fee: 2.9% + €0.30 per transaction
-        double stripePercentage = 0.029;
-        double stripeFixedFee = 0.30;
-        
-        return BigDecimal.valueOf((amount * stripePercentage) + stripeFixedFee)
-                .setScale(2, RoundingMode.HALF_UP)
-                .doubleValue();
+        return Money.ofDecimal(amount).percentage(STRIPE_FEE_BASIS_POINTS).plus(STRIPE_FIXED_FEE).toDecimal();
     }
     
     // Convert euros to cents for Stripe
     private long convertToCents(double amount) {
-        return BigDecimal.valueOf(amount)
-                .multiply(BigDecimal.valueOf(100))
-                .setScale(0, RoundingMode.HALF_UP)
-                .longValue();
-    }
-    
-    // Convert cents to euros from Stripe
-    private double convertToEuros(long amountInCents) {
-        return BigDecimal.valueOf(amountInCents)
-                .divide(BigDecimal.valueOf(100), 2, RoundingMode.HALF_UP)
-                .doubleValue();
+        return Money.ofDecimal(amount).getCents();
     }
     
     // Validate payment amount
@@ -282,31 +273,27 @@ public class PaymentService {
     public PaymentSummary calculatePaymentSummary(double lessonPrice, boolean isPremiumUser) {
         PaymentSummary summary = new PaymentSummary();
         
+        Money price = Money.ofDecimal(lessonPrice);
+        Money platformFee = price.percentage(PLATFORM_FEE_BASIS_POINTS);
+        
         // Base lesson price
-        summary.setLessonPrice(lessonPrice);
+        summary.setLessonPrice(price.toDecimal());
         
         // Platform fee
-        double platformFee = calculatePlatformFee(lessonPrice);
-        summary.setPlatformFee(platformFee);
+        summary.setPlatformFee(platformFee.toDecimal());
         
         // Processing fee
-        double processingFee = calculateProcessingFee(lessonPrice);
-        summary.setProcessingFee(processingFee);
+        summary.setProcessingFee(price.percentage(STRIPE_FEE_BASIS_POINTS).plus(STRIPE_FIXED_FEE).toDecimal());
         
         // Discount for premium users
-        double discount = 0.0;
-        if (isPremiumUser) {
-            discount = lessonPrice * 0.10; // 10% discount for premium users
-        }
-        summary.setDiscount(discount);
+        Money discount = isPremiumUser ? price.percentage(PREMIUM_DISCOUNT_BASIS_POINTS) : Money.zero();
+        summary.setDiscount(discount.toDecimal());
         
         // Total amount
-        double totalAmount = lessonPrice - discount;
-        summary.setTotalAmount(totalAmount);
+        summary.setTotalAmount(price.minus(discount).toDecimal());
         
         // Instructor payout
-        double instructorPayout = calculateInstructorPayout(lessonPrice) - discount;
-        summary.setInstructorPayout(instructorPayout);
+        summary.setInstructorPayout(price.minus(platformFee).minus(discount).toDecimal());
         
         return summary;
     }
@@ -321,12 +308,12 @@ public class PaymentService {
     ) throws StripeException {
         
         // Calculate amounts
-        Double grossAmount = booking.getPrice();
-        Double platformFee = walletService.calculatePlatformFee(grossAmount);
-        Double netAmount = walletService.calculateNetAmount(grossAmount);
+        Money grossAmount = Money.ofDecimal(booking.getPrice());
+        Money platformFee = walletService.calculatePlatformFee(grossAmount);
+        Money netAmount = walletService.calculateNetAmount(grossAmount);
         
-        // Convert to cents
-        long amountInCents = Math.round(grossAmount * 100);
+        // Amount in cents for Stripe
+        long amountInCents = grossAmount.getCents();
         
         // Create PaymentIntent with manual capture
         PaymentIntentCreateParams params = PaymentIntentCreateParams.builder()
@@ -339,12 +326,14 @@ public class PaymentService {
             .putMetadata("bookingId", booking.getId())
             .putMetadata("trainerId", booking.getInstructorId())
             .putMetadata("customerId", booking.getUserId())
-            .putMetadata("grossAmount", grossAmount.toString())
-            .putMetadata("platformFee", platformFee.toString())
-            .putMetadata("netAmount", netAmount.toString())
+            .putMetadata("grossAmount", grossAmount.toPlainString())
+            .putMetadata("platformFee", platformFee.toPlainString())
+            .putMetadata("netAmount", netAmount.toPlainString())
             .build();
         
-        PaymentIntent paymentIntent = PaymentIntent.create(params);
+        // Stessa prenotazione e stessa carta: un retry non crea una seconda autorizzazione
+        PaymentIntent paymentIntent = stripeGateway.createPaymentIntent(params,
+            "pi-hold-" + booking.getId() + "-" + paymentMethodId);
         
         // Update booking with payment intent ID
         booking.setPaymentIntentId(paymentIntent.getId());
@@ -362,12 +351,10 @@ public class PaymentService {
      * This actually charges the customer's card
      */
     public PaymentIntent capturePayment(String paymentIntentId) throws StripeException {
-        PaymentIntent paymentIntent = PaymentIntent.retrieve(paymentIntentId);
-        
         PaymentIntentCaptureParams params = PaymentIntentCaptureParams.builder()
             .build();
         
-        PaymentIntent captured = paymentIntent.capture(params);
+        PaymentIntent captured = stripeGateway.capturePaymentIntent(paymentIntentId, params, "capture-" + paymentIntentId);
         
         logger.info("Payment CAPTURED: {} status={}", paymentIntentId, captured.getStatus());
         
@@ -375,7 +362,7 @@ public class PaymentService {
     }
     
     /**
-     * NEW: Complete payment flow: Capture + Transfer to Trainer
+     * NEW: Complete payment flow: Capture + credit trainer's wallet (paid out daily)
      */
     public Map<String, Object> processLessonPayment(Booking booking) throws StripeException {
         Map<String, Object> result = new HashMap<>();
@@ -383,32 +370,17 @@ public class PaymentService {
         // 1. Capture payment (charge customer)
         PaymentIntent capturedPayment = capturePayment(booking.getPaymentIntentId());
         
-        // 2. Get trainer and wallet
+        // 2. Get trainer
         User trainer = userRepository.findById(booking.getInstructorId())
             .orElseThrow(() -> new RuntimeException("Trainer not found"));
         
-        Wallet trainerWallet = walletService.getWalletByUserId(booking.getInstructorId());
-        
         // 3. Calculate amounts
-        Double grossAmount = booking.getPrice();
-        Double platformFee = walletService.calculatePlatformFee(grossAmount);
-        Double netAmount = walletService.calculateNetAmount(grossAmount);
-        
-        // 4. Transfer to trainer's Stripe account (will auto-payout to IBAN)
-        if (trainerWallet.getStripeConnectedAccountId() != null) {
-            com.stripe.model.Transfer transfer = stripeService.transferToTrainer(
-                trainerWallet.getStripeConnectedAccountId(),
-                netAmount,
-                "Pagamento lezione " + booking.getSport(),
-                booking.getId()
-            );
-            
-            booking.setStripeTransferId(transfer.getId());
-            result.put("transferId", transfer.getId());
-            
-            logger.info("Transferred {} to trainer {} (Stripe account: {})", 
-                netAmount, trainer.getId(), trainerWallet.getStripeConnectedAccountId());
-        }
+        Money grossAmount = Money.ofDecimal(booking.getPrice());
+        Money platformFee = walletService.calculatePlatformFee(grossAmount);
+        Money netAmount = walletService.calculateNetAmount(grossAmount);
+        
+        // 4. Nessun transfer per lezione: il netto matura nel wallet e viene
+        //    trasferito con il payout giornaliero (PayoutService)
         
         // 5. Credit trainer's wallet
         User customer = userRepository.findById(booking.getUserId())
@@ -422,7 +394,8 @@ public class PaymentService {
             customer.getId(),
             customer.getFirstName() + " " + customer.getLastName(),
             grossAmount,
-            platformFee
+            platformFee,
+            booking.getPaymentIntentId()
         );
         
         // 6. Update booking status
@@ -439,8 +412,8 @@ public class PaymentService {
         result.put("netAmount", netAmount);
         result.put("trainerEarning", netAmount);
         
-        logger.info("Lesson payment completed for booking {}: gross={}, fee={}, net={}", 
-            booking.getId(), grossAmount, platformFee, netAmount);
+        logger.info("Lesson payment completed for booking {} (trainer {}): gross={}, fee={}, net={}", 
+            booking.getId(), trainer.getId(), grossAmount, platformFee, netAmount);
         
         return result;
     }
@@ -449,8 +422,7 @@ public class PaymentService {
      * NEW: Cancel payment (if lesson is cancelled before validation)
      */
     public PaymentIntent cancelPayment(String paymentIntentId) throws StripeException {
-        PaymentIntent paymentIntent = PaymentIntent.retrieve(paymentIntentId);
-        PaymentIntent cancelled = paymentIntent.cancel();
+        PaymentIntent cancelled = stripeGateway.cancelPaymentIntent(paymentIntentId, "cancel-" + paymentIntentId);
         
         logger.info("Payment CANCELLED: {}", paymentIntentId);
         
@@ -498,7 +470,7 @@ public class PaymentService {
                     .putMetadata("refund_reason", reason != null ? reason : "Customer requested refund")
                     .build();
 
-            Refund refund = Refund.create(params);
+            Refund refund = stripeGateway.createRefund(params, "refund-" + paymentId);
 
             // Update payment status
             payment.setStatus("REFUNDED");
@@ -515,92 +487,18 @@ public class PaymentService {
         }
     }
     
+    /**
+     * Verifica e accoda il webhook: l'elaborazione avviene in StripeWebhookService,
+     * così Stripe riceve la risposta senza attendere le letture sul database
+     */
     public void handleStripeWebhook(String payload, String sigHeader) {
         try {
-            Event event;
-
-            // Verify webhook signature if secret is configured
-            if (stripeWebhookSecret != null && !stripeWebhookSecret.isEmpty()) {
-                event = Webhook.constructEvent(payload, sigHeader, stripeWebhookSecret);
-            } else {
-                // Fallback for development: parse manually (less secure)
-                logger.warn("Stripe webhook secret not configured - using insecure parsing for development");
-                JSONObject jsonPayload = new JSONObject(payload);
-                // In produzione, questo dovrebbe sempre fallire
-                event = null; // Placeholder - in produzione usare sempre signature verification
-            }
-
-            String eventType = event != null ? event.getType() : "unknown";
-
-            logger.info("Processing Stripe webhook event: {}", eventType);
-
-            // Handle different event types
-            switch (eventType) {
-                case "payment_intent.succeeded":
-                    if (event != null) {
-                        com.stripe.model.PaymentIntent paymentIntent = (com.stripe.model.PaymentIntent) event.getData().getObject();
-                        handlePaymentIntentSucceeded(paymentIntent);
-                    } else {
-                        logger.warn("Cannot process payment_intent.succeeded event: event is null (development fallback)");
-                    }
-                    break;
-                case "payment_intent.payment_failed":
-                    if (event != null) {
-                        com.stripe.model.PaymentIntent paymentIntentFailed = (com.stripe.model.PaymentIntent) event.getData().getObject();
-                        handlePaymentIntentFailed(paymentIntentFailed);
-                    } else {
-                        logger.warn("Cannot process payment_intent.payment_failed event: event is null (development fallback)");
-                    }
-                    break;
-                case "charge.dispute.created":
-                    if (event != null) {
-                        com.stripe.model.Dispute chargeDispute = (com.stripe.model.Dispute) event.getData().getObject();
-                        handleChargeDispute(chargeDispute);
-                    } else {
-                        logger.warn("Cannot process charge.dispute.created event: event is null (development fallback)");
-                    }
-                    break;
-                default:
-                    logger.info("Unhandled webhook event type: {}", eventType);
-            }
-
-        } catch (Exception e) {
-            logger.error("Failed to process Stripe webhook", e);
-            throw new RuntimeException("Webhook processing failed: " + e.getMessage());
-        }
-    }    private void handlePaymentIntentSucceeded(com.stripe.model.PaymentIntent paymentIntent) {
-        String paymentIntentId = paymentIntent.getId();
-        logger.info("Payment intent succeeded: {}", paymentIntentId);
-
-        // Update payment status if exists
-        Optional<Payment> paymentOpt = paymentRepository.findByStripePaymentIntentId(paymentIntentId);
-        if (paymentOpt.isPresent()) {
-            Payment payment = paymentOpt.get();
-            payment.setStatus("COMPLETED");
-            paymentRepository.save(payment);
+            stripeWebhookService.ingest(payload, sigHeader);
+        } catch (SignatureVerificationException e) {
+            logger.warn("Invalid Stripe webhook signature");
+            throw new RuntimeException("Firma webhook non valida");
         }
     }
-
-    private void handlePaymentIntentFailed(com.stripe.model.PaymentIntent paymentIntent) {
-        String paymentIntentId = paymentIntent.getId();
-        logger.warn("Payment intent failed: {}", paymentIntentId);
-
-        // Update payment status if exists
-        Optional<Payment> paymentOpt = paymentRepository.findByStripePaymentIntentId(paymentIntentId);
-        if (paymentOpt.isPresent()) {
-            Payment payment = paymentOpt.get();
-            payment.setStatus("FAILED");
-            paymentRepository.save(payment);
-        }
-    }
-
-    private void handleChargeDispute(com.stripe.model.Dispute dispute) {
-        String paymentIntentId = dispute.getPaymentIntent();
-        logger.warn("Charge dispute created for payment intent: {}", paymentIntentId);
-
-        // Could implement dispute handling logic here
-        // For now, just log the event
-    }
     
     // Helper class for payment summary
     public static class PaymentSummary {
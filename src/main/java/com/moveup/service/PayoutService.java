@@ -0,0 +1,417 @@
+package com.moveup.service;
+
+import com.moveup.model.Money;
+import com.moveup.model.PayoutBatch;
+import com.moveup.model.TrainerPayout;
+import com.moveup.model.TrainerPayout.PayoutStatus;
+import com.moveup.model.Transaction;
+import com.moveup.model.Wallet;
+import com.moveup.model.WalletSnapshot;
+import com.stripe.model.Transfer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Payout giornalieri ai trainer.
+ *
+ * Le lezioni accreditano il wallet (ledger) senza chiamare Stripe; una volta al giorno il job
+ * trasferisce a ogni trainer il saldo maturato con un unico transfer. I wallet sono divisi in
+ * partizioni (payoutBucket % partizioni) elaborate in parallelo, ognuna con un lease e un cursore
+ * su payout_batches, così un job interrotto riprende da dove si era fermato. Prima del transfer il
+ * saldo del wallet viene riconciliato con le voci del ledger fino alla stessa sequence; i passaggi
+ * di stato del payout sono condizionali, così due nodi non eseguono lo stesso passo.
+ */
+@Service
+public class PayoutService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(PayoutService.class);
+    
+    @Value("${app.payouts.partitions:8}")
+    private int partitions;
+    
+    @Value("${app.payouts.parallelism:4}")
+    private int parallelism;
+    
+    @Value("${app.payouts.min-amount:1.0}")
+    private double minAmount;
+    
+    @Value("${app.payouts.page-size:500}")
+    private int pageSize;
+    
+    @Value("${app.payouts.lease-minutes:15}")
+    private long leaseMinutes;
+    
+    @Value("${app.payouts.max-attempts:5}")
+    private int maxAttempts;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private StripeService stripeService;
+    
+    @Autowired
+    private WalletService walletService;
+    
+    @Autowired
+    private WalletLedgerService walletLedgerService;
+    
+    private final String nodeId = UUID.randomUUID().toString();
+    
+    @PostConstruct
+    public void init() {
+        try {
+            mongoTemplate.indexOps(TrainerPayout.class)
+                    .ensureIndex(new Index().on("walletId", Sort.Direction.ASC).on("status", Sort.Direction.ASC));
+            mongoTemplate.indexOps(Wallet.class)
+                    .ensureIndex(new Index().on("payoutBucket", Sort.Direction.ASC).on("_id", Sort.Direction.ASC));
+            // Un transfer Stripe produce al massimo una voce PAYOUT nel ledger
+            mongoTemplate.indexOps(Transaction.class)
+                    .ensureIndex(new Index().on("stripeTransferId", Sort.Direction.ASC).unique().sparse());
+        } catch (Exception e) {
+            logger.error("Failed to ensure trainer payout indexes", e);
+        }
+    }
+    
+    /**
+     * Assegna il bucket di partizione ai wallet creati prima che esistesse (hash dell'id, stabile tra i nodi)
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void assignPayoutBuckets() {
+        Query missing = new Query(Criteria.where("payoutBucket").exists(false));
+        missing.fields().include("_id");
+        
+        int assigned = 0;
+        for (Wallet wallet : mongoTemplate.find(missing, Wallet.class)) {
+            mongoTemplate.updateFirst(
+                new Query(Criteria.where("_id").is(wallet.getId()).and("payoutBucket").exists(false)),
+                new Update().set("payoutBucket", Math.floorMod(wallet.getId().hashCode(), Wallet.PAYOUT_BUCKETS)),
+                Wallet.class);
+            assigned++;
+        }
+        if (assigned > 0) {
+            logger.info("Payout buckets assigned to {} wallets", assigned);
+        }
+    }
+    
+    /**
+     * Job giornaliero: un transfer per trainer con il saldo maturato
+     */
+    @Scheduled(cron = "${app.payouts.cron:0 0 4 * * *}")
+    public void runDailyPayouts() {
+        runPayouts(LocalDate.now());
+    }
+    
+    /**
+     * Esegue (o riprende) i payout del periodo su tutte le partizioni
+     */
+    public void runPayouts(LocalDate period) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, partitions)));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int partition = 0; partition < partitions; partition++) {
+                final int p = partition;
+                futures.add(executor.submit(() -> runPartition(period, p)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (Exception e) {
+                    logger.error("Payout partition failed for {}", period, e);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    /**
+     * Payout di tutti i wallet di una partizione, riprendendo dal cursore salvato
+     */
+    public void runPartition(LocalDate period, int partition) {
+        PayoutBatch batch = claimBatch(period, partition);
+        if (batch == null) {
+            return; // già completata o in mano a un altro nodo
+        }
+        
+        logger.info("Payout partition {} for {} started from wallet {}", partition, period, batch.getLastWalletId());
+        String cursor = batch.getLastWalletId();
+        
+        List<Integer> buckets = bucketsOf(partition);
+        while (true) {
+            // Il filtro di partizione è nella query: ogni partizione legge solo i propri wallet
+            Criteria criteria = Criteria.where("payoutBucket").in(buckets).and("stripeConnectedAccountId").ne(null);
+            if (cursor != null) {
+                criteria = criteria.and("id").gt(cursor);
+            }
+            Query query = new Query(criteria).with(Sort.by("id")).limit(pageSize);
+            query.fields().include("id");
+            List<Wallet> page = mongoTemplate.find(query, Wallet.class);
+            if (page.isEmpty()) {
+                break;
+            }
+            
+            Update progress = new Update();
+            for (Wallet wallet : page) {
+                countOutcome(progress, payoutWallet(wallet.getId(), period, partition));
+                cursor = wallet.getId();
+            }
+            
+            // Salva il cursore e rinnova il lease
+            progress.set("lastWalletId", cursor).set("lockedAt", LocalDateTime.now());
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(batch.getId())), progress, PayoutBatch.class);
+        }
+        
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(batch.getId())),
+            new Update().set("status", PayoutBatch.STATUS_COMPLETED)
+                    .set("completedAt", LocalDateTime.now())
+                    .unset("lockedAt"),
+            PayoutBatch.class);
+        logger.info("Payout partition {} for {} completed", partition, period);
+    }
+    
+    /**
+     * Payout di un singolo wallet: chiude prima eventuali payout rimasti a metà, poi pianifica il periodo
+     */
+    public TrainerPayout payoutWallet(String walletId, LocalDate period, int partition) {
+        Query open = new Query(Criteria.where("walletId").is(walletId)
+                .and("status").in(PayoutStatus.PLANNED, PayoutStatus.TRANSFERRED))
+                .with(Sort.by("period"));
+        for (TrainerPayout pending : mongoTemplate.find(open, TrainerPayout.class)) {
+            advance(pending);
+            if (pending.isOpen()) {
+                return pending; // riprova al prossimo giro, senza accumulare un secondo transfer
+            }
+        }
+        
+        TrainerPayout current = mongoTemplate.findById(walletId + ":" + period, TrainerPayout.class);
+        if (current != null && current.getStatus() != PayoutStatus.RECONCILIATION_MISMATCH) {
+            return current;
+        }
+        
+        Wallet wallet = mongoTemplate.findById(walletId, Wallet.class);
+        if (wallet == null || wallet.getStripeConnectedAccountId() == null
+                || wallet.getBalance() == null || wallet.getBalance().isLessThan(Money.ofDecimal(minAmount))) {
+            return null;
+        }
+        
+        TrainerPayout payout = plan(wallet, period, partition);
+        if (payout != null && payout.getStatus() == PayoutStatus.PLANNED) {
+            advance(payout);
+        }
+        return payout;
+    }
+    
+    /**
+     * Payout di un trainer, dal più recente
+     */
+    public List<TrainerPayout> getPayouts(String walletId) {
+        return mongoTemplate.find(new Query(Criteria.where("walletId").is(walletId))
+                .with(Sort.by(Sort.Direction.DESC, "period")), TrainerPayout.class);
+    }
+    
+    // Helper methods
+    
+    private TrainerPayout plan(Wallet wallet, LocalDate period, int partition) {
+        TrainerPayout payout = new TrainerPayout(wallet, period, partition);
+        long cutoff = wallet.getLedgerSequence() != null ? wallet.getLedgerSequence() : 0L;
+        WalletSnapshot ledger = walletLedgerService.getTotalsThrough(wallet, cutoff);
+        
+        payout.setCutoffSequence(cutoff);
+        payout.setLedgerBalance(ledger.getBalance());
+        payout.setAmount(wallet.getBalance());
+        
+        // Saldo e ledger letti alla stessa sequence devono coincidere al centesimo
+        if (!ledger.getBalance().equals(wallet.getBalance())) {
+            String difference = "Saldo wallet " + payout.getAmount() + " diverso dal ledger " + payout.getLedgerBalance();
+            
+            if (!Boolean.FALSE.equals(wallet.getLegacyHistory())) {
+                // Storico precedente al ledger: il saldo resta il riferimento, la differenza viene solo segnalata
+                payout.setLastError(difference + " (storico legacy)");
+                logger.warn("Wallet {} has legacy history: balance {} != ledger {} at sequence {}, paying the balance",
+                    wallet.getId(), payout.getAmount(), payout.getLedgerBalance(), cutoff);
+            } else {
+                payout.setStatus(PayoutStatus.RECONCILIATION_MISMATCH);
+                payout.setLastError(difference);
+                logger.warn("Payout skipped for wallet {}: balance {} != ledger {} at sequence {}",
+                    wallet.getId(), payout.getAmount(), payout.getLedgerBalance(), cutoff);
+                mongoTemplate.save(payout);
+                return payout;
+            }
+        }
+        
+        payout.setStatus(PayoutStatus.PLANNED);
+        mongoTemplate.save(payout);
+        return payout;
+    }
+    
+    private void advance(TrainerPayout payout) {
+        try {
+            if (payout.getStatus() == PayoutStatus.PLANNED) {
+                // Stripe ricorda la idempotency key solo 24h: prima di un nuovo transfer si cerca quello già eseguito
+                Transfer transfer = stripeService.findTransfer(
+                    payout.getTransferGroup(), payout.getStripeAccountId(), payout.getAmount());
+                if (transfer == null) {
+                    transfer = stripeService.transferToTrainer(
+                        payout.getStripeAccountId(),
+                        payout.getAmount(),
+                        "Payout MoveUp " + payout.getPeriod(),
+                        payout.getTransferGroup()
+                    );
+                }
+                if (!transition(payout, PayoutStatus.PLANNED, null, new Update()
+                        .set("status", PayoutStatus.TRANSFERRED)
+                        .set("stripeTransferId", transfer.getId()))) {
+                    return; // avanzato nel frattempo da un altro nodo
+                }
+            }
+            
+            if (payout.getStatus() == PayoutStatus.TRANSFERRED) {
+                // Un solo processo registra l'addebito: lock condizionale, ripreso se scaduto
+                LocalDateTime staleBefore = LocalDateTime.now().minusMinutes(leaseMinutes);
+                if (!transition(payout, PayoutStatus.TRANSFERRED, new Criteria().orOperator(
+                        Criteria.where("postingAt").is(null),
+                        Criteria.where("postingAt").lt(staleBefore)),
+                        new Update().set("postingAt", LocalDateTime.now()))) {
+                    return;
+                }
+                
+                Transaction entry = walletService.findEntryByStripeTransferId(payout.getWalletId(), payout.getStripeTransferId());
+                if (entry == null) {
+                    entry = walletService.debitWallet(payout.getUserId(), payout.getAmount(),
+                        "Payout " + payout.getPeriod(), payout.getStripeTransferId());
+                }
+                transition(payout, PayoutStatus.TRANSFERRED, null, new Update()
+                    .set("status", PayoutStatus.POSTED)
+                    .set("transactionId", entry.getId())
+                    .unset("postingAt"));
+                logger.info("Payout {} completed: {} EUR, transfer {}", payout.getId(), payout.getAmount(),
+                    payout.getStripeTransferId());
+            }
+        } catch (Exception e) {
+            Query open = new Query(Criteria.where("_id").is(payout.getId())
+                    .and("status").in(PayoutStatus.PLANNED, PayoutStatus.TRANSFERRED));
+            TrainerPayout failed = mongoTemplate.findAndModify(open, new Update()
+                    .inc("attempts", 1)
+                    .set("lastError", e.getMessage())
+                    .set("updatedAt", LocalDateTime.now())
+                    .unset("postingAt"),
+                FindAndModifyOptions.options().returnNew(true), TrainerPayout.class);
+            
+            if (failed != null && failed.getAttempts() >= maxAttempts) {
+                mongoTemplate.updateFirst(open, new Update().set("status", PayoutStatus.FAILED), TrainerPayout.class);
+                logger.error("Payout {} failed after {} attempts, manual review required", payout.getId(),
+                    failed.getAttempts(), e);
+            } else {
+                logger.warn("Payout {} failed: {}", payout.getId(), e.getMessage());
+            }
+            refresh(payout);
+        }
+    }
+    
+    /**
+     * Passaggio di stato condizionale: riesce solo se il payout è ancora nello stato atteso.
+     * In ogni caso la copia in memoria viene riallineata al documento.
+     */
+    private boolean transition(TrainerPayout payout, PayoutStatus from, Criteria condition, Update update) {
+        Query query = new Query(Criteria.where("_id").is(payout.getId()).and("status").is(from));
+        if (condition != null) {
+            query.addCriteria(condition);
+        }
+        TrainerPayout updated = mongoTemplate.findAndModify(query, update.set("updatedAt", LocalDateTime.now()),
+            FindAndModifyOptions.options().returnNew(true), TrainerPayout.class);
+        
+        if (updated == null) {
+            refresh(payout);
+            return false;
+        }
+        copyState(updated, payout);
+        return true;
+    }
+    
+    private void refresh(TrainerPayout payout) {
+        TrainerPayout current = mongoTemplate.findById(payout.getId(), TrainerPayout.class);
+        if (current != null) {
+            copyState(current, payout);
+        }
+    }
+    
+    private void copyState(TrainerPayout source, TrainerPayout target) {
+        target.setStatus(source.getStatus());
+        target.setStripeTransferId(source.getStripeTransferId());
+        target.setTransactionId(source.getTransactionId());
+        target.setAttempts(source.getAttempts());
+        target.setLastError(source.getLastError());
+        target.setPostingAt(source.getPostingAt());
+        target.setUpdatedAt(source.getUpdatedAt());
+    }
+    
+    private PayoutBatch claimBatch(LocalDate period, int partition) {
+        PayoutBatch batch = new PayoutBatch(period, partition);
+        try {
+            mongoTemplate.insert(batch);
+        } catch (DuplicateKeyException e) {
+            // Partizione già avviata: si riprende dal cursore se il lease è libero o scaduto
+        }
+        
+        Query query = new Query(Criteria.where("_id").is(batch.getId())
+                .and("status").is(PayoutBatch.STATUS_RUNNING)
+                .orOperator(
+                    Criteria.where("lockedAt").is(null),
+                    Criteria.where("lockedAt").lt(LocalDateTime.now().minusMinutes(leaseMinutes))
+                ));
+        Update update = new Update().set("lockedBy", nodeId).set("lockedAt", LocalDateTime.now());
+        return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), PayoutBatch.class);
+    }
+    
+    private void countOutcome(Update progress, TrainerPayout payout) {
+        if (payout == null) {
+            return;
+        }
+        switch (payout.getStatus()) {
+            case POSTED:
+                progress.inc("paidCount", 1).inc("paidCents", payout.getAmount().getCents());
+                break;
+            case RECONCILIATION_MISMATCH:
+                progress.inc("mismatchCount", 1);
+                break;
+            case FAILED:
+                progress.inc("failedCount", 1);
+                break;
+            default:
+                break;
+        }
+    }
+    
+    private List<Integer> bucketsOf(int partition) {
+        List<Integer> buckets = new ArrayList<>();
+        for (int bucket = partition; bucket < Wallet.PAYOUT_BUCKETS; bucket += partitions) {
+            buckets.add(bucket);
+        }
+        return buckets;
+    }
+}
@@ -0,0 +1,143 @@
+package com.moveup.service;
+
+import com.moveup.model.PointsEvent;
+import com.moveup.model.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Saldo punti degli utenti.
+ *
+ * User.points cambia solo con findAndModify + $inc, che restituisce il saldo dopo l'operazione:
+ * accrediti concorrenti non si perdono e il documento utente non viene riscritto (niente
+ * profileImageBase64 in rete). Gli addebiti sono condizionati a points >= importo, quindi il saldo
+ * non va mai sotto zero. Ogni movimento è registrato in points_events con il saldo risultante.
+ */
+@Service
+public class PointsLedgerService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(PointsLedgerService.class);
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @PostConstruct
+    public void init() {
+        try {
+            mongoTemplate.indexOps(PointsEvent.class).ensureIndex(
+                new Index().on("userId", Sort.Direction.ASC).on("createdAt", Sort.Direction.DESC)
+            );
+        } catch (Exception e) {
+            logger.error("Failed to ensure points_events indexes", e);
+        }
+    }
+    
+    /**
+     * Accredita i punti e ritorna il movimento con il saldo risultante
+     */
+    public PointsEvent credit(String userId, int points, PointsEvent.Source source, String referenceId, String reason) {
+        if (points <= 0) {
+            throw new RuntimeException("Il numero di punti deve essere positivo");
+        }
+        
+        User updated = mongoTemplate.findAndModify(
+            balanceQuery(Criteria.where("_id").is(userId)),
+            new Update().inc("points", points).set("updatedAt", LocalDateTime.now()),
+            FindAndModifyOptions.options().returnNew(true),
+            User.class);
+        if (updated == null) {
+            throw new RuntimeException("Utente non trovato");
+        }
+        
+        return record(new PointsEvent(userId, points, updated.getPoints(), source, referenceId, reason));
+    }
+    
+    /**
+     * Addebita i punti solo se il saldo è sufficiente; null se non lo è
+     */
+    public PointsEvent debit(String userId, int points, PointsEvent.Source source, String referenceId, String reason) {
+        if (points <= 0) {
+            throw new RuntimeException("Il numero di punti deve essere positivo");
+        }
+        
+        User updated = mongoTemplate.findAndModify(
+            balanceQuery(Criteria.where("_id").is(userId).and("points").gte(points)),
+            new Update().inc("points", -points).set("updatedAt", LocalDateTime.now()),
+            FindAndModifyOptions.options().returnNew(true),
+            User.class);
+        if (updated == null) {
+            if (!mongoTemplate.exists(new Query(Criteria.where("_id").is(userId)), User.class)) {
+                throw new RuntimeException("Utente non trovato");
+            }
+            return null;
+        }
+        
+        return record(new PointsEvent(userId, -points, updated.getPoints(), source, referenceId, reason));
+    }
+    
+    /**
+     * Registra movimenti già applicati al saldo da chi aggiorna User.points insieme ad altri campi
+     */
+    public void recordAll(List<PointsEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        try {
+            mongoTemplate.insert(events, PointsEvent.class);
+        } catch (Exception e) {
+            logger.error("Failed to record {} points events", events.size(), e);
+        }
+    }
+    
+    /**
+     * Saldo corrente, letto senza caricare il resto del documento utente
+     */
+    public int getBalance(String userId) {
+        User user = mongoTemplate.findOne(balanceQuery(Criteria.where("_id").is(userId)), User.class);
+        if (user == null) {
+            throw new RuntimeException("Utente non trovato");
+        }
+        return user.getPoints();
+    }
+    
+    /**
+     * Ultimi movimenti dell'utente, dal più recente
+     */
+    public List<PointsEvent> getHistory(String userId, int limit) {
+        Query query = new Query(Criteria.where("userId").is(userId))
+            .with(Sort.by(Sort.Direction.DESC, "createdAt"))
+            .limit(limit);
+        return mongoTemplate.find(query, PointsEvent.class);
+    }
+    
+    // Helper methods
+    
+    private Query balanceQuery(Criteria criteria) {
+        Query query = new Query(criteria);
+        query.fields().include("points");
+        return query;
+    }
+    
+    private PointsEvent record(PointsEvent event) {
+        try {
+            return mongoTemplate.insert(event);
+        } catch (Exception e) {
+            // Il saldo è già aggiornato: il log non deve far fallire l'operazione
+            logger.error("Failed to record points event for user {} ({} points)", event.getUserId(), event.getDelta(), e);
+            return event;
+        }
+    }
+}
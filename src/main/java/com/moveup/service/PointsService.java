@@ -2,12 +2,24 @@ package com.moveup.service;
 
 import com.moveup.model.User;
 import com.moveup.model.Booking;
-import com.moveup.repository.UserRepository;
+import com.moveup.model.GameStatus;
+import com.moveup.model.PointsEvent;
 import com.moveup.repository.BookingRepository;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.*;
 
 @Service
@@ -15,27 +27,35 @@ import java.util.*;
 public class PointsService {
     
     @Autowired
-    private UserRepository userRepository;
+    private BookingRepository bookingRepository;
     
     @Autowired
-    private BookingRepository bookingRepository;
+    private PointsLedgerService pointsLedgerService;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    // Distanza massima tra due lezioni della stessa streak
+    @Value("${app.points.streak-window-hours:168}")
+    private long streakWindowHours;
+    
+    @Value("${app.points.streak-length:3}")
+    private int streakLength;
     
     // Points configuration
     private static final int POINTS_PER_LESSON = 20;
     private static final int POINTS_PER_REVIEW = 10;
     private static final int POINTS_FIRST_LESSON_BONUS = 50;
-    private static final int POINTS_STREAK_BONUS = 30; // 3 lezioni consecutive
+    private static final int POINTS_STREAK_BONUS = 30; // streak-length lezioni consecutive
     private static final int POINTS_REFERRAL = 100;
     
     /**
      * Assegna punti dopo una lezione completata
      */
     public PointsTransaction awardPointsForLesson(String userId, String bookingId) {
-        User user = userRepository.findById(userId)
-            .orElseThrow(() -> new RuntimeException("Utente non trovato"));
-        
-        Booking booking = bookingRepository.findById(bookingId)
-            .orElseThrow(() -> new RuntimeException("Prenotazione non trovata"));
+        if (!bookingRepository.existsById(bookingId)) {
+            throw new RuntimeException("Prenotazione non trovata");
+        }
         
         int points = POINTS_PER_LESSON;
         String reason = "Lezione completata";
@@ -48,26 +68,24 @@ public class PointsService {
             bonuses.add("🎉 Bonus prima lezione: +" + POINTS_FIRST_LESSON_BONUS);
         }
         
-        // Bonus streak (3 lezioni consecutive)
-        if (checkStreak(userId, 3)) {
+        // Bonus streak (streak-length lezioni consecutive)
+        if (updateStreak(userId, bookingId) >= streakLength) {
             points += POINTS_STREAK_BONUS;
-            bonuses.add("🔥 Streak 3 lezioni: +" + POINTS_STREAK_BONUS);
+            bonuses.add("🔥 Streak " + streakLength + " lezioni: +" + POINTS_STREAK_BONUS);
         }
         
         // Aggiungi punti all'utente
-        int currentPoints = user.getPoints();
-        user.setPoints(currentPoints + points);
-        userRepository.save(user);
+        PointsEvent event = pointsLedgerService.credit(userId, points, PointsEvent.Source.LESSON, bookingId, reason);
         
         // Check livello
-        LevelInfo newLevel = checkLevelUp(user);
+        LevelInfo newLevel = checkLevelUp(userId, event);
         
         return new PointsTransaction(
             userId,
             points,
             reason,
             bonuses,
-            user.getPoints(),
+            event.getBalanceAfter(),
             newLevel
         );
     }
@@ -76,20 +94,16 @@ public class PointsService {
      * Assegna punti per una recensione
      */
     public PointsTransaction awardPointsForReview(String userId) {
-        User user = userRepository.findById(userId)
-            .orElseThrow(() -> new RuntimeException("Utente non trovato"));
-        
-        int currentPoints = user.getPoints();
-        user.setPoints(currentPoints + POINTS_PER_REVIEW);
-        userRepository.save(user);
+        String reason = "Recensione pubblicata";
+        PointsEvent event = pointsLedgerService.credit(userId, POINTS_PER_REVIEW, PointsEvent.Source.REVIEW, null, reason);
         
         return new PointsTransaction(
             userId,
             POINTS_PER_REVIEW,
-            "Recensione pubblicata",
+            reason,
             List.of(),
-            user.getPoints(),
-            null
+            event.getBalanceAfter(),
+            checkLevelUp(userId, event)
         );
     }
     
@@ -97,20 +111,16 @@ public class PointsService {
      * Assegna punti per referral
      */
     public PointsTransaction awardPointsForReferral(String userId, String referredUserId) {
-        User user = userRepository.findById(userId)
-            .orElseThrow(() -> new RuntimeException("Utente non trovato"));
-        
-        int currentPoints = user.getPoints();
-        user.setPoints(currentPoints + POINTS_REFERRAL);
-        userRepository.save(user);
+        String reason = "Amico invitato: " + referredUserId;
+        PointsEvent event = pointsLedgerService.credit(userId, POINTS_REFERRAL, PointsEvent.Source.REFERRAL, referredUserId, reason);
         
         return new PointsTransaction(
             userId,
             POINTS_REFERRAL,
-            "Amico invitato: " + referredUserId,
+            reason,
             List.of("💎 Bonus referral: +" + POINTS_REFERRAL),
-            user.getPoints(),
-            null
+            event.getBalanceAfter(),
+            checkLevelUp(userId, event)
         );
     }
     
@@ -118,32 +128,34 @@ public class PointsService {
      * Riscatta punti per un reward
      */
     public RedemptionResult redeemPoints(String userId, String rewardId) {
-        User user = userRepository.findById(userId)
-            .orElseThrow(() -> new RuntimeException("Utente non trovato"));
-        
         Reward reward = getAvailableRewards().stream()
             .filter(r -> r.getId().equals(rewardId))
             .findFirst()
             .orElseThrow(() -> new RuntimeException("Reward non trovato"));
         
-        int currentPoints = user.getPoints();
-        
-        if (currentPoints < reward.getCost()) {
+        // Sottrai punti (addebito condizionato al saldo)
+        PointsEvent event = pointsLedgerService.debit(userId, reward.getCost(), PointsEvent.Source.REDEMPTION,
+            rewardId, "Reward riscattato: " + reward.getName());
+        if (event == null) {
+            int currentPoints = pointsLedgerService.getBalance(userId);
             throw new RuntimeException("Punti insufficienti. Hai " + currentPoints + " punti, servono " + reward.getCost());
         }
         
-        // Sottrai punti
-        user.setPoints(currentPoints - reward.getCost());
-        userRepository.save(user);
-        
         return new RedemptionResult(
             true,
             reward,
-            user.getPoints(),
+            event.getBalanceAfter(),
             "Reward riscattato con successo!"
         );
     }
     
+    /**
+     * Ultimi movimenti punti dell'utente
+     */
+    public List<PointsEvent> getPointsHistory(String userId, int limit) {
+        return pointsLedgerService.getHistory(userId, Math.min(Math.max(limit, 1), 200));
+    }
+    
     /**
      * Ottieni rewards disponibili
      */
@@ -159,44 +171,63 @@ public class PointsService {
     }
     
     /**
-     * Check se l'utente ha uno streak attivo
+     * Aggiorna la streak con la lezione appena completata e ritorna la sua lunghezza.
+     *
+     * Un solo update a pipeline sul documento utente: la streak continua se la lezione precedente
+     * è entro la finestra, altrimenti riparte da 1. La stessa prenotazione non viene contata due volte.
      */
-    private boolean checkStreak(String userId, int requiredCount) {
-        List<Booking> recentBookings = bookingRepository
-            .findByUserIdAndStatusOrderByCreatedAtDesc(userId, Booking.BookingStatus.COMPLETED);
-        
-        if (recentBookings.size() < requiredCount) {
-            return false;
-        }
-        
-        // Check se le ultime X lezioni sono consecutive (entro 7 giorni)
-        for (int i = 0; i < requiredCount - 1; i++) {
-            long daysDiff = java.time.Duration.between(
-                recentBookings.get(i + 1).getCreatedAt(),
-                recentBookings.get(i).getCreatedAt()
-            ).toDays();
-            
-            if (daysDiff > 7) {
-                return false;
+    private int updateStreak(String userId, String bookingId) {
+        Date now = new Date();
+        long windowMs = Duration.ofHours(streakWindowHours).toMillis();
+        
+        Document gap = new Document("$subtract", List.of(now, "$gameStatus.lastLessonAt"));
+        Document continues = new Document("$and", List.of(
+            new Document("$gt", Arrays.asList("$gameStatus.lastLessonAt", null)),
+            new Document("$lte", List.of(gap, windowMs))
+        ));
+        Document nextStreak = new Document("$cond", List.of(
+            continues,
+            new Document("$add", List.of(new Document("$ifNull", List.of("$gameStatus.currentStreak", 0)), 1)),
+            1
+        ));
+        
+        AggregationOperation advance = context -> new Document("$set", new Document()
+            .append("gameStatus.currentStreak", nextStreak)
+            .append("gameStatus.lastLessonAt", now)
+            .append("gameStatus.lastStreakBookingId", bookingId));
+        AggregationOperation longest = context -> new Document("$set", new Document("gameStatus.longestStreak",
+            new Document("$max", List.of(new Document("$ifNull", List.of("$gameStatus.longestStreak", 0)), "$gameStatus.currentStreak"))));
+        
+        Query query = new Query(Criteria.where("_id").is(userId).and("gameStatus.lastStreakBookingId").ne(bookingId));
+        query.fields().include("gameStatus.currentStreak");
+        User updated = mongoTemplate.findAndModify(query, AggregationUpdate.from(List.of(advance, longest)),
+            FindAndModifyOptions.options().returnNew(true), User.class);
+        
+        if (updated == null) {
+            // Prenotazione già conteggiata (o utente inesistente): streak invariata
+            Query current = new Query(Criteria.where("_id").is(userId));
+            current.fields().include("gameStatus.currentStreak");
+            updated = mongoTemplate.findOne(current, User.class);
+            if (updated == null) {
+                throw new RuntimeException("Utente non trovato");
             }
         }
-        
-        return true;
+        return updated.getGameStatus() != null ? updated.getGameStatus().getCurrentStreak() : 0;
     }
     
     /**
-     * Check level up basato sui punti
+     * Check level up dal saldo prima e dopo l'accredito: il livello salvato sale con $max,
+     * quindi due accrediti concorrenti non lo fanno mai scendere
      */
-    private LevelInfo checkLevelUp(User user) {
-        int points = user.getPoints();
-        int oldLevel = user.getGameStatus() != null ? user.getGameStatus().getLevel() : 1;
-        int newLevel = calculateLevel(points);
+    private LevelInfo checkLevelUp(String userId, PointsEvent event) {
+        int oldLevel = calculateLevel(event.getBalanceBefore());
+        int newLevel = calculateLevel(event.getBalanceAfter());
         
         if (newLevel > oldLevel) {
-            if (user.getGameStatus() != null) {
-                user.getGameStatus().setLevel(newLevel);
-            }
-            userRepository.save(user);
+            mongoTemplate.updateFirst(
+                new Query(Criteria.where("_id").is(userId)),
+                new Update().max("gameStatus.level", newLevel),
+                User.class);
             
             return new LevelInfo(
                 newLevel,
@@ -209,6 +240,18 @@ public class PointsService {
         return null;
     }
     
+    /**
+     * Lunghezza della streak con una lezione completata in "at", dato lo stato corrente
+     * (stessa regola di updateStreak, per chi aggiorna il GameStatus in memoria)
+     */
+    public int nextStreak(GameStatus status, LocalDateTime at) {
+        if (status.getLastLessonAt() != null
+                && !at.isAfter(status.getLastLessonAt().plus(Duration.ofHours(streakWindowHours)))) {
+            return status.getCurrentStreak() + 1;
+        }
+        return 1;
+    }
+    
     /**
      * Calcola livello basato sui punti
      * Livello 1: 0-99 punti
@@ -217,7 +260,7 @@ public class PointsService {
      * Livello 4: 600-999 punti
      * Livello 5: 1000+ punti
      */
-    private int calculateLevel(int points) {
+    public int calculateLevel(int points) {
         if (points < 100) return 1;
         if (points < 300) return 2;
         if (points < 600) return 3;
@@ -251,10 +294,7 @@ public class PointsService {
      * Ottieni informazioni sui punti dell'utente
      */
     public UserPointsInfo getUserPointsInfo(String userId) {
-        User user = userRepository.findById(userId)
-            .orElseThrow(() -> new RuntimeException("Utente non trovato"));
-        
-        int points = user.getPoints();
+        int points = pointsLedgerService.getBalance(userId);
         int level = calculateLevel(points);
         
         return new UserPointsInfo(
@@ -0,0 +1,176 @@
+package com.moveup.service;
+
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseOptions;
+import com.google.firebase.messaging.BatchResponse;
+import com.google.firebase.messaging.FirebaseMessaging;
+import com.google.firebase.messaging.FirebaseMessagingException;
+import com.google.firebase.messaging.Message;
+import com.google.firebase.messaging.MessagingErrorCode;
+import com.google.firebase.messaging.SendResponse;
+import com.moveup.model.Notification;
+import com.moveup.model.NotificationChannel;
+import com.moveup.model.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Canale push via Firebase Cloud Messaging: un messaggio per token, inviati con sendEach
+ * (fino a 500 messaggi per richiesta). I token che FCM segnala come non più registrati
+ * vengono tolti dagli utenti. Senza credenziali configurate il canale è disattivato.
+ */
+@Component
+public class PushNotificationSender implements NotificationSender {
+    
+    private static final Logger logger = LoggerFactory.getLogger(PushNotificationSender.class);
+    
+    // Limite FCM di messaggi per singola chiamata sendEach
+    private static final int FCM_MAX_MESSAGES = 500;
+    
+    @Value("${firebase.credentials.path:}")
+    private String credentialsPath;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    private FirebaseMessaging messaging;
+    
+    @PostConstruct
+    public void init() {
+        if (credentialsPath == null || credentialsPath.isEmpty()) {
+            logger.info("Firebase credentials not configured, push notifications disabled");
+            return;
+        }
+        
+        try (InputStream credentials = new FileInputStream(credentialsPath)) {
+            FirebaseOptions options = FirebaseOptions.builder()
+                .setCredentials(GoogleCredentials.fromStream(credentials))
+                .build();
+            FirebaseApp app = FirebaseApp.getApps().isEmpty()
+                ? FirebaseApp.initializeApp(options)
+                : FirebaseApp.getInstance();
+            messaging = FirebaseMessaging.getInstance(app);
+        } catch (Exception e) {
+            logger.error("Failed to initialize Firebase, push notifications disabled", e);
+        }
+    }
+    
+    @Override
+    public NotificationChannel getChannel() {
+        return NotificationChannel.PUSH;
+    }
+    
+    @Override
+    public boolean accepts(Notification notification, User recipient) {
+        return messaging != null
+            && recipient != null
+            && recipient.getPushTokens() != null
+            && !recipient.getPushTokens().isEmpty()
+            && !Boolean.FALSE.equals(recipient.getNotificationsEnabled());
+    }
+    
+    @Override
+    public DeliveryReport send(List<Notification> notifications, Map<String, User> recipients) {
+        DeliveryReport report = new DeliveryReport();
+        
+        // Un messaggio per ogni token del destinatario; owners[i] è la notifica del messaggio i
+        List<Message> messages = new ArrayList<>();
+        List<Notification> owners = new ArrayList<>();
+        List<String> tokens = new ArrayList<>();
+        for (Notification notification : notifications) {
+            for (String token : recipients.get(notification.getRecipientId()).getPushTokens()) {
+                messages.add(buildMessage(notification, token));
+                owners.add(notification);
+                tokens.add(token);
+            }
+        }
+        
+        Set<String> delivered = new HashSet<>();
+        Map<String, String> errors = new HashMap<>();
+        List<String> unregistered = new ArrayList<>();
+        for (int from = 0; from < messages.size(); from += FCM_MAX_MESSAGES) {
+            int to = Math.min(from + FCM_MAX_MESSAGES, messages.size());
+            try {
+                BatchResponse response = messaging.sendEach(messages.subList(from, to));
+                List<SendResponse> responses = response.getResponses();
+                for (int i = 0; i < responses.size(); i++) {
+                    SendResponse sent = responses.get(i);
+                    String notificationId = owners.get(from + i).getId();
+                    if (sent.isSuccessful()) {
+                        delivered.add(notificationId);
+                        continue;
+                    }
+                    FirebaseMessagingException error = sent.getException();
+                    if (error != null && error.getMessagingErrorCode() == MessagingErrorCode.UNREGISTERED) {
+                        unregistered.add(tokens.get(from + i));
+                    }
+                    errors.put(notificationId, "PUSH: " + (error != null ? error.getMessage() : "unknown error"));
+                }
+            } catch (FirebaseMessagingException e) {
+                for (int i = from; i < to; i++) {
+                    errors.put(owners.get(i).getId(), "PUSH: " + e.getMessage());
+                }
+            }
+        }
+        
+        // Consegnata se almeno un dispositivo l'ha ricevuta
+        for (Notification notification : notifications) {
+            if (delivered.contains(notification.getId())) {
+                report.delivered(notification.getId());
+            } else if (errors.containsKey(notification.getId())) {
+                report.failed(notification.getId(), errors.get(notification.getId()));
+            }
+        }
+        
+        removeUnregisteredTokens(unregistered);
+        return report;
+    }
+    
+    // Helper methods
+    
+    private Message buildMessage(Notification notification, String token) {
+        Message.Builder builder = Message.builder()
+            .setToken(token)
+            .setNotification(com.google.firebase.messaging.Notification.builder()
+                .setTitle(notification.getTitle())
+                .setBody(notification.getMessage())
+                .build())
+            .putData("notificationId", notification.getId())
+            .putData("type", notification.getType());
+        if (notification.getRelatedEntityId() != null) {
+            builder.putData("relatedEntityId", notification.getRelatedEntityId());
+            builder.putData("relatedEntityType", String.valueOf(notification.getRelatedEntityType()));
+        }
+        return builder.build();
+    }
+    
+    private void removeUnregisteredTokens(List<String> unregistered) {
+        if (unregistered.isEmpty()) {
+            return;
+        }
+        try {
+            mongoTemplate.updateMulti(new Query(Criteria.where("pushTokens").in(unregistered)),
+                new Update().pullAll("pushTokens", unregistered.toArray()), User.class);
+        } catch (Exception e) {
+            logger.warn("Failed to remove {} unregistered push tokens: {}", unregistered.size(), e.getMessage());
+        }
+    }
+}
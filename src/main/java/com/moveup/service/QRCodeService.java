@@ -6,6 +6,7 @@ import com.moveup.exception.QRCodeException;
 import com.moveup.model.Booking;
 import com.moveup.model.Instructor;
 import com.moveup.model.Lesson;
+import com.moveup.model.Money;
 import com.moveup.model.User;
 import com.moveup.repository.BookingRepository;
 import com.moveup.repository.InstructorRepository;
@@ -21,7 +22,6 @@ import org.springframework.transaction.annotation.Transactional;
 import java.time.LocalDateTime;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
-import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -50,7 +50,10 @@ public class QRCodeService {
     private UserRepository userRepository;
     
     @Autowired
-    private StripeService stripeService;
+    private PaymentService paymentService;
+    
+    @Autowired
+    private WalletService walletService;
     
     @Autowired
     private LiveActivityService liveActivityService;
@@ -241,25 +244,17 @@ public class QRCodeService {
         booking.setStatus(Booking.BookingStatus.CONFIRMED);
         booking.setValidatedAt(now);
         
-        // Process payment (capture authorized amount)
+        // Process payment (capture authorized amount, trainer paid out with the daily batch)
         if (booking.getPaymentIntentId() != null) {
             try {
-                // Get instructor's user ID for Stripe transfer
+                paymentService.capturePayment(booking.getPaymentIntentId());
+                booking.setPaymentStatus(Booking.PaymentStatus.CAPTURED);
+                
                 Optional<Instructor> instructorOpt = instructorRepository.findById(booking.getInstructorId());
                 if (instructorOpt.isPresent()) {
-                    Instructor instructor = instructorOpt.get();
-                    Map<String, Object> transferResult = stripeService.capturePaymentAndTransfer(
-                        booking.getPaymentIntentId(),
-                        instructor.getUserId(), // Use instructor's user ID
-                        booking.getTotalAmount(),
-                        "Lesson payment - Booking " + booking.getId(),
-                        "booking_" + booking.getId()
-                    );
-                    String transferId = (String) transferResult.get("transferId");
-                    booking.setStripeTransferId(transferId);
+                    creditInstructor(booking, instructorOpt.get());
                 }
-                booking.setPaymentStatus(Booking.PaymentStatus.CAPTURED);
-                logger.info("Payment captured and transferred for booking: {}", booking.getId());
+                logger.info("Payment captured for booking: {}", booking.getId());
             } catch (Exception e) {
                 logger.error("Payment capture failed for booking: {}", booking.getId(), e);
                 // Don't block check-in if payment fails, log for manual review
@@ -308,6 +303,28 @@ public class QRCodeService {
         }
     }
     
+    /**
+     * Accredita il netto della lezione nel wallet dell'istruttore (ledger, pagato col payout giornaliero)
+     */
+    private void creditInstructor(Booking booking, Instructor instructor) {
+        Money grossAmount = Money.ofDecimal(booking.getTotalAmount());
+        Money platformFee = walletService.calculatePlatformFee(grossAmount);
+        Money netAmount = walletService.calculateNetAmount(grossAmount);
+        
+        User customer = userRepository.findById(booking.getUserId()).orElse(null);
+        walletService.creditWallet(
+            instructor.getUserId(),
+            netAmount,
+            "Lesson payment - Booking " + booking.getId(),
+            booking.getId(),
+            booking.getUserId(),
+            customer != null ? customer.getFirstName() + " " + customer.getLastName() : null,
+            grossAmount,
+            platformFee,
+            booking.getPaymentIntentId()
+        );
+    }
+    
     /**
      * Create check-in info embedded document
      */
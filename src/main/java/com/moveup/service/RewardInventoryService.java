@@ -0,0 +1,376 @@
+package com.moveup.service;
+
+import com.moveup.model.Reward;
+import com.moveup.model.RewardStockBucket;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Giacenza delle ricompense a quantità limitata.
+ *
+ * Il riscatto prenota un pezzo con un $inc condizionato a remaining > 0, quindi non si vende mai
+ * oltre la giacenza anche con molte richieste concorrenti su più nodi; se un passo successivo
+ * fallisce la prenotazione viene restituita. Per le ricompense molto richieste (stockBuckets > 1)
+ * la giacenza è divisa in più documenti in reward_stock: ogni riscatto parte da un bucket a caso,
+ * così le scritture non si accodano tutte sullo stesso documento. In quel caso
+ * Reward.remainingQuantity è solo il totale mostrato, riallineato periodicamente.
+ *
+ * Il contatore da usare è deciso da Reward.stockBuckets sul documento, non dalla copia del
+ * catalogo: il $inc sul contatore singolo è condizionato a stockBuckets <= 1 e un tentativo
+ * fallito rilegge il documento prima di dichiarare la ricompensa esaurita. collapse e distribute
+ * cambiano prima stockBuckets e poi spostano la giacenza con $inc condizionati, così prenotazioni
+ * e restituzioni concorrenti non vanno perse né contate due volte.
+ */
+@Service
+public class RewardInventoryService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(RewardInventoryService.class);
+    
+    // Cambi di contatore (collapse/distribute) tollerati durante una singola operazione
+    private static final int MAX_ROUTE_ATTEMPTS = 3;
+    
+    @Value("${app.rewards.empty-bucket-cache-ms:2000}")
+    private long emptyBucketCacheMs;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    // bucket -> istante fino a cui considerarlo vuoto senza interrogare Mongo
+    private final Map<String, Long> emptyUntil = new ConcurrentHashMap<>();
+    
+    @PostConstruct
+    public void init() {
+        try {
+            mongoTemplate.indexOps(RewardStockBucket.class).ensureIndex(
+                new Index().on("rewardId", Sort.Direction.ASC)
+            );
+        } catch (Exception e) {
+            logger.error("Failed to ensure reward_stock indexes", e);
+        }
+    }
+    
+    /**
+     * Prenota un pezzo della ricompensa. Ritorna null se è esaurita o non più attiva.
+     * La ricompensa passata (di solito dal catalogo) indica solo il primo contatore da provare.
+     */
+    public Reservation reserve(Reward reward) {
+        Route route = Route.of(reward);
+        for (int attempt = 0; attempt < MAX_ROUTE_ATTEMPTS; attempt++) {
+            Reservation reservation = route.unlimited ? reserveUnlimited(reward.getId())
+                : route.isStriped() ? reserveFromBuckets(reward.getId(), route.buckets)
+                : reserveFromReward(reward.getId());
+            if (reservation != null) {
+                return reservation;
+            }
+            
+            // Esaurita o contatore cambiato nel frattempo: decide lo stato attuale del documento
+            Route current = readRoute(reward.getId());
+            if (current == null || current.equals(route)) {
+                return null;
+            }
+            route = current;
+        }
+        logger.warn("Reward {} stock kept moving during reservation", reward.getId());
+        return null;
+    }
+    
+    /**
+     * Compensazione: restituisce il pezzo prenotato
+     */
+    public void release(Reservation reservation) {
+        if (reservation == null || !reservation.decremented) {
+            return;
+        }
+        
+        try {
+            if (reservation.bucketId != null && incrementBucket(reservation.bucketId, 1)) {
+                return;
+            }
+            // Bucket già raccolto da collapse: il pezzo torna nel contatore attuale
+            for (int attempt = 0; attempt < MAX_ROUTE_ATTEMPTS; attempt++) {
+                if (incrementReward(reservation.rewardId, 1)
+                        || incrementBucket(reservation.rewardId + ":0", 1)) {
+                    return;
+                }
+            }
+            logger.error("Lost released piece of reward {}: stock kept moving", reservation.rewardId);
+        } catch (Exception e) {
+            logger.error("Failed to release reservation on reward {} (bucket {})",
+                reservation.rewardId, reservation.bucketId, e);
+        }
+    }
+    
+    /**
+     * Giacenza residua effettiva (-1 = illimitata)
+     */
+    public int getRemaining(Reward reward) {
+        if (!reward.isStriped()) {
+            return reward.getRemainingQuantity();
+        }
+        int remaining = sumBuckets(reward.getId());
+        return remaining >= 0 ? remaining : reward.getRemainingQuantity();
+    }
+    
+    /**
+     * Riporta in Reward.remainingQuantity la giacenza dei bucket e li elimina.
+     * Ritorna la giacenza raccolta, -1 se la ricompensa non aveva bucket.
+     */
+    public int collapse(String rewardId) {
+        // 1. Il contatore singolo torna quello valido (a zero: il totale mostrato può essere vecchio)
+        Query striped = new Query(Criteria.where("_id").is(rewardId)
+            .and("stockBuckets").gt(1)
+            .and("remainingQuantity").ne(-1));
+        Update route = new Update().set("stockBuckets", 0).set("remainingQuantity", 0).set("updatedAt", LocalDateTime.now());
+        if (mongoTemplate.updateFirst(striped, route, Reward.class).getModifiedCount() == 0) {
+            return -1;
+        }
+        
+        // 2. Svuota ogni bucket in modo atomico e sposta il contenuto nel contatore singolo.
+        // Una prenotazione sul bucket o avviene prima (e non viene spostata) o fallisce e
+        // rilegge il documento; una restituzione arrivata dopo lo svuotamento fa ripetere il giro.
+        Query buckets = new Query(Criteria.where("rewardId").is(rewardId));
+        buckets.fields().include("_id");
+        for (RewardStockBucket bucket : mongoTemplate.find(buckets, RewardStockBucket.class)) {
+            Query byId = new Query(Criteria.where("_id").is(bucket.getId()));
+            while (true) {
+                RewardStockBucket taken = mongoTemplate.findAndModify(byId,
+                    new Update().set("remaining", 0).set("updatedAt", LocalDateTime.now()), RewardStockBucket.class);
+                if (taken == null) {
+                    break;
+                }
+                if (taken.getRemaining() > 0) {
+                    mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(rewardId)),
+                        new Update().inc("remainingQuantity", taken.getRemaining()), Reward.class);
+                }
+                Query empty = new Query(Criteria.where("_id").is(bucket.getId()).and("remaining").is(0));
+                if (mongoTemplate.remove(empty, RewardStockBucket.class).getDeletedCount() > 0) {
+                    break;
+                }
+            }
+            emptyUntil.remove(bucket.getId());
+        }
+        
+        Reward reward = mongoTemplate.findById(rewardId, Reward.class);
+        return reward != null ? reward.getRemainingQuantity() : -1;
+    }
+    
+    /**
+     * Divide Reward.remainingQuantity in buckets contatori (dopo creazione o modifica della ricompensa).
+     * Se la ricompensa è illimitata o buckets <= 1 registra solo stockBuckets.
+     */
+    public void distribute(String rewardId, int buckets) {
+        if (buckets <= 1) {
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(rewardId).and("stockBuckets").lte(1)),
+                new Update().set("stockBuckets", Math.max(0, buckets)), Reward.class);
+            return;
+        }
+        
+        // 1. Bucket vuoti: esistono già quando le prenotazioni iniziano a usarli
+        for (int i = 0; i < buckets; i++) {
+            RewardStockBucket bucket = new RewardStockBucket(rewardId, i, 0);
+            mongoTemplate.upsert(new Query(Criteria.where("_id").is(bucket.getId())),
+                new Update().setOnInsert("rewardId", rewardId).setOnInsert("bucket", i)
+                    .setOnInsert("remaining", 0).set("updatedAt", bucket.getUpdatedAt()),
+                RewardStockBucket.class);
+        }
+        
+        // 2. Cambio di contatore: da qui il $inc condizionato sul documento non passa più e le
+        // restituzioni vanno nei bucket, quindi remainingQuantity letto ora è la giacenza da dividere
+        Reward before = mongoTemplate.findAndModify(
+            new Query(Criteria.where("_id").is(rewardId).and("stockBuckets").lte(1)),
+            new Update().set("stockBuckets", buckets).set("updatedAt", LocalDateTime.now()),
+            Reward.class);
+        if (before == null || !before.isLimited()) {
+            mongoTemplate.remove(new Query(Criteria.where("rewardId").is(rewardId).and("remaining").is(0)),
+                RewardStockBucket.class);
+            if (before == null) {
+                logger.warn("Reward {} is missing or already striped: stock not distributed", rewardId);
+            }
+            return;
+        }
+        
+        // 3. Trasferimento della giacenza con $inc: le prenotazioni già sui bucket restano valide
+        int total = Math.max(0, before.getRemainingQuantity());
+        for (int i = 0; i < buckets; i++) {
+            int share = total / buckets + (i < total % buckets ? 1 : 0);
+            if (share > 0) {
+                incrementBucket(rewardId + ":" + i, share);
+            }
+        }
+        emptyUntil.keySet().removeIf(id -> id.startsWith(rewardId + ":"));
+    }
+    
+    /**
+     * Riallinea il totale mostrato delle ricompense suddivise in bucket
+     */
+    @Scheduled(fixedDelayString = "${app.rewards.stock-sync-ms:60000}")
+    public void syncStripedTotals() {
+        Aggregation aggregation = Aggregation.newAggregation(
+            Aggregation.group("rewardId").sum("remaining").as("remaining")
+        );
+        
+        for (Document total : mongoTemplate.aggregate(aggregation, RewardStockBucket.class, Document.class)) {
+            int remaining = ((Number) total.get("remaining")).intValue();
+            // Scrive solo se cambiato (il catalogo riceve un evento per ogni modifica) e solo se la
+            // ricompensa usa ancora i bucket: durante collapse remainingQuantity è il contatore vero
+            mongoTemplate.updateFirst(
+                new Query(Criteria.where("_id").is(total.get("_id"))
+                    .and("stockBuckets").gt(1)
+                    .and("remainingQuantity").ne(remaining)),
+                new Update().set("remainingQuantity", remaining).set("updatedAt", LocalDateTime.now()),
+                Reward.class);
+        }
+        
+        long now = System.currentTimeMillis();
+        emptyUntil.values().removeIf(until -> until <= now);
+    }
+    
+    // Helper methods
+    
+    private Reservation reserveUnlimited(String rewardId) {
+        Query query = new Query(Criteria.where("_id").is(rewardId)
+            .and("isActive").is(true)
+            .and("remainingQuantity").is(-1));
+        return mongoTemplate.exists(query, Reward.class) ? new Reservation(rewardId, null, false) : null;
+    }
+    
+    private Reservation reserveFromReward(String rewardId) {
+        Query query = new Query(Criteria.where("_id").is(rewardId)
+            .and("isActive").is(true)
+            .and("stockBuckets").lte(1)
+            .and("remainingQuantity").gt(0));
+        Update update = new Update().inc("remainingQuantity", -1).set("updatedAt", LocalDateTime.now());
+        if (mongoTemplate.updateFirst(query, update, Reward.class).getModifiedCount() == 0) {
+            return null;
+        }
+        return new Reservation(rewardId, null, true);
+    }
+    
+    private Reservation reserveFromBuckets(String rewardId, int buckets) {
+        int start = ThreadLocalRandom.current().nextInt(buckets);
+        long now = System.currentTimeMillis();
+        
+        for (int k = 0; k < buckets; k++) {
+            String bucketId = rewardId + ":" + ((start + k) % buckets);
+            Long until = emptyUntil.get(bucketId);
+            if (until != null && until > now) {
+                continue;
+            }
+            
+            Query query = new Query(Criteria.where("_id").is(bucketId).and("remaining").gt(0));
+            Update update = new Update().inc("remaining", -1).set("updatedAt", LocalDateTime.now());
+            if (mongoTemplate.updateFirst(query, update, RewardStockBucket.class).getModifiedCount() > 0) {
+                return new Reservation(rewardId, bucketId, true);
+            }
+            emptyUntil.put(bucketId, now + emptyBucketCacheMs);
+        }
+        return null;
+    }
+    
+    private boolean incrementReward(String rewardId, int amount) {
+        Query query = new Query(Criteria.where("_id").is(rewardId)
+            .and("stockBuckets").lte(1)
+            .and("remainingQuantity").ne(-1));
+        Update update = new Update().inc("remainingQuantity", amount).set("updatedAt", LocalDateTime.now());
+        return mongoTemplate.updateFirst(query, update, Reward.class).getMatchedCount() > 0;
+    }
+    
+    private boolean incrementBucket(String bucketId, int amount) {
+        Update update = new Update().inc("remaining", amount).set("updatedAt", LocalDateTime.now());
+        if (mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(bucketId)), update, RewardStockBucket.class)
+                .getMatchedCount() == 0) {
+            return false;
+        }
+        emptyUntil.remove(bucketId);
+        return true;
+    }
+    
+    private Route readRoute(String rewardId) {
+        Query query = new Query(Criteria.where("_id").is(rewardId).and("isActive").is(true));
+        query.fields().include("remainingQuantity", "stockBuckets");
+        Reward reward = mongoTemplate.findOne(query, Reward.class);
+        return reward != null ? Route.of(reward) : null;
+    }
+    
+    private int sumBuckets(String rewardId) {
+        Aggregation aggregation = Aggregation.newAggregation(
+            Aggregation.match(Criteria.where("rewardId").is(rewardId)),
+            Aggregation.group("rewardId").sum("remaining").as("remaining")
+        );
+        Document total = mongoTemplate.aggregate(aggregation, RewardStockBucket.class, Document.class).getUniqueMappedResult();
+        return total != null ? ((Number) total.get("remaining")).intValue() : -1;
+    }
+    
+    // Inner classes
+    
+    /**
+     * Contatore da cui prenotare: illimitata, documento Reward o bucket
+     */
+    private static final class Route {
+        private final boolean unlimited;
+        private final int buckets;
+        
+        private Route(boolean unlimited, int buckets) {
+            this.unlimited = unlimited;
+            this.buckets = unlimited ? 0 : buckets;
+        }
+        
+        static Route of(Reward reward) {
+            return new Route(!reward.isLimited(), reward.isStriped() ? reward.getStockBuckets() : 0);
+        }
+        
+        boolean isStriped() {
+            return buckets > 1;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Route)) {
+                return false;
+            }
+            Route other = (Route) o;
+            return unlimited == other.unlimited && buckets == other.buckets;
+        }
+        
+        @Override
+        public int hashCode() {
+            return Boolean.hashCode(unlimited) * 31 + buckets;
+        }
+    }
+    
+    /**
+     * Pezzo prenotato: bucketId è null per le ricompense con un solo contatore
+     */
+    public static final class Reservation {
+        private final String rewardId;
+        private final String bucketId;
+        private final boolean decremented;
+        
+        Reservation(String rewardId, String bucketId, boolean decremented) {
+            this.rewardId = rewardId;
+            this.bucketId = bucketId;
+            this.decremented = decremented;
+        }
+        
+        public String getRewardId() { return rewardId; }
+        public String getBucketId() { return bucketId; }
+    }
+}
@@ -1,21 +1,49 @@
 package com.moveup.service;
 
+import com.moveup.model.GameStatus;
+import com.moveup.model.Notification;
+import com.moveup.model.PointsEvent;
 import com.moveup.model.Reward;
 import com.moveup.model.User;
 import com.moveup.repository.RewardRepository;
 import com.moveup.repository.UserRepository;
+import com.moveup.service.RewardInventoryService.Reservation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
 
 @Service
 @Transactional
 public class RewardService {
     
+    private static final Logger logger = LoggerFactory.getLogger(RewardService.class);
+    
+    @Value("${app.rewards.notify-batch-size:500}")
+    private int notifyBatchSize;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
     @Autowired
     private RewardRepository rewardRepository;
     
@@ -25,14 +53,30 @@ public class RewardService {
     @Autowired
     private NotificationService notificationService;
     
+    @Autowired
+    private CatalogService catalogService;
+    
+    @Autowired
+    private RewardInventoryService rewardInventoryService;
+    
+    @Autowired
+    private PointsLedgerService pointsLedgerService;
+    
     // Create new reward
     public Reward createReward(Reward reward) {
-        return rewardRepository.save(reward);
+        // I bucket vengono creati prima che le prenotazioni li usino (vedi RewardInventoryService)
+        int buckets = reward.getStockBuckets();
+        reward.setStockBuckets(0);
+        Reward saved = rewardRepository.save(reward);
+        rewardInventoryService.distribute(saved.getId(), buckets);
+        saved = rewardRepository.findById(saved.getId()).orElse(saved);
+        catalogService.putReward(saved);
+        return saved;
     }
     
     // Get reward by ID
     public Optional<Reward> getRewardById(String rewardId) {
-        return rewardRepository.findById(rewardId);
+        return catalogService.getReward(rewardId);
     }
     
     // Update reward
@@ -40,31 +84,48 @@ public class RewardService {
         Reward existingReward = rewardRepository.findById(rewardId)
                 .orElseThrow(() -> new RuntimeException("Ricompensa non trovata"));
         
-        // Update fields
+        // Update fields: $set dei soli campi descrittivi, la giacenza cambia solo con $inc condizionati
+        Update update = new Update().set("updatedAt", LocalDateTime.now());
         if (updatedReward.getTitle() != null) {
-            existingReward.setTitle(updatedReward.getTitle());
+            update.set("title", updatedReward.getTitle());
         }
         if (updatedReward.getDescription() != null) {
-            existingReward.setDescription(updatedReward.getDescription());
+            update.set("description", updatedReward.getDescription());
         }
         if (updatedReward.getType() != null) {
-            existingReward.setType(updatedReward.getType());
+            update.set("type", updatedReward.getType());
         }
         if (updatedReward.getPointsCost() > 0) {
-            existingReward.setPointsCost(updatedReward.getPointsCost());
-        }
-        if (updatedReward.getQuantity() != 0) {
-            existingReward.setQuantity(updatedReward.getQuantity());
-            existingReward.setRemainingQuantity(updatedReward.getQuantity());
+            update.set("pointsCost", updatedReward.getPointsCost());
         }
         if (updatedReward.getValue() != null) {
-            existingReward.setValue(updatedReward.getValue());
+            update.set("value", updatedReward.getValue());
         }
         if (updatedReward.getTerms() != null) {
-            existingReward.setTerms(updatedReward.getTerms());
+            update.set("terms", updatedReward.getTerms());
         }
+        Query byId = new Query(Criteria.where("_id").is(rewardId));
+        mongoTemplate.updateFirst(byId, update, Reward.class);
         
-        return rewardRepository.save(existingReward);
+        boolean quantityChanged = updatedReward.getQuantity() != 0;
+        boolean bucketsChanged = updatedReward.getStockBuckets() > 0
+                && updatedReward.getStockBuckets() != existingReward.getStockBuckets();
+        if (quantityChanged || bucketsChanged) {
+            // La giacenza dei bucket torna nel documento prima di essere ridistribuita
+            rewardInventoryService.collapse(rewardId);
+            if (quantityChanged) {
+                mongoTemplate.updateFirst(byId, new Update()
+                        .set("quantity", updatedReward.getQuantity())
+                        .set("remainingQuantity", updatedReward.getQuantity()), Reward.class);
+            }
+            rewardInventoryService.distribute(rewardId,
+                    bucketsChanged ? updatedReward.getStockBuckets() : existingReward.getStockBuckets());
+        }
+        
+        Reward saved = rewardRepository.findById(rewardId)
+                .orElseThrow(() -> new RuntimeException("Ricompensa non trovata"));
+        catalogService.putReward(saved);
+        return saved;
     }
     
     // Delete reward (soft delete - mark as inactive)
@@ -72,18 +133,24 @@ public class RewardService {
         Reward reward = rewardRepository.findById(rewardId)
                 .orElseThrow(() -> new RuntimeException("Ricompensa non trovata"));
         
+        // Solo isActive: un save del documento intero riscriverebbe la giacenza letta sopra
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(rewardId)),
+                new Update().set("isActive", false).set("updatedAt", LocalDateTime.now()), Reward.class);
         reward.setActive(false);
-        rewardRepository.save(reward);
+        catalogService.putReward(reward);
     }
     
     // Get all active rewards
     public List<Reward> getAllActiveRewards() {
-        return rewardRepository.findByIsActiveTrue();
+        return catalogService.getActiveRewards();
     }
     
     // Get available rewards
     public List<Reward> getAvailableRewards() {
-        return rewardRepository.findAvailableRewards();
+        return catalogService.getActiveRewards()
+                .stream()
+                .filter(Reward::isAvailable)
+                .toList();
     }
     
     // Get featured rewards
@@ -101,8 +168,20 @@ public class RewardService {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new RuntimeException("Utente non trovato"));
         
-        int userPoints = user.getGameStatus().getTotalPoints();
-        return rewardRepository.findAffordableRewards(userPoints);
+        // Saldo spendibile (User.points), non i punti totali accumulati
+        int userPoints = user.getPoints();
+        
+        // Il catalogo è ordinato per costo: ci si ferma alla prima ricompensa troppo cara
+        List<Reward> affordable = new ArrayList<>();
+        for (Reward reward : catalogService.getActiveRewards()) {
+            if (reward.getPointsCost() > userPoints) {
+                break;
+            }
+            if (reward.isAvailable()) {
+                affordable.add(reward);
+            }
+        }
+        return affordable;
     }
     
     // Get rewards by points cost range
@@ -151,34 +230,49 @@ public class RewardService {
     
     // Redeem reward
     public void redeemReward(String userId, String rewardId) {
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new RuntimeException("Utente non trovato"));
-        
-        Reward reward = rewardRepository.findById(rewardId)
+        Reward reward = catalogService.getReward(rewardId)
                 .orElseThrow(() -> new RuntimeException("Ricompensa non trovata"));
         
-        // Check if reward can be redeemed
-        if (!reward.canBeRedeemed(user.getGameStatus().getTotalPoints())) {
+        if (!reward.isActive()) {
             throw new RuntimeException("Punti insufficienti o ricompensa non disponibile");
         }
         
         // Check expiration
-        if (reward.getTerms().isExpired()) {
+        if (reward.getTerms() != null && reward.getTerms().isExpired()) {
             throw new RuntimeException("Questa ricompensa è scaduta");
         }
         
-        // Deduct points from user
-        user.deductPoints(reward.getPointsCost());
-        
-        // Add redeemed reward to user
-        user.addRedeemedReward(rewardId);
+        // 1. Prenota un pezzo (decremento condizionato: niente vendite oltre la giacenza)
+        Reservation reservation = rewardInventoryService.reserve(reward);
+        if (reservation == null) {
+            throw new RuntimeException("Ricompensa esaurita");
+        }
         
-        // Update reward quantity
-        reward.redeem();
+        // 2. Addebita i punti (condizionato al saldo); se fallisce il pezzo torna disponibile
+        PointsEvent debit;
+        try {
+            debit = pointsLedgerService.debit(userId, reward.getPointsCost(), PointsEvent.Source.REDEMPTION,
+                rewardId, "Ricompensa riscattata: " + reward.getTitle());
+        } catch (RuntimeException e) {
+            rewardInventoryService.release(reservation);
+            throw e;
+        }
+        if (debit == null) {
+            rewardInventoryService.release(reservation);
+            throw new RuntimeException("Punti insufficienti o ricompensa non disponibile");
+        }
         
-        // Save changes
-        userRepository.save(user);
-        rewardRepository.save(reward);
+        // 3. Registra il riscatto sull'utente; se fallisce si restituiscono punti e pezzo
+        try {
+            Update update = new Update().push("gameStatus.redeemedRewards", rewardId);
+            applyRewardRedemption(update, reward);
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(userId)), update, User.class);
+        } catch (RuntimeException e) {
+            pointsLedgerService.credit(userId, reward.getPointsCost(), PointsEvent.Source.REDEMPTION,
+                rewardId, "Rimborso riscatto non completato: " + reward.getTitle());
+            rewardInventoryService.release(reservation);
+            throw e;
+        }
         
         // Send notification
         notificationService.createNotification(
@@ -187,9 +281,6 @@ public class RewardService {
             "Hai riscattato con successo: " + reward.getTitle(),
             "REWARD_AVAILABLE"
         );
-        
-        // Process specific reward type
-        processRewardRedemption(user, reward);
     }
     
     // Check if user can redeem reward
@@ -200,7 +291,7 @@ public class RewardService {
         Reward reward = rewardRepository.findById(rewardId)
                 .orElseThrow(() -> new RuntimeException("Ricompensa non trovata"));
         
-        return reward.canBeRedeemed(user.getGameStatus().getTotalPoints()) && 
+        return reward.canBeRedeemed(user.getPoints()) && 
                !reward.getTerms().isExpired();
     }
     
@@ -209,32 +300,70 @@ public class RewardService {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new RuntimeException("Utente non trovato"));
         
-        return user.getGameStatus().getRedeemedRewards()
-                .stream()
-                .map(rewardId -> rewardRepository.findById(rewardId))
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .toList();
+        // Risolte dal catalogo in memoria, senza una query per ricompensa
+        return catalogService.getRewards(user.getGameStatus().getRedeemedRewards());
     }
     
-    // Notify users about new rewards
+    // Notify users about rewards they can now afford
+    @Scheduled(cron = "${app.rewards.notify-cron:0 0 10 * * *}")
     public void notifyUsersAboutAffordableRewards() {
-        List<User> users = userRepository.findByIsActiveTrue();
-        
-        for (User user : users) {
-            List<Reward> affordableRewards = getAffordableRewards(user.getId());
-            
-            for (Reward reward : affordableRewards) {
-                // Check if user hasn't been notified about this reward recently
-                if (!user.hasRedeemedReward(reward.getId())) {
-                    notificationService.sendRewardAvailableNotification(
-                        user.getId(),
-                        reward.getId(),
-                        reward.getTitle()
-                    );
+        // Catalogo caricato una volta, ordinato per costo
+        List<Reward> catalog = catalogService.getActiveRewards()
+                .stream()
+                .filter(reward -> reward.isAvailable() && (reward.getTerms() == null || !reward.getTerms().isExpired()))
+                .toList();
+        if (catalog.isEmpty()) {
+            return;
+        }
+        int[] costs = catalog.stream().mapToInt(Reward::getPointsCost).toArray();
+        
+        // Solo utenti che possono permettersi almeno la ricompensa più economica
+        Query query = new Query(Criteria.where("isActive").is(true).and("points").gte(costs[0]));
+        query.fields().include("points", "gameStatus.redeemedRewards", "gameStatus.notifiedRewards");
+        query.cursorBatchSize(notifyBatchSize);
+        
+        List<Notification> notifications = new ArrayList<>();
+        Map<String, List<String>> notifiedByUser = new HashMap<>();
+        long sent = 0;
+        
+        try (Stream<User> users = mongoTemplate.stream(query, User.class)) {
+            Iterator<User> cursor = users.iterator();
+            while (cursor.hasNext()) {
+                User user = cursor.next();
+                GameStatus status = user.getGameStatus();
+                if (status == null) {
+                    continue;
+                }
+                
+                Set<String> skip = new HashSet<>();
+                if (status.getRedeemedRewards() != null) {
+                    skip.addAll(status.getRedeemedRewards());
+                }
+                if (status.getNotifiedRewards() != null) {
+                    skip.addAll(status.getNotifiedRewards());
+                }
+                
+                List<String> rewardIds = new ArrayList<>();
+                for (int i = 0, affordable = affordableCount(costs, user.getPoints()); i < affordable; i++) {
+                    Reward reward = catalog.get(i);
+                    if (!skip.contains(reward.getId())) {
+                        notifications.add(notificationService.buildRewardAvailableNotification(
+                            user.getId(), reward.getId(), reward.getTitle()));
+                        rewardIds.add(reward.getId());
+                    }
+                }
+                if (!rewardIds.isEmpty()) {
+                    notifiedByUser.put(user.getId(), rewardIds);
+                }
+                
+                if (notifications.size() >= notifyBatchSize) {
+                    sent += flushRewardNotifications(notifications, notifiedByUser);
                 }
             }
         }
+        sent += flushRewardNotifications(notifications, notifiedByUser);
+        
+        logger.info("Sent {} affordable reward notifications", sent);
     }
     
     // Get reward statistics
@@ -248,11 +377,12 @@ public class RewardService {
         stats.setType(reward.getType());
         stats.setPointsCost(reward.getPointsCost());
         stats.setTotalQuantity(reward.getQuantity());
-        stats.setRemainingQuantity(reward.getRemainingQuantity());
+        int remaining = rewardInventoryService.getRemaining(reward);
+        stats.setRemainingQuantity(remaining);
         
         // Calculate redemption count
         int redemptionCount = reward.getQuantity() == -1 ? 0 : 
-                             reward.getQuantity() - reward.getRemainingQuantity();
+                             reward.getQuantity() - remaining;
         stats.setRedemptionCount(redemptionCount);
         
         return stats;
@@ -280,50 +410,59 @@ public class RewardService {
         return rewardRepository.countByType(type);
     }
     
-    // Helper method to process specific reward redemption
-    private void processRewardRedemption(User user, Reward reward) {
+    // Helper method to process specific reward redemption (atomic updates on the user document)
+    private void applyRewardRedemption(Update update, Reward reward) {
         // Process reward based on type
-        try {
-            switch (reward.getType()) {
-                case "FREE_LESSON":
-                    user.addFreeLessonCredit();
-                    break;
-                case "DISCOUNT":
-                    // Could add discount credit to user account
-                    user.addFreeLessonCredit(); // Placeholder - use discount for now
-                    break;
-                case "CASH_REWARD":
-                    // Could add cash credit to wallet
-                    user.addFreeLessonCredit(); // Placeholder - use lesson credit for now
-                    break;
-                case "PREMIUM_FEATURE":
-                    // Could unlock premium features
-                    user.addFreeLessonCredit(); // Placeholder - use lesson credit for now
-                    break;
-                case "MERCHANDISE":
-                    // Could add merchandise credit
-                    user.addFreeLessonCredit(); // Placeholder - use lesson credit for now
-                    break;
-                case "EXPERIENCE":
-                    // Could add experience points
-                    if (user.getGameStatus() != null) {
-                        user.getGameStatus().setTotalPoints(user.getGameStatus().getTotalPoints() + 100);
-                    }
-                    break;
-                case "SPECIAL_ACCESS":
-                    // Could grant special access
-                    user.addFreeLessonCredit(); // Placeholder - use lesson credit for now
-                    break;
-                default:
-                    user.addFreeLessonCredit(); // Fallback
-                    break;
+        switch (reward.getType()) {
+            case "EXPERIENCE":
+                // Could add experience points
+                update.inc("gameStatus.totalPoints", 100);
+                break;
+            case "FREE_LESSON":
+            case "DISCOUNT":            // Placeholder - use discount for now
+            case "CASH_REWARD":         // Placeholder - use lesson credit for now
+            case "PREMIUM_FEATURE":     // Placeholder - use lesson credit for now
+            case "MERCHANDISE":         // Placeholder - use lesson credit for now
+            case "SPECIAL_ACCESS":      // Placeholder - use lesson credit for now
+            default:
+                update.inc("freeLessonCredits", 1); // Fallback
+                break;
+        }
+    }
+    
+    // Numero di ricompense (prefisso del catalogo ordinato) con costo <= points
+    private int affordableCount(int[] costs, int points) {
+        int low = 0;
+        int high = costs.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (costs[mid] <= points) {
+                low = mid + 1;
+            } else {
+                high = mid;
             }
-        } catch (Exception e) {
-            // Log error but don't fail the redemption
-            System.err.println("Error processing reward redemption: " + e.getMessage());
         }
+        return low;
+    }
+    
+    // Batch insert delle notifiche e registrazione delle ricompense segnalate
+    private int flushRewardNotifications(List<Notification> notifications, Map<String, List<String>> notifiedByUser) {
+        if (notifications.isEmpty()) {
+            return 0;
+        }
+        
+        int count = notifications.size();
+        notificationService.createNotifications(new ArrayList<>(notifications));
+        
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, User.class);
+        notifiedByUser.forEach((userId, rewardIds) -> bulk.updateOne(
+            new Query(Criteria.where("_id").is(userId)),
+            new Update().addToSet("gameStatus.notifiedRewards").each(rewardIds.toArray())));
+        bulk.execute();
         
-        userRepository.save(user);
+        notifications.clear();
+        notifiedByUser.clear();
+        return count;
     }
     
     // Helper method to generate discount coupon
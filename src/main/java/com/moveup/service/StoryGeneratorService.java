@@ -66,7 +66,13 @@ public class StoryGeneratorService {
      */
     private String generateBadge(Booking booking, User user, int pointsEarned) {
         long completedLessons = user.getGameStatus() != null ? user.getGameStatus().getTotalLessons() : 0;
-        
+        return milestoneBadge(completedLessons, pointsEarned);
+    }
+    
+    /**
+     * Badge della storia dato il numero di lezioni completate (compresa quella appena conclusa)
+     */
+    public String milestoneBadge(long completedLessons, int pointsEarned) {
         // Prima lezione
         if (completedLessons == 1) {
             return "🌟 Prima Lezione Completata!";
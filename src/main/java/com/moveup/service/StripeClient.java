@@ -0,0 +1,52 @@
+package com.moveup.service;
+
+import com.stripe.exception.StripeException;
+import com.stripe.model.Account;
+import com.stripe.model.Customer;
+import com.stripe.model.ExternalAccount;
+import com.stripe.model.PaymentIntent;
+import com.stripe.model.Refund;
+import com.stripe.model.Transfer;
+import com.stripe.net.RequestOptions;
+import com.stripe.param.AccountCreateParams;
+import com.stripe.param.CustomerCreateParams;
+import com.stripe.param.PaymentIntentCaptureParams;
+import com.stripe.param.PaymentIntentCreateParams;
+import com.stripe.param.RefundCreateParams;
+import com.stripe.param.TransferCreateParams;
+import com.stripe.param.TransferListParams;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chiamate Stripe grezze usate da StripeGateway.
+ * Implementazioni: LiveStripeClient (API reale) e FakeStripeClient (locale, per load test),
+ * selezionate con app.stripe.client=live|fake.
+ */
+public interface StripeClient {
+    
+    PaymentIntent createPaymentIntent(PaymentIntentCreateParams params, RequestOptions options) throws StripeException;
+    
+    PaymentIntent retrievePaymentIntent(String paymentIntentId, RequestOptions options) throws StripeException;
+    
+    PaymentIntent confirmPaymentIntent(String paymentIntentId, RequestOptions options) throws StripeException;
+    
+    PaymentIntent capturePaymentIntent(String paymentIntentId, PaymentIntentCaptureParams params, RequestOptions options) throws StripeException;
+    
+    PaymentIntent cancelPaymentIntent(String paymentIntentId, RequestOptions options) throws StripeException;
+    
+    Refund createRefund(RefundCreateParams params, RequestOptions options) throws StripeException;
+    
+    Transfer createTransfer(TransferCreateParams params, RequestOptions options) throws StripeException;
+    
+    List<Transfer> listTransfers(TransferListParams params, RequestOptions options) throws StripeException;
+    
+    Customer createCustomer(CustomerCreateParams params, RequestOptions options) throws StripeException;
+    
+    Account createAccount(AccountCreateParams params, RequestOptions options) throws StripeException;
+    
+    Account retrieveAccount(String accountId, RequestOptions options) throws StripeException;
+    
+    ExternalAccount createExternalAccount(String accountId, Map<String, Object> params, RequestOptions options) throws StripeException;
+}
@@ -0,0 +1,465 @@
+package com.moveup.service;
+
+import com.moveup.exception.PaymentGatewayException;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.ApiException;
+import com.stripe.exception.IdempotencyException;
+import com.stripe.exception.RateLimitException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.Account;
+import com.stripe.model.Customer;
+import com.stripe.model.ExternalAccount;
+import com.stripe.model.PaymentIntent;
+import com.stripe.model.Refund;
+import com.stripe.model.Transfer;
+import com.stripe.net.RequestOptions;
+import com.stripe.param.AccountCreateParams;
+import com.stripe.param.CustomerCreateParams;
+import com.stripe.param.PaymentIntentCaptureParams;
+import com.stripe.param.PaymentIntentCreateParams;
+import com.stripe.param.RefundCreateParams;
+import com.stripe.param.TransferCreateParams;
+import com.stripe.param.TransferListParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unico punto di accesso a Stripe.
+ *
+ * Le chiamate girano su un executor dedicato e limitato (bulkhead), così uno Stripe lento
+ * non consuma i thread Tomcat del resto dell'API. Ogni operazione ha un timeout, una
+ * idempotency key (obbligatoria per le scritture, derivata dal chiamante dall'operazione di
+ * business) riusata tra i tentativi, retry con backoff e jitter sugli errori transitori,
+ * programmati sullo scheduler del gateway, e un circuit breaker che fallisce subito quando Stripe è giù.
+ */
+@Service
+public class StripeGateway {
+    
+    private static final Logger logger = LoggerFactory.getLogger(StripeGateway.class);
+    
+    public enum Operation {
+        CREATE_PAYMENT_INTENT(10000, true),
+        RETRIEVE_PAYMENT_INTENT(5000, false),
+        CONFIRM_PAYMENT_INTENT(10000, true),
+        CAPTURE_PAYMENT_INTENT(15000, true),
+        CANCEL_PAYMENT_INTENT(10000, true),
+        CREATE_REFUND(15000, true),
+        CREATE_TRANSFER(15000, true),
+        LIST_TRANSFERS(5000, false),
+        CREATE_CUSTOMER(10000, true),
+        CREATE_ACCOUNT(15000, true),
+        RETRIEVE_ACCOUNT(5000, false),
+        CREATE_EXTERNAL_ACCOUNT(15000, true);
+        
+        private final long defaultTimeoutMs;
+        private final boolean write;
+        
+        Operation(long defaultTimeoutMs, boolean write) {
+            this.defaultTimeoutMs = defaultTimeoutMs;
+            this.write = write;
+        }
+        
+        boolean isWrite() {
+            return write;
+        }
+        
+        // es. app.stripe.timeout-ms.capture-payment-intent
+        String propertyKey() {
+            return "app.stripe.timeout-ms." + name().toLowerCase().replace('_', '-');
+        }
+    }
+    
+    @Value("${app.stripe.executor.threads:16}")
+    private int executorThreads;
+    
+    @Value("${app.stripe.executor.queue-capacity:64}")
+    private int executorQueueCapacity;
+    
+    @Value("${app.stripe.connect-timeout-ms:3000}")
+    private int connectTimeoutMs;
+    
+    @Value("${app.stripe.retry.max-attempts:3}")
+    private int maxAttempts;
+    
+    @Value("${app.stripe.retry.base-backoff-ms:200}")
+    private long baseBackoffMs;
+    
+    @Value("${app.stripe.retry.max-backoff-ms:2000}")
+    private long maxBackoffMs;
+    
+    @Value("${app.stripe.circuit.failure-threshold:5}")
+    private int failureThreshold;
+    
+    @Value("${app.stripe.circuit.open-ms:30000}")
+    private long circuitOpenMs;
+    
+    @Autowired
+    private StripeClient stripeClient;
+    
+    @Autowired
+    private Environment environment;
+    
+    private ThreadPoolExecutor executor;
+    private ScheduledThreadPoolExecutor retryScheduler;
+    private CircuitBreaker circuitBreaker;
+    
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(
+            executorThreads, executorThreads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(executorQueueCapacity),
+            runnable -> {
+                Thread thread = new Thread(runnable, "stripe-gateway-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        
+        // Solo timer (timeout dei tentativi e backoff): le chiamate vere restano sull'executor limitato
+        retryScheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "stripe-gateway-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        retryScheduler.setRemoveOnCancelPolicy(true);
+        circuitBreaker = new CircuitBreaker(failureThreshold, circuitOpenMs);
+        
+        logger.info("Stripe gateway ready: client={}, threads={}, queue={}",
+            stripeClient.getClass().getSimpleName(), executorThreads, executorQueueCapacity);
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        retryScheduler.shutdownNow();
+        executor.shutdown();
+    }
+    
+    // Payment intents
+    
+    public PaymentIntent createPaymentIntent(PaymentIntentCreateParams params, String idempotencyKey) throws StripeException {
+        return execute(Operation.CREATE_PAYMENT_INTENT, idempotencyKey,
+            options -> stripeClient.createPaymentIntent(params, options));
+    }
+    
+    public PaymentIntent retrievePaymentIntent(String paymentIntentId) throws StripeException {
+        return execute(Operation.RETRIEVE_PAYMENT_INTENT, null,
+            options -> stripeClient.retrievePaymentIntent(paymentIntentId, options));
+    }
+    
+    public PaymentIntent confirmPaymentIntent(String paymentIntentId, String idempotencyKey) throws StripeException {
+        return execute(Operation.CONFIRM_PAYMENT_INTENT, idempotencyKey,
+            options -> stripeClient.confirmPaymentIntent(paymentIntentId, options));
+    }
+    
+    public PaymentIntent capturePaymentIntent(String paymentIntentId, PaymentIntentCaptureParams params,
+            String idempotencyKey) throws StripeException {
+        return execute(Operation.CAPTURE_PAYMENT_INTENT, idempotencyKey,
+            options -> stripeClient.capturePaymentIntent(paymentIntentId, params, options));
+    }
+    
+    public PaymentIntent cancelPaymentIntent(String paymentIntentId, String idempotencyKey) throws StripeException {
+        return execute(Operation.CANCEL_PAYMENT_INTENT, idempotencyKey,
+            options -> stripeClient.cancelPaymentIntent(paymentIntentId, options));
+    }
+    
+    // Refunds, transfers, customers
+    
+    public Refund createRefund(RefundCreateParams params, String idempotencyKey) throws StripeException {
+        return execute(Operation.CREATE_REFUND, idempotencyKey,
+            options -> stripeClient.createRefund(params, options));
+    }
+    
+    public Transfer createTransfer(TransferCreateParams params, String idempotencyKey) throws StripeException {
+        return execute(Operation.CREATE_TRANSFER, idempotencyKey,
+            options -> stripeClient.createTransfer(params, options));
+    }
+    
+    public List<Transfer> listTransfers(TransferListParams params) throws StripeException {
+        return execute(Operation.LIST_TRANSFERS, null,
+            options -> stripeClient.listTransfers(params, options));
+    }
+    
+    public Customer createCustomer(CustomerCreateParams params, String idempotencyKey) throws StripeException {
+        return execute(Operation.CREATE_CUSTOMER, idempotencyKey,
+            options -> stripeClient.createCustomer(params, options));
+    }
+    
+    // Connected accounts
+    
+    public Account createAccount(AccountCreateParams params, String idempotencyKey) throws StripeException {
+        return execute(Operation.CREATE_ACCOUNT, idempotencyKey,
+            options -> stripeClient.createAccount(params, options));
+    }
+    
+    public Account retrieveAccount(String accountId) throws StripeException {
+        return execute(Operation.RETRIEVE_ACCOUNT, null,
+            options -> stripeClient.retrieveAccount(accountId, options));
+    }
+    
+    public ExternalAccount createExternalAccount(String accountId, Map<String, Object> params,
+            String idempotencyKey) throws StripeException {
+        return execute(Operation.CREATE_EXTERNAL_ACCOUNT, idempotencyKey,
+            options -> stripeClient.createExternalAccount(accountId, params, options));
+    }
+    
+    public boolean isCircuitOpen() {
+        return circuitBreaker.isOpen();
+    }
+    
+    /**
+     * Idempotency key deterministica: stessa operazione sugli stessi dati di business, stessa chiave.
+     * Le parti sono ridotte a un hash, così dati personali (email, IBAN) non finiscono nella chiave.
+     */
+    public static String idempotencyKey(String operation, Object... parts) {
+        StringBuilder source = new StringBuilder(operation);
+        for (Object part : parts) {
+            source.append('|').append(part);
+        }
+        return operation + "-" + UUID.nameUUIDFromBytes(source.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    
+    // Helper methods
+    
+    private <T> T execute(Operation operation, String idempotencyKey, StripeCall<T> call) throws StripeException {
+        if (idempotencyKey == null && operation.isWrite()) {
+            // Una chiave casuale non protegge dai retry del client: deve derivare dall'operazione di business
+            throw new IllegalArgumentException("Idempotency key obbligatoria per " + operation);
+        }
+        long timeoutMs = environment.getProperty(operation.propertyKey(), Long.class, operation.defaultTimeoutMs);
+        
+        // Una sola chiave per tutti i tentativi: un retry dopo un timeout non duplica l'operazione
+        RequestOptions options = RequestOptions.builder()
+                .setIdempotencyKey(idempotencyKey)
+                .setConnectTimeout((int) Math.min(connectTimeoutMs, timeoutMs))
+                .setReadTimeout((int) timeoutMs)
+                .setMaxNetworkRetries(0) // i retry sono gestiti qui, con backoff e circuit breaker
+                .build();
+        
+        // Tentativi e attese di backoff girano sull'executor e sullo scheduler del gateway:
+        // il thread chiamante aspetta solo il risultato finale, con un limite complessivo
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(operation, call, options, timeoutMs, 1, result);
+        long budgetMs = timeoutMs * maxAttempts + maxBackoffMs * (maxAttempts - 1) + timeoutMs;
+        
+        try {
+            return result.get(budgetMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            result.cancel(false);
+            throw new PaymentGatewayException(PaymentGatewayException.TIMEOUT,
+                "Timeout Stripe su " + operation, e);
+        } catch (InterruptedException e) {
+            result.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new PaymentGatewayException(PaymentGatewayException.INTERRUPTED,
+                "Chiamata Stripe interrotta", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof StripeException) {
+                throw (StripeException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Unexpected Stripe client error", cause);
+        }
+    }
+    
+    /**
+     * Esegue un tentativo sull'executor; se fallisce per un errore transitorio programma il successivo
+     * dopo il backoff, senza tenere occupato alcun thread durante l'attesa
+     */
+    private <T> void attempt(Operation operation, StripeCall<T> call, RequestOptions options, long timeoutMs,
+                             int attempt, CompletableFuture<T> result) {
+        if (result.isDone()) {
+            return; // chiamante andato via (timeout complessivo o interruzione)
+        }
+        try {
+            circuitBreaker.acquire(operation);
+        } catch (PaymentGatewayException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+        
+        CompletableFuture<T> current = new CompletableFuture<>();
+        Future<?> task;
+        try {
+            task = executor.submit(() -> {
+                try {
+                    current.complete(call.invoke(options));
+                } catch (Throwable t) {
+                    current.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            circuitBreaker.release();
+            result.completeExceptionally(new PaymentGatewayException(PaymentGatewayException.BULKHEAD_FULL,
+                "Servizio pagamenti sovraccarico, riprova tra poco"));
+            return;
+        }
+        
+        ScheduledFuture<?> timeout = retryScheduler.schedule(() -> {
+            if (current.completeExceptionally(new PaymentGatewayException(PaymentGatewayException.TIMEOUT,
+                    "Timeout Stripe su " + operation))) {
+                task.cancel(true);
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+        
+        current.whenComplete((value, error) -> {
+            timeout.cancel(false);
+            if (error == null) {
+                circuitBreaker.onSuccess();
+                result.complete(value);
+                return;
+            }
+            
+            if (error instanceof StripeException && !isRetryable((StripeException) error)) {
+                circuitBreaker.onSuccess(); // Stripe ha risposto: errore applicativo, non di disponibilità
+                result.completeExceptionally(error);
+                return;
+            }
+            boolean timedOut = error instanceof PaymentGatewayException
+                    && PaymentGatewayException.TIMEOUT.equals(((PaymentGatewayException) error).getErrorCode());
+            if (!(error instanceof StripeException) && !timedOut) {
+                circuitBreaker.release();
+                result.completeExceptionally(error);
+                return;
+            }
+            
+            circuitBreaker.onFailure();
+            if (attempt >= maxAttempts) {
+                logger.error("Stripe {} failed after {} attempts", operation, maxAttempts);
+                result.completeExceptionally(error);
+                return;
+            }
+            
+            long backoff = backoffMs(attempt);
+            logger.warn("Stripe {} failed (attempt {}/{}), retrying in {}ms",
+                operation, attempt, maxAttempts, backoff);
+            try {
+                retryScheduler.schedule(() -> attempt(operation, call, options, timeoutMs, attempt + 1, result),
+                    backoff, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                result.completeExceptionally(error); // gateway in chiusura
+            }
+        });
+    }
+    
+    private boolean isRetryable(StripeException e) {
+        if (e instanceof ApiConnectionException || e instanceof RateLimitException
+                || e instanceof IdempotencyException || e instanceof ApiException) {
+            return true;
+        }
+        Integer status = e.getStatusCode();
+        return status != null && status >= 500;
+    }
+    
+    // Backoff esponenziale con jitter: metà fissa + metà casuale, così i retry dei vari nodi non si allineano
+    private long backoffMs(int attempt) {
+        long exponential = Math.min(maxBackoffMs, baseBackoffMs << Math.min(attempt - 1, 16));
+        long half = exponential / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+    
+    // Inner classes
+    
+    @FunctionalInterface
+    private interface StripeCall<T> {
+        T invoke(RequestOptions options) throws StripeException;
+    }
+    
+    /**
+     * Circuit breaker a conteggio: dopo N errori consecutivi resta aperto per un intervallo,
+     * poi lascia passare una sola chiamata di prova (half-open).
+     */
+    private static class CircuitBreaker {
+        private enum State { CLOSED, OPEN, HALF_OPEN }
+        
+        private final int failureThreshold;
+        private final long openMs;
+        
+        private State state = State.CLOSED;
+        private int consecutiveFailures;
+        private long openedAt;
+        private boolean trialInFlight;
+        
+        CircuitBreaker(int failureThreshold, long openMs) {
+            this.failureThreshold = failureThreshold;
+            this.openMs = openMs;
+        }
+        
+        synchronized void acquire(Operation operation) {
+            if (state == State.OPEN) {
+                if (System.currentTimeMillis() - openedAt < openMs) {
+                    throw new PaymentGatewayException(PaymentGatewayException.CIRCUIT_OPEN,
+                        "Servizio pagamenti temporaneamente non disponibile");
+                }
+                state = State.HALF_OPEN;
+                trialInFlight = false;
+            }
+            if (state == State.HALF_OPEN) {
+                if (trialInFlight) {
+                    throw new PaymentGatewayException(PaymentGatewayException.CIRCUIT_OPEN,
+                        "Servizio pagamenti temporaneamente non disponibile");
+                }
+                trialInFlight = true;
+                logger.info("Stripe circuit half-open, trial call {}", operation);
+            }
+        }
+        
+        synchronized void onSuccess() {
+            if (state != State.CLOSED) {
+                logger.info("Stripe circuit closed");
+            }
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+            trialInFlight = false;
+        }
+        
+        synchronized void onFailure() {
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+                if (state != State.OPEN) {
+                    logger.error("Stripe circuit opened after {} consecutive failures", consecutiveFailures);
+                }
+                state = State.OPEN;
+                openedAt = System.currentTimeMillis();
+                trialInFlight = false;
+            }
+        }
+        
+        // Chiamata non eseguita (es. bulkhead pieno): libera l'eventuale prova half-open
+        synchronized void release() {
+            trialInFlight = false;
+        }
+        
+        synchronized boolean isOpen() {
+            return state == State.OPEN && System.currentTimeMillis() - openedAt < openMs;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.moveup.service;
 
+import com.moveup.model.Money;
 import com.moveup.model.User;
 import com.moveup.model.Wallet;
 import com.moveup.repository.UserRepository;
@@ -9,7 +10,9 @@ import com.stripe.model.ExternalAccount;
 import com.stripe.model.Transfer;
 import com.stripe.model.PaymentIntent;
 import com.stripe.param.AccountCreateParams;
+import com.stripe.param.PaymentIntentCaptureParams;
 import com.stripe.param.TransferCreateParams;
+import com.stripe.param.TransferListParams;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -32,6 +35,9 @@ public class StripeService {
     @Autowired
     private UserRepository userRepository;
     
+    @Autowired
+    private StripeGateway stripeGateway;
+    
     /**
      * Create Stripe Connected Account for trainer
      * This is a CUSTOM account for maximum transparency
@@ -61,7 +67,7 @@ public class StripeService {
             )
             .build();
         
-        Account account = Account.create(params);
+        Account account = stripeGateway.createAccount(params, "account-" + userId);
         
         // Save account ID to wallet
         Wallet wallet = walletService.getOrCreateWallet(userId);
@@ -90,8 +96,8 @@ public class StripeService {
         bankAccountParams.put("default_for_currency", true);
         
         // Add external account to connected account
-        Account account = Account.retrieve(stripeAccountId);
-        return account.getExternalAccounts().create(bankAccountParams);
+        return stripeGateway.createExternalAccount(stripeAccountId, bankAccountParams,
+            StripeGateway.idempotencyKey("bank-account", stripeAccountId, iban.replaceAll("\\s", "")));
     }
     
     /**
@@ -100,13 +106,13 @@ public class StripeService {
      */
     public Transfer transferToTrainer(
             String stripeAccountId, 
-            Double amount, 
+            Money amount, 
             String description,
             String transferGroup
     ) throws StripeException {
         
-        // Convert to cents (Stripe uses smallest currency unit)
-        long amountInCents = Math.round(amount * 100);
+        // Stripe uses smallest currency unit
+        long amountInCents = amount.getCents();
         
         TransferCreateParams params = TransferCreateParams.builder()
             .setAmount(amountInCents)
@@ -116,21 +122,44 @@ public class StripeService {
             .setTransferGroup(transferGroup)
             .build();
         
-        return Transfer.create(params);
+        // Un solo transfer per gruppo (prenotazione) e importo, anche se la chiamata viene ripetuta
+        String idempotencyKey = transferGroup != null ? "transfer-" + transferGroup + "-" + amountInCents
+            : StripeGateway.idempotencyKey("transfer", stripeAccountId, amountInCents, description);
+        return stripeGateway.createTransfer(params, idempotencyKey);
+    }
+    
+    /**
+     * Transfer già eseguito con il gruppo, la destinazione e l'importo indicati (null se non esiste).
+     * Serve a riprendere un payout dopo che Stripe ha dimenticato la idempotency key (24h).
+     */
+    public Transfer findTransfer(String transferGroup, String stripeAccountId, Money amount) throws StripeException {
+        TransferListParams params = TransferListParams.builder()
+            .setTransferGroup(transferGroup)
+            .setDestination(stripeAccountId)
+            .setLimit(10L)
+            .build();
+        
+        for (Transfer transfer : stripeGateway.listTransfers(params)) {
+            if (transfer.getAmount() != null && transfer.getAmount() == amount.getCents()
+                    && !Boolean.TRUE.equals(transfer.getReversed())) {
+                return transfer;
+            }
+        }
+        return null;
     }
     
     /**
      * Get Connected Account details
      */
     public Account getAccount(String stripeAccountId) throws StripeException {
-        return Account.retrieve(stripeAccountId);
+        return stripeGateway.retrieveAccount(stripeAccountId);
     }
     
     /**
      * Check if account has external account setup
      */
     public boolean hasExternalAccount(String stripeAccountId) throws StripeException {
-        Account account = Account.retrieve(stripeAccountId);
+        Account account = stripeGateway.retrieveAccount(stripeAccountId);
         return account.getExternalAccounts().getData().size() > 0;
     }
     
@@ -154,7 +183,7 @@ public class StripeService {
         
         // Check if account already exists
         if (wallet.getStripeConnectedAccountId() != null) {
-            account = Account.retrieve(wallet.getStripeConnectedAccountId());
+            account = stripeGateway.retrieveAccount(wallet.getStripeConnectedAccountId());
         } else {
             // Create new account
             account = createConnectedAccount(userId, user);
@@ -200,27 +229,29 @@ public class StripeService {
             }
             
             // Capture the payment intent
-            PaymentIntent intent = PaymentIntent.retrieve(paymentIntentId);
+            PaymentIntent intent = stripeGateway.retrievePaymentIntent(paymentIntentId);
             
             if (!"requires_capture".equals(intent.getStatus())) {
                 throw new RuntimeException("Payment intent is not in a capturable state. Current status: " + intent.getStatus());
             }
             
             // Capture the payment
-            PaymentIntent capturedIntent = intent.capture();
+            PaymentIntent capturedIntent = stripeGateway.capturePaymentIntent(
+                paymentIntentId, PaymentIntentCaptureParams.builder().build(), "capture-" + paymentIntentId);
             result.put("paymentIntent", capturedIntent);
             
             // If capture was successful, transfer funds to trainer
             if ("succeeded".equals(capturedIntent.getStatus())) {
                 // Calculate transfer amount (after platform fees)
                 // For now, transfer 80% to trainer, keep 20% as platform fee
-                double platformFee = amount * 0.20;
-                double transferAmount = amount - platformFee;
+                Money grossAmount = Money.ofDecimal(amount);
+                Money platformFee = grossAmount.percentage(2000);
+                Money transferAmount = grossAmount.minus(platformFee);
                 
                 Transfer transfer = transferToTrainer(
                     trainerWallet.getStripeConnectedAccountId(),
                     transferAmount,
-                    description + " - Platform fee: " + String.format("%.2f", platformFee) + " EUR",
+                    description + " - Platform fee: " + platformFee.toPlainString() + " EUR",
                     transferGroup
                 );
                 
@@ -0,0 +1,365 @@
+package com.moveup.service;
+
+import com.moveup.model.Payment;
+import com.moveup.model.StripeWebhookEvent;
+import com.moveup.repository.PaymentRepository;
+import com.stripe.exception.SignatureVerificationException;
+import com.stripe.model.Charge;
+import com.stripe.model.Dispute;
+import com.stripe.model.Event;
+import com.stripe.model.PaymentIntent;
+import com.stripe.model.Refund;
+import com.stripe.model.StripeObject;
+import com.stripe.net.ApiResource;
+import com.stripe.net.Webhook;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ricezione ed elaborazione dei webhook Stripe.
+ *
+ * In ricezione si verifica la firma (senza segreto configurato l'evento viene rifiutato), si salva
+ * l'evento grezzo con id = id evento Stripe e si risponde subito 200: le consegne duplicate si
+ * fermano sulla chiave primaria. L'elaborazione avviene in background a lotti, su un thread
+ * dedicato, in ordine di creazione per singolo PaymentIntent; un evento fallito viene ritentato
+ * con backoff e blocca i successivi dello stesso PaymentIntent finché non passa o non esaurisce
+ * i tentativi.
+ */
+@Service
+public class StripeWebhookService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(StripeWebhookService.class);
+    
+    @Value("${stripe.webhook.secret:}")
+    private String stripeWebhookSecret;
+    
+    @Value("${app.stripe.webhook.poll-ms:1000}")
+    private long pollMs;
+    
+    @Value("${app.stripe.webhook.batch-size:200}")
+    private int batchSize;
+    
+    @Value("${app.stripe.webhook.max-attempts:8}")
+    private int maxAttempts;
+    
+    @Value("${app.stripe.webhook.retry-base-ms:5000}")
+    private long retryBaseMs;
+    
+    @Value("${app.stripe.webhook.retry-max-ms:3600000}")
+    private long retryMaxMs;
+    
+    @Value("${app.stripe.webhook.lock-timeout-ms:60000}")
+    private long lockTimeoutMs;
+    
+    @Value("${app.stripe.webhook.retention-days:30}")
+    private long retentionDays;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private PaymentRepository paymentRepository;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    // Età in secondi del più vecchio evento ancora da elaborare
+    private final AtomicLong lagSeconds = new AtomicLong();
+    private final AtomicLong backlog = new AtomicLong();
+    
+    private ScheduledExecutorService drainScheduler;
+    
+    private Counter processedCounter;
+    private Counter retriedCounter;
+    private Counter deadCounter;
+    private Counter duplicateCounter;
+    
+    @PostConstruct
+    public void init() {
+        try {
+            mongoTemplate.indexOps(StripeWebhookEvent.class)
+                    .ensureIndex(new Index().on("status", Sort.Direction.ASC)
+                            .on("stripeCreatedAt", Sort.Direction.ASC).on("receivedAt", Sort.Direction.ASC));
+            mongoTemplate.indexOps(StripeWebhookEvent.class)
+                    .ensureIndex(new Index().on("status", Sort.Direction.ASC).on("nextAttemptAt", Sort.Direction.ASC));
+            mongoTemplate.indexOps(StripeWebhookEvent.class)
+                    .ensureIndex(new Index().on("orderingKey", Sort.Direction.ASC).on("status", Sort.Direction.ASC));
+            mongoTemplate.indexOps(StripeWebhookEvent.class)
+                    .ensureIndex(new Index().on("expiresAt", Sort.Direction.ASC).expire(Duration.ZERO));
+        } catch (Exception e) {
+            logger.error("Failed to ensure stripe webhook indexes", e);
+        }
+        
+        Gauge.builder("stripe.webhook.lag", lagSeconds, AtomicLong::get)
+                .baseUnit("seconds").description("Age of the oldest unprocessed Stripe webhook event")
+                .register(meterRegistry);
+        Gauge.builder("stripe.webhook.backlog", backlog, AtomicLong::get)
+                .description("Unprocessed Stripe webhook events seen in the last batch")
+                .register(meterRegistry);
+        processedCounter = meterRegistry.counter("stripe.webhook.events", "outcome", "processed");
+        retriedCounter = meterRegistry.counter("stripe.webhook.events", "outcome", "retried");
+        deadCounter = meterRegistry.counter("stripe.webhook.events", "outcome", "dead");
+        duplicateCounter = meterRegistry.counter("stripe.webhook.events", "outcome", "duplicate");
+        
+        // Thread dedicato: un lotto lento non ritarda gli altri job @Scheduled (e viceversa)
+        drainScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stripe-webhook-drain");
+            thread.setDaemon(true);
+            return thread;
+        });
+        drainScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                drainQueue();
+            } catch (Exception e) {
+                logger.error("Stripe webhook drain failed", e);
+            }
+        }, pollMs, pollMs, TimeUnit.MILLISECONDS);
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        drainScheduler.shutdownNow();
+    }
+    
+    /**
+     * Verifica la firma e accoda l'evento. Ritorna false se l'evento era già stato ricevuto.
+     */
+    public boolean ingest(String payload, String sigHeader) throws SignatureVerificationException {
+        if (stripeWebhookSecret == null || stripeWebhookSecret.isEmpty()) {
+            // Senza segreto la firma non è verificabile: un evento non firmato non entra mai in coda
+            logger.error("Stripe webhook secret not configured - rejecting event");
+            throw new SignatureVerificationException("Stripe webhook secret not configured", sigHeader);
+        }
+        Event event = Webhook.constructEvent(payload, sigHeader, stripeWebhookSecret);
+        
+        long createdAt = event.getCreated() != null ? event.getCreated() : System.currentTimeMillis() / 1000;
+        StripeWebhookEvent record = new StripeWebhookEvent(
+            event.getId(), event.getType(), orderingKey(event), payload, createdAt
+        );
+        
+        try {
+            mongoTemplate.insert(record);
+            logger.debug("Queued Stripe webhook {} ({})", event.getId(), event.getType());
+            return true;
+        } catch (DuplicateKeyException e) {
+            duplicateCounter.increment();
+            logger.info("Duplicate Stripe webhook delivery ignored: {}", event.getId());
+            return false;
+        }
+    }
+    
+    /**
+     * Elabora gli eventi in coda, un PaymentIntent alla volta e in ordine di creazione.
+     * Legge solo gli eventi da eseguire ora: quelli in attesa di retry non occupano il lotto,
+     * ma continuano a bloccare gli eventi successivi dello stesso PaymentIntent.
+     */
+    public void drainQueue() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime staleBefore = now.minus(Duration.ofMillis(lockTimeoutMs));
+        
+        Query query = new Query(new Criteria().orOperator(
+                Criteria.where("status").is(StripeWebhookEvent.STATUS_PENDING).and("nextAttemptAt").lte(now),
+                Criteria.where("status").is(StripeWebhookEvent.STATUS_PENDING).and("nextAttemptAt").is(null),
+                Criteria.where("status").is(StripeWebhookEvent.STATUS_PROCESSING).and("lockedAt").lt(staleBefore)))
+                .with(Sort.by("stripeCreatedAt", "receivedAt"))
+                .limit(batchSize);
+        List<StripeWebhookEvent> batch = mongoTemplate.find(query, StripeWebhookEvent.class);
+        updateLag(batch, now);
+        if (batch.isEmpty()) {
+            return;
+        }
+        
+        Map<String, List<StripeWebhookEvent>> byOrderingKey = new LinkedHashMap<>();
+        for (StripeWebhookEvent event : batch) {
+            byOrderingKey.computeIfAbsent(event.getOrderingKey(), k -> new ArrayList<>()).add(event);
+        }
+        Map<String, StripeWebhookEvent> blockers = findBlockers(byOrderingKey.keySet(), now, staleBefore);
+        
+        for (Map.Entry<String, List<StripeWebhookEvent>> entry : byOrderingKey.entrySet()) {
+            processInOrder(entry.getValue(), blockers.get(entry.getKey()), now);
+        }
+    }
+    
+    // Helper methods
+    
+    private void processInOrder(List<StripeWebhookEvent> events, StripeWebhookEvent blocker, LocalDateTime now) {
+        for (StripeWebhookEvent event : events) {
+            // Un evento precedente in attesa di retry o in mano a un altro nodo blocca i successivi
+            if (blocker != null && !isBefore(event, blocker)) {
+                return;
+            }
+            if (!claim(event, now)) {
+                return;
+            }
+            try {
+                apply(parse(event.getPayload()));
+                markProcessed(event);
+            } catch (Exception e) {
+                markFailed(event, e);
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Per ogni PaymentIntent, il primo evento non eseguibile adesso (retry futuro o lock attivo di un altro nodo)
+     */
+    private Map<String, StripeWebhookEvent> findBlockers(Collection<String> orderingKeys, LocalDateTime now,
+                                                        LocalDateTime staleBefore) {
+        Query query = new Query(Criteria.where("orderingKey").in(orderingKeys).orOperator(
+                Criteria.where("status").is(StripeWebhookEvent.STATUS_PENDING).and("nextAttemptAt").gt(now),
+                Criteria.where("status").is(StripeWebhookEvent.STATUS_PROCESSING).and("lockedAt").gte(staleBefore)))
+                .with(Sort.by("stripeCreatedAt", "receivedAt"));
+        query.fields().include("orderingKey", "stripeCreatedAt", "receivedAt");
+        
+        Map<String, StripeWebhookEvent> blockers = new HashMap<>();
+        for (StripeWebhookEvent event : mongoTemplate.find(query, StripeWebhookEvent.class)) {
+            blockers.putIfAbsent(event.getOrderingKey(), event);
+        }
+        return blockers;
+    }
+    
+    private boolean isBefore(StripeWebhookEvent event, StripeWebhookEvent other) {
+        if (event.getStripeCreatedAt() != other.getStripeCreatedAt()) {
+            return event.getStripeCreatedAt() < other.getStripeCreatedAt();
+        }
+        return event.getReceivedAt().isBefore(other.getReceivedAt());
+    }
+    
+    private boolean claim(StripeWebhookEvent event, LocalDateTime now) {
+        Query query = new Query(Criteria.where("_id").is(event.getId()).orOperator(
+            Criteria.where("status").is(StripeWebhookEvent.STATUS_PENDING),
+            Criteria.where("status").is(StripeWebhookEvent.STATUS_PROCESSING)
+                    .and("lockedAt").lt(now.minus(Duration.ofMillis(lockTimeoutMs)))
+        ));
+        Update update = new Update()
+                .set("status", StripeWebhookEvent.STATUS_PROCESSING)
+                .set("lockedAt", now);
+        return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true),
+            StripeWebhookEvent.class) != null;
+    }
+    
+    private void apply(Event event) {
+        StripeObject object = event.getData().getObject();
+        switch (event.getType()) {
+            case "payment_intent.succeeded":
+                updatePaymentStatus((PaymentIntent) object, "COMPLETED");
+                break;
+            case "payment_intent.payment_failed":
+                updatePaymentStatus((PaymentIntent) object, "FAILED");
+                break;
+            case "charge.dispute.created":
+                // Could implement dispute handling logic here
+                logger.warn("Charge dispute created for payment intent: {}", ((Dispute) object).getPaymentIntent());
+                break;
+            default:
+                logger.info("Unhandled webhook event type: {}", event.getType());
+        }
+    }
+    
+    private void updatePaymentStatus(PaymentIntent paymentIntent, String status) {
+        logger.info("Payment intent {}: {}", paymentIntent.getId(), status);
+        
+        Optional<Payment> paymentOpt = paymentRepository.findByStripePaymentIntentId(paymentIntent.getId());
+        if (paymentOpt.isPresent() && !status.equals(paymentOpt.get().getStatus())) {
+            Payment payment = paymentOpt.get();
+            payment.setStatus(status);
+            paymentRepository.save(payment);
+        }
+    }
+    
+    private void markProcessed(StripeWebhookEvent event) {
+        LocalDateTime now = LocalDateTime.now();
+        Update update = new Update()
+                .set("status", StripeWebhookEvent.STATUS_PROCESSED)
+                .set("processedAt", now)
+                .set("expiresAt", now.plusDays(retentionDays))
+                .inc("attempts", 1)
+                .unset("lockedAt");
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(event.getId())), update, StripeWebhookEvent.class);
+        processedCounter.increment();
+    }
+    
+    private void markFailed(StripeWebhookEvent event, Exception error) {
+        int attempts = event.getAttempts() + 1;
+        Update update = new Update()
+                .set("attempts", attempts)
+                .set("lastError", error.getClass().getSimpleName() + ": " + error.getMessage())
+                .unset("lockedAt");
+        
+        if (attempts >= maxAttempts) {
+            update.set("status", StripeWebhookEvent.STATUS_DEAD);
+            deadCounter.increment();
+            logger.error("Stripe webhook {} ({}) failed {} times, giving up", event.getId(), event.getType(), attempts, error);
+        } else {
+            long backoff = Math.min(retryMaxMs, retryBaseMs << Math.min(attempts - 1, 20));
+            update.set("status", StripeWebhookEvent.STATUS_PENDING)
+                  .set("nextAttemptAt", LocalDateTime.now().plus(Duration.ofMillis(backoff)));
+            retriedCounter.increment();
+            logger.warn("Stripe webhook {} ({}) failed, retry {} in {}ms: {}",
+                event.getId(), event.getType(), attempts, backoff, error.getMessage());
+        }
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(event.getId())), update, StripeWebhookEvent.class);
+    }
+    
+    private void updateLag(List<StripeWebhookEvent> batch, LocalDateTime now) {
+        LocalDateTime oldest = null;
+        for (StripeWebhookEvent event : batch) {
+            if (oldest == null || event.getReceivedAt().isBefore(oldest)) {
+                oldest = event.getReceivedAt();
+            }
+        }
+        lagSeconds.set(oldest != null ? Duration.between(oldest, now).getSeconds() : 0);
+        backlog.set(batch.size());
+    }
+    
+    // Eventi sullo stesso PaymentIntent vanno elaborati in ordine; gli altri sono indipendenti
+    private String orderingKey(Event event) {
+        StripeObject object = event.getData() != null ? event.getData().getObject() : null;
+        String paymentIntentId = null;
+        if (object instanceof PaymentIntent) {
+            paymentIntentId = ((PaymentIntent) object).getId();
+        } else if (object instanceof Charge) {
+            paymentIntentId = ((Charge) object).getPaymentIntent();
+        } else if (object instanceof Refund) {
+            paymentIntentId = ((Refund) object).getPaymentIntent();
+        } else if (object instanceof Dispute) {
+            paymentIntentId = ((Dispute) object).getPaymentIntent();
+        }
+        return paymentIntentId != null ? paymentIntentId : event.getId();
+    }
+    
+    private Event parse(String payload) {
+        return ApiResource.GSON.fromJson(payload, Event.class);
+    }
+}
@@ -0,0 +1,194 @@
+package com.moveup.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moveup.model.Money;
+import com.moveup.model.Transaction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Export dei movimenti di un wallet in CSV o NDJSON, scritto direttamente dal cursore Mongo
+ * sull'output stream della risposta.
+ *
+ * Il cursore chiede il batch successivo solo quando il precedente è stato scritto, e la scrittura
+ * si blocca finché il client non legge: la memoria usata è un batch più il buffer di output,
+ * qualunque sia la dimensione dell'export.
+ */
+@Service
+public class TransactionExportService {
+    
+    public enum ExportFormat {
+        CSV("text/csv", "csv"),
+        NDJSON("application/x-ndjson", "ndjson");
+        
+        private final String contentType;
+        private final String extension;
+        
+        ExportFormat(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+        
+        public String getContentType() { return contentType; }
+        public String getExtension() { return extension; }
+        
+        public static ExportFormat from(String value) {
+            for (ExportFormat format : values()) {
+                if (format.name().equalsIgnoreCase(value)) {
+                    return format;
+                }
+            }
+            throw new RuntimeException("Formato di export non supportato: " + value);
+        }
+    }
+    
+    private static final String CSV_HEADER = "date,sequence,type,status,description,booking_id,customer_name,"
+        + "gross_amount,platform_fee,net_amount,balance_delta,currency,stripe_transfer_id";
+    
+    @Value("${app.wallet.export.cursor-batch-size:500}")
+    private int cursorBatchSize;
+    
+    @Value("${app.wallet.export.flush-every:500}")
+    private int flushEvery;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    /**
+     * Scrive i movimenti del wallet (in ordine di ledger) nell'intervallo [from, to)
+     */
+    public long export(String walletId, ExportFormat format, LocalDateTime from, LocalDateTime to,
+                       boolean gzip, OutputStream out) throws IOException {
+        
+        OutputStream target = gzip ? new GZIPOutputStream(out, 8192, true) : out;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8), 64 * 1024);
+        
+        long count = 0;
+        try (Stream<Transaction> transactions = mongoTemplate.stream(buildQuery(walletId, from, to), Transaction.class)) {
+            Iterator<Transaction> cursor = transactions.iterator();
+            if (format == ExportFormat.CSV) {
+                writer.write(CSV_HEADER);
+                writer.write('\n');
+                while (cursor.hasNext()) {
+                    writeCsv(writer, cursor.next());
+                    count = flushIfNeeded(writer, count + 1);
+                }
+            } else {
+                // Il flush del generator svuota solo il suo buffer: l'invio al client resta a blocchi
+                // Nessun separatore tra valori root: Jackson userebbe uno spazio, che finirebbe a inizio riga
+                JsonGenerator generator = objectMapper.getFactory().createGenerator(writer)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                    .disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+                generator.setRootValueSeparator(null);
+                while (cursor.hasNext()) {
+                    objectMapper.writeValue(generator, cursor.next());
+                    generator.writeRaw('\n');
+                    generator.flush();
+                    count = flushIfNeeded(writer, count + 1);
+                }
+            }
+        }
+        
+        writer.flush();
+        if (target instanceof GZIPOutputStream) {
+            ((GZIPOutputStream) target).finish();
+        }
+        return count;
+    }
+    
+    // Helper methods
+    
+    private Query buildQuery(String walletId, LocalDateTime from, LocalDateTime to) {
+        Criteria criteria = Criteria.where("walletId").is(walletId);
+        if (from != null || to != null) {
+            Criteria created = criteria.and("createdAt");
+            if (from != null) {
+                created.gte(from);
+            }
+            if (to != null) {
+                created.lt(to);
+            }
+        }
+        
+        // Indice walletId + sequence: il cursore non ordina in memoria
+        Query query = new Query(criteria).with(Sort.by(Sort.Direction.ASC, "sequence"));
+        query.cursorBatchSize(cursorBatchSize);
+        return query;
+    }
+    
+    private long flushIfNeeded(Writer writer, long count) throws IOException {
+        // Invia al client a blocchi: con gzip il flush è sincronizzato sul blocco compresso
+        if (count % flushEvery == 0) {
+            writer.flush();
+        }
+        return count;
+    }
+    
+    private void writeCsv(Writer writer, Transaction t) throws IOException {
+        writer.write(t.getCreatedAt() != null ? t.getCreatedAt().toString() : "");
+        writer.write(',');
+        writer.write(Long.toString(t.getSequence()));
+        writer.write(',');
+        writer.write(t.getType() != null ? t.getType().name() : "");
+        writer.write(',');
+        writer.write(t.getStatus() != null ? t.getStatus().name() : "");
+        writer.write(',');
+        writeCsvField(writer, t.getDescription());
+        writer.write(',');
+        writeCsvField(writer, t.getBookingId());
+        writer.write(',');
+        writeCsvField(writer, t.getCustomerName());
+        writer.write(',');
+        writeMoney(writer, t.getGrossAmount());
+        writer.write(',');
+        writeMoney(writer, t.getPlatformFee());
+        writer.write(',');
+        writeMoney(writer, t.getNetAmount() != null ? t.getNetAmount() : t.getAmount());
+        writer.write(',');
+        writeMoney(writer, t.getBalanceDelta());
+        writer.write(',');
+        writer.write(t.getCurrency() != null ? t.getCurrency() : Money.EUR);
+        writer.write(',');
+        writeCsvField(writer, t.getStripeTransferId());
+        writer.write('\n');
+    }
+    
+    private void writeMoney(Writer writer, Money amount) throws IOException {
+        if (amount != null) {
+            writer.write(amount.toPlainString());
+        }
+    }
+    
+    private void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
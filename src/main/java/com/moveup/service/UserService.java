@@ -2,12 +2,17 @@ package com.moveup.service;
 
 import com.moveup.dto.LocationDTO;
 import com.moveup.dto.RegisterWithOnboardingDTO;
+import com.moveup.model.PointsEvent;
 import com.moveup.model.SkillLevel;
 import com.moveup.model.User;
 import com.moveup.model.UserType;
 import com.moveup.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -37,6 +42,12 @@ public class UserService {
     @Autowired
     private NotificationService notificationService;
     
+    @Autowired
+    private PointsLedgerService pointsLedgerService;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
     // Create new user
     public User createUser(User user) {
         // Check if email already exists
@@ -279,6 +290,26 @@ public class UserService {
         return false;
     }
     
+    // Register a device push token (a device belongs to one user at a time)
+    public void registerPushToken(String userId, String token) {
+        if (token == null || token.isBlank()) {
+            throw new RuntimeException("Token push non valido");
+        }
+        
+        mongoTemplate.updateMulti(new Query(Criteria.where("pushTokens").is(token).and("_id").ne(userId)),
+            new Update().pull("pushTokens", token), User.class);
+        if (mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(userId)),
+                new Update().addToSet("pushTokens", token), User.class).getMatchedCount() == 0) {
+            throw new RuntimeException("Utente non trovato");
+        }
+    }
+    
+    // Remove a device push token (logout)
+    public void removePushToken(String userId, String token) {
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(userId)),
+            new Update().pull("pushTokens", token), User.class);
+    }
+    
     // Deactivate user
     public void deactivateUser(String userId) {
         User user = userRepository.findById(userId)
@@ -301,28 +332,15 @@ public class UserService {
     
     // Add points to user
     public void addPoints(String userId, int points, String reason) {
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new RuntimeException("Utente non trovato"));
-        
-        user.addPoints(points);
-        userRepository.save(user);
+        pointsLedgerService.credit(userId, points, PointsEvent.Source.ADMIN, null, reason);
         
         // Send notification about points earned
-        notificationService.sendPointsEarnedNotification(user, points, reason);
+        notificationService.sendPointsEarnedNotification(userId, points, reason);
     }
     
-    // Deduct points from user
+    // Deduct points from user (only if the balance covers it)
     public boolean deductPoints(String userId, int points) {
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new RuntimeException("Utente non trovato"));
-        
-        if (user.getGameStatus().getTotalPoints() >= points) {
-            user.deductPoints(points);
-            userRepository.save(user);
-            return true;
-        }
-        
-        return false;
+        return pointsLedgerService.debit(userId, points, PointsEvent.Source.ADMIN, null, "Detrazione manuale") != null;
     }
     
     // Get user leaderboard
@@ -0,0 +1,308 @@
+package com.moveup.service;
+
+import com.moveup.model.Booking;
+import com.moveup.model.WaitlistEntry;
+import com.moveup.model.WaitlistEntry.WaitlistStatus;
+import com.moveup.repository.WaitlistEntryRepository;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lista d'attesa FIFO per slot già prenotati.
+ *
+ * Quando una prenotazione viene cancellata lo slot viene offerto al primo utente in coda
+ * con una scadenza breve. Le scadenze sono gestite da un timer wheel in memoria: allo scadere,
+ * o al rifiuto, l'offerta passa automaticamente al successivo. Il timer vive solo sul nodo che ha
+ * fatto l'offerta, quindi uno sweep periodico su Mongo fa scadere le offerte rimaste orfane.
+ */
+@Service
+public class WaitlistService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(WaitlistService.class);
+    
+    private static final List<WaitlistStatus> QUEUED_STATUSES = List.of(WaitlistStatus.WAITING, WaitlistStatus.OFFERED);
+    
+    @Value("${app.waitlist.offer-minutes:15}")
+    private long offerMinutes;
+    
+    @Autowired
+    private WaitlistEntryRepository waitlistEntryRepository;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private NotificationService notificationService;
+    
+    // Tick da 1s e 512 bucket: ~8.5 minuti per giro, le offerte più lunghe fanno più giri
+    private final HashedWheelTimer offerTimer = new HashedWheelTimer(1, TimeUnit.SECONDS, 512);
+    
+    // entryId -> timeout armato sul timer wheel
+    private final Map<String, Timeout> pendingOffers = new ConcurrentHashMap<>();
+    
+    @PostConstruct
+    public void createIndexes() {
+        try {
+            mongoTemplate.indexOps(WaitlistEntry.class)
+                .ensureIndex(new Index().on("status", Sort.Direction.ASC).on("offerExpiresAt", Sort.Direction.ASC));
+        } catch (Exception e) {
+            logger.error("Failed to create waitlist offer expiry index", e);
+        }
+    }
+    
+    /**
+     * Riarma i timer delle offerte ancora aperte dopo un riavvio
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void restorePendingOffers() {
+        List<WaitlistEntry> offered = waitlistEntryRepository.findByStatus(WaitlistStatus.OFFERED);
+        for (WaitlistEntry entry : offered) {
+            scheduleExpiry(entry);
+        }
+        if (!offered.isEmpty()) {
+            logger.info("Restored {} pending waitlist offers", offered.size());
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        offerTimer.stop();
+    }
+    
+    /**
+     * Fa scadere le offerte il cui timer è andato perso (nodo caduto dopo averle armate).
+     * La transizione OFFERED -> EXPIRED è condizionale, quindi timer e sweep su più nodi non si sovrappongono.
+     */
+    @Scheduled(fixedDelayString = "${app.waitlist.expiry-sweep-ms:60000}")
+    public void expireStaleOffers() {
+        Query query = new Query(Criteria.where("status").is(WaitlistStatus.OFFERED)
+                .and("offerExpiresAt").lt(LocalDateTime.now()));
+        query.fields().include("_id");
+        for (WaitlistEntry entry : mongoTemplate.find(query, WaitlistEntry.class)) {
+            cancelTimer(entry.getId());
+            expireOffer(entry.getId());
+        }
+    }
+    
+    // Join waitlist for a slot
+    public WaitlistEntry joinWaitlist(String userId, String lessonId, String instructorId,
+                                      LocalDateTime scheduledDate, LocalTime scheduledTime) {
+        if (scheduledDate.toLocalDate().atTime(scheduledTime).isBefore(LocalDateTime.now())) {
+            throw new RuntimeException("Lo slot richiesto è già passato");
+        }
+        
+        boolean alreadyQueued = waitlistEntryRepository
+            .existsByUserIdAndInstructorIdAndScheduledDateAndScheduledTimeAndStatusIn(
+                userId, instructorId, scheduledDate, scheduledTime, QUEUED_STATUSES);
+        if (alreadyQueued) {
+            throw new RuntimeException("Sei già in lista d'attesa per questo orario");
+        }
+        
+        return waitlistEntryRepository.save(
+            new WaitlistEntry(lessonId, instructorId, userId, scheduledDate, scheduledTime)
+        );
+    }
+    
+    // Leave waitlist (or give up a pending offer)
+    public void leaveWaitlist(String entryId, String userId) {
+        WaitlistEntry entry = getOwnedEntry(entryId, userId);
+        if (entry.getStatus() == WaitlistStatus.OFFERED) {
+            declineOffer(entryId, userId);
+            return;
+        }
+        if (transition(entryId, WaitlistStatus.WAITING, WaitlistStatus.CANCELLED) == null) {
+            throw new RuntimeException("Questa richiesta non è più in lista d'attesa");
+        }
+    }
+    
+    // Get waitlist entries for user
+    public List<WaitlistEntry> getEntriesForUser(String userId) {
+        return waitlistEntryRepository.findByUserIdOrderByCreatedAtDesc(userId);
+    }
+    
+    // Count users waiting for a slot
+    public long countWaiting(String instructorId, LocalDateTime scheduledDate, LocalTime scheduledTime) {
+        return waitlistEntryRepository.countByInstructorIdAndScheduledDateAndScheduledTimeAndStatus(
+            instructorId, scheduledDate, scheduledTime, WaitlistStatus.WAITING);
+    }
+    
+    /**
+     * Chiamato alla cancellazione di una prenotazione: offre lo slot al primo in coda
+     */
+    public void onSlotFreed(Booking booking) {
+        if (booking.getScheduledTime() == null) {
+            return;
+        }
+        offerNext(booking.getInstructorId(), booking.getScheduledDate(), booking.getScheduledTime());
+    }
+    
+    /**
+     * Verifica se lo slot è trattenuto da un'offerta attiva per un altro utente
+     */
+    public boolean isHeldForAnotherUser(String instructorId, LocalDateTime scheduledDate,
+                                        LocalTime scheduledTime, String userId) {
+        if (scheduledTime == null) {
+            return false;
+        }
+        return waitlistEntryRepository
+            .findByInstructorIdAndScheduledDateAndScheduledTimeAndStatusIn(
+                instructorId, scheduledDate, scheduledTime, List.of(WaitlistStatus.OFFERED))
+            .stream()
+            .anyMatch(entry -> entry.isOfferActive() && !entry.getUserId().equals(userId));
+    }
+    
+    /**
+     * Accetta l'offerta: l'entry passa ad ACCEPTED e il timer viene annullato.
+     * La prenotazione vera e propria viene creata dal chiamante (BookingService).
+     */
+    public WaitlistEntry acceptOffer(String entryId, String userId) {
+        WaitlistEntry entry = getOwnedEntry(entryId, userId);
+        if (!entry.isOfferActive()) {
+            throw new RuntimeException("L'offerta non è più valida");
+        }
+        
+        WaitlistEntry accepted = transition(entryId, WaitlistStatus.OFFERED, WaitlistStatus.ACCEPTED);
+        if (accepted == null) {
+            throw new RuntimeException("L'offerta non è più valida");
+        }
+        cancelTimer(entryId);
+        return accepted;
+    }
+    
+    /**
+     * Collega la prenotazione creata all'entry accettata
+     */
+    public void attachBooking(String entryId, String bookingId) {
+        mongoTemplate.updateFirst(
+            new Query(Criteria.where("_id").is(entryId)),
+            new Update().set("bookingId", bookingId),
+            WaitlistEntry.class
+        );
+    }
+    
+    /**
+     * La prenotazione dall'offerta non è andata a buon fine: lo slot passa al successivo
+     */
+    public void releaseAcceptedOffer(WaitlistEntry entry) {
+        if (transition(entry.getId(), WaitlistStatus.ACCEPTED, WaitlistStatus.CANCELLED) != null) {
+            offerNext(entry.getInstructorId(), entry.getScheduledDate(), entry.getScheduledTime());
+        }
+    }
+    
+    // Decline offer: cascade to next user
+    public void declineOffer(String entryId, String userId) {
+        WaitlistEntry entry = getOwnedEntry(entryId, userId);
+        if (transition(entryId, WaitlistStatus.OFFERED, WaitlistStatus.DECLINED) == null) {
+            throw new RuntimeException("L'offerta non è più valida");
+        }
+        cancelTimer(entryId);
+        offerNext(entry.getInstructorId(), entry.getScheduledDate(), entry.getScheduledTime());
+    }
+    
+    // Helper methods
+    
+    private void offerNext(String instructorId, LocalDateTime scheduledDate, LocalTime scheduledTime) {
+        LocalDateTime now = LocalDateTime.now();
+        if (scheduledDate.toLocalDate().atTime(scheduledTime).isBefore(now)) {
+            return; // slot già passato: nessuna offerta
+        }
+        
+        // Primo in coda (FIFO), preso in modo atomico per evitare doppie offerte tra nodi
+        Query query = new Query(Criteria.where("instructorId").is(instructorId)
+                .and("scheduledDate").is(scheduledDate)
+                .and("scheduledTime").is(scheduledTime)
+                .and("status").is(WaitlistStatus.WAITING))
+            .with(Sort.by(Sort.Direction.ASC, "createdAt"));
+        
+        LocalDateTime expiresAt = now.plusMinutes(offerMinutes);
+        Update update = new Update()
+                .set("status", WaitlistStatus.OFFERED)
+                .set("offeredAt", now)
+                .set("offerExpiresAt", expiresAt);
+        
+        WaitlistEntry next = mongoTemplate.findAndModify(
+            query, update, FindAndModifyOptions.options().returnNew(true), WaitlistEntry.class
+        );
+        if (next == null) {
+            return; // coda vuota
+        }
+        
+        scheduleExpiry(next);
+        notificationService.sendWaitlistOfferNotification(next.getUserId(), next.getId(), expiresAt);
+        logger.info("Waitlist offer {} sent to user {} for instructor {} at {} {}",
+            next.getId(), next.getUserId(), instructorId, scheduledDate.toLocalDate(), scheduledTime);
+    }
+    
+    private void scheduleExpiry(WaitlistEntry entry) {
+        long delayMs = Math.max(0, Duration.between(LocalDateTime.now(), entry.getOfferExpiresAt()).toMillis());
+        String entryId = entry.getId();
+        
+        Timeout timeout = offerTimer.newTimeout(t -> expireOffer(entryId), delayMs, TimeUnit.MILLISECONDS);
+        Timeout previous = pendingOffers.put(entryId, timeout);
+        if (previous != null) {
+            previous.cancel();
+        }
+    }
+    
+    private void expireOffer(String entryId) {
+        pendingOffers.remove(entryId);
+        try {
+            WaitlistEntry expired = transition(entryId, WaitlistStatus.OFFERED, WaitlistStatus.EXPIRED);
+            if (expired != null) {
+                logger.info("Waitlist offer {} expired, cascading to next user", entryId);
+                offerNext(expired.getInstructorId(), expired.getScheduledDate(), expired.getScheduledTime());
+            }
+        } catch (Exception e) {
+            logger.error("Failed to expire waitlist offer {}", entryId, e);
+        }
+    }
+    
+    private void cancelTimer(String entryId) {
+        Timeout timeout = pendingOffers.remove(entryId);
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+    
+    // Transizione di stato condizionale: null se l'entry non era nello stato atteso
+    private WaitlistEntry transition(String entryId, WaitlistStatus from, WaitlistStatus to) {
+        Query query = new Query(Criteria.where("_id").is(entryId).and("status").is(from));
+        return mongoTemplate.findAndModify(
+            query, new Update().set("status", to), FindAndModifyOptions.options().returnNew(true), WaitlistEntry.class
+        );
+    }
+    
+    private WaitlistEntry getOwnedEntry(String entryId, String userId) {
+        WaitlistEntry entry = waitlistEntryRepository.findById(entryId)
+                .orElseThrow(() -> new RuntimeException("Richiesta lista d'attesa non trovata"));
+        if (userId != null && !entry.getUserId().equals(userId)) {
+            throw new RuntimeException("Non sei autorizzato a modificare questa richiesta");
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,232 @@
+package com.moveup.service;
+
+import com.moveup.model.Transaction;
+import com.moveup.model.Wallet;
+import com.moveup.model.WalletSnapshot;
+import com.moveup.repository.TransactionRepository;
+import com.moveup.repository.WalletRepository;
+import com.moveup.repository.WalletSnapshotRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.BeforeConvertEvent;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Ledger append-only dei wallet (collection transactions) con snapshot periodici.
+ *
+ * I totali di un wallet sono l'ultimo snapshot più le voci successive, quindi il costo
+ * dipende dall'attività recente e non dall'anzianità del trainer. Gli snapshot includono
+ * solo voci più vecchie di un margine, così una voce con sequence già assegnata ma non
+ * ancora inserita non resta fuori dal conteggio. Le voci precedenti al ledger, senza sequence,
+ * sono riassunte nello snapshot di apertura (sequence 0), che non viene mai cancellato.
+ */
+@Service
+public class WalletLedgerService extends AbstractMongoEventListener<Transaction> {
+    
+    private static final Logger logger = LoggerFactory.getLogger(WalletLedgerService.class);
+    
+    @Value("${app.wallet.snapshot-lag-minutes:10}")
+    private long snapshotLagMinutes;
+    
+    @Autowired
+    private TransactionRepository transactionRepository;
+    
+    @Autowired
+    private WalletSnapshotRepository walletSnapshotRepository;
+    
+    @Autowired
+    private WalletRepository walletRepository;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @PostConstruct
+    public void init() {
+        try {
+            mongoTemplate.indexOps(Transaction.class)
+                    .ensureIndex(new Index().on("walletId", Sort.Direction.ASC).on("sequence", Sort.Direction.ASC));
+            mongoTemplate.indexOps(Transaction.class)
+                    .ensureIndex(new Index().on("ledgerKey", Sort.Direction.ASC).unique().sparse());
+            mongoTemplate.indexOps(WalletSnapshot.class)
+                    .ensureIndex(new Index().on("walletId", Sort.Direction.ASC).on("sequence", Sort.Direction.DESC));
+        } catch (Exception e) {
+            logger.error("Failed to ensure wallet ledger indexes", e);
+        }
+    }
+    
+    /**
+     * Saldo e totali correnti del wallet: ultimo snapshot + coda del ledger
+     */
+    public WalletSnapshot getTotals(String walletId) {
+        WalletSnapshot last = getLastSnapshot(walletId);
+        return last.plus(transactionRepository.findByWalletIdAndSequenceGreaterThanOrderBySequenceAsc(
+            walletId, last.getSequence()));
+    }
+    
+    /**
+     * Saldo e totali del wallet fino alla voce "sequence" inclusa (riconciliazione dei payout),
+     * contando anche le voci già applicate al saldo e non ancora copiate in transactions
+     */
+    public WalletSnapshot getTotalsThrough(Wallet wallet, long sequence) {
+        WalletSnapshot last = getLastSnapshot(wallet.getId());
+        if (last.getSequence() > sequence) {
+            // Lo snapshot include voci oltre il limite: si ricalcola dall'apertura del ledger
+            last = getOpeningSnapshot(wallet.getId());
+        }
+        
+        Query query = new Query(Criteria.where("walletId").is(wallet.getId())
+                .and("sequence").gt(last.getSequence()).lte(sequence))
+                .with(Sort.by("sequence"));
+        List<Transaction> entries = mongoTemplate.find(query, Transaction.class);
+        
+        Set<String> copied = new HashSet<>();
+        for (Transaction entry : entries) {
+            copied.add(entry.getLedgerKey());
+        }
+        if (wallet.getPendingEntries() != null) {
+            for (Transaction pending : wallet.getPendingEntries()) {
+                if (pending.getSequence() > last.getSequence() && pending.getSequence() <= sequence
+                        && !copied.contains(pending.getLedgerKey())) {
+                    entries.add(pending);
+                }
+            }
+        }
+        return last.plus(entries);
+    }
+    
+    /**
+     * Snapshot notturno di tutti i wallet con voci nuove
+     */
+    @Scheduled(cron = "${app.wallet.snapshot-cron:0 30 3 * * *}")
+    public void takeSnapshots() {
+        int created = 0;
+        for (Wallet wallet : walletRepository.findAll()) {
+            try {
+                if (takeSnapshot(wallet.getId()) != null) {
+                    created++;
+                }
+            } catch (Exception e) {
+                logger.error("Failed to snapshot wallet {}", wallet.getId(), e);
+            }
+        }
+        logger.info("Wallet ledger snapshots created: {}", created);
+    }
+    
+    /**
+     * Crea uno snapshot con le voci consolidate; null se non ci sono voci nuove
+     */
+    public WalletSnapshot takeSnapshot(String walletId) {
+        WalletSnapshot last = getLastSnapshot(walletId);
+        LocalDateTime cutoff = LocalDateTime.now().minusMinutes(snapshotLagMinutes);
+        
+        List<Transaction> settled = new ArrayList<>();
+        for (Transaction entry : transactionRepository.findByWalletIdAndSequenceGreaterThanOrderBySequenceAsc(
+                walletId, last.getSequence())) {
+            if (entry.getCreatedAt() != null && !entry.getCreatedAt().isBefore(cutoff)) {
+                break;
+            }
+            settled.add(entry);
+        }
+        if (settled.isEmpty()) {
+            return null;
+        }
+        
+        WalletSnapshot snapshot = walletSnapshotRepository.save(last.plus(settled));
+        if (last.getId() != null) {
+            // Si tiene lo snapshot precedente come riferimento (e quello di apertura), gli altri non servono
+            walletSnapshotRepository.deleteByWalletIdAndSequenceBetween(walletId, 0L, last.getSequence());
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Migrazione dei wallet con voci precedenti al ledger (senza sequence), che la coda
+     * dopo uno snapshot non vede: vengono riassunte nello snapshot di apertura a sequence 0.
+     * Le voci legacy non cambiano più e l'id dello snapshot è fisso, quindi più nodi possono
+     * eseguirla insieme; ogni wallet viene controllato una volta sola.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void openLegacyLedgers() {
+        Query pending = new Query(Criteria.where("legacyHistory").exists(false));
+        pending.fields().include("_id");
+        
+        int opened = 0;
+        for (Wallet wallet : mongoTemplate.find(pending, Wallet.class)) {
+            try {
+                if (openLedger(wallet.getId())) {
+                    opened++;
+                }
+            } catch (Exception e) {
+                logger.error("Failed to open ledger of wallet {}", wallet.getId(), e);
+            }
+        }
+        if (opened > 0) {
+            logger.info("Opening snapshots created for {} wallets with legacy transactions", opened);
+        }
+    }
+    
+    /**
+     * Crea lo snapshot di apertura del wallet se ha voci senza sequence; true se ne aveva
+     */
+    public boolean openLedger(String walletId) {
+        Query legacy = new Query(Criteria.where("walletId").is(walletId).and("sequence").exists(false))
+                .with(Sort.by("createdAt"));
+        List<Transaction> entries = mongoTemplate.find(legacy, Transaction.class);
+        
+        if (!entries.isEmpty() && !walletSnapshotRepository.existsById(WalletSnapshot.openingId(walletId))) {
+            try {
+                walletSnapshotRepository.insert(WalletSnapshot.opening(walletId, entries));
+            } catch (DuplicateKeyException e) {
+                // Creato in parallelo da un altro nodo
+            }
+            // Gli snapshot presi prima della migrazione non includono le voci legacy
+            walletSnapshotRepository.deleteByWalletIdAndSequenceGreaterThan(walletId, 0L);
+        }
+        
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(walletId)),
+                new Update().set("legacyHistory", !entries.isEmpty()), Wallet.class);
+        return !entries.isEmpty();
+    }
+    
+    /**
+     * Il ledger è append-only: una voce già inserita non può essere salvata di nuovo
+     */
+    @Override
+    public void onBeforeConvert(BeforeConvertEvent<Transaction> event) {
+        if (event.getSource().getId() != null) {
+            throw new IllegalStateException("Le voci del ledger non possono essere modificate: " + event.getSource().getId());
+        }
+    }
+    
+    // Helper methods
+    
+    private WalletSnapshot getOpeningSnapshot(String walletId) {
+        return walletSnapshotRepository.findById(WalletSnapshot.openingId(walletId))
+                .orElseGet(() -> new WalletSnapshot(walletId));
+    }
+    
+    private WalletSnapshot getLastSnapshot(String walletId) {
+        return walletSnapshotRepository.findFirstByWalletIdOrderBySequenceDesc(walletId)
+                .orElseGet(() -> new WalletSnapshot(walletId));
+    }
+}
@@ -1,17 +1,32 @@
 package com.moveup.service;
 
+import com.moveup.model.Money;
 import com.moveup.model.Transaction;
 import com.moveup.model.Wallet;
 import com.moveup.repository.TransactionRepository;
 import com.moveup.repository.WalletRepository;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import jakarta.annotation.PostConstruct;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.UUID;
@@ -20,23 +35,61 @@ import java.util.UUID;
 @Transactional
 public class WalletService {
     
+    private static final Logger logger = LoggerFactory.getLogger(WalletService.class);
+    
     @Autowired
     private WalletRepository walletRepository;
     
     @Autowired
     private TransactionRepository transactionRepository;
     
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private WalletLedgerService walletLedgerService;
+    
+    @Value("${app.wallet.pending-settle-after-ms:60000}")
+    private long pendingSettleAfterMs;
+    
     @Value("${app.platform.fee-percentage:0.0}")
     private double platformFeePercentage;
     
+    // Commissione in basis point (0.10 -> 1000): i calcoli sugli importi restano interi
+    private long platformFeeBasisPoints;
+    
+    @PostConstruct
+    public void init() {
+        platformFeeBasisPoints = Math.round(platformFeePercentage * 10000);
+        
+        // Un solo wallet per utente: la creazione concorrente si risolve sul DuplicateKeyException
+        try {
+            mongoTemplate.indexOps(Wallet.class)
+                    .ensureIndex(new Index().on("userId", Sort.Direction.ASC).unique());
+        } catch (Exception e) {
+            logger.error("Failed to ensure unique userId index on wallets", e);
+        }
+        
+        try {
+            mongoTemplate.indexOps(Wallet.class)
+                    .ensureIndex(new Index().on("pendingEntries.createdAt", Sort.Direction.ASC).sparse());
+        } catch (Exception e) {
+            logger.error("Failed to ensure pending entries index on wallets", e);
+        }
+    }
+    
     /**
      * Get or create wallet for user
      */
     public Wallet getOrCreateWallet(String userId) {
         return walletRepository.findByUserId(userId)
             .orElseGet(() -> {
-                Wallet wallet = new Wallet(userId);
-                return walletRepository.save(wallet);
+                try {
+                    return walletRepository.insert(new Wallet(userId));
+                } catch (DuplicateKeyException e) {
+                    // Creato in parallelo da un'altra richiesta
+                    return getWalletByUserId(userId);
+                }
             });
     }
     
@@ -52,7 +105,7 @@ public class WalletService {
      * Setup bank account (IBAN)
      */
     public Wallet setupBankAccount(String userId, String iban, String accountHolderName, String country) {
-        Wallet wallet = getOrCreateWallet(userId);
+        getOrCreateWallet(userId);
         
         // Validate IBAN format (basic validation)
         if (!isValidIban(iban)) {
@@ -62,12 +115,11 @@ public class WalletService {
         // Mask IBAN for display (e.g., IT60 •••• •••• •••• 3456)
         String maskedIban = maskIban(iban);
         
-        wallet.setMaskedIban(maskedIban);
-        wallet.setAccountHolderName(accountHolderName);
-        wallet.setCountry(country);
-        wallet.setBankAccountSetup(true);
-        
-        return walletRepository.save(wallet);
+        return updateWallet(userId, new Update()
+            .set("maskedIban", maskedIban)
+            .set("accountHolderName", accountHolderName)
+            .set("country", country)
+            .set("bankAccountSetup", true));
     }
     
     /**
@@ -75,24 +127,35 @@ public class WalletService {
      */
     public Transaction creditWallet(
             String userId, 
-            Double amount, 
+            Money amount, 
             String description,
             String bookingId,
             String customerId,
             String customerName,
-            Double grossAmount,
-            Double platformFee
+            Money grossAmount,
+            Money platformFee
     ) {
-        Wallet wallet = getOrCreateWallet(userId);
-        
-        // Credit wallet
-        wallet.credit(amount);
-        wallet.incrementLessonCount();
-        walletRepository.save(wallet);
+        return creditWallet(userId, amount, description, bookingId, customerId, customerName, grossAmount, platformFee, null);
+    }
+    
+    /**
+     * Credit wallet collegato al PaymentIntent incassato (usato dalla riconciliazione con Stripe)
+     */
+    public Transaction creditWallet(
+            String userId, 
+            Money amount, 
+            String description,
+            String bookingId,
+            String customerId,
+            String customerName,
+            Money grossAmount,
+            Money platformFee,
+            String stripePaymentIntentId
+    ) {
+        validateAmount(amount);
+        getOrCreateWallet(userId);
         
-        // Create transaction
         Transaction transaction = new Transaction();
-        transaction.setWalletId(wallet.getId());
         transaction.setType(Transaction.TransactionType.LESSON_PAYMENT);
         transaction.setAmount(amount);
         transaction.setNetAmount(amount);
@@ -102,44 +165,103 @@ public class WalletService {
         transaction.setBookingId(bookingId);
         transaction.setCustomerId(customerId);
         transaction.setCustomerName(customerName);
-        transaction.setStatus(Transaction.TransactionStatus.COMPLETED);
-        transaction.complete();
+        transaction.setStripePaymentIntentId(stripePaymentIntentId);
         
-        return transactionRepository.save(transaction);
+        // Credit wallet: $inc lato server, nessun accredito concorrente va perso
+        Transaction posted = postEntry(userId, null, new Update()
+            .inc("balance.cents", amount.getCents())
+            .inc("totalEarnings.cents", amount.getCents())
+            .inc("totalLessons", 1), transaction, Transaction.ACCOUNT_PLATFORM_CLEARING, true, amount);
+        if (posted == null) {
+            throw new RuntimeException("Wallet non trovato per l'utente");
+        }
+        return posted;
     }
     
     /**
      * Debit wallet (withdraw money)
      */
-    public Transaction debitWallet(String userId, Double amount, String description) {
-        Wallet wallet = getWalletByUserId(userId);
-        
-        // Check sufficient balance
-        if (wallet.getBalance() < amount) {
-            throw new RuntimeException("Saldo insufficiente");
-        }
-        
-        // Debit wallet
-        wallet.debit(amount);
-        walletRepository.save(wallet);
+    public Transaction debitWallet(String userId, Money amount, String description) {
+        return debitWallet(userId, amount, description, null);
+    }
+    
+    /**
+     * Debit wallet for a Stripe transfer already executed (payout batch)
+     */
+    public Transaction debitWallet(String userId, Money amount, String description, String stripeTransferId) {
+        validateAmount(amount);
         
-        // Create transaction
         Transaction transaction = new Transaction();
-        transaction.setWalletId(wallet.getId());
         transaction.setType(Transaction.TransactionType.PAYOUT);
         transaction.setAmount(amount);
         transaction.setNetAmount(amount);
         transaction.setDescription(description);
-        transaction.setStatus(Transaction.TransactionStatus.COMPLETED);
-        transaction.complete();
+        transaction.setStripeTransferId(stripeTransferId);
+        
+        // Debit wallet: addebito condizionato a balance >= amount, applicato atomicamente
+        Transaction posted = postEntry(userId, Criteria.where("balance.cents").gte(amount.getCents()), new Update()
+            .inc("balance.cents", -amount.getCents())
+            .inc("totalWithdrawn.cents", amount.getCents()), transaction, Transaction.ACCOUNT_BANK_PAYOUT, false, amount);
+        
+        if (posted == null) {
+            // Distingue wallet inesistente da saldo insufficiente
+            getWalletByUserId(userId);
+            throw new RuntimeException("Saldo insufficiente");
+        }
+        return posted;
+    }
+    
+    /**
+     * Copia nel ledger le voci rimaste nel wallet (processo caduto tra l'update del saldo e l'insert)
+     */
+    @Scheduled(fixedDelayString = "${app.wallet.pending-sweep-ms:30000}")
+    public void settlePendingEntries() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(Duration.ofMillis(pendingSettleAfterMs));
+        int settled = 0;
         
-        return transactionRepository.save(transaction);
+        for (Wallet wallet : mongoTemplate.find(new Query(Criteria.where("pendingEntries.createdAt").lt(cutoff)), Wallet.class)) {
+            for (Transaction entry : wallet.getPendingEntries()) {
+                if (entry.getCreatedAt() == null || !entry.getCreatedAt().isBefore(cutoff)) {
+                    continue;
+                }
+                try {
+                    moveToLedger(wallet.getId(), entry);
+                    settled++;
+                } catch (Exception e) {
+                    logger.error("Failed to settle ledger entry {}", entry.getLedgerKey(), e);
+                }
+            }
+        }
+        
+        if (settled > 0) {
+            logger.warn("Settled {} wallet ledger entries left pending", settled);
+        }
+    }
+    
+    /**
+     * Voce PAYOUT del transfer Stripe indicato, già nel ledger o ancora in attesa nel wallet (null se assente)
+     */
+    public Transaction findEntryByStripeTransferId(String walletId, String stripeTransferId) {
+        Transaction entry = transactionRepository.findByStripeTransferId(stripeTransferId);
+        if (entry != null) {
+            return entry;
+        }
+        
+        Wallet wallet = mongoTemplate.findOne(new Query(Criteria.where("_id").is(walletId)
+                .and("pendingEntries.stripeTransferId").is(stripeTransferId)), Wallet.class);
+        if (wallet == null) {
+            return null;
+        }
+        return wallet.getPendingEntries().stream()
+                .filter(pending -> stripeTransferId.equals(pending.getStripeTransferId()))
+                .findFirst()
+                .orElse(null);
     }
     
     /**
      * Get wallet balance
      */
-    public Double getBalance(String userId) {
+    public Money getBalance(String userId) {
         Wallet wallet = getWalletByUserId(userId);
         return wallet.getBalance();
     }
@@ -180,24 +302,17 @@ public class WalletService {
     /**
      * Calculate total earnings
      */
-    public Double calculateTotalEarnings(String userId) {
+    public Money calculateTotalEarnings(String userId) {
         Wallet wallet = getWalletByUserId(userId);
-        List<Transaction> completedPayments = transactionRepository
-            .findCompletedLessonPaymentsByWalletId(wallet.getId());
-        
-        return completedPayments.stream()
-            .mapToDouble(Transaction::getNetAmount)
-            .sum();
+        return walletLedgerService.getTotals(wallet.getId()).getTotalEarnings();
     }
     
     /**
      * Generate pass update token
      */
     public String generatePassUpdateToken(String userId) {
-        Wallet wallet = getWalletByUserId(userId);
         String token = UUID.randomUUID().toString();
-        wallet.setPassUpdateToken(token);
-        walletRepository.save(wallet);
+        updateWallet(userId, new Update().set("passUpdateToken", token));
         return token;
     }
     
@@ -205,13 +320,104 @@ public class WalletService {
      * Mark pass as added to Apple Wallet
      */
     public void markPassAdded(String userId) {
-        Wallet wallet = getWalletByUserId(userId);
-        wallet.setPassAddedToWallet(true);
-        walletRepository.save(wallet);
+        updateWallet(userId, new Update().set("passAddedToWallet", true));
     }
     
     // Helper methods
     
+    /**
+     * Registra una voce del ledger insieme al suo effetto sul saldo.
+     * La sequence viene riservata prima; la voce entra in wallet.pendingEntries con lo stesso update
+     * che modifica il saldo (un solo documento, quindi atomico) e poi viene copiata in transactions.
+     * Ritorna null se il wallet non esiste o non soddisfa la condizione.
+     */
+    private Transaction postEntry(String userId, Criteria condition, Update balanceUpdate, Transaction entry,
+                                  String counterAccount, boolean credit, Money amount) {
+        Wallet reserved = updateWallet(userId, new Update().inc("ledgerSequence", 1));
+        String walletAccount = Transaction.ACCOUNT_WALLET_PREFIX + reserved.getId();
+        
+        entry.setWalletId(reserved.getId());
+        entry.post(reserved.getLedgerSequence(),
+            credit ? counterAccount : walletAccount,
+            credit ? walletAccount : counterAccount, amount);
+        entry.setStatus(Transaction.TransactionStatus.COMPLETED);
+        entry.complete();
+        
+        Query query = new Query(Criteria.where("userId").is(userId));
+        if (condition != null) {
+            query.addCriteria(condition);
+        }
+        Wallet wallet = mongoTemplate.findAndModify(
+            query,
+            versioned(balanceUpdate.push("pendingEntries", entry)),
+            FindAndModifyOptions.options().returnNew(true),
+            Wallet.class
+        );
+        if (wallet == null) {
+            return null; // la sequence riservata resta un buco nel ledger, senza effetti sui totali
+        }
+        
+        try {
+            return moveToLedger(wallet.getId(), entry);
+        } catch (Exception e) {
+            // Il saldo è già aggiornato: la copia nel ledger la completa settlePendingEntries
+            logger.warn("Ledger entry {} left pending: {}", entry.getLedgerKey(), e.getMessage());
+            return entry;
+        }
+    }
+    
+    /**
+     * Inserisce la voce in transactions (idempotente sull'indice unico di ledgerKey) e la toglie dal wallet
+     */
+    private Transaction moveToLedger(String walletId, Transaction entry) {
+        Transaction stored;
+        try {
+            stored = transactionRepository.insert(entry);
+        } catch (DuplicateKeyException e) {
+            // Già copiata dalla richiesta originale o da un giro precedente del recupero
+            stored = transactionRepository.findByLedgerKey(entry.getLedgerKey());
+            if (stored == null) {
+                // Conflitto su un altro indice unico (stesso transfer Stripe già registrato): il saldo
+                // diverge dal ledger e la riconciliazione del payout lo segnala
+                logger.error("Ledger entry {} rejected as duplicate: {}", entry.getLedgerKey(), e.getMessage());
+                stored = entry;
+            }
+        }
+        
+        mongoTemplate.updateFirst(
+            new Query(Criteria.where("_id").is(walletId)),
+            new Update().pull("pendingEntries", new Document("ledgerKey", entry.getLedgerKey())),
+            Wallet.class
+        );
+        return stored;
+    }
+    
+    /**
+     * Update atomico sul wallet dell'utente (versione e updatedAt sempre aggiornati)
+     */
+    private Wallet updateWallet(String userId, Update update) {
+        Wallet wallet = mongoTemplate.findAndModify(
+            new Query(Criteria.where("userId").is(userId)),
+            versioned(update),
+            FindAndModifyOptions.options().returnNew(true),
+            Wallet.class
+        );
+        if (wallet == null) {
+            throw new RuntimeException("Wallet non trovato per l'utente");
+        }
+        return wallet;
+    }
+    
+    private Update versioned(Update update) {
+        return update.inc("version", 1).set("updatedAt", LocalDateTime.now());
+    }
+    
+    private void validateAmount(Money amount) {
+        if (amount == null || !amount.isPositive()) {
+            throw new RuntimeException("Importo non valido");
+        }
+    }
+    
     private boolean isValidIban(String iban) {
         // Remove spaces
         String cleanIban = iban.replaceAll("\\s", "");
@@ -254,15 +460,14 @@ public class WalletService {
     /**
      * Calculate platform fee based on gross amount
      */
-    public Double calculatePlatformFee(Double grossAmount) {
-        return grossAmount * platformFeePercentage;
+    public Money calculatePlatformFee(Money grossAmount) {
+        return grossAmount.percentage(platformFeeBasisPoints);
     }
     
     /**
      * Calculate net amount (after fee)
      */
-    public Double calculateNetAmount(Double grossAmount) {
-        Double fee = calculatePlatformFee(grossAmount);
-        return grossAmount - fee;
+    public Money calculateNetAmount(Money grossAmount) {
+        return grossAmount.minus(calculatePlatformFee(grossAmount));
     }
-}
+}
\ No newline at end of file
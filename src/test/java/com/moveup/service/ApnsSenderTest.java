@@ -0,0 +1,117 @@
+package com.moveup.service;
+
+import com.eatthepath.pushy.apns.util.SimpleApnsPushNotification;
+import com.moveup.model.Booking;
+import com.moveup.service.ApnsSender.Outcome;
+import com.moveup.support.LocalApnsServer;
+import com.moveup.support.MongoContainerTest;
+import com.moveup.support.TestMetricsConfig;
+import com.moveup.support.TestMongoConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * ApnsSender contro un MockApnsServer locale: retry con backoff sui rifiuti temporanei,
+ * limite di tentativi e rimozione dei token rifiutati come Unregistered.
+ */
+@DataMongoTest
+@Import({ApnsSender.class, TestMetricsConfig.class, TestMongoConfig.class})
+class ApnsSenderTest extends MongoContainerTest {
+    
+    private static final int MAX_ATTEMPTS = 4;
+    
+    // Avviato prima del contesto: host, porta e file PEM diventano proprietà di ApnsSender
+    private static final LocalApnsServer APNS = LocalApnsServer.start(2);
+    
+    @Autowired
+    private ApnsSender apnsSender;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @DynamicPropertySource
+    static void apnsProperties(DynamicPropertyRegistry registry) {
+        registry.add("apple.apns.host", () -> LocalApnsServer.HOST);
+        registry.add("apple.apns.port", APNS::getPort);
+        registry.add("apple.apns.trusted-certificate-path", () -> APNS.getCertificateFile().getAbsolutePath());
+        registry.add("apple.apns.key.path", () -> APNS.getSigningKeyFile().getAbsolutePath());
+        registry.add("apple.apns.key.id", () -> LocalApnsServer.KEY_ID);
+        registry.add("apple.apns.team.id", () -> LocalApnsServer.TEAM_ID);
+        registry.add("apple.apns.max-attempts", () -> MAX_ATTEMPTS);
+        registry.add("apple.apns.retry-base-ms", () -> 10);
+        registry.add("apple.apns.retry-max-ms", () -> 50);
+    }
+    
+    @AfterAll
+    static void stopServer() {
+        APNS.stop();
+    }
+    
+    @Test
+    void acceptedNotificationIsSentOnce() throws Exception {
+        String token = "device-" + UUID.randomUUID();
+        
+        assertThat(apnsSender.isEnabled()).isTrue();
+        assertThat(send(token)).isEqualTo(Outcome.ACCEPTED);
+        assertThat(APNS.getAttempts(token)).isEqualTo(1);
+    }
+    
+    @Test
+    void temporaryRejectionsAreRetriedUntilAccepted() throws Exception {
+        String token = "throttled-" + UUID.randomUUID();
+        double retriesBefore = meterRegistry.counter("apns.retries").count();
+        
+        assertThat(send(token)).isEqualTo(Outcome.ACCEPTED);
+        assertThat(APNS.getAttempts(token)).isEqualTo(3);
+        assertThat(meterRegistry.counter("apns.retries").count() - retriesBefore).isEqualTo(2);
+    }
+    
+    @Test
+    void retriesStopAtMaxAttempts() throws Exception {
+        String token = "overloaded-" + UUID.randomUUID();
+        
+        assertThat(send(token)).isEqualTo(Outcome.FAILED);
+        assertThat(APNS.getAttempts(token)).isEqualTo(MAX_ATTEMPTS);
+    }
+    
+    @Test
+    void unregisteredTokenIsPrunedFromLiveActivities() throws Exception {
+        String token = "unregistered-" + UUID.randomUUID();
+        String collection = mongoTemplate.getCollectionName(Booking.class);
+        String bookingId = UUID.randomUUID().toString();
+        mongoTemplate.insert(new Document("_id", bookingId)
+            .append("liveActivity", new Document("activityId", "activity-1").append("pushToken", token)), collection);
+        
+        assertThat(send(token)).isEqualTo(Outcome.INVALID_TOKEN);
+        assertThat(APNS.getAttempts(token)).isEqualTo(1);
+        
+        Document liveActivity = mongoTemplate.findOne(new Query(Criteria.where("_id").is(bookingId)),
+            Document.class, collection).get("liveActivity", Document.class);
+        assertThat(liveActivity).doesNotContainKey("pushToken").containsEntry("activityId", "activity-1");
+    }
+    
+    // Helper methods
+    
+    private Outcome send(String token) throws Exception {
+        return apnsSender.send(new SimpleApnsPushNotification(token, "com.moveup.app.push-type.liveactivity", "{}"))
+            .get(30, TimeUnit.SECONDS);
+    }
+}
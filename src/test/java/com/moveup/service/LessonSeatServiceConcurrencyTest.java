@@ -0,0 +1,112 @@
+package com.moveup.service;
+
+import com.moveup.model.Lesson;
+import com.moveup.model.LessonSeats;
+import com.moveup.support.ConcurrentCalls;
+import com.moveup.support.MongoContainerTest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Load test dei posti delle lezioni di gruppo: molte prenotazioni concorrenti, da due "nodi"
+ * (istanze di LessonSeatService con cache locale separata), non superano mai la capienza.
+ */
+@DataMongoTest
+@Import(LessonSeatService.class)
+class LessonSeatServiceConcurrencyTest extends MongoContainerTest {
+    
+    private static final int THREADS = 64;
+    
+    @Autowired
+    private LessonSeatService seatService;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    private LessonSeatService otherNode;
+    private Lesson lesson;
+    private LocalDateTime date;
+    private LocalTime time;
+    
+    @BeforeEach
+    void setUp() {
+        mongoTemplate.dropCollection(LessonSeats.class);
+        
+        // Il bean è condiviso tra i test del contesto: si riparte dal default
+        ReflectionTestUtils.setField(seatService, "soldOutCacheMs", 2000L);
+        otherNode = new LessonSeatService();
+        ReflectionTestUtils.setField(otherNode, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(otherNode, "soldOutCacheMs", 2000L);
+        
+        lesson = new Lesson();
+        lesson.setId(UUID.randomUUID().toString());
+        lesson.setMaxParticipants(20);
+        date = LocalDate.now().plusDays(3).atStartOfDay();
+        time = LocalTime.of(18, 30);
+    }
+    
+    @Test
+    void thousandConcurrentBookingsFillExactlyTwentySeats() throws Exception {
+        List<Boolean> results = runConcurrently(1000, i -> (i % 2 == 0 ? seatService : otherNode)
+            .reserveSeat(lesson, date, time));
+        
+        assertThat(results.stream().filter(Boolean::booleanValue).count()).isEqualTo(20);
+        assertThat(seatService.getSeatsLeft(lesson, date, time)).isZero();
+    }
+    
+    @Test
+    void releasedSeatsAreResoldExactlyOnce() throws Exception {
+        // Nessuna cache "esaurito": i posti liberati devono essere visibili subito a entrambi i nodi
+        ReflectionTestUtils.setField(seatService, "soldOutCacheMs", 0L);
+        ReflectionTestUtils.setField(otherNode, "soldOutCacheMs", 0L);
+        
+        for (int i = 0; i < 20; i++) {
+            assertThat(seatService.reserveSeat(lesson, date, time)).isTrue();
+        }
+        
+        // 5 cancellazioni e 200 nuove richieste in parallelo
+        List<Boolean> results = runConcurrently(205, i -> {
+            if (i < 5) {
+                return seatService.releaseSeat(lesson.getId(), date, time) != null;
+            }
+            return (i % 2 == 0 ? seatService : otherNode).reserveSeat(lesson, date, time);
+        });
+        
+        long releases = results.subList(0, 5).stream().filter(Boolean::booleanValue).count();
+        long reserved = results.subList(5, results.size()).stream().filter(Boolean::booleanValue).count();
+        int seatsLeft = seatService.getSeatsLeft(lesson, date, time);
+        
+        assertThat(releases).isEqualTo(5);
+        assertThat(reserved).isLessThanOrEqualTo(5);
+        assertThat(seatsLeft).isEqualTo(5 - (int) reserved).isBetween(0, 20);
+    }
+    
+    @Test
+    void releaseNeverExceedsCapacity() throws Exception {
+        assertThat(seatService.reserveSeat(lesson, date, time)).isTrue();
+        
+        List<Boolean> results = runConcurrently(50, i -> seatService.releaseSeat(lesson.getId(), date, time) != null);
+        
+        assertThat(results.stream().filter(Boolean::booleanValue).count()).isEqualTo(1);
+        assertThat(seatService.getSeatsLeft(lesson, date, time)).isEqualTo(20);
+    }
+    
+    // Helper methods
+    
+    private List<Boolean> runConcurrently(int requests, ConcurrentCalls.IndexedCall<Boolean> call) throws Exception {
+        return ConcurrentCalls.run(requests, THREADS, call);
+    }
+}
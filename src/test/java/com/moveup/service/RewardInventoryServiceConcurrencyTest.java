@@ -0,0 +1,171 @@
+package com.moveup.service;
+
+import com.moveup.model.Reward;
+import com.moveup.model.RewardStockBucket;
+import com.moveup.service.RewardInventoryService.Reservation;
+import com.moveup.support.ConcurrentCalls;
+import com.moveup.support.MongoContainerTest;
+import com.moveup.support.TestMongoConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Load test dei riscatti: prenotazioni concorrenti da due "nodi" (istanze con cache dei bucket
+ * vuoti separata) non superano la giacenza, anche con una copia di catalogo vecchia e con
+ * collapse/distribute eseguiti mentre i riscatti sono in corso. Il benchmark con 10k riscatti
+ * concorrenti riporta nel log i riscatti al secondo.
+ */
+@DataMongoTest
+@Import({RewardInventoryService.class, TestMongoConfig.class})
+class RewardInventoryServiceConcurrencyTest extends MongoContainerTest {
+    
+    private static final Logger logger = LoggerFactory.getLogger(RewardInventoryServiceConcurrencyTest.class);
+    
+    private static final int THREADS = 64;
+    private static final int BENCHMARK_THREADS = 256;
+    
+    // Esiti di una richiesta nel test di ridistribuzione
+    private static final int NOT_RESERVED = 0;
+    private static final int KEPT = 1;
+    private static final int RELEASED = 2;
+    
+    @Autowired
+    private RewardInventoryService inventoryService;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    private RewardInventoryService otherNode;
+    
+    @BeforeEach
+    void setUp() {
+        mongoTemplate.dropCollection(Reward.class);
+        mongoTemplate.dropCollection(RewardStockBucket.class);
+        
+        otherNode = new RewardInventoryService();
+        ReflectionTestUtils.setField(otherNode, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(otherNode, "emptyBucketCacheMs", 2000L);
+    }
+    
+    @Test
+    void thousandConcurrentRedemptionsSellExactlyTheStock() throws Exception {
+        Reward reward = createReward(100, 8);
+        
+        List<Boolean> results = runConcurrently(1000, i -> node(i).reserve(reward) != null);
+        
+        assertThat(results.stream().filter(Boolean::booleanValue).count()).isEqualTo(100);
+        assertThat(inventoryService.collapse(reward.getId())).isZero();
+    }
+    
+    @Test
+    void tenThousandConcurrentRedeemersBenchmark() throws Exception {
+        int stock = 2000;
+        Reward reward = createReward(stock, 16);
+        
+        long start = System.nanoTime();
+        List<Boolean> results = ConcurrentCalls.run(10_000, BENCHMARK_THREADS, i -> node(i).reserve(reward) != null);
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        
+        long redeemed = results.stream().filter(Boolean::booleanValue).count();
+        logger.info("Reward redemption benchmark: {} requests, {} redeemed in {} s ({} requests/s, {} redemptions/s)",
+            results.size(), redeemed, String.format("%.2f", seconds),
+            String.format("%.0f", results.size() / seconds), String.format("%.0f", redeemed / seconds));
+        
+        assertThat(redeemed).isEqualTo(stock);
+        assertThat(inventoryService.collapse(reward.getId())).isZero();
+    }
+    
+    @Test
+    void staleCatalogCopyIsRoutedOnTheDocument() throws Exception {
+        Reward reward = createReward(50, 4);
+        
+        // Copia del catalogo precedente alla suddivisione: contatore singolo
+        Reward stale = mongoTemplate.findById(reward.getId(), Reward.class);
+        stale.setStockBuckets(0);
+        stale.setRemainingQuantity(50);
+        
+        List<Boolean> results = runConcurrently(300, i -> node(i).reserve(stale) != null);
+        
+        assertThat(results.stream().filter(Boolean::booleanValue).count()).isEqualTo(50);
+        Reward stored = mongoTemplate.findById(reward.getId(), Reward.class);
+        assertThat(stored.getStockBuckets()).isEqualTo(4);
+        assertThat(inventoryService.collapse(reward.getId())).isZero();
+    }
+    
+    @Test
+    void restripingDuringRedemptionsKeepsEveryPiece() throws Exception {
+        Reward reward = createReward(200, 4);
+        
+        // La richiesta 0 cambia più volte la suddivisione mentre le altre riscattano;
+        // una richiesta su tre restituisce subito il pezzo (riscatto fallito a valle)
+        List<Integer> results = ConcurrentCalls.run(600, THREADS, i -> {
+            if (i == 0) {
+                for (int round = 0; round < 10; round++) {
+                    inventoryService.collapse(reward.getId());
+                    inventoryService.distribute(reward.getId(), round % 2 == 0 ? 8 : 3);
+                }
+                return NOT_RESERVED;
+            }
+            Reservation reservation = node(i).reserve(reward);
+            if (reservation == null) {
+                return NOT_RESERVED;
+            }
+            if (i % 3 == 0) {
+                node(i + 1).release(reservation);
+                return RELEASED;
+            }
+            return KEPT;
+        });
+        
+        int kept = (int) results.stream().filter(outcome -> outcome == KEPT).count();
+        int released = (int) results.stream().filter(outcome -> outcome == RELEASED).count();
+        
+        // Ogni pezzo restituito torna disponibile: la giacenza è esattamente 200 - tenuti,
+        // e si riscatta fino all'ultimo pezzo senza un pezzo in più
+        assertThat(kept).isLessThanOrEqualTo(200);
+        assertThat(released).isPositive();
+        assertThat(inventoryService.collapse(reward.getId())).isEqualTo(200 - kept);
+        
+        Reward collapsed = mongoTemplate.findById(reward.getId(), Reward.class);
+        int drained = 0;
+        while (inventoryService.reserve(collapsed) != null) {
+            drained++;
+        }
+        assertThat(drained).isEqualTo(200 - kept);
+        assertThat(mongoTemplate.findById(reward.getId(), Reward.class).getRemainingQuantity()).isZero();
+        assertThat(mongoTemplate.count(new Query(Criteria.where("rewardId").is(reward.getId())),
+            RewardStockBucket.class)).isZero();
+    }
+    
+    // Helper methods
+    
+    private Reward createReward(int quantity, int buckets) {
+        Reward reward = new Reward("Maglietta", "Maglietta MoveUp", "MERCHANDISE", 500);
+        reward.setQuantity(quantity);
+        reward.setRemainingQuantity(quantity);
+        reward = mongoTemplate.insert(reward);
+        inventoryService.distribute(reward.getId(), buckets);
+        return mongoTemplate.findById(reward.getId(), Reward.class);
+    }
+    
+    private RewardInventoryService node(int i) {
+        return i % 2 == 0 ? inventoryService : otherNode;
+    }
+    
+    private List<Boolean> runConcurrently(int requests, ConcurrentCalls.IndexedCall<Boolean> call) throws Exception {
+        return ConcurrentCalls.run(requests, THREADS, call);
+    }
+}
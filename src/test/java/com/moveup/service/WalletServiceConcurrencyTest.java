@@ -0,0 +1,138 @@
+package com.moveup.service;
+
+import com.moveup.model.Money;
+import com.moveup.model.Transaction;
+import com.moveup.model.Wallet;
+import com.moveup.model.WalletSnapshot;
+import com.moveup.support.ConcurrentCalls;
+import com.moveup.support.MongoContainerTest;
+import com.moveup.support.TestMongoConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Stress test del wallet: accrediti e addebiti concorrenti sullo stesso wallet non perdono
+ * importi, non vanno sotto zero e lasciano un ledger con una voce per sequence.
+ */
+@DataMongoTest
+@Import({WalletService.class, WalletLedgerService.class, TestMongoConfig.class})
+class WalletServiceConcurrencyTest extends MongoContainerTest {
+    
+    private static final int THREADS = 64;
+    
+    @Autowired
+    private WalletService walletService;
+    
+    @Autowired
+    private WalletLedgerService walletLedgerService;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    private String userId;
+    
+    @BeforeEach
+    void setUp() {
+        userId = "trainer-" + UUID.randomUUID();
+    }
+    
+    @Test
+    void concurrentCreditsAreAllApplied() throws Exception {
+        ConcurrentCalls.run(1000, THREADS, i -> walletService.creditWallet(userId, Money.ofCents(150),
+            "Lezione " + i, "booking-" + i, "customer-" + i, "Cliente", Money.ofCents(150), Money.zero()));
+        
+        Wallet wallet = walletService.getWalletByUserId(userId);
+        assertThat(wallet.getBalance().getCents()).isEqualTo(150_000);
+        assertThat(wallet.getTotalLessons()).isEqualTo(1000);
+        assertThat(wallet.getLedgerSequence()).isEqualTo(1000);
+        assertThat(wallet.getPendingEntries()).isEmpty();
+        
+        assertLedgerMatches(wallet, 1000);
+    }
+    
+    @Test
+    void concurrentDebitsNeverOverdraw() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            walletService.creditWallet(userId, Money.ofCents(100), "Lezione " + i, null, null, null, null, null);
+        }
+        
+        // 200 addebiti da 1€ e 50 nuovi accrediti in parallelo
+        List<Boolean> results = ConcurrentCalls.run(250, THREADS, i -> {
+            if (i < 50) {
+                walletService.creditWallet(userId, Money.ofCents(100), "Lezione extra " + i, null, null, null, null, null);
+                return true;
+            }
+            try {
+                walletService.debitWallet(userId, Money.ofCents(100), "Payout " + i, "tr_" + i);
+                return true;
+            } catch (RuntimeException e) {
+                assertThat(e).hasMessage("Saldo insufficiente");
+                return false;
+            }
+        });
+        
+        long debits = results.subList(50, results.size()).stream().filter(Boolean::booleanValue).count();
+        Wallet wallet = walletService.getWalletByUserId(userId);
+        
+        assertThat(debits).isBetween(50L, 100L);
+        assertThat(wallet.getBalance().getCents()).isEqualTo((100 - debits) * 100).isNotNegative();
+        assertThat(wallet.getTotalWithdrawn().getCents()).isEqualTo(debits * 100);
+        assertThat(walletLedgerService.getTotals(wallet.getId()).getBalance()).isEqualTo(wallet.getBalance());
+    }
+    
+    @Test
+    void pendingEntryIsSettledExactlyOnce() throws Exception {
+        Transaction entry = walletService.creditWallet(userId, Money.ofCents(2500), "Lezione", null, null, null, null, null);
+        Wallet wallet = walletService.getWalletByUserId(userId);
+        
+        // Processo caduto dopo l'update del saldo: la voce è solo nel wallet
+        mongoTemplate.remove(new Query(Criteria.where("_id").is(entry.getId())), Transaction.class);
+        entry.setId(null);
+        entry.setCreatedAt(LocalDateTime.now().minusMinutes(5));
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(wallet.getId())),
+            new Update().push("pendingEntries", entry), Wallet.class);
+        
+        ReflectionTestUtils.setField(walletService, "pendingSettleAfterMs", 60000L);
+        ConcurrentCalls.run(8, 8, i -> {
+            walletService.settlePendingEntries();
+            return null;
+        });
+        
+        wallet = walletService.getWalletByUserId(userId);
+        assertThat(wallet.getPendingEntries()).isEmpty();
+        assertThat(wallet.getBalance().getCents()).isEqualTo(2500);
+        assertLedgerMatches(wallet, 1);
+    }
+    
+    // Helper methods
+    
+    private void assertLedgerMatches(Wallet wallet, int entries) {
+        List<Transaction> ledger = mongoTemplate.find(
+            new Query(Criteria.where("walletId").is(wallet.getId())), Transaction.class);
+        Set<Long> sequences = ledger.stream().map(Transaction::getSequence).collect(Collectors.toSet());
+        
+        assertThat(ledger).hasSize(entries);
+        assertThat(sequences).isEqualTo(LongStream.rangeClosed(1, entries).boxed().collect(Collectors.toSet()));
+        
+        WalletSnapshot totals = walletLedgerService.getTotals(wallet.getId());
+        assertThat(totals.getBalance()).isEqualTo(wallet.getBalance());
+        assertThat(totals.getTotalEarnings()).isEqualTo(wallet.getTotalEarnings());
+    }
+}
@@ -0,0 +1,48 @@
+package com.moveup.support;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Esegue N chiamate su un pool di thread, partendo tutte insieme (latch), e ne raccoglie i risultati in ordine
+ */
+public final class ConcurrentCalls {
+    
+    private ConcurrentCalls() {}
+    
+    @FunctionalInterface
+    public interface IndexedCall<T> {
+        T run(int index) throws Exception;
+    }
+    
+    public static <T> List<T> run(int requests, int threads, IndexedCall<T> call) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                int index = i;
+                Callable<T> task = () -> {
+                    start.await();
+                    return call.run(index);
+                };
+                futures.add(executor.submit(task));
+            }
+            start.countDown();
+            
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                results.add(future.get(120, TimeUnit.SECONDS));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
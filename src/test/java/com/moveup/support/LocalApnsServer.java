@@ -0,0 +1,161 @@
+package com.moveup.support;
+
+import com.eatthepath.pushy.apns.server.MockApnsServer;
+import com.eatthepath.pushy.apns.server.MockApnsServerBuilder;
+import com.eatthepath.pushy.apns.server.RejectedNotificationException;
+import com.eatthepath.pushy.apns.server.RejectionReason;
+import com.eatthepath.pushy.apns.server.UnregisteredDeviceTokenException;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http2.Http2Headers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server APNs HTTP/2 locale (MockApnsServer di pushy) per i test di ApnsSender.
+ *
+ * Certificato TLS e chiave di firma sono generati all'avvio e scritti in file PEM temporanei, da
+ * passare ad ApnsSender con apple.apns.trusted-certificate-path e apple.apns.key.path come per un
+ * server vero. La risposta dipende dal prefisso del token:
+ * "unregistered" -> Unregistered, "throttled" -> TooManyRequests ai primi throttledAttempts invii
+ * dello stesso token, "overloaded" -> sempre TooManyRequests; gli altri sono accettati.
+ */
+public final class LocalApnsServer {
+    
+    public static final String HOST = "localhost";
+    public static final String KEY_ID = "MOCKKEY001";
+    public static final String TEAM_ID = "MOCKTEAM01";
+    
+    private final int throttledAttempts;
+    private final Map<String, AtomicInteger> attemptsByToken = new ConcurrentHashMap<>();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    
+    private MockApnsServer server;
+    private File certificateFile;
+    private File signingKeyFile;
+    private int port;
+    
+    private LocalApnsServer(int throttledAttempts) {
+        this.throttledAttempts = throttledAttempts;
+    }
+    
+    /**
+     * Avvia il server su una porta libera
+     */
+    public static LocalApnsServer start(int throttledAttempts) {
+        LocalApnsServer local = new LocalApnsServer(throttledAttempts);
+        try {
+            local.startServer();
+        } catch (Exception e) {
+            throw new IllegalStateException("Impossibile avviare il server APNs locale", e);
+        }
+        return local;
+    }
+    
+    public void stop() {
+        try {
+            server.shutdown().get(10, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            // Fine test: il server non serve più
+        }
+        certificateFile.delete();
+        signingKeyFile.delete();
+    }
+    
+    public int getPort() { return port; }
+    public File getCertificateFile() { return certificateFile; }
+    public File getSigningKeyFile() { return signingKeyFile; }
+    public long getAcceptedCount() { return accepted.get(); }
+    public long getRejectedCount() { return rejected.get(); }
+    
+    public int getAttempts(String token) {
+        AtomicInteger attempts = attemptsByToken.get(token);
+        return attempts != null ? attempts.get() : 0;
+    }
+    
+    // Helper methods
+    
+    private void startServer() throws Exception {
+        KeyPairGenerator rsa = KeyPairGenerator.getInstance("RSA");
+        rsa.initialize(2048);
+        KeyPair tlsKeys = rsa.generateKeyPair();
+        X509Certificate certificate = selfSignedCertificate(tlsKeys);
+        certificateFile = writePem("apns-cert", "CERTIFICATE", certificate.getEncoded());
+        
+        KeyPairGenerator ec = KeyPairGenerator.getInstance("EC");
+        ec.initialize(new ECGenParameterSpec("secp256r1"));
+        signingKeyFile = writePem("apns-key", "PRIVATE KEY", ec.generateKeyPair().getPrivate().getEncoded());
+        
+        server = new MockApnsServerBuilder()
+            .setServerCredentials(new X509Certificate[] { certificate }, tlsKeys.getPrivate(), null)
+            .setHandlerFactory(sslSession -> this::handle)
+            .build();
+        port = server.start(0).get(10, TimeUnit.SECONDS);
+    }
+    
+    private void handle(Http2Headers headers, ByteBuf payload) throws RejectedNotificationException {
+        String path = headers.path() != null ? headers.path().toString() : "";
+        String token = path.substring(path.lastIndexOf('/') + 1);
+        int attempt = attemptsByToken.computeIfAbsent(token, k -> new AtomicInteger()).incrementAndGet();
+        
+        if (token.startsWith("unregistered")) {
+            rejected.incrementAndGet();
+            throw new UnregisteredDeviceTokenException(Instant.now());
+        }
+        if (token.startsWith("overloaded") || (token.startsWith("throttled") && attempt <= throttledAttempts)) {
+            rejected.incrementAndGet();
+            throw new RejectedNotificationException(RejectionReason.TOO_MANY_REQUESTS);
+        }
+        accepted.incrementAndGet();
+    }
+    
+    private static File writePem(String prefix, String type, byte[] der) throws Exception {
+        File file = File.createTempFile(prefix, ".pem");
+        file.deleteOnExit();
+        String pem = "-----BEGIN " + type + "-----\n"
+            + Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII)).encodeToString(der)
+            + "\n-----END " + type + "-----\n";
+        Files.writeString(file.toPath(), pem, StandardCharsets.US_ASCII);
+        return file;
+    }
+    
+    private static X509Certificate selfSignedCertificate(KeyPair keys) throws Exception {
+        X500Name name = new X500Name("CN=" + HOST);
+        Instant now = Instant.now();
+        X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+            name,
+            BigInteger.valueOf(now.toEpochMilli()),
+            Date.from(now.minus(Duration.ofMinutes(1))),
+            Date.from(now.plus(Duration.ofDays(1))),
+            name,
+            keys.getPublic());
+        builder.addExtension(Extension.subjectAlternativeName, false,
+            new GeneralNames(new GeneralName(GeneralName.dNSName, HOST)));
+        return new JcaX509CertificateConverter().getCertificate(
+            builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(keys.getPrivate())));
+    }
+}
@@ -0,0 +1,23 @@
+package com.moveup.support;
+
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.MongoDBContainer;
+
+/**
+ * Base dei test di integrazione su Mongo: un solo container (replica set a un nodo, quindi anche
+ * con transazioni) condiviso da tutte le classi di test della JVM e rimosso da Ryuk a fine build.
+ */
+public abstract class MongoContainerTest {
+    
+    protected static final MongoDBContainer MONGO = new MongoDBContainer("mongo:7.0");
+    
+    static {
+        MONGO.start();
+    }
+    
+    @DynamicPropertySource
+    static void mongoProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.mongodb.uri", () -> MONGO.getReplicaSetUrl("moveup-test"));
+    }
+}
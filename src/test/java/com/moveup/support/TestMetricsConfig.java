@@ -0,0 +1,18 @@
+package com.moveup.support;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+/**
+ * MeterRegistry in memoria per i servizi che registrano metriche nei test a slice (@DataMongoTest)
+ */
+@TestConfiguration
+public class TestMetricsConfig {
+    
+    @Bean
+    public MeterRegistry meterRegistry() {
+        return new SimpleMeterRegistry();
+    }
+}
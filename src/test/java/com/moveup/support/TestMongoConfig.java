@@ -0,0 +1,18 @@
+package com.moveup.support;
+
+import com.moveup.config.MoneyConverters;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+
+/**
+ * Conversioni di Money come in MongoConfig, che i test a slice (@DataMongoTest) non caricano
+ */
+@TestConfiguration
+public class TestMongoConfig {
+    
+    @Bean
+    public MongoCustomConversions mongoCustomConversions() {
+        return new MongoCustomConversions(MoneyConverters.all());
+    }
+}